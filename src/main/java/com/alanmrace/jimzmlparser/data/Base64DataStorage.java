@@ -1,18 +1,38 @@
 package com.alanmrace.jimzmlparser.data;
 
-import org.apache.commons.codec.binary.Base64;
+import com.alanmrace.jimzmlparser.util.Base64Decoder;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Description of location of data stored in Base64 encoding. This class allows
  * decoding of data from Base64 to a byte[].
+ * 
+ * <p>Encoded data is read from the file in chunks of at most {@link #CHUNK_SIZE}
+ * bytes and decoded directly into the output, so that the encoded data is never
+ * held in memory in full.
  *
  * @author Alan Race
  */
 public class Base64DataStorage extends DataStorage {
+    
+    /**
+     * Size in bytes of each chunk of encoded data read from the file.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+    
+    /**
+     * Buffer for encoded data, one per thread.
+     */
+    private static final ThreadLocal<byte[]> CHUNK_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[CHUNK_SIZE];
+        }
+    };
 
     /**
      * Set up a file containing data in Base64 encoding. It is not necessary
@@ -27,8 +47,56 @@ public class Base64DataStorage extends DataStorage {
 
     @Override
     public byte[] getData(long offset, int length) throws IOException {
-        byte[] buffer = super.getData(offset, length);
+        byte[] buffer = new byte[Base64Decoder.getMaxDecodedLength(length)];
+        
+        int decodedLength = getData(offset, length, buffer);
+        
+        // Padding or whitespace in the encoded data results in fewer bytes than the maximum
+        if(decodedLength < buffer.length)
+            return Arrays.copyOf(buffer, decodedLength);
+
+        return buffer;
+    }
 
-        return Base64.decodeBase64(buffer);
+    /**
+     * Read and decode the Base64 encoded data into the supplied buffer, which 
+     * must have at least {@link Base64Decoder#getMaxDecodedLength(int)} bytes 
+     * available.
+     * 
+     * @param offset Offset in bytes of the encoded data within the file
+     * @param length Length of the encoded data in bytes
+     * @param buffer Buffer to write the decoded data into
+     * @return Number of decoded bytes written to the buffer
+     * @throws IOException Exception thrown when trying to read data
+     */
+    @Override
+    public int getData(long offset, int length, byte[] buffer) throws IOException {
+        if(!isOpen())
+            return super.getData(offset, length, buffer);
+        
+        Base64Decoder decoder = new Base64Decoder();
+        byte[] chunk = CHUNK_BUFFER.get();
+        int decodedLength = 0;
+        
+        for(int position = 0; position < length; position += chunk.length) {
+            int chunkLength = Math.min(chunk.length, length - position);
+            
+            readData(offset + position, chunk, 0, chunkLength);
+            
+            decodedLength += decoder.decode(chunk, 0, chunkLength, buffer, decodedLength);
+        }
+        
+        return decodedLength + decoder.finish(buffer, decodedLength);
+    }
+
+    @Override
+    protected byte[] decodeData(byte[] rawData) {
+        Base64Decoder decoder = new Base64Decoder();
+        byte[] buffer = new byte[Base64Decoder.getMaxDecodedLength(rawData.length)];
+        
+        int decodedLength = decoder.decode(rawData, 0, rawData.length, buffer, 0);
+        decodedLength += decoder.finish(buffer, decodedLength);
+        
+        return Arrays.copyOf(buffer, decodedLength);
     }
 }
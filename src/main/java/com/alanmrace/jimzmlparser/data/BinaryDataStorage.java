@@ -10,6 +10,31 @@ import java.io.FileNotFoundException;
  */
 public class BinaryDataStorage extends DataStorage {
 
+    /**
+     * Possible methods of reading binary data from disk.
+     */
+    public enum AccessMethod {
+
+        /**
+         * Seek and read using a RandomAccessFile, synchronized between all threads.
+         */
+        RANDOM_ACCESS_FILE,
+        
+        /**
+         * Map the file into memory and copy data directly from the mapping.
+         * 
+         * @see MappedBinaryDataStorage
+         */
+        MEMORY_MAPPED,
+        
+        /**
+         * Read using positional reads on the file channel, without locking.
+         * 
+         * @see PositionalBinaryDataStorage
+         */
+        POSITIONAL
+    }
+    
     /**
      * Set up a file containing binary data. 
      * 
@@ -20,4 +45,25 @@ public class BinaryDataStorage extends DataStorage {
     public BinaryDataStorage(File dataFile, boolean openForWriting) throws FileNotFoundException {
         super(dataFile, openForWriting);
     }
+    
+    /**
+     * Open a file containing binary data for reading, using the specified method
+     * of accessing the data on disk.
+     * 
+     * @param dataFile File containing binary data
+     * @param accessMethod Method to use when reading data from the file
+     * @return BinaryDataStorage for the file
+     * @throws FileNotFoundException Error occurred opening the file
+     */
+    public static BinaryDataStorage open(File dataFile, AccessMethod accessMethod) throws FileNotFoundException {
+        switch(accessMethod) {
+            case MEMORY_MAPPED:
+                return new MappedBinaryDataStorage(dataFile);
+            case POSITIONAL:
+                return new PositionalBinaryDataStorage(dataFile);
+            case RANDOM_ACCESS_FILE:
+            default:
+                return new BinaryDataStorage(dataFile, false);
+        }
+    }
 }
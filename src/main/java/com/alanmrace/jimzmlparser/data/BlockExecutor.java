@@ -0,0 +1,188 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+
+/**
+ * Parallel processing of the independent blocks of data compressed by
+ * {@link ChunkedDataTransform} and {@link XZDataTransform}, on a single executor 
+ * shared by both.
+ *
+ * <p>By default the executor is a shared pool with one thread per available 
+ * processor. The calling thread also claims blocks rather than waiting for the
+ * executor, so the transforms can safely be used from tasks running on the same
+ * executor, even when it has a bounded number of threads.
+ *
+ * @author Alan Race
+ */
+public final class BlockExecutor {
+
+    /**
+     * Executor used to process blocks in parallel, or null to process blocks
+     * sequentially on the calling thread.
+     */
+    private static volatile ExecutorService executor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "BlockExecutor-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+
+    private BlockExecutor() {
+    }
+
+    /**
+     * Set the executor used to compress and decompress blocks in parallel.
+     *
+     * @param executorService Executor to use, or null to always process blocks sequentially
+     */
+    public static void setExecutor(ExecutorService executorService) {
+        executor = executorService;
+    }
+
+    /**
+     * Get the executor used to compress and decompress blocks in parallel.
+     *
+     * @return Executor, or null if blocks are always processed sequentially
+     */
+    public static ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Processing of a single block.
+     */
+    interface BlockTask {
+
+        /**
+         * Process the block.
+         *
+         * @param block Index of the block
+         * @throws DataFormatException Issue processing the block
+         */
+        void process(int block) throws DataFormatException;
+    }
+
+    /**
+     * Claims blocks in turn and runs the task on them, until no blocks remain.
+     * A single BlockWorker is shared by all threads processing the same data.
+     */
+    private static class BlockWorker implements Callable<Object> {
+
+        /**
+         * Index of the next block to be claimed.
+         */
+        private final AtomicInteger nextBlock = new AtomicInteger();
+
+        private final int numBlocks;
+        private final BlockTask task;
+
+        BlockWorker(int numBlocks, BlockTask task) {
+            this.numBlocks = numBlocks;
+            this.task = task;
+        }
+
+        /**
+         * Process blocks until none remain.
+         *
+         * @throws DataFormatException Issue processing a block
+         */
+        void processBlocks() throws DataFormatException {
+            for(int block = nextBlock.getAndIncrement(); block < numBlocks; block = nextBlock.getAndIncrement())
+                task.process(block);
+        }
+
+        @Override
+        public Object call() throws DataFormatException {
+            processBlocks();
+
+            return null;
+        }
+    }
+
+    /**
+     * Run the task for each block, in parallel if an executor is set. Blocks
+     * are claimed in turn by the calling thread and by helper tasks submitted
+     * to the executor, and any helper which has not started by the time the
+     * calling thread runs out of blocks is cancelled.
+     *
+     * @param numBlocks Number of blocks
+     * @param task Task to run for each block
+     * @throws DataFormatException Issue processing a block
+     */
+    static void process(int numBlocks, BlockTask task) throws DataFormatException {
+        ExecutorService executorService = executor;
+
+        if(executorService == null || numBlocks < 2) {
+            for(int block = 0; block < numBlocks; block++)
+                task.process(block);
+
+            return;
+        }
+
+        int numHelpers = Math.min(numBlocks, Runtime.getRuntime().availableProcessors()) - 1;
+        List<Future<Object>> helpers = new ArrayList<Future<Object>>(numHelpers);
+        BlockWorker worker = new BlockWorker(numBlocks, task);
+
+        for(int i = 0; i < numHelpers; i++)
+            helpers.add(executorService.submit(worker));
+
+        DataFormatException failure = null;
+
+        try {
+            worker.processBlocks();
+        } catch (DataFormatException ex) {
+            failure = ex;
+
+            // Stop the helpers claiming further blocks
+            worker.nextBlock.set(numBlocks);
+        }
+
+        boolean interrupted = false;
+
+        for(Future<Object> result : helpers) {
+            result.cancel(false);
+
+            while(true) {
+                try {
+                    result.get();
+                    break;
+                } catch (CancellationException ex) {
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    if(failure == null) {
+                        if(ex.getCause() instanceof DataFormatException)
+                            failure = (DataFormatException) ex.getCause();
+                        else
+                            failure = new DataFormatException(ex.getCause().toString());
+                    }
+
+                    break;
+                }
+            }
+        }
+
+        if(interrupted)
+            Thread.currentThread().interrupt();
+
+        if(failure != null)
+            throw failure;
+    }
+}
@@ -0,0 +1,70 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+
+/**
+ * DataTransform which can read its input from and write its output to 
+ * ByteBuffers, so that data can be transformed directly from a memory mapped 
+ * file or into a reused buffer without materialising intermediate byte[].
+ * 
+ * <p>Each method consumes all remaining bytes of the source buffer, advancing
+ * its position to its limit, and writes the result into the destination buffer 
+ * starting at its position, advancing it by the number of bytes written. If 
+ * the destination has insufficient space remaining then a 
+ * {@link java.nio.BufferOverflowException} is thrown and the position of 
+ * neither buffer is modified, although data beyond the position of the 
+ * destination may have been overwritten. The sizes returned by 
+ * {@link #getMaxForwardLength(int)} and {@link #getReverseLength(ByteBuffer)}
+ * can be used to allocate a destination of sufficient size.
+ * 
+ * <p>The byte[] methods of {@link DataTransform} give the same result as the 
+ * ByteBuffer methods.
+ * 
+ * @author Alan Race
+ */
+public interface ByteBufferDataTransform extends DataTransform {
+    
+    /**
+     * Perform the data transformation from the source buffer into the destination buffer.
+     * 
+     * @param src Data to perform the transformation on
+     * @param dest Buffer to write the transformed data into
+     * @return Number of bytes written to dest
+     * @throws DataFormatException Issue with the transformation
+     * @throws java.nio.BufferOverflowException If there is insufficient space remaining in dest
+     */
+    int forwardTransform(ByteBuffer src, ByteBuffer dest) throws DataFormatException;
+    
+    /**
+     * Perform the data transformation in reverse from the source buffer into the 
+     * destination buffer.
+     * 
+     * @param src Data to reverse the transformation on
+     * @param dest Buffer to write the transformed data into
+     * @return Number of bytes written to dest
+     * @throws DataFormatException Issue with the transformation
+     * @throws java.nio.BufferOverflowException If there is insufficient space remaining in dest
+     */
+    int reverseTransform(ByteBuffer src, ByteBuffer dest) throws DataFormatException;
+    
+    /**
+     * Get the largest number of bytes that {@link #forwardTransform(ByteBuffer, ByteBuffer)}
+     * can write for the specified length of input.
+     * 
+     * @param length Length of the input in bytes
+     * @return Largest possible length of the output in bytes
+     */
+    int getMaxForwardLength(int length);
+    
+    /**
+     * Get the number of bytes that {@link #reverseTransform(ByteBuffer, ByteBuffer)}
+     * will write for the remaining data in the source buffer, if this is known 
+     * either from the parameters of the transform or from the data itself. The 
+     * position of the buffer is not modified.
+     * 
+     * @param src Data to reverse the transformation on
+     * @return Length of the output in bytes, or -1 if not known
+     */
+    int getReverseLength(ByteBuffer src);
+}
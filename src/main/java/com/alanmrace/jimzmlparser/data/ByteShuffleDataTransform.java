@@ -0,0 +1,100 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * DataTransform which rearranges the bytes of fixed size elements (forward) so
+ * that the first byte of every element is stored first, followed by the second
+ * byte of every element and so on, and restores the original order (reverse).
+ *
+ * <p>This filter is applied before compression. Neighbouring values in m/z and
+ * intensity arrays usually share their sign, exponent and most significant
+ * mantissa bytes, so grouping bytes of the same significance produces long runs
+ * which compress better and decompress faster with generic compressors such as
+ * LZ4 and ZStandard than the interleaved layout.
+ *
+ * <p>Any bytes remaining after the last whole element are left in place.
+ *
+ * @author Alan Race
+ */
+public class ByteShuffleDataTransform implements DataTransform {
+
+    /**
+     * Size in bytes of each element.
+     */
+    private final int elementSize;
+
+    /**
+     * Set up a byte shuffle for elements of the specified size.
+     *
+     * @param elementSize Size in bytes of each element, for example 8 for double
+     */
+    public ByteShuffleDataTransform(int elementSize) {
+        if(elementSize < 1)
+            throw new IllegalArgumentException("Element size must be at least 1 byte: " + elementSize);
+
+        this.elementSize = elementSize;
+    }
+
+    /**
+     * Get the size in bytes of each element.
+     *
+     * @return Element size in bytes
+     */
+    public int getElementSize() {
+        return elementSize;
+    }
+
+    @Override
+    public byte[] forwardTransform(byte[] data) throws DataFormatException {
+        if(elementSize == 1)
+            return data;
+
+        byte[] shuffled = new byte[data.length];
+        int numElements = data.length / elementSize;
+
+        for(int b = 0; b < elementSize; b++) {
+            int outIndex = b * numElements;
+
+            for(int i = 0, inIndex = b; i < numElements; i++, inIndex += elementSize)
+                shuffled[outIndex + i] = data[inIndex];
+        }
+
+        copyRemainder(data, shuffled, numElements);
+
+        return shuffled;
+    }
+
+    @Override
+    public byte[] reverseTransform(byte[] data) throws DataFormatException {
+        if(elementSize == 1)
+            return data;
+
+        byte[] unshuffled = new byte[data.length];
+        int numElements = data.length / elementSize;
+
+        for(int b = 0; b < elementSize; b++) {
+            int inIndex = b * numElements;
+
+            for(int i = 0, outIndex = b; i < numElements; i++, outIndex += elementSize)
+                unshuffled[outIndex] = data[inIndex + i];
+        }
+
+        copyRemainder(data, unshuffled, numElements);
+
+        return unshuffled;
+    }
+
+    /**
+     * Copy any bytes after the last whole element, which are not shuffled.
+     *
+     * @param src Source data
+     * @param dest Destination data
+     * @param numElements Number of whole elements
+     */
+    private void copyRemainder(byte[] src, byte[] dest, int numElements) {
+        int remainderStart = numElements * elementSize;
+
+        System.arraycopy(src, remainderStart, dest, remainderStart, src.length - remainderStart);
+    }
+}
@@ -0,0 +1,418 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+
+/**
+ * DataTransform which splits data into independent blocks, each compressed
+ * (forward) and decompressed (reverse) separately with ZLib or ZStandard, so
+ * that large arrays can be processed on several threads and parts of an array
+ * can be decompressed without decompressing the rest.
+ *
+ * <p>The compressed data starts with a block table, in little-endian order:
+ * the number of blocks as a 32-bit integer, followed by the uncompressed and
+ * compressed length in bytes of each block as 32-bit integers. The compressed
+ * blocks follow in order. See {@link BlockTable}.
+ * 
+ * <p>Because of the block table the data is not readable by other software as 
+ * plain ZLib or ZStandard data, and so is not described by their ontology terms,
+ * see {@link com.alanmrace.jimzmlparser.mzml.BinaryDataArray.CompressionType#isChunked()}.
+ *
+ * <p>Blocks are processed in parallel by {@link BlockExecutor}, with the calling
+ * thread also processing blocks, so the transform can safely be used from tasks
+ * running on the same executor.
+ *
+ * @author Alan Race
+ */
+public class ChunkedDataTransform implements DataTransform {
+
+    /**
+     * Default size in bytes of uncompressed data in each block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * Compression applied to each block.
+     */
+    public enum Codec {
+
+        /**
+         * ZLib compression.
+         */
+        ZLIB,
+
+        /**
+         * ZStandard compression.
+         */
+        ZSTD;
+    }
+
+    /**
+     * Compression applied to each block.
+     */
+    private final Codec codec;
+
+    /**
+     * Size in bytes of uncompressed data in each block when compressing.
+     */
+    private final int blockSize;
+
+    /**
+     * Set up a chunked transform with blocks of {@link #DEFAULT_BLOCK_SIZE}.
+     *
+     * @param codec Compression applied to each block
+     */
+    public ChunkedDataTransform(Codec codec) {
+        this(codec, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Set up a chunked transform. Smaller blocks allow more parallelism and
+     * finer grained partial decompression but reduce the compression ratio.
+     *
+     * @param codec Compression applied to each block
+     * @param blockSize Size in bytes of uncompressed data in each block
+     */
+    public ChunkedDataTransform(Codec codec, int blockSize) {
+        if(blockSize < 1)
+            throw new IllegalArgumentException("Block size must be at least 1 byte: " + blockSize);
+
+        this.codec = codec;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Get the compression applied to each block.
+     *
+     * @return Codec
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Get the size in bytes of uncompressed data in each block when compressing.
+     *
+     * @return Block size in bytes
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Create the transform used to compress or decompress a single block.
+     *
+     * @param uncompressedLength Length in bytes of the uncompressed block
+     * @return ByteBufferDataTransform for the block
+     */
+    private ByteBufferDataTransform createBlockTransform(int uncompressedLength) {
+        if(codec == Codec.ZSTD)
+            return new ZstdDataTransform(uncompressedLength);
+
+        return new ZlibDataTransform(uncompressedLength);
+    }
+
+    @Override
+    public byte[] forwardTransform(final byte[] data) throws DataFormatException {
+        int numBlocks = (int) ((data.length + (long) blockSize - 1) / blockSize);
+        final byte[][] compressedBlocks = new byte[numBlocks][];
+
+        BlockExecutor.process(numBlocks, new BlockExecutor.BlockTask() {
+            @Override
+            public void process(int block) throws DataFormatException {
+                int offset = block * blockSize;
+                int length = Math.min(blockSize, data.length - offset);
+
+                ByteBufferDataTransform transform = createBlockTransform(length);
+                ByteBuffer dest = ByteBuffer.allocate(transform.getMaxForwardLength(length));
+
+                transform.forwardTransform(ByteBuffer.wrap(data, offset, length), dest);
+
+                byte[] compressed = new byte[dest.position()];
+                System.arraycopy(dest.array(), 0, compressed, 0, compressed.length);
+
+                compressedBlocks[block] = compressed;
+            }
+        });
+
+        int totalLength = BlockTable.getTableLength(numBlocks);
+
+        for(byte[] compressedBlock : compressedBlocks)
+            totalLength += compressedBlock.length;
+
+        ByteBuffer output = ByteBuffer.allocate(totalLength).order(ByteOrder.LITTLE_ENDIAN);
+        output.putInt(numBlocks);
+
+        for(int block = 0; block < numBlocks; block++) {
+            output.putInt(Math.min(blockSize, data.length - block * blockSize));
+            output.putInt(compressedBlocks[block].length);
+        }
+
+        for(byte[] compressedBlock : compressedBlocks)
+            output.put(compressedBlock);
+
+        return output.array();
+    }
+
+    @Override
+    public byte[] reverseTransform(byte[] data) throws DataFormatException {
+        BlockTable blockTable = BlockTable.read(data);
+
+        if(blockTable.getUncompressedLength() > Integer.MAX_VALUE)
+            throw new DataFormatException("Decompressed chunked data is too large (" + blockTable.getUncompressedLength() + " bytes)");
+
+        return reverseTransform(data, blockTable, 0, (int) blockTable.getUncompressedLength());
+    }
+
+    /**
+     * Decompress only the specified range of the uncompressed data. Only the
+     * blocks which overlap the range are decompressed.
+     *
+     * @param data Compressed data, including the block table
+     * @param offset Offset in bytes of the range within the uncompressed data
+     * @param length Length in bytes of the range
+     * @return Uncompressed data within the range
+     * @throws DataFormatException Invalid block table or compressed data, or the range is outside the data
+     */
+    public byte[] reverseTransform(byte[] data, int offset, int length) throws DataFormatException {
+        return reverseTransform(data, BlockTable.read(data), offset, length);
+    }
+
+    private byte[] reverseTransform(final byte[] data, final BlockTable blockTable, final int offset, int length) throws DataFormatException {
+        if(offset < 0 || length < 0 || offset + (long) length > blockTable.getUncompressedLength())
+            throw new DataFormatException("Range " + offset + " + " + length + " is outside the " + blockTable.getUncompressedLength() + " bytes of data");
+
+        final byte[] output = new byte[length];
+
+        if(length == 0)
+            return output;
+
+        final int firstBlock = blockTable.getBlockContaining(offset);
+        int lastBlock = blockTable.getBlockContaining(offset + length - 1);
+
+        BlockExecutor.process(lastBlock - firstBlock + 1, new BlockExecutor.BlockTask() {
+            @Override
+            public void process(int index) throws DataFormatException {
+                int block = firstBlock + index;
+                int uncompressedLength = blockTable.getUncompressedLength(block);
+                long blockStart = blockTable.getUncompressedOffset(block);
+
+                ByteBuffer src = ByteBuffer.wrap(data, (int) blockTable.getCompressedOffset(block), blockTable.getCompressedLength(block));
+                ByteBuffer dest;
+
+                // Decompress directly into the output when the block is entirely within the range
+                boolean withinRange = blockStart >= offset && blockStart + uncompressedLength <= offset + output.length;
+
+                if(withinRange)
+                    dest = ByteBuffer.wrap(output, (int) (blockStart - offset), uncompressedLength);
+                else
+                    dest = ByteBuffer.allocate(uncompressedLength);
+
+                int decompressed;
+
+                try {
+                    decompressed = createBlockTransform(uncompressedLength).reverseTransform(src, dest);
+                } catch (BufferOverflowException ex) {
+                    throw new DataFormatException("Block " + block + " decompresses to more than " + uncompressedLength + " bytes");
+                }
+
+                if(decompressed != uncompressedLength)
+                    throw new DataFormatException("Block " + block + " decompressed to " + decompressed + " bytes, expected " + uncompressedLength);
+
+                if(!withinRange) {
+                    long start = Math.max(blockStart, offset);
+                    long end = Math.min(blockStart + uncompressedLength, offset + (long) output.length);
+
+                    System.arraycopy(dest.array(), (int) (start - blockStart), output, (int) (start - offset), (int) (end - start));
+                }
+            }
+        });
+
+        return output;
+    }
+
+    /**
+     * Table describing the location of each block within chunked compressed
+     * data and of its uncompressed data.
+     */
+    public static class BlockTable implements Serializable {
+
+        /**
+         * Serialisation version ID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Uncompressed length in bytes of each block.
+         */
+        private final int[] uncompressedLengths;
+
+        /**
+         * Compressed length in bytes of each block.
+         */
+        private final int[] compressedLengths;
+
+        /**
+         * Offset of each block within the uncompressed data, with the total
+         * length as the final entry.
+         */
+        private final long[] uncompressedOffsets;
+
+        /**
+         * Offset of each block within the compressed data, with the end of the
+         * final block as the final entry.
+         */
+        private final long[] compressedOffsets;
+
+        private BlockTable(int[] uncompressedLengths, int[] compressedLengths) {
+            this.uncompressedLengths = uncompressedLengths;
+            this.compressedLengths = compressedLengths;
+
+            int numBlocks = uncompressedLengths.length;
+
+            uncompressedOffsets = new long[numBlocks + 1];
+            compressedOffsets = new long[numBlocks + 1];
+            compressedOffsets[0] = getTableLength(numBlocks);
+
+            for(int block = 0; block < numBlocks; block++) {
+                uncompressedOffsets[block + 1] = uncompressedOffsets[block] + uncompressedLengths[block];
+                compressedOffsets[block + 1] = compressedOffsets[block] + compressedLengths[block];
+            }
+        }
+
+        /**
+         * Get the length in bytes of a block table describing the specified
+         * number of blocks.
+         *
+         * @param numBlocks Number of blocks
+         * @return Length in bytes
+         */
+        public static int getTableLength(int numBlocks) {
+            return 4 + numBlocks * 8;
+        }
+
+        /**
+         * Read the block table from the start of chunked compressed data.
+         *
+         * @param data Chunked compressed data
+         * @return Block table
+         * @throws DataFormatException The block table is invalid or does not match the length of the data
+         */
+        public static BlockTable read(byte[] data) throws DataFormatException {
+            if(data.length < 4)
+                throw new DataFormatException("Chunked data is too short to contain a block table");
+
+            ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            int numBlocks = buffer.getInt();
+
+            if(numBlocks < 0 || getTableLength(numBlocks) > data.length || numBlocks > (data.length - 4) / 8)
+                throw new DataFormatException("Invalid number of blocks in chunked data: " + numBlocks);
+
+            int[] uncompressedLengths = new int[numBlocks];
+            int[] compressedLengths = new int[numBlocks];
+
+            for(int block = 0; block < numBlocks; block++) {
+                uncompressedLengths[block] = buffer.getInt();
+                compressedLengths[block] = buffer.getInt();
+
+                if(uncompressedLengths[block] < 0 || compressedLengths[block] < 0)
+                    throw new DataFormatException("Invalid length of block " + block + " in chunked data");
+            }
+
+            BlockTable blockTable = new BlockTable(uncompressedLengths, compressedLengths);
+
+            if(blockTable.compressedOffsets[numBlocks] != data.length)
+                throw new DataFormatException("Chunked data is " + data.length + " bytes, block table describes "
+                        + blockTable.compressedOffsets[numBlocks]);
+
+            return blockTable;
+        }
+
+        /**
+         * Get the number of blocks.
+         *
+         * @return Number of blocks
+         */
+        public int getNumberOfBlocks() {
+            return uncompressedLengths.length;
+        }
+
+        /**
+         * Get the total length in bytes of the uncompressed data.
+         *
+         * @return Uncompressed length in bytes
+         */
+        public long getUncompressedLength() {
+            return uncompressedOffsets[uncompressedLengths.length];
+        }
+
+        /**
+         * Get the uncompressed length in bytes of the block.
+         *
+         * @param block Index of the block
+         * @return Uncompressed length in bytes
+         */
+        public int getUncompressedLength(int block) {
+            return uncompressedLengths[block];
+        }
+
+        /**
+         * Get the compressed length in bytes of the block.
+         *
+         * @param block Index of the block
+         * @return Compressed length in bytes
+         */
+        public int getCompressedLength(int block) {
+            return compressedLengths[block];
+        }
+
+        /**
+         * Get the offset in bytes of the block's data within the uncompressed data.
+         *
+         * @param block Index of the block
+         * @return Offset in bytes
+         */
+        public long getUncompressedOffset(int block) {
+            return uncompressedOffsets[block];
+        }
+
+        /**
+         * Get the offset in bytes of the compressed block within the chunked
+         * compressed data, including the block table.
+         *
+         * @param block Index of the block
+         * @return Offset in bytes
+         */
+        public long getCompressedOffset(int block) {
+            return compressedOffsets[block];
+        }
+
+        /**
+         * Get the index of the block containing the specified byte of the
+         * uncompressed data.
+         *
+         * @param uncompressedOffset Offset in bytes within the uncompressed data
+         * @return Index of the block, or -1 if the offset is outside the data
+         */
+        public int getBlockContaining(long uncompressedOffset) {
+            int low = 0;
+            int high = uncompressedLengths.length - 1;
+
+            while(low <= high) {
+                int mid = (low + high) >>> 1;
+
+                if(uncompressedOffset < uncompressedOffsets[mid])
+                    high = mid - 1;
+                else if(uncompressedOffset >= uncompressedOffsets[mid + 1])
+                    low = mid + 1;
+                else
+                    return mid;
+            }
+
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,551 @@
+package com.alanmrace.jimzmlparser.data;
+
+import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
+import com.alanmrace.jimzmlparser.exceptions.FatalParseException;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray.CompressionType;
+import com.alanmrace.jimzmlparser.mzml.MzML;
+import com.alanmrace.jimzmlparser.mzml.SpectrumList;
+import com.alanmrace.jimzmlparser.parser.ImzMLHandler;
+import com.alanmrace.jimzmlparser.parser.MzMLHeaderHandler;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/**
+ * Benchmark every {@link CompressionType} on a sample of the spectra of an
+ * (i)mzML file and recommend one for each type of array, according to an
+ * {@link Objective}.
+ *
+ * <p>Each array is benchmarked in the data type it is currently stored in,
+ * except for MS-Numpress which always encodes double precision data. Lossy
+ * compression (MS-Numpress) is only recommended if its largest relative error
+ * is within the tolerance set by {@link #setMaxRelativeError(double)}.
+ *
+ * <p>Usage from the command line:
+ * {@code CompressionAdvisor <file.imzML|file.mzML> [objective] [numberOfSpectra] [maxRelativeError]}
+ *
+ * @author Alan Race
+ */
+public class CompressionAdvisor {
+
+    private static final Logger LOGGER = Logger.getLogger(CompressionAdvisor.class.getName());
+
+    /**
+     * Default number of spectra to sample.
+     */
+    public static final int DEFAULT_NUMBER_OF_SPECTRA = 100;
+
+    /**
+     * Default number of times each benchmark is repeated, of which the fastest is kept.
+     */
+    public static final int DEFAULT_REPEATS = 3;
+
+    /**
+     * Criterion used to recommend a compression.
+     */
+    public enum Objective {
+
+        /**
+         * Smallest compressed size.
+         */
+        SMALLEST_SIZE,
+
+        /**
+         * Fastest compression.
+         */
+        FASTEST_ENCODE,
+
+        /**
+         * Fastest decompression.
+         */
+        FASTEST_DECODE,
+
+        /**
+         * Largest product of compression ratio and decompression speed, which
+         * favours compressions that are both small and quick to read.
+         */
+        BALANCED;
+    }
+
+    /**
+     * Type of binary data array, benchmarked separately.
+     */
+    public enum ArrayType {
+
+        /**
+         * m/z array.
+         */
+        MZ,
+
+        /**
+         * Intensity array.
+         */
+        INTENSITY,
+
+        /**
+         * Any other array.
+         */
+        OTHER;
+
+        /**
+         * Get the ArrayType of a BinaryDataArray.
+         *
+         * @param binaryDataArray BinaryDataArray
+         * @return ArrayType
+         */
+        public static ArrayType of(BinaryDataArray binaryDataArray) {
+            if(binaryDataArray.ismzArray())
+                return MZ;
+            else if(binaryDataArray.isIntensityArray())
+                return INTENSITY;
+
+            return OTHER;
+        }
+    }
+
+    /**
+     * Benchmark of one CompressionType on all sampled arrays of one ArrayType.
+     */
+    public static class Result {
+
+        private final ArrayType arrayType;
+        private final CompressionType compressionType;
+        private final int numberOfArrays;
+        private final long uncompressedBytes;
+        private final long compressedBytes;
+        private final long encodeNanos;
+        private final long decodeNanos;
+        private final double maxRelativeError;
+
+        Result(ArrayType arrayType, CompressionType compressionType, int numberOfArrays, long uncompressedBytes,
+                long compressedBytes, long encodeNanos, long decodeNanos, double maxRelativeError) {
+            this.arrayType = arrayType;
+            this.compressionType = compressionType;
+            this.numberOfArrays = numberOfArrays;
+            this.uncompressedBytes = uncompressedBytes;
+            this.compressedBytes = compressedBytes;
+            this.encodeNanos = encodeNanos;
+            this.decodeNanos = decodeNanos;
+            this.maxRelativeError = maxRelativeError;
+        }
+
+        public ArrayType getArrayType() {
+            return arrayType;
+        }
+
+        public CompressionType getCompressionType() {
+            return compressionType;
+        }
+
+        public int getNumberOfArrays() {
+            return numberOfArrays;
+        }
+
+        /**
+         * Get the total size of the sampled arrays in the data type they are stored in.
+         *
+         * @return Size in bytes
+         */
+        public long getUncompressedBytes() {
+            return uncompressedBytes;
+        }
+
+        /**
+         * Get the total compressed size of the sampled arrays.
+         *
+         * @return Size in bytes
+         */
+        public long getCompressedBytes() {
+            return compressedBytes;
+        }
+
+        public double getCompressionRatio() {
+            return (double) uncompressedBytes / Math.max(1, compressedBytes);
+        }
+
+        /**
+         * Get the compression speed, relative to the uncompressed size.
+         *
+         * @return Speed in MB/s
+         */
+        public double getEncodeMBps() {
+            return toMBps(uncompressedBytes, encodeNanos);
+        }
+
+        /**
+         * Get the decompression speed, relative to the uncompressed size.
+         *
+         * @return Speed in MB/s
+         */
+        public double getDecodeMBps() {
+            return toMBps(uncompressedBytes, decodeNanos);
+        }
+
+        /**
+         * Get the largest error of any decompressed value, relative to the
+         * value stored without compression.
+         *
+         * @return Largest relative error, 0 if the compression is lossless
+         */
+        public double getMaxRelativeError() {
+            return maxRelativeError;
+        }
+
+        private static double toMBps(long bytes, long nanos) {
+            return (bytes / (1024.0 * 1024.0)) / (Math.max(1, nanos) / 1e9);
+        }
+
+        /**
+         * Get the score of the result for the objective, where higher is better.
+         *
+         * @param objective Objective
+         * @return Score
+         */
+        double getScore(Objective objective) {
+            switch(objective) {
+                case FASTEST_ENCODE:
+                    return getEncodeMBps();
+                case FASTEST_DECODE:
+                    return getDecodeMBps();
+                case BALANCED:
+                    return getCompressionRatio() * getDecodeMBps();
+                case SMALLEST_SIZE:
+                default:
+                    return -compressedBytes;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s\t%s\t%d\t%.3f\t%.1f\t%.1f\t%.2g", arrayType, compressionType, compressedBytes,
+                    getCompressionRatio(), getEncodeMBps(), getDecodeMBps(), maxRelativeError);
+        }
+    }
+
+    /**
+     * Array sampled from the data.
+     */
+    private static class Sample {
+        private final ArrayType arrayType;
+        private final DataType dataType;
+        private final double[] data;
+
+        Sample(ArrayType arrayType, DataType dataType, double[] data) {
+            this.arrayType = arrayType;
+            this.dataType = dataType;
+            this.data = data;
+        }
+    }
+
+    private int numberOfSpectra = DEFAULT_NUMBER_OF_SPECTRA;
+    private int repeats = DEFAULT_REPEATS;
+    private double maxRelativeError;
+
+    /**
+     * Set the number of spectra sampled, evenly spaced through the spectrum list.
+     *
+     * @param numberOfSpectra Number of spectra
+     */
+    public void setNumberOfSpectra(int numberOfSpectra) {
+        this.numberOfSpectra = Math.max(1, numberOfSpectra);
+    }
+
+    /**
+     * Set the number of times each benchmark is repeated, of which the fastest is kept.
+     *
+     * @param repeats Number of repeats
+     */
+    public void setRepeats(int repeats) {
+        this.repeats = Math.max(1, repeats);
+    }
+
+    /**
+     * Set the largest relative error allowed for a compression to be recommended.
+     * The default of 0 only allows lossless compression.
+     *
+     * @param maxRelativeError Largest relative error allowed
+     */
+    public void setMaxRelativeError(double maxRelativeError) {
+        this.maxRelativeError = maxRelativeError;
+    }
+
+    /**
+     * Benchmark every CompressionType on a sample of the spectra.
+     *
+     * @param mzML MzML or ImzML to sample
+     * @return Result for each ArrayType present in the sample and each CompressionType which could be applied
+     * @throws IOException Issue reading the sampled data
+     */
+    public List<Result> benchmark(MzML mzML) throws IOException {
+        List<Sample> samples = sample(mzML.getRun().getSpectrumList());
+        List<Result> results = new ArrayList<Result>();
+
+        for(ArrayType arrayType : ArrayType.values()) {
+            List<Sample> arrays = new ArrayList<Sample>();
+
+            for(Sample sample : samples) {
+                if(sample.arrayType == arrayType)
+                    arrays.add(sample);
+            }
+
+            results.addAll(benchmark(arrayType, arrays));
+        }
+
+        return results;
+    }
+
+    /**
+     * Benchmark every CompressionType on the supplied arrays.
+     *
+     * @param arrayType Type of the arrays
+     * @param dataType Data type the arrays are stored in
+     * @param arrays Arrays to benchmark
+     * @return Result for each CompressionType which could be applied
+     */
+    public List<Result> benchmark(ArrayType arrayType, DataType dataType, List<double[]> arrays) {
+        List<Sample> samples = new ArrayList<Sample>(arrays.size());
+
+        for(double[] data : arrays)
+            samples.add(new Sample(arrayType, dataType, data));
+
+        return benchmark(arrayType, samples);
+    }
+
+    private List<Result> benchmark(ArrayType arrayType, List<Sample> arrays) {
+        List<Result> results = new ArrayList<Result>();
+
+        if(arrays.isEmpty())
+            return results;
+
+        for(CompressionType compressionType : CompressionType.values()) {
+            try {
+                results.add(benchmark(arrayType, compressionType, arrays));
+            } catch (DataFormatException ex) {
+                LOGGER.log(Level.FINE, "Unable to apply " + compressionType + " to " + arrayType, ex);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.FINE, "Unable to apply " + compressionType + " to " + arrayType, ex);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Read the arrays of evenly spaced spectra.
+     *
+     * @param spectrumList Spectra to sample
+     * @return Sampled arrays
+     * @throws IOException Issue reading the data
+     */
+    private List<Sample> sample(SpectrumList spectrumList) throws IOException {
+        List<Sample> samples = new ArrayList<Sample>();
+
+        if(spectrumList == null || spectrumList.size() == 0)
+            return samples;
+
+        int step = Math.max(1, spectrumList.size() / numberOfSpectra);
+
+        for(int i = 0; i < spectrumList.size() && i / step < numberOfSpectra; i += step) {
+            for(BinaryDataArray binaryDataArray : spectrumList.getSpectrum(i).getBinaryDataArrayList()) {
+                double[] data = binaryDataArray.getDataAsDouble();
+
+                if(data == null || data.length == 0)
+                    continue;
+
+                DataType dataType = binaryDataArray.getDataType();
+
+                samples.add(new Sample(ArrayType.of(binaryDataArray), (dataType == null) ? DataType.DOUBLE : dataType, data));
+            }
+        }
+
+        return samples;
+    }
+
+    /**
+     * Benchmark the CompressionType on the arrays.
+     *
+     * @param arrayType Type of the arrays
+     * @param compressionType Compression to benchmark
+     * @param arrays Arrays to compress
+     * @return Result
+     * @throws DataFormatException The compression cannot be applied to the arrays
+     */
+    private Result benchmark(ArrayType arrayType, CompressionType compressionType, List<Sample> arrays) throws DataFormatException {
+        DataTransformation[] transformations = new DataTransformation[arrays.size()];
+        int[] decompressedSizes = new int[arrays.size()];
+        double[][] references = new double[arrays.size()][];
+        byte[][] compressed = new byte[arrays.size()][];
+        long uncompressedBytes = 0;
+        long compressedBytes = 0;
+        double largestError = 0;
+
+        // Set up and check the transformations, which also warms up the code
+        for(int i = 0; i < arrays.size(); i++) {
+            Sample sample = arrays.get(i);
+            DataType dataType = DataTransformation.usesNumpress(compressionType) ? DataType.DOUBLE : sample.dataType;
+
+            byte[] stored = DataTypeTransform.convertData(DataTypeTransform.convertDoublesToBytes(sample.data), DataType.DOUBLE, sample.dataType);
+            references[i] = DataTypeTransform.convertDataToDouble(stored, sample.dataType);
+            uncompressedBytes += stored.length;
+
+            // Shared between all arrays of the data type, with the size of each array supplied when decompressing
+            transformations[i] = DataTransformation.create(dataType, compressionType);
+            compressed[i] = transformations[i].performForwardTransform(sample.data);
+            compressedBytes += compressed[i].length;
+            decompressedSizes[i] = getDecompressedSize(transformations[i]);
+
+            largestError = Math.max(largestError, getMaxRelativeError(references[i], transformations[i].performReverseTransform(compressed[i], decompressedSizes[i])));
+        }
+
+        long encodeNanos = Long.MAX_VALUE;
+        long decodeNanos = Long.MAX_VALUE;
+
+        for(int repeat = 0; repeat < repeats; repeat++) {
+            long start = System.nanoTime();
+
+            for(int i = 0; i < arrays.size(); i++)
+                transformations[i].performForwardTransform(arrays.get(i).data);
+
+            encodeNanos = Math.min(encodeNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+
+            for(int i = 0; i < arrays.size(); i++)
+                transformations[i].performReverseTransform(compressed[i], decompressedSizes[i]);
+
+            decodeNanos = Math.min(decodeNanos, System.nanoTime() - start);
+        }
+
+        return new Result(arrayType, compressionType, arrays.size(), uncompressedBytes, compressedBytes, encodeNanos, decodeNanos, largestError);
+    }
+
+    /**
+     * Get the size of the data before the final compression step of the most
+     * recent forward transform on this thread, as {@link BinaryDataArray#getDecompressedSize()}
+     * determines it when reading.
+     */
+    private static int getDecompressedSize(DataTransformation transformation) {
+        int[] dataSizeAtEachStage = transformation.isEmpty() ? null : transformation.getDataSizeAtEachStage();
+
+        if(dataSizeAtEachStage == null || dataSizeAtEachStage.length < 2)
+            return 0;
+
+        return dataSizeAtEachStage[dataSizeAtEachStage.length - 2];
+    }
+
+    /**
+     * Get the largest error of any value, relative to the reference value.
+     */
+    private static double getMaxRelativeError(double[] reference, double[] data) {
+        if(reference.length != data.length)
+            return Double.POSITIVE_INFINITY;
+
+        double largestError = 0;
+
+        for(int i = 0; i < reference.length; i++) {
+            if(Double.compare(reference[i], data[i]) == 0)
+                continue;
+
+            double error = Math.abs(reference[i] - data[i]);
+
+            if(Double.isNaN(error))
+                return Double.POSITIVE_INFINITY;
+
+            largestError = Math.max(largestError, error / Math.max(Math.abs(reference[i]), Double.MIN_NORMAL));
+        }
+
+        return largestError;
+    }
+
+    /**
+     * Recommend the best CompressionType for the ArrayType according to the
+     * objective, out of those within the allowed relative error.
+     *
+     * @param results Benchmark results
+     * @param arrayType Type of array
+     * @param objective Objective
+     * @return Best result, or null if there are no results for the ArrayType
+     */
+    public Result recommend(List<Result> results, ArrayType arrayType, Objective objective) {
+        Result best = null;
+
+        for(Result result : results) {
+            if(result.getArrayType() != arrayType || result.getMaxRelativeError() > maxRelativeError)
+                continue;
+
+            if(best == null || result.getScore(objective) > best.getScore(objective))
+                best = result;
+        }
+
+        return best;
+    }
+
+    /**
+     * Print the results as a tab separated table, followed by the recommended
+     * CompressionType for each ArrayType.
+     *
+     * @param results Benchmark results
+     * @param objective Objective
+     * @param out Stream to print to
+     */
+    public void printReport(List<Result> results, Objective objective, PrintStream out) {
+        out.println("arrayType\tcompression\tcompressedBytes\tratio\tencodeMBps\tdecodeMBps\tmaxRelativeError");
+
+        for(Result result : results)
+            out.println(result);
+
+        out.println();
+
+        for(ArrayType arrayType : ArrayType.values()) {
+            Result best = recommend(results, arrayType, objective);
+
+            if(best != null)
+                out.println("Recommended for " + arrayType + " (" + objective + "): " + best.getCompressionType());
+        }
+    }
+
+    /**
+     * Run the advisor on an imzML or mzML file and print the report.
+     *
+     * @param args Filename, then optionally objective, number of spectra to sample and largest relative error allowed
+     * @throws IOException Issue reading the data
+     * @throws FatalParseException Issue parsing the file
+     */
+    public static void main(String[] args) throws IOException, FatalParseException {
+        if(args.length < 1) {
+            System.err.println("Usage: CompressionAdvisor <file.imzML|file.mzML> [objective] [numberOfSpectra] [maxRelativeError]");
+            System.err.println("Objectives: " + Arrays.toString(Objective.values()));
+
+            return;
+        }
+
+        Objective objective = (args.length > 1) ? Objective.valueOf(args[1].toUpperCase()) : Objective.BALANCED;
+
+        CompressionAdvisor advisor = new CompressionAdvisor();
+
+        if(args.length > 2)
+            advisor.setNumberOfSpectra(Integer.parseInt(args[2]));
+        if(args.length > 3)
+            advisor.setMaxRelativeError(Double.parseDouble(args[3]));
+
+        MzML mzML;
+
+        if(args[0].toLowerCase().endsWith(".imzml"))
+            mzML = ImzMLHandler.parseimzML(args[0]);
+        else
+            mzML = MzMLHeaderHandler.parsemzMLHeader(args[0], true);
+
+        try {
+            List<Result> results = advisor.benchmark(mzML);
+
+            advisor.printReport(results, objective, System.out);
+        } finally {
+            mzML.close();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded cache of decoded data, keyed on the {@link DataLocation} from which
+ * the data was decoded. When the total size of the cached data exceeds the 
+ * maximum size, the least recently used entries are evicted. 
+ * 
+ * <p>A cache is attached to a {@link DataStorage} using {@link DataStorage#setDataCache(DataCache)},
+ * after which {@link DataLocation#getData()} will serve repeated requests for the
+ * same data from memory. A single cache can be shared between multiple DataStorage
+ * instances so that they are limited by the same memory budget.
+ * 
+ * <p>Arrays returned from {@link #get(DataLocation)} are shared between all callers
+ * and so must not be modified. {@link DataLocation#getData()} returns a copy.
+ * 
+ * @author Alan Race
+ */
+public class DataCache {
+    
+    /**
+     * Default maximum size of the cache in bytes (256 MB).
+     */
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+    
+    /**
+     * Estimated memory overhead in bytes of each entry in the cache, in addition 
+     * to the data itself (array header and map entry).
+     */
+    protected static final int ENTRY_OVERHEAD = 64;
+    
+    /**
+     * Maximum size of the cache in bytes.
+     */
+    private final long maxSize;
+    
+    /**
+     * Current estimated size of the cache in bytes.
+     */
+    private long currentSize;
+    
+    /**
+     * Cached data, in access order so that the first entry is the least recently used.
+     */
+    private final LinkedHashMap<DataLocation, double[]> cache;
+    
+    /**
+     * Number of requests which were served from the cache.
+     */
+    private long hitCount;
+    
+    /**
+     * Number of requests for data which was not in the cache.
+     */
+    private long missCount;
+    
+    /**
+     * Number of entries removed from the cache to stay within the maximum size.
+     */
+    private long evictionCount;
+    
+    /**
+     * Create a cache with the default maximum size.
+     */
+    public DataCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+    
+    /**
+     * Create a cache which holds at most maxSize bytes of data.
+     * 
+     * @param maxSize Maximum size of the cache in bytes
+     */
+    public DataCache(long maxSize) {
+        if(maxSize < 0)
+            throw new IllegalArgumentException("Maximum cache size must not be negative, not " + maxSize);
+        
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<DataLocation, double[]>(16, 0.75f, true);
+    }
+    
+    /**
+     * Get the data decoded from the specified DataLocation if it is in the cache.
+     * 
+     * @param dataLocation Location of the data
+     * @return Cached data, or null if not present
+     */
+    public synchronized double[] get(DataLocation dataLocation) {
+        double[] data = cache.get(dataLocation);
+        
+        if(data == null)
+            missCount++;
+        else
+            hitCount++;
+        
+        return data;
+    }
+    
+    /**
+     * Add the data decoded from the specified DataLocation to the cache, evicting 
+     * the least recently used entries if necessary. Data larger than the maximum
+     * size of the cache is not added.
+     * 
+     * @param dataLocation Location of the data
+     * @param data Decoded data
+     */
+    public synchronized void put(DataLocation dataLocation, double[] data) {
+        long size = getSizeOf(data);
+        
+        if(size > maxSize)
+            return;
+        
+        double[] previous = cache.put(dataLocation, data);
+        
+        if(previous != null)
+            currentSize -= getSizeOf(previous);
+        
+        currentSize += size;
+        
+        Iterator<Map.Entry<DataLocation, double[]>> iterator = cache.entrySet().iterator();
+        
+        while(currentSize > maxSize && iterator.hasNext()) {
+            Map.Entry<DataLocation, double[]> eldest = iterator.next();
+            
+            currentSize -= getSizeOf(eldest.getValue());
+            iterator.remove();
+            
+            evictionCount++;
+        }
+    }
+    
+    /**
+     * Remove the data decoded from the specified DataLocation from the cache. 
+     * 
+     * @param dataLocation Location of the data
+     */
+    public synchronized void remove(DataLocation dataLocation) {
+        double[] data = cache.remove(dataLocation);
+        
+        if(data != null)
+            currentSize -= getSizeOf(data);
+    }
+    
+    /**
+     * Remove all data from the cache. 
+     */
+    public synchronized void clear() {
+        cache.clear();
+        currentSize = 0;
+    }
+    
+    /**
+     * Estimate the memory used by the data when stored in the cache.
+     * 
+     * @param data Data
+     * @return Estimated size in bytes
+     */
+    protected static long getSizeOf(double[] data) {
+        return (long) data.length * 8 + ENTRY_OVERHEAD;
+    }
+    
+    /**
+     * Get the maximum size of the cache in bytes.
+     * 
+     * @return Maximum size in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+    
+    /**
+     * Get the current estimated size of the cache in bytes.
+     * 
+     * @return Current size in bytes
+     */
+    public synchronized long getSize() {
+        return currentSize;
+    }
+    
+    /**
+     * Get the number of entries currently in the cache.
+     * 
+     * @return Number of entries
+     */
+    public synchronized int getNumberOfEntries() {
+        return cache.size();
+    }
+    
+    /**
+     * Get the number of requests which were served from the cache.
+     * 
+     * @return Number of cache hits
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+    
+    /**
+     * Get the number of requests for data which was not in the cache.
+     * 
+     * @return Number of cache misses
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+    
+    /**
+     * Get the number of entries which have been removed from the cache in order
+     * to stay within the maximum size.
+     * 
+     * @return Number of evictions
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+    
+    /**
+     * Reset the hit, miss and eviction counters to zero.
+     */
+    public synchronized void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return "DataCache [" + currentSize + "/" + maxSize + " bytes, " + cache.size() + " entries, " 
+                + hitCount + " hits, " + missCount + " misses, " + evictionCount + " evictions]";
+    }
+}
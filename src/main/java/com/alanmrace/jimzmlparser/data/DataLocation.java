@@ -2,6 +2,13 @@ package com.alanmrace.jimzmlparser.data;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
@@ -32,6 +39,18 @@ public class DataLocation implements Serializable {
      */
     public static final long EXTENDED_OFFSET = 4294967296L; // 2^32
     
+    /**
+     * Scratch buffer for raw data, one per thread, reused by {@link #getData(DoubleBuffer)}
+     * to avoid allocating a new byte[] on each call. The buffer grows to the 
+     * largest raw data read by the thread.
+     */
+    private static final ThreadLocal<byte[]> SCRATCH_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[0];
+        }
+    };
+    
     /**
      * The location and storage type of the data.
      * @see DataStorage
@@ -55,6 +74,14 @@ public class DataLocation implements Serializable {
      */
     protected DataTransformation dataTransformation = null;
     
+    /**
+     * The size in bytes of the data before the final compression step of the
+     * {@link DataLocation#dataTransformation}, or 0 if unknown. This is held here 
+     * rather than in the DataTransformation, which is shared between data of 
+     * different sizes.
+     */
+    protected int decompressedSize;
+    
     /**
      * Construct a DataLocation at a specific offset, with a specific length within
      * a DataStorage.
@@ -109,13 +136,50 @@ public class DataLocation implements Serializable {
 
             return new byte[0];
         }
+        
+        return dataStorage.getData(getCorrectedOffset(), length);
+    }
+    
+    /**
+     * Get the offset in bytes of the data with respect to the dataStorage, first 
+     * correcting the offset if a 32-bit signed integer overflow has occurred.
+     * 
+     * @return offset in bytes
+     * @see #EXTENDED_OFFSET
+     */
+    long getCorrectedOffset() {
         if(offset < 0) {
             LOGGER.log(Level.SEVERE, "Offset is {0} for {1}. Attempting to fix integer overflow.", new Object[] {offset, dataStorage});
 
             offset += EXTENDED_OFFSET; // By default is 2^32
         }
         
-        return dataStorage.getData(offset, length);
+        return offset;
+    }
+    
+    /**
+     * Get the data for each of the supplied DataLocations, which must all refer to
+     * the same DataStorage. The raw data is read using {@link DataStorage#getData(java.util.Collection)},
+     * combining neighbouring locations into larger sequential reads, and then 
+     * converted as described in {@link #getData()}.
+     * 
+     * @param dataLocations Locations of the data, all within the same DataStorage
+     * @return List of double[], in the same order as dataLocations
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public static List<double[]> getData(List<DataLocation> dataLocations) throws DataFormatException, IOException {
+        List<double[]> data = new ArrayList<double[]>(dataLocations.size());
+        
+        if(dataLocations.isEmpty())
+            return data;
+        
+        List<byte[]> bytes = dataLocations.get(0).getDataStorage().getData(dataLocations);
+        
+        for(int i = 0; i < dataLocations.size(); i++)
+            data.add(dataLocations.get(i).convertData(bytes.get(i)));
+        
+        return data;
     }
 
     /**
@@ -126,6 +190,11 @@ public class DataLocation implements Serializable {
      * the data is not stored as a double[], then a DataTransformation should be
      * added which performs the necessary data type -&lt; double transformation.
      * 
+     * <p>If a {@link DataCache} has been set on the DataStorage, then the data is 
+     * copied from the cache when present and added to it otherwise. The returned
+     * array is always a copy, so can be modified by the caller without affecting
+     * the cache.
+     * 
      * @return Converted and decompressed data as double[]
      * @throws DataFormatException Issue with converting the data
      * @throws IOException Issue reading the raw data
@@ -134,12 +203,208 @@ public class DataLocation implements Serializable {
      */
     
     public double[] getData() throws DataFormatException, IOException {
+        DataCache dataCache = (dataStorage == null) ? null : dataStorage.getDataCache();
+        
+        if(dataCache == null)
+            return convertData(getBytes());
+        
+        double[] data = dataCache.get(this);
+        
+        if(data == null) {
+            data = convertData(getBytes());
+            
+            dataCache.put(this, data);
+        }
+        
+        return data.clone();
+    }
+    
+    /**
+     * Gets the raw data from the DataStorage using {@link DataLocation#getBytes()} and
+     * applies the {@link DataLocation#dataTransformation} to convert the byte[]
+     * to a float[], without first widening the data to double. This halves the
+     * memory required when the data is stored in single precision or as integers.
+     * 
+     * @return Converted and decompressed data as float[]
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     * 
+     * @see DataTransformation#performReverseTransformToFloat(byte[])
+     */
+    public float[] getDataAsFloat() throws DataFormatException, IOException {
         byte[] data = getBytes();
         
+        if(dataTransformation == null)
+            return DataTypeTransform.convertDataToFloat(data, DataTypeTransform.DataType.DOUBLE);
+        
+        return dataTransformation.performReverseTransformToFloat(data, decompressedSize);
+    }
+    
+    /**
+     * Get the raw data as stored in the DataStorage as a read-only, little-endian 
+     * ByteBuffer. When the DataStorage is memory mapped (see {@link MappedBinaryDataStorage})
+     * this is a view of the file and no data is copied.
+     * 
+     * @return Read-only ByteBuffer containing the raw data
+     * @throws IOException Issue reading the raw data
+     * @see DataStorage#getDataAsByteBuffer(long, int)
+     */
+    public ByteBuffer getByteBuffer() throws IOException {
+        if(length <= 0)
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        
+        return dataStorage.getDataAsByteBuffer(getCorrectedOffset(), length);
+    }
+    
+    /**
+     * Get the data as a read-only DoubleBuffer. If the data is stored uncompressed
+     * as double then this is a view of the raw data from {@link #getByteBuffer()},
+     * which requires no copying when the DataStorage is memory mapped. Otherwise
+     * the data is decoded using {@link #getData()}, or taken from the 
+     * {@link OffHeapDataStore} of the DataStorage if one has been set.
+     * 
+     * @return Read-only DoubleBuffer containing the data
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public DoubleBuffer getDoubleBuffer() throws DataFormatException, IOException {
+        if(getUntransformedDataType() == DataTypeTransform.DataType.DOUBLE)
+            return getByteBuffer().asDoubleBuffer();
+        
+        OffHeapDataStore offHeapDataStore = (dataStorage == null) ? null : dataStorage.getOffHeapDataStore();
+        
+        if(offHeapDataStore != null)
+            return offHeapDataStore.getDoubleBuffer(this);
+        
+        return DoubleBuffer.wrap(getData()).asReadOnlyBuffer();
+    }
+    
+    /**
+     * Get the data as a read-only FloatBuffer. If the data is stored uncompressed
+     * as float then this is a view of the raw data from {@link #getByteBuffer()},
+     * which requires no copying when the DataStorage is memory mapped. Otherwise
+     * the data is decoded using {@link #getDataAsFloat()}, or taken from the 
+     * {@link OffHeapDataStore} of the DataStorage if one has been set.
+     * 
+     * @return Read-only FloatBuffer containing the data
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public FloatBuffer getFloatBuffer() throws DataFormatException, IOException {
+        if(getUntransformedDataType() == DataTypeTransform.DataType.FLOAT)
+            return getByteBuffer().asFloatBuffer();
+        
+        OffHeapDataStore offHeapDataStore = (dataStorage == null) ? null : dataStorage.getOffHeapDataStore();
+        
+        if(offHeapDataStore != null)
+            return offHeapDataStore.getFloatBuffer(this);
+        
+        return FloatBuffer.wrap(getDataAsFloat()).asReadOnlyBuffer();
+    }
+    
+    /**
+     * Get the data type in which the data is stored if it requires no transforms
+     * other than data type conversion.
+     * 
+     * @return DataType of the stored data, or null if the data is compressed or otherwise transformed
+     * @see DataTransformation#getUntransformedDataType()
+     */
+    DataTypeTransform.DataType getUntransformedDataType() {
+        if(dataTransformation == null)
+            return DataTypeTransform.DataType.DOUBLE;
+        
+        return dataTransformation.getUntransformedDataType();
+    }
+    
+    /**
+     * Decode the data into the supplied array, starting at destOffset, rather than
+     * allocating a new array. See {@link #getData(DoubleBuffer)}.
+     * 
+     * @param dest Array to write the decoded data into
+     * @param destOffset Index within dest at which to write the first value
+     * @return Number of values written
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     * @throws BufferOverflowException If there is insufficient space in dest
+     */
+    public int getData(double[] dest, int destOffset) throws DataFormatException, IOException {
+        return getData(DoubleBuffer.wrap(dest, destOffset, dest.length - destOffset));
+    }
+    
+    /**
+     * Decode the data into the supplied buffer, starting at its current position,
+     * rather than allocating a new array. The position of the buffer is advanced
+     * by the number of values written.
+     * 
+     * <p>The raw data is read into a scratch buffer held per thread, and when the 
+     * stored data is not compressed it is converted directly into dest, so that 
+     * repeated calls with the same dest perform no allocation. Compressed data 
+     * is decoded as in {@link #getData()} and then copied into dest.
+     * 
+     * @param dest Buffer to write the decoded data into
+     * @return Number of values written
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     * @throws BufferOverflowException If there is insufficient space remaining in dest
+     */
+    public int getData(DoubleBuffer dest) throws DataFormatException, IOException {
+        if(length <= 0)
+            return 0;
+        
+        DataCache dataCache = (dataStorage == null) ? null : dataStorage.getDataCache();
+        double[] data = (dataCache == null) ? null : dataCache.get(this);
+        
+        if(data == null) {
+            byte[] scratchBuffer = getScratchBuffer(length);
+            int numBytes = dataStorage.getData(getCorrectedOffset(), length, scratchBuffer);
+            
+            DataTypeTransform.DataType dataType = getUntransformedDataType();
+            
+            if(dataType != null)
+                return DataTypeTransform.convertDataToDouble(ByteBuffer.wrap(scratchBuffer, 0, numBytes), dataType, dest);
+            
+            data = convertData(Arrays.copyOf(scratchBuffer, numBytes));
+        }
+        
+        if(dest.remaining() < data.length)
+            throw new BufferOverflowException();
+        
+        dest.put(data);
+        
+        return data.length;
+    }
+    
+    /**
+     * Get the scratch buffer for the current thread, ensuring that it can hold 
+     * at least the specified number of bytes.
+     * 
+     * @param minLength Minimum length of the buffer in bytes
+     * @return Scratch buffer
+     */
+    private static byte[] getScratchBuffer(int minLength) {
+        byte[] buffer = SCRATCH_BUFFER.get();
+        
+        if(buffer.length < minLength) {
+            buffer = new byte[minLength];
+            SCRATCH_BUFFER.set(buffer);
+        }
+        
+        return buffer;
+    }
+    
+    /**
+     * Apply the {@link DataLocation#dataTransformation} to raw data read from 
+     * this location.
+     * 
+     * @param data Raw data
+     * @return Converted and decompressed data as double[]
+     * @throws DataFormatException Issue with converting the data
+     */
+    private double[] convertData(byte[] data) throws DataFormatException {
         if(dataTransformation == null)
             return DataTypeTransform.convertDataToDouble(data, DataTypeTransform.DataType.DOUBLE);
         
-        return dataTransformation.performReverseTransform(data);
+        return dataTransformation.performReverseTransform(data, decompressedSize);
     }
     
     /**
@@ -151,7 +416,85 @@ public class DataLocation implements Serializable {
      * @param transformation DataTransformation applied to generate the data in the DataLocation
      */
     public void setDataTransformation(DataTransformation transformation) {
+        setDataTransformation(transformation, 0);
+    }
+    
+    /**
+     * Set the data transformation, as in {@link #setDataTransformation(DataTransformation)},
+     * along with the size of the data before the final compression step. This is
+     * required to decompress LZ4 data.
+     *
+     * @param transformation DataTransformation applied to generate the data in the DataLocation
+     * @param decompressedSize Size in bytes of the data before the final compression step, or 0 if unknown
+     * @see com.alanmrace.jimzmlparser.mzml.BinaryDataArray#getDecompressedSize()
+     */
+    public void setDataTransformation(DataTransformation transformation, int decompressedSize) {
         this.dataTransformation = transformation;
+        this.decompressedSize = Math.max(0, decompressedSize);
+    }
+
+    /**
+     * Returns the data transformation applied to generate the data in the DataLocation.
+     *
+     * @return DataTransformation, or null if none has been set
+     */
+    public DataTransformation getDataTransformation() {
+        return dataTransformation;
+    }
+    
+    /**
+     * Returns the size in bytes of the data before the final compression step.
+     *
+     * @return Decompressed size in bytes, or 0 if unknown
+     */
+    public int getDecompressedSize() {
+        return decompressedSize;
+    }
+    
+    /**
+     * DataLocations are equal if they describe the same data, so that a DataLocation
+     * recreated for data which is already held in a {@link DataCache} or 
+     * {@link OffHeapDataStore} finds the existing entry. The DataStorage and 
+     * (shared, immutable) DataTransformation are compared by identity. A 
+     * DataLocation should not be modified while it is used as a key.
+     * 
+     * @param obj Object to compare to
+     * @return true if obj is a DataLocation describing the same data
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj)
+            return true;
+        
+        if(obj == null || obj.getClass() != getClass())
+            return false;
+        
+        DataLocation other = (DataLocation) obj;
+        
+        return dataStorage == other.dataStorage && getKeyOffset() == other.getKeyOffset() && length == other.length 
+                && dataTransformation == other.dataTransformation && decompressedSize == other.decompressedSize;
+    }
+
+    @Override
+    public int hashCode() {
+        long keyOffset = getKeyOffset();
+        
+        int hash = System.identityHashCode(dataStorage);
+        hash = 31 * hash + (int) (keyOffset ^ (keyOffset >>> 32));
+        hash = 31 * hash + length;
+        hash = 31 * hash + System.identityHashCode(dataTransformation);
+        
+        return 31 * hash + decompressedSize;
+    }
+    
+    /**
+     * Get the offset as corrected by {@link #getCorrectedOffset()}, without 
+     * modifying it, so that equality does not change once the offset is corrected.
+     * 
+     * @return Corrected offset in bytes
+     */
+    private long getKeyOffset() {
+        return (offset < 0) ? offset + EXTENDED_OFFSET : offset;
     }
     
     @Override
@@ -4,6 +4,17 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,6 +32,18 @@ public abstract class DataStorage {
     /** Class logger. */
     private static final Logger LOGGER = Logger.getLogger(DataStorage.class.getName());
     
+    /** 
+     * Default largest gap in bytes between two pieces of data that will be read 
+     * as a single sequential read by {@link #getData(Collection)}.
+     */
+    public static final int DEFAULT_MAX_GAP = 4096;
+    
+    /** 
+     * Default largest size in bytes of a single sequential read performed by 
+     * {@link #getData(Collection)}.
+     */
+    public static final int DEFAULT_MAX_READ_SIZE = 16 * 1024 * 1024;
+    
     /** File containing the data. */
     private File dataFile;
     
@@ -30,6 +53,15 @@ public abstract class DataStorage {
     /** Boolean to determine whether the RandomAccessFile is open or not. */
     private boolean fileStreamOpen;
     
+    /** Cache of data decoded from this storage, or null if data is not cached. */
+    private volatile DataCache dataCache;
+    
+    /** Store of decoded data held off-heap, or null if data is not stored off-heap. */
+    private volatile OffHeapDataStore offHeapDataStore;
+    
+    /** Data shared between many DataLocations, such as compression dictionaries, keyed by offset. */
+    private final ConcurrentMap<Long, byte[]> sharedData = new ConcurrentHashMap<Long, byte[]>();
+    
     /**
      * Define a data storage by specifying the File containing the data.
      * 
@@ -71,6 +103,54 @@ public abstract class DataStorage {
 	return dataFile;
     }
     
+    /**
+     * Check whether the file is open and data can be read.
+     * 
+     * @return true if the file is open, false if it has been closed
+     */
+    public boolean isOpen() {
+        return fileStreamOpen;
+    }
+    
+    /**
+     * Set the cache used to store data decoded from this storage by {@link DataLocation#getData()}.
+     * The same cache can be shared between multiple DataStorage instances.
+     * 
+     * @param dataCache Cache of decoded data, or null to disable caching
+     */
+    public void setDataCache(DataCache dataCache) {
+        this.dataCache = dataCache;
+    }
+    
+    /**
+     * Get the cache used to store data decoded from this storage.
+     * 
+     * @return Cache of decoded data, or null if data is not cached
+     */
+    public DataCache getDataCache() {
+        return dataCache;
+    }
+    
+    /**
+     * Set the store used to hold data decoded from this storage off-heap, which
+     * is used by {@link DataLocation#getDoubleBuffer()} and {@link DataLocation#getFloatBuffer()}.
+     * The same store can be shared between multiple DataStorage instances.
+     * 
+     * @param offHeapDataStore Off-heap store of decoded data, or null to disable
+     */
+    public void setOffHeapDataStore(OffHeapDataStore offHeapDataStore) {
+        this.offHeapDataStore = offHeapDataStore;
+    }
+    
+    /**
+     * Get the store used to hold data decoded from this storage off-heap.
+     * 
+     * @return Off-heap store of decoded data, or null if not set
+     */
+    public OffHeapDataStore getOffHeapDataStore() {
+        return offHeapDataStore;
+    }
+    
     /**
      * Get the data from the dataStorage at the specified offset with the specified length.
      * Reading of data is synchronized to the file to allow multithreaded access.
@@ -92,12 +172,224 @@ public abstract class DataStorage {
 
         byte[] buffer = new byte[length];
 
+        readData(offset, buffer, 0, length);
+	
+	    return buffer;
+    }
+    
+    /**
+     * Get data which is shared between many DataLocations, such as a compression 
+     * dictionary, at the specified offset with the specified length. The data is 
+     * read from the file only once and the same array is returned by each 
+     * subsequent call, so it must not be modified.
+     * 
+     * @param offset Offset in bytes within the dataStorage
+     * @param length Length of the data in bytes
+     * @return byte[] containing data
+     * @throws IOException Exception thrown when trying to read data
+     */
+    public byte[] getSharedData(long offset, int length) throws IOException {
+        byte[] data = sharedData.get(offset);
+        
+        if(data == null || data.length != length) {
+            data = getData(offset, length);
+            
+            byte[] existing = sharedData.putIfAbsent(offset, data);
+            
+            if(existing != null && existing.length == length)
+                data = existing;
+        }
+        
+        return data;
+    }
+    
+    /**
+     * Get the data from the dataStorage at the specified offset with the specified length,
+     * writing it into the supplied buffer rather than allocating a new array.
+     * 
+     * <p>If the randomAccessFile has not been opened successfully (in the constructor) then
+     * no data is written and 0 is returned.
+     * 
+     * @param offset Offset in bytes within the dataStorage
+     * @param length Length of the data in bytes
+     * @param buffer Buffer to write the data into, of at least length bytes
+     * @return Number of bytes of data written to the buffer
+     * @throws IOException Exception thrown when trying to read data
+     */
+    public int getData(long offset, int length, byte[] buffer) throws IOException {
+        if(!fileStreamOpen) {
+            LOGGER.log(Level.SEVERE, "Trying to access data from a closed stream ({0})", randomAccessFile);
+
+            return 0;
+        }
+        
+        readData(offset, buffer, 0, length);
+        
+        return length;
+    }
+    
+    /**
+     * Get the data from the dataStorage at the specified offset with the specified length
+     * as a read-only, little-endian ByteBuffer. The default implementation wraps 
+     * the array returned by {@link #getData(long, int)}, whereas storage backed by
+     * a memory mapped file can return a view of the file without copying.
+     * 
+     * @param offset Offset in bytes within the dataStorage
+     * @param length Length of the data in bytes
+     * @return Read-only ByteBuffer containing the data
+     * @throws IOException Exception thrown when trying to read data
+     */
+    public ByteBuffer getDataAsByteBuffer(long offset, int length) throws IOException {
+        return ByteBuffer.wrap(getData(offset, length)).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    /**
+     * Get the data for each of the supplied DataLocations, which must all refer to
+     * this DataStorage, using the default maximum gap and read size. 
+     * 
+     * @param dataLocations Locations of the data within this dataStorage
+     * @return List of byte[], in the same order as dataLocations
+     * @throws IOException Exception thrown when trying to read data
+     * @see #getData(Collection, int, int)
+     */
+    public List<byte[]> getData(Collection<DataLocation> dataLocations) throws IOException {
+        return getData(dataLocations, DEFAULT_MAX_GAP, DEFAULT_MAX_READ_SIZE);
+    }
+    
+    /**
+     * Get the data for each of the supplied DataLocations, which must all refer to
+     * this DataStorage. Rather than reading each location individually, the locations 
+     * are sorted by offset and any which are adjacent, overlapping or separated by
+     * at most maxGap bytes are read together in a single sequential read of at most 
+     * maxReadSize bytes. A single location larger than maxReadSize is still read 
+     * in full. 
+     * 
+     * <p>This is useful when accessing many spectra at once, as the m/z and intensity 
+     * arrays of consecutive spectra are typically stored one after another.
+     * 
+     * @param dataLocations Locations of the data within this dataStorage
+     * @param maxGap Largest gap in bytes between two locations which are read together
+     * @param maxReadSize Largest size in bytes of a single read
+     * @return List of byte[], in the same order as dataLocations
+     * @throws IOException Exception thrown when trying to read data
+     */
+    public List<byte[]> getData(Collection<DataLocation> dataLocations, int maxGap, int maxReadSize) throws IOException {
+        final DataLocation[] locations = dataLocations.toArray(new DataLocation[dataLocations.size()]);
+        byte[][] data = new byte[locations.length][];
+        
+        List<Integer> order = new ArrayList<Integer>(locations.length);
+        
+        for(int i = 0; i < locations.length; i++) {
+            if(locations[i].getDataStorage() != this)
+                throw new IllegalArgumentException("DataLocation " + locations[i] + " does not refer to " + this);
+            
+            if(locations[i].getLength() <= 0 || !fileStreamOpen)
+                data[i] = new byte[0];
+            else
+                order.add(i);
+        }
+        
+        if(!fileStreamOpen) {
+            LOGGER.log(Level.SEVERE, "Trying to access data from a closed stream ({0})", randomAccessFile);
+            
+            return Arrays.asList(data);
+        }
+        
+        final long[] offsets = new long[locations.length];
+        
+        for(int index : order)
+            offsets[index] = locations[index].getCorrectedOffset();
+        
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return offsets[first] < offsets[second] ? -1 : (offsets[first] == offsets[second] ? 0 : 1);
+            }
+        });
+        
+        int runStart = 0;
+        
+        while(runStart < order.size()) {
+            long startOffset = offsets[order.get(runStart)];
+            long endOffset = startOffset + locations[order.get(runStart)].getLength();
+            int runEnd = runStart + 1;
+            
+            // Extend the run while the next location is close enough and the read does not become too large
+            while(runEnd < order.size()) {
+                int next = order.get(runEnd);
+                long nextEndOffset = Math.max(endOffset, offsets[next] + locations[next].getLength());
+                
+                if(offsets[next] - endOffset > maxGap || nextEndOffset - startOffset > maxReadSize)
+                    break;
+                
+                endOffset = nextEndOffset;
+                runEnd++;
+            }
+            
+            if(runEnd - runStart == 1) {
+                int index = order.get(runStart);
+                
+                data[index] = getData(offsets[index], locations[index].getLength());
+            } else {
+                byte[] buffer = new byte[(int) (endOffset - startOffset)];
+                
+                readData(startOffset, buffer, 0, buffer.length);
+                
+                for(int i = runStart; i < runEnd; i++) {
+                    int index = order.get(i);
+                    int start = (int) (offsets[index] - startOffset);
+                    
+                    data[index] = decodeData(Arrays.copyOfRange(buffer, start, start + locations[index].getLength()));
+                }
+            }
+            
+            runStart = runEnd;
+        }
+        
+        return Arrays.asList(data);
+    }
+    
+    /**
+     * Convert raw bytes, as read from the file, to the data they represent. Used 
+     * by {@link #getData(Collection, int, int)} on each piece of data extracted 
+     * from a combined read. The default implementation returns the bytes unchanged.
+     * 
+     * @param rawData Bytes as stored in the file
+     * @return Data represented by the bytes
+     */
+    protected byte[] decodeData(byte[] rawData) {
+        return rawData;
+    }
+    
+    /**
+     * Read raw bytes from the file into the supplied buffer. This is the only place 
+     * in which the file itself is accessed, so subclasses can change how the data 
+     * is read from disk (for example, using a memory mapped file) without affecting
+     * any subsequent processing of the data such as Base64 decoding.
+     * 
+     * <p>The default implementation synchronizes on the RandomAccessFile to allow 
+     * multithreaded access.
+     * 
+     * @param offset Offset in bytes within the dataStorage
+     * @param buffer Buffer to read the data into
+     * @param bufferOffset Offset within the buffer to start writing the data
+     * @param length Length of the data in bytes
+     * @throws IOException Exception thrown when trying to read data
+     */
+    protected void readData(long offset, byte[] buffer, int bufferOffset, int length) throws IOException {
         synchronized(randomAccessFile) {
             randomAccessFile.seek(offset);
-            randomAccessFile.read(buffer);
+            randomAccessFile.read(buffer, bufferOffset, length);
         }
-	
-	    return buffer;
+    }
+    
+    /**
+     * Get the FileChannel associated with the opened file.
+     * 
+     * @return FileChannel of the file containing the data
+     */
+    protected FileChannel getFileChannel() {
+        return randomAccessFile.getChannel();
     }
     
     /**
@@ -1,16 +1,31 @@
 package com.alanmrace.jimzmlparser.data;
 
+import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
+import com.alanmrace.jimzmlparser.data.MSNumpressDataTransform.NumpressAlgorithm;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray.CompressionType;
 import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.zip.DataFormatException;
 
 /**
  * Description of a full set of steps applied to transform data stored as a 
  * double[] to an optionally compressed, optionally modified data type byte[]. 
  * 
+ * <p>DataTransformations created by {@link #create(DataType, CompressionType)}
+ * are immutable and shared between all data with the same encoding, so all 
+ * methods which perform a transformation are safe to call from multiple threads.
+ * As they are shared between arrays of different lengths, the size of the 
+ * decompressed data is supplied with each call to 
+ * {@link #performReverseTransform(byte[], int)} rather than held by the 
+ * DataTransformation.
+ * 
  * @author Alan Race
  */
 public class DataTransformation implements Serializable {
@@ -25,16 +40,374 @@ public class DataTransformation implements Serializable {
      */
     private List<DataTransform> transformation;
     
-    private int[] dataSizeAtEachStage;
+    /**
+     * Size of the data after each stage of the most recent forward transform 
+     * performed by each thread.
+     */
+    private transient ThreadLocal<int[]> dataSizeAtEachStage;
+    
+    /**
+     * Whether further transforms can be added.
+     */
+    private boolean immutable;
+    
+    /**
+     * Compression level used for ZStandard.
+     */
+    private static final int ZSTD_COMPRESSION_LEVEL = 3;
+    
+    /**
+     * Shared DataTransformations without a dictionary, keyed by data type and 
+     * compression. There is at most one for each combination, so these are 
+     * retained for the lifetime of the JVM.
+     */
+    private static final ConcurrentMap<Key, DataTransformation> SHARED_TRANSFORMATIONS = new ConcurrentHashMap<Key, DataTransformation>();
+    
+    /**
+     * Shared DataTransformations using a dictionary. Dictionaries are read from
+     * each DataStorage, so these are only softly referenced and removed once no 
+     * longer in use, rather than retaining the dictionaries of closed files.
+     */
+    private static final ConcurrentMap<Key, TransformationReference> DICTIONARY_TRANSFORMATIONS = new ConcurrentHashMap<Key, TransformationReference>();
+    
+    /**
+     * Queue of references to shared DataTransformations using a dictionary which
+     * have been cleared, so that their entries can be removed.
+     */
+    private static final ReferenceQueue<DataTransformation> CLEARED_TRANSFORMATIONS = new ReferenceQueue<DataTransformation>();
+    
+    /**
+     * Parameters which uniquely identify a shared DataTransformation. Dictionaries
+     * are compared by identity, as each is read only once (see {@link DataStorage#getSharedData(long, int)}).
+     */
+    private static final class Key {
+        private final DataType dataType;
+        private final CompressionType compressionType;
+        private final byte[] dictionary;
+        
+        Key(DataType dataType, CompressionType compressionType, byte[] dictionary) {
+            this.dataType = dataType;
+            this.compressionType = compressionType;
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key))
+                return false;
+            
+            Key other = (Key) obj;
+            
+            return dataType == other.dataType && compressionType == other.compressionType 
+                    && dictionary == other.dictionary;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = dataType.hashCode();
+            hash = 31 * hash + compressionType.hashCode();
+            
+            return 31 * hash + System.identityHashCode(dictionary);
+        }
+    }
+    
+    /**
+     * Soft reference to a shared DataTransformation using a dictionary, which 
+     * records its key so that the entry can be removed once cleared.
+     */
+    private static final class TransformationReference extends SoftReference<DataTransformation> {
+        private final Key key;
+        
+        TransformationReference(DataTransformation dataTransformation, Key key) {
+            super(dataTransformation, CLEARED_TRANSFORMATIONS);
+            
+            this.key = key;
+        }
+    }
+    
+    /**
+     * Get a DataTransformation converting double[] to the specified data type and
+     * then applying the specified compression. DataTransformations are cached,
+     * so that all data with the same encoding shares a single immutable instance.
+     * 
+     * @param dataType Data type in which to store the data, or null to leave as double
+     * @param compressionType Compression to apply, or null for none
+     * @return Shared, immutable DataTransformation
+     */
+    public static DataTransformation create(DataType dataType, CompressionType compressionType) {
+        return create(dataType, compressionType, null);
+    }
+    
+    /**
+     * Get a DataTransformation converting double[] to the specified data type and
+     * then applying the specified compression, using a dictionary if the 
+     * compression is ZStandard. See {@link #create(DataType, CompressionType)}.
+     * 
+     * <p>DataTransformations using a dictionary are shared while in use by data 
+     * compressed with the same dictionary instance, such as that returned by 
+     * {@link DataStorage#getSharedData(long, int)}, and are released once no 
+     * longer required.
+     * 
+     * @param dataType Data type in which to store the data, or null to leave as double
+     * @param compressionType Compression to apply, or null for none
+     * @param zstdDictionary Dictionary used for ZStandard compression, or null for none
+     * @return Shared, immutable DataTransformation
+     */
+    public static DataTransformation create(DataType dataType, CompressionType compressionType, byte[] zstdDictionary) {
+        if(dataType == null)
+            dataType = DataType.DOUBLE;
+        
+        if(compressionType == null)
+            compressionType = CompressionType.NONE;
+        
+        if(!usesZstd(compressionType))
+            zstdDictionary = null;
+        
+        Key key = new Key(dataType, compressionType, zstdDictionary);
+        
+        if(zstdDictionary != null)
+            return getDictionaryTransformation(key);
+        
+        DataTransformation dataTransformation = SHARED_TRANSFORMATIONS.get(key);
+        
+        if(dataTransformation == null) {
+            dataTransformation = createImmutable(key);
+            
+            DataTransformation existing = SHARED_TRANSFORMATIONS.putIfAbsent(key, dataTransformation);
+
+            if(existing != null)
+                dataTransformation = existing;
+        }
+        
+        return dataTransformation;
+    }
+    
+    /**
+     * Get the shared DataTransformation using a dictionary for the specified key,
+     * creating it if it does not exist or has been cleared.
+     * 
+     * @param key Data type, compression and dictionary
+     * @return Shared, immutable DataTransformation
+     */
+    private static DataTransformation getDictionaryTransformation(Key key) {
+        removeClearedTransformations();
+        
+        TransformationReference reference = DICTIONARY_TRANSFORMATIONS.get(key);
+        DataTransformation dataTransformation = (reference == null) ? null : reference.get();
+        
+        while(dataTransformation == null) {
+            DataTransformation created = createImmutable(key);
+            TransformationReference createdReference = new TransformationReference(created, key);
+            
+            if(reference == null ? DICTIONARY_TRANSFORMATIONS.putIfAbsent(key, createdReference) == null 
+                    : DICTIONARY_TRANSFORMATIONS.replace(key, reference, createdReference))
+                return created;
+            
+            // Another thread created the DataTransformation first
+            reference = DICTIONARY_TRANSFORMATIONS.get(key);
+            dataTransformation = (reference == null) ? null : reference.get();
+        }
+        
+        return dataTransformation;
+    }
+    
+    /**
+     * Remove the entries of shared DataTransformations using a dictionary which
+     * have been cleared, releasing their keys and so their dictionaries.
+     */
+    private static void removeClearedTransformations() {
+        Reference<? extends DataTransformation> reference;
+        
+        while((reference = CLEARED_TRANSFORMATIONS.poll()) != null)
+            DICTIONARY_TRANSFORMATIONS.remove(((TransformationReference) reference).key, reference);
+    }
+    
+    /**
+     * Get the number of shared DataTransformations using a dictionary which are
+     * currently retained.
+     * 
+     * @return Number of DataTransformations
+     */
+    static int getNumberOfDictionaryTransformations() {
+        removeClearedTransformations();
+        
+        return DICTIONARY_TRANSFORMATIONS.size();
+    }
+    
+    /**
+     * Create a new immutable DataTransformation for the specified key.
+     * 
+     * @param key Data type, compression and dictionary
+     * @return New, immutable DataTransformation
+     */
+    private static DataTransformation createImmutable(Key key) {
+        DataTransformation dataTransformation = new DataTransformation();
+
+        // Always add in the conversion to data type first
+        if(key.dataType != DataType.DOUBLE)
+            dataTransformation.addTransform(new DataTypeTransform(DataType.DOUBLE, key.dataType));
+
+        if(key.compressionType.isByteShuffled())
+            dataTransformation.addTransform(new ByteShuffleDataTransform(DataTypeTransform.getSizeInBytes(key.dataType)));
+
+        dataTransformation.addCompression(key.compressionType, key.dictionary);
+        dataTransformation.immutable = true;
+        
+        return dataTransformation;
+    }
+    
+    /**
+     * Check whether the specified compression uses ZStandard.
+     * 
+     * @param compressionType Compression type
+     * @return true if ZStandard is the final compression step
+     */
+    public static boolean usesZstd(CompressionType compressionType) {
+        switch(compressionType) {
+            case ZSTD:
+            case SHUFFLE_ZSTD:
+            case MSNUMPRESS_LINEAR_ZSTD:
+            case MSNUMPRESS_POSITIVE_ZSTD:
+            case MSNUMPRESS_SLOF_ZSTD:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Check whether the specified compression uses MS Numpress.
+     * 
+     * @param compressionType Compression type
+     * @return true if MS Numpress is the first compression step
+     */
+    public static boolean usesNumpress(CompressionType compressionType) {
+        switch(compressionType) {
+            case MSNUMPRESS_LINEAR:
+            case MSNUMPRESS_POSITIVE:
+            case MSNUMPRESS_SLOF:
+            case MSNUMPRESS_LINEAR_ZLIB:
+            case MSNUMPRESS_POSITIVE_ZLIB:
+            case MSNUMPRESS_SLOF_ZLIB:
+            case MSNUMPRESS_LINEAR_XZ:
+            case MSNUMPRESS_POSITIVE_XZ:
+            case MSNUMPRESS_SLOF_XZ:
+            case MSNUMPRESS_LINEAR_LZ4:
+            case MSNUMPRESS_POSITIVE_LZ4:
+            case MSNUMPRESS_SLOF_LZ4:
+            case MSNUMPRESS_LINEAR_ZSTD:
+            case MSNUMPRESS_POSITIVE_ZSTD:
+            case MSNUMPRESS_SLOF_ZSTD:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Add the DataTransforms describing the specified compression. Any byte 
+     * shuffle must already have been added.
+     * 
+     * @param compressionType Compression to add
+     * @param zstdDictionary Dictionary used for ZStandard compression, or null for none
+     */
+    private void addCompression(CompressionType compressionType, byte[] zstdDictionary) {
+        switch(compressionType) {
+            case ZLIB:
+            case SHUFFLE_ZLIB:
+                addTransform(new ZlibDataTransform());
+                break;
+            case XZ:
+            case SHUFFLE_XZ:
+                addTransform(new XZDataTransform());
+                break;
+            case LZ4:
+            case SHUFFLE_LZ4:
+                addTransform(new LZ4DataTransform(0));
+                break;
+            case ZSTD:
+            case SHUFFLE_ZSTD:
+                addTransform(new ZstdDataTransform(0, ZSTD_COMPRESSION_LEVEL, zstdDictionary));
+                break;
+            case CHUNKED_ZLIB:
+                addTransform(new ChunkedDataTransform(ChunkedDataTransform.Codec.ZLIB));
+                break;
+            case CHUNKED_ZSTD:
+                addTransform(new ChunkedDataTransform(ChunkedDataTransform.Codec.ZSTD));
+                break;
+            case MSNUMPRESS_LINEAR:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
+                break;
+            case MSNUMPRESS_POSITIVE:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
+                break;
+            case MSNUMPRESS_SLOF:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
+                break;
+            case MSNUMPRESS_LINEAR_ZLIB:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
+                addTransform(new ZlibDataTransform());
+                break;
+            case MSNUMPRESS_POSITIVE_ZLIB:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
+                addTransform(new ZlibDataTransform());
+                break;
+            case MSNUMPRESS_SLOF_ZLIB:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
+                addTransform(new ZlibDataTransform());
+                break;
+            case MSNUMPRESS_LINEAR_XZ:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
+                addTransform(new XZDataTransform());
+                break;
+            case MSNUMPRESS_POSITIVE_XZ:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
+                addTransform(new XZDataTransform());
+                break;
+            case MSNUMPRESS_SLOF_XZ:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
+                addTransform(new XZDataTransform());
+                break;
+            case MSNUMPRESS_LINEAR_LZ4:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
+                addTransform(new LZ4DataTransform(0));
+                break;
+            case MSNUMPRESS_POSITIVE_LZ4:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
+                addTransform(new LZ4DataTransform(0));
+                break;
+            case MSNUMPRESS_SLOF_LZ4:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
+                addTransform(new LZ4DataTransform(0));
+                break;
+            case MSNUMPRESS_LINEAR_ZSTD:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
+                addTransform(new ZstdDataTransform(0, ZSTD_COMPRESSION_LEVEL, zstdDictionary));
+                break;
+            case MSNUMPRESS_POSITIVE_ZSTD:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
+                addTransform(new ZstdDataTransform(0, ZSTD_COMPRESSION_LEVEL, zstdDictionary));
+                break;
+            case MSNUMPRESS_SLOF_ZSTD:
+                addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
+                addTransform(new ZstdDataTransform(0, ZSTD_COMPRESSION_LEVEL, zstdDictionary));
+                break;
+            default:
+                break;
+        }
+    }
         
     /**
      * Add a DataTransform to the DataTransformation. This will be added to the 
      * end of the list.
      * 
      * @param transform DataTransform to add
+     * @throws UnsupportedOperationException If the DataTransformation is shared and so cannot be modified
      */
     public void addTransform(DataTransform transform) {
-        if (transformation instanceof ArrayList) {
+        if (immutable) {
+            throw new UnsupportedOperationException("Shared DataTransformation cannot be modified");
+        } else if (transformation instanceof ArrayList) {
             transformation.add(transform);
         } else if (transformation != null) {
             transformation = new ArrayList<DataTransform>(transformation);
@@ -73,15 +446,17 @@ public class DataTransformation implements Serializable {
         
         byte[] transformedData = data;
         
-        dataSizeAtEachStage = new int[transformation.size() + 1];
+        int[] dataSize = new int[transformation.size() + 1];
         int i = 0;
-        dataSizeAtEachStage[i++] = transformedData.length;
+        dataSize[i++] = transformedData.length;
         
         for(DataTransform transform : transformation) {
             transformedData = transform.forwardTransform(transformedData);
-            dataSizeAtEachStage[i++] = transformedData.length;
+            dataSize[i++] = transformedData.length;
         }
         
+        getDataSizeHolder().set(dataSize);
+        
         return transformedData;
     }
     
@@ -89,30 +464,174 @@ public class DataTransformation implements Serializable {
      * Perform all steps of the DataTransformation in reverse to the supplied 
      * data, and then convert the resulting byte[] to a double[] using 
      * {@link DataTypeTransform#convertDataToDouble(byte[], com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType)}.
+     * If the first step of the DataTransformation is a {@link PrimitiveDataTransform}
+     * (such as a conversion from double, or MS-Numpress) then it produces the 
+     * double[] directly, without an intermediate byte[] representation.
      * 
      * @param data Data to perform the reverse of the DataTransformation on
      * @return Transformed data 
      * @throws DataFormatException Issue with the transformation
      */
     public double[] performReverseTransform(byte[] data) throws DataFormatException {
+        return performReverseTransform(data, 0);
+    }
+    
+    /**
+     * Perform all steps of the DataTransformation in reverse to the supplied 
+     * data, as in {@link #performReverseTransform(byte[])}, where the size of the
+     * data before the final compression step is known. This is required to 
+     * decompress LZ4, and avoids resizing the output when decompressing ZLib.
+     * 
+     * @param data Data to perform the reverse of the DataTransformation on
+     * @param decompressedSize Size in bytes of the data before the final compression step, or 0 if unknown
+     * @return Transformed data 
+     * @throws DataFormatException Issue with the transformation
+     */
+    public double[] performReverseTransform(byte[] data, int decompressedSize) throws DataFormatException {
+        byte[] transformedData = reverseTransformAllButFirst(data, decompressedSize);
+        
+        if(transformation != null && transformation.get(0) instanceof PrimitiveDataTransform)
+            return ((PrimitiveDataTransform) transformation.get(0)).reverseTransformToDouble(transformedData);
+        
+        if(transformation != null)
+            transformedData = reverseTransform(0, transformedData, decompressedSize);
+        
+        return DataTypeTransform.convertDataToDouble(transformedData, DataTypeTransform.DataType.DOUBLE);
+    }
+    
+    /**
+     * Perform all steps of the DataTransformation in reverse to the supplied 
+     * data, and then convert the result to a float[]. If the first step of the 
+     * DataTransformation is a {@link PrimitiveDataTransform} then it produces 
+     * the float[] directly. For example, a conversion from double to another data 
+     * type is converted directly from the stored data type using 
+     * {@link DataTypeTransform#convertDataToFloat(byte[], com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType)},
+     * avoiding widening to double and narrowing back again.
+     * 
+     * @param data Data to perform the reverse of the DataTransformation on
+     * @return Transformed data 
+     * @throws DataFormatException Issue with the transformation
+     */
+    public float[] performReverseTransformToFloat(byte[] data) throws DataFormatException {
+        return performReverseTransformToFloat(data, 0);
+    }
+    
+    /**
+     * Perform all steps of the DataTransformation in reverse to the supplied 
+     * data and convert the result to a float[], as in {@link #performReverseTransformToFloat(byte[])},
+     * where the size of the data before the final compression step is known.
+     * 
+     * @param data Data to perform the reverse of the DataTransformation on
+     * @param decompressedSize Size in bytes of the data before the final compression step, or 0 if unknown
+     * @return Transformed data 
+     * @throws DataFormatException Issue with the transformation
+     */
+    public float[] performReverseTransformToFloat(byte[] data, int decompressedSize) throws DataFormatException {
+        byte[] transformedData = reverseTransformAllButFirst(data, decompressedSize);
+        
+        if(transformation != null && transformation.get(0) instanceof PrimitiveDataTransform)
+            return ((PrimitiveDataTransform) transformation.get(0)).reverseTransformToFloat(transformedData);
+        
+        if(transformation != null)
+            transformedData = reverseTransform(0, transformedData, decompressedSize);
+        
+        return DataTypeTransform.convertDataToFloat(transformedData, DataTypeTransform.DataType.DOUBLE);
+    }
+    
+    /**
+     * Perform all steps of the DataTransformation except the first in reverse 
+     * to the supplied data. 
+     * 
+     * @param data Data to perform the reverse of the DataTransformation on
+     * @param decompressedSize Size in bytes of the data before the final compression step, or 0 if unknown
+     * @return Data ready for the reverse of the first step
+     * @throws DataFormatException Issue with the transformation
+     */
+    private byte[] reverseTransformAllButFirst(byte[] data, int decompressedSize) throws DataFormatException {
         byte[] transformedData = data;
         
         if(transformation != null) {
-            ListIterator<DataTransform> listIterator = transformation.listIterator(transformation.size());
-
-            while(listIterator.hasPrevious()) {
-                DataTransform transform = listIterator.previous();
-                transformedData = transform.reverseTransform(transformedData);
-            }
+            for(int i = transformation.size() - 1; i > 0; i--)
+                transformedData = reverseTransform(i, transformedData, decompressedSize);
         }
         
-        return DataTypeTransform.convertDataToDouble(transformedData, DataTypeTransform.DataType.DOUBLE);
+        return transformedData;
+    }
+    
+    /**
+     * Perform a single step of the DataTransformation in reverse. The decompressed 
+     * size is supplied to the final step, which is the only one it describes.
+     * 
+     * @param index Index of the step
+     * @param data Data to perform the reverse of the step on
+     * @param decompressedSize Size in bytes of the data before the final compression step, or 0 if unknown
+     * @return Transformed data
+     * @throws DataFormatException Issue with the transformation
+     */
+    private byte[] reverseTransform(int index, byte[] data, int decompressedSize) throws DataFormatException {
+        DataTransform transform = transformation.get(index);
+        
+        if(decompressedSize > 0 && index == transformation.size() - 1 && transform instanceof DecompressionDataTransform)
+            return ((DecompressionDataTransform) transform).reverseTransform(data, decompressedSize);
+        
+        return transform.reverseTransform(data);
     }
     
+    /**
+     * Get the data type in which the data is stored, if the stored data can be 
+     * converted directly to double without first reversing any other transforms 
+     * (such as decompression). This is the case when the DataTransformation is 
+     * empty or consists only of a single conversion from double.
+     * 
+     * @return DataType of the stored data, or null if other transforms must be reversed first
+     */
+    public DataTypeTransform.DataType getUntransformedDataType() {
+        if(transformation == null || transformation.isEmpty())
+            return DataTypeTransform.DataType.DOUBLE;
+        
+        if(transformation.size() == 1 && transformation.get(0) instanceof DataTypeTransform) {
+            DataTypeTransform dataTypeTransform = (DataTypeTransform) transformation.get(0);
+            
+            if(dataTypeTransform.getFrom() == DataTypeTransform.DataType.DOUBLE)
+                return dataTypeTransform.getTo();
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Get the size in bytes of the data before and after each stage of the most
+     * recent call to {@link #performForwardTransform(byte[])} on the current thread.
+     * 
+     * @return Size of the data at each stage, or null if no forward transform has been performed
+     */
     public int[] getDataSizeAtEachStage() {
+        return getDataSizeHolder().get();
+    }
+    
+    /**
+     * Get the per-thread holder of the data size at each stage, creating it if
+     * necessary (including after deserialisation).
+     * 
+     * @return Holder of the data size at each stage
+     */
+    private synchronized ThreadLocal<int[]> getDataSizeHolder() {
+        if(dataSizeAtEachStage == null)
+            dataSizeAtEachStage = new ThreadLocal<int[]>();
+        
         return dataSizeAtEachStage;
     }
     
+    /**
+     * Check whether the DataTransformation is shared, in which case no further 
+     * transforms can be added.
+     * 
+     * @return true if the DataTransformation cannot be modified
+     */
+    public boolean isImmutable() {
+        return immutable;
+    }
+    
     public boolean isEmpty() {
         if(transformation == null)
             return true;
@@ -6,8 +6,14 @@ import com.alanmrace.jimzmlparser.obo.OBOTerm;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
@@ -18,9 +24,12 @@ import java.util.zip.DataFormatException;
  * this could be the conversion of a double -&lt; integer. Valid data types are 
  * included in {@link DataTypeTransform.DataType}.
  * 
+ * <p>When converting from double, the reverse transformation can be performed
+ * directly to double[] or float[] (see {@link PrimitiveDataTransform}).
+ * 
  * @author Alan Race
  */
-public class DataTypeTransform implements DataTransform {
+public class DataTypeTransform implements PrimitiveDataTransform {
     
     /**
      * Logger for the class.
@@ -132,6 +141,24 @@ public class DataTypeTransform implements DataTransform {
         this.to = to;
     }
 
+    /**
+     * Get the original data type which is converted from.
+     * 
+     * @return Original data type
+     */
+    public DataType getFrom() {
+        return from;
+    }
+    
+    /**
+     * Get the new data type which is converted to.
+     * 
+     * @return New data type
+     */
+    public DataType getTo() {
+        return to;
+    }
+
     /**
      * Convert a double[] to the corresponding byte[] representation of the same
      * array.
@@ -233,6 +260,164 @@ public class DataTypeTransform implements DataTransform {
         return convertedData;
     }
 
+    /**
+     * Convert data from uncompressed byte[] with the data type defined by the
+     * dataType to a float[]. Data stored as float or as integers of up to 16 bits
+     * is converted without loss of precision, whereas double and larger integer 
+     * values are rounded to the nearest float.
+     *
+     * @param data Data as byte[]
+     * @param dataType DataType of the byte[]
+     * @return Data as float[]
+     */
+    public static float[] convertDataToFloat(byte[] data, DataType dataType) {
+        if (data == null) {
+            return new float[0];
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        
+        float[] convertedData = new float[data.length / getSizeInBytes(dataType)];
+
+        switch (dataType) {
+            case DOUBLE:
+                for (int j = 0; j < convertedData.length; j++) {
+                    convertedData[j] = (float) buffer.getDouble();
+                }
+
+                break;
+            case FLOAT:
+                buffer.asFloatBuffer().get(convertedData);
+
+                break;
+            case INTEGER_64BIT:
+                for (int j = 0; j < convertedData.length; j++) {
+                    convertedData[j] = buffer.getLong();
+                }
+
+                break;
+            case INTEGER_32BIT:
+                for (int j = 0; j < convertedData.length; j++) {
+                    convertedData[j] = buffer.getInt();
+                }
+
+                break;
+            case INTEGER_16BIT:
+                for (int j = 0; j < convertedData.length; j++) {
+                    convertedData[j] = buffer.getShort();
+                }
+
+                break;
+            case INTEGER_8BIT:
+                for (int j = 0; j < convertedData.length; j++) {
+                    convertedData[j] = buffer.get();
+                }
+
+                break;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + dataType);
+        }
+
+        return convertedData;
+    }
+
+    /**
+     * Convert the remaining uncompressed data in the buffer, with the data type 
+     * defined by the dataType, to doubles and write them into the destination buffer.
+     * The position of the data buffer is not modified, and the position of the 
+     * destination buffer is advanced by the number of values written.
+     *
+     * @param data Data as little-endian bytes
+     * @param dataType DataType of the data
+     * @param dest Buffer to write the converted data into
+     * @return Number of values written
+     * @throws java.nio.BufferOverflowException If there is insufficient space remaining in dest
+     */
+    public static int convertDataToDouble(ByteBuffer data, DataType dataType, DoubleBuffer dest) {
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int numValues = buffer.remaining() / getSizeInBytes(dataType);
+        
+        if(dest.remaining() < numValues)
+            throw new BufferOverflowException();
+        
+        switch (dataType) {
+            case DOUBLE:
+                DoubleBuffer doubleBuffer = buffer.asDoubleBuffer();
+                doubleBuffer.limit(numValues);
+                dest.put(doubleBuffer);
+                
+                break;
+            case FLOAT:
+                FloatBuffer floatBuffer = buffer.asFloatBuffer();
+                
+                for (int j = 0; j < numValues; j++) {
+                    dest.put(floatBuffer.get(j));
+                }
+                
+                break;
+            case INTEGER_64BIT:
+                LongBuffer longBuffer = buffer.asLongBuffer();
+                
+                for (int j = 0; j < numValues; j++) {
+                    dest.put(longBuffer.get(j));
+                }
+                
+                break;
+            case INTEGER_32BIT:
+                IntBuffer intBuffer = buffer.asIntBuffer();
+                
+                for (int j = 0; j < numValues; j++) {
+                    dest.put(intBuffer.get(j));
+                }
+                
+                break;
+            case INTEGER_16BIT:
+                ShortBuffer shortBuffer = buffer.asShortBuffer();
+                
+                for (int j = 0; j < numValues; j++) {
+                    dest.put(shortBuffer.get(j));
+                }
+                
+                break;
+            case INTEGER_8BIT:
+                int start = buffer.position();
+                
+                for (int j = 0; j < numValues; j++) {
+                    dest.put(buffer.get(start + j));
+                }
+                
+                break;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + dataType);
+        }
+        
+        return numValues;
+    }
+    
+    /**
+     * Get the number of bytes used to store a single value of the specified data type.
+     * 
+     * @param dataType DataType
+     * @return Size of a single value in bytes
+     */
+    public static int getSizeInBytes(DataType dataType) {
+        switch (dataType) {
+            case DOUBLE:
+            case INTEGER_64BIT:
+                return 8;
+            case FLOAT:
+            case INTEGER_32BIT:
+                return 4;
+            case INTEGER_16BIT:
+                return 2;
+            case INTEGER_8BIT:
+                return 1;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + dataType);
+        }
+    }
+
     /**
      * Convert data from uncompressed byte[] with the data type 'from' to the 
      * data type 'to'.
@@ -246,6 +431,314 @@ public class DataTypeTransform implements DataTransform {
         if (from.equals(to)) {
             return data;
         }
+        
+        if (data == null) {
+            return new byte[0];
+        }
+        
+        byte[] convertedData = new byte[(data.length / getSizeInBytes(from)) * getSizeInBytes(to)];
+        
+        convertData(ByteBuffer.wrap(data), from, ByteBuffer.wrap(convertedData), to);
+        
+        return convertedData;
+    }
+    
+    /**
+     * Convert the remaining uncompressed little-endian data in the buffer with 
+     * the data type 'from' to the data type 'to', writing the result into the 
+     * destination buffer in little-endian byte order. Each pair of data types 
+     * has a dedicated conversion loop, which gives identical results to 
+     * {@link #convertDataReference(byte[], DataType, DataType)} (values are 
+     * converted as if via double) without any intermediate arrays or streams. 
+     * 
+     * <p>The position of the data buffer is not modified, and the position of the 
+     * destination buffer is advanced by the number of bytes written.
+     *
+     * @param data Data as little-endian bytes in data type 'from'
+     * @param from Data type of the input data
+     * @param dest Buffer to write the converted data into
+     * @param to Data type to convert the input data to
+     * @return Number of values written
+     * @throws java.nio.BufferOverflowException If there is insufficient space remaining in dest
+     */
+    public static int convertData(ByteBuffer data, DataType from, ByteBuffer dest, DataType to) {
+        ByteBuffer in = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int numValues = in.remaining() / getSizeInBytes(from);
+        int outputLength = numValues * getSizeInBytes(to);
+        
+        if (dest.remaining() < outputLength)
+            throw new BufferOverflowException();
+        
+        ByteBuffer out = dest.slice().order(ByteOrder.LITTLE_ENDIAN);
+        
+        if (from.equals(to)) {
+            in.limit(in.position() + outputLength);
+            out.put(in);
+        } else {
+            switch (from) {
+                case DOUBLE:
+                    convertDoubles(in.asDoubleBuffer(), out, to, numValues);
+                    break;
+                case FLOAT:
+                    convertFloats(in.asFloatBuffer(), out, to, numValues);
+                    break;
+                case INTEGER_64BIT:
+                    convertLongs(in.asLongBuffer(), out, to, numValues);
+                    break;
+                case INTEGER_32BIT:
+                    convertInts(in.asIntBuffer(), out, to, numValues);
+                    break;
+                case INTEGER_16BIT:
+                    convertShorts(in.asShortBuffer(), out, to, numValues);
+                    break;
+                case INTEGER_8BIT:
+                    convertBytes(in.slice(), out, to, numValues);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Data type not supported: " + from);
+            }
+        }
+        
+        dest.position(dest.position() + outputLength);
+        
+        return numValues;
+    }
+    
+    private static void convertDoubles(DoubleBuffer in, ByteBuffer out, DataType to, int numValues) {
+        switch (to) {
+            case FLOAT:
+                FloatBuffer floatBuffer = out.asFloatBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    floatBuffer.put(j, (float) in.get(j));
+                }
+                break;
+            case INTEGER_64BIT:
+                LongBuffer longBuffer = out.asLongBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    longBuffer.put(j, (long) in.get(j));
+                }
+                break;
+            case INTEGER_32BIT:
+                IntBuffer intBuffer = out.asIntBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    intBuffer.put(j, (int) in.get(j));
+                }
+                break;
+            case INTEGER_16BIT:
+                ShortBuffer shortBuffer = out.asShortBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    shortBuffer.put(j, (short) in.get(j));
+                }
+                break;
+            case INTEGER_8BIT:
+                for (int j = 0; j < numValues; j++) {
+                    out.put(j, (byte) in.get(j));
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + to);
+        }
+    }
+    
+    private static void convertFloats(FloatBuffer in, ByteBuffer out, DataType to, int numValues) {
+        switch (to) {
+            case DOUBLE:
+                DoubleBuffer doubleBuffer = out.asDoubleBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    doubleBuffer.put(j, in.get(j));
+                }
+                break;
+            case INTEGER_64BIT:
+                LongBuffer longBuffer = out.asLongBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    longBuffer.put(j, (long) in.get(j));
+                }
+                break;
+            case INTEGER_32BIT:
+                IntBuffer intBuffer = out.asIntBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    intBuffer.put(j, (int) in.get(j));
+                }
+                break;
+            case INTEGER_16BIT:
+                ShortBuffer shortBuffer = out.asShortBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    shortBuffer.put(j, (short) in.get(j));
+                }
+                break;
+            case INTEGER_8BIT:
+                for (int j = 0; j < numValues; j++) {
+                    out.put(j, (byte) in.get(j));
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + to);
+        }
+    }
+    
+    // Values are converted to double first, as in the reference implementation, 
+    // since a long may not be exactly representable as a double
+    private static void convertLongs(LongBuffer in, ByteBuffer out, DataType to, int numValues) {
+        switch (to) {
+            case DOUBLE:
+                DoubleBuffer doubleBuffer = out.asDoubleBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    doubleBuffer.put(j, (double) in.get(j));
+                }
+                break;
+            case FLOAT:
+                FloatBuffer floatBuffer = out.asFloatBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    floatBuffer.put(j, (float) (double) in.get(j));
+                }
+                break;
+            case INTEGER_32BIT:
+                IntBuffer intBuffer = out.asIntBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    intBuffer.put(j, (int) (double) in.get(j));
+                }
+                break;
+            case INTEGER_16BIT:
+                ShortBuffer shortBuffer = out.asShortBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    shortBuffer.put(j, (short) (double) in.get(j));
+                }
+                break;
+            case INTEGER_8BIT:
+                for (int j = 0; j < numValues; j++) {
+                    out.put(j, (byte) (double) in.get(j));
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + to);
+        }
+    }
+    
+    private static void convertInts(IntBuffer in, ByteBuffer out, DataType to, int numValues) {
+        switch (to) {
+            case DOUBLE:
+                DoubleBuffer doubleBuffer = out.asDoubleBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    doubleBuffer.put(j, in.get(j));
+                }
+                break;
+            case FLOAT:
+                FloatBuffer floatBuffer = out.asFloatBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    floatBuffer.put(j, in.get(j));
+                }
+                break;
+            case INTEGER_64BIT:
+                LongBuffer longBuffer = out.asLongBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    longBuffer.put(j, in.get(j));
+                }
+                break;
+            case INTEGER_16BIT:
+                ShortBuffer shortBuffer = out.asShortBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    shortBuffer.put(j, (short) in.get(j));
+                }
+                break;
+            case INTEGER_8BIT:
+                for (int j = 0; j < numValues; j++) {
+                    out.put(j, (byte) in.get(j));
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + to);
+        }
+    }
+    
+    private static void convertShorts(ShortBuffer in, ByteBuffer out, DataType to, int numValues) {
+        switch (to) {
+            case DOUBLE:
+                DoubleBuffer doubleBuffer = out.asDoubleBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    doubleBuffer.put(j, in.get(j));
+                }
+                break;
+            case FLOAT:
+                FloatBuffer floatBuffer = out.asFloatBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    floatBuffer.put(j, in.get(j));
+                }
+                break;
+            case INTEGER_64BIT:
+                LongBuffer longBuffer = out.asLongBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    longBuffer.put(j, in.get(j));
+                }
+                break;
+            case INTEGER_32BIT:
+                IntBuffer intBuffer = out.asIntBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    intBuffer.put(j, in.get(j));
+                }
+                break;
+            case INTEGER_8BIT:
+                for (int j = 0; j < numValues; j++) {
+                    out.put(j, (byte) in.get(j));
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + to);
+        }
+    }
+    
+    private static void convertBytes(ByteBuffer in, ByteBuffer out, DataType to, int numValues) {
+        switch (to) {
+            case DOUBLE:
+                DoubleBuffer doubleBuffer = out.asDoubleBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    doubleBuffer.put(j, in.get(j));
+                }
+                break;
+            case FLOAT:
+                FloatBuffer floatBuffer = out.asFloatBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    floatBuffer.put(j, in.get(j));
+                }
+                break;
+            case INTEGER_64BIT:
+                LongBuffer longBuffer = out.asLongBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    longBuffer.put(j, in.get(j));
+                }
+                break;
+            case INTEGER_32BIT:
+                IntBuffer intBuffer = out.asIntBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    intBuffer.put(j, in.get(j));
+                }
+                break;
+            case INTEGER_16BIT:
+                ShortBuffer shortBuffer = out.asShortBuffer();
+                for (int j = 0; j < numValues; j++) {
+                    shortBuffer.put(j, in.get(j));
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + to);
+        }
+    }
+
+    /**
+     * Convert data from uncompressed byte[] with the data type 'from' to the 
+     * data type 'to' by first converting to a double[] and then writing each value
+     * through a DataOutputStream. This is considerably slower than 
+     * {@link #convertData(byte[], DataType, DataType)} and is retained as a 
+     * reference implementation against which the direct conversion can be tested.
+     *
+     * @param data Data as byte[] in data type 'from'
+     * @param from Data type of the input byte[]
+     * @param to Data type to convert the input data to
+     * @return Data as byte[] in the data type 'to'
+     */
+    public static byte[] convertDataReference(byte[] data, DataType from, DataType to) {
+        if (from.equals(to)) {
+            return data;
+        }
 
         double[] doubleData = convertDataToDouble(data, from);
 
@@ -309,6 +802,22 @@ public class DataTypeTransform implements DataTransform {
     public byte[] reverseTransform(byte[] data) throws DataFormatException {
         return convertData(data, to, from);
     }
+    
+    @Override
+    public double[] reverseTransformToDouble(byte[] data) throws DataFormatException {
+        if (from == DataType.DOUBLE)
+            return convertDataToDouble(data, to);
+        
+        return convertDataToDouble(reverseTransform(data), DataType.DOUBLE);
+    }
+    
+    @Override
+    public float[] reverseTransformToFloat(byte[] data) throws DataFormatException {
+        if (from == DataType.DOUBLE)
+            return convertDataToFloat(data, to);
+        
+        return convertDataToFloat(reverseTransform(data), DataType.DOUBLE);
+    }
 
     
     @Override
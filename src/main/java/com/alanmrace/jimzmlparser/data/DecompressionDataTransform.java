@@ -0,0 +1,25 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * DataTransform describing a compression, where the size of the decompressed
+ * data can be supplied with each call to the reverse transform. This allows a
+ * single transform to be shared between all data compressed in the same way,
+ * regardless of the size of each array.
+ *
+ * @author Alan Race
+ */
+public interface DecompressionDataTransform extends DataTransform {
+
+    /**
+     * Perform the decompression, where the size of the decompressed data is known.
+     * If decompressedSize is 0 then this is the same as {@link #reverseTransform(byte[])}.
+     *
+     * @param data Data to decompress
+     * @param decompressedSize Size in bytes of the decompressed data, or 0 if unknown
+     * @return Decompressed data
+     * @throws DataFormatException Issue with the decompression, or the decompressed size is required but not known
+     */
+    byte[] reverseTransform(byte[] data, int decompressedSize) throws DataFormatException;
+}
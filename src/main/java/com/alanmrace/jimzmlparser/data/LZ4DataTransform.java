@@ -1,8 +1,11 @@
 package com.alanmrace.jimzmlparser.data;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.zip.DataFormatException;
 import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
 import net.jpountz.lz4.LZ4Factory;
 import net.jpountz.lz4.LZ4FastDecompressor;
 
@@ -10,7 +13,7 @@ import net.jpountz.lz4.LZ4FastDecompressor;
  *
  * @author Alan Race
  */
-public class LZ4DataTransform implements DataTransform {
+public class LZ4DataTransform implements ByteBufferDataTransform, DecompressionDataTransform {
     public static final int MAX_COMPRESSION_FACTOR = 10;
     
     private final transient LZ4Factory factory = LZ4Factory.fastestInstance();
@@ -39,11 +42,97 @@ public class LZ4DataTransform implements DataTransform {
 
     @Override
     public byte[] reverseTransform(byte[] data) throws DataFormatException {
-        byte[] decompressed = new byte[arrayLengthInBytes];
+        return reverseTransform(data, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>LZ4 does not record the decompressed size, so if it is not supplied 
+     * then the size supplied on construction is used.
+     */
+    @Override
+    public byte[] reverseTransform(byte[] data, int decompressedSize) throws DataFormatException {
+        int length = (decompressedSize > 0) ? decompressedSize : arrayLengthInBytes;
+        
+        if(length <= 0)
+            throw new DataFormatException("Decompressed size of LZ4 data is not known");
         
-        LZ4FastDecompressor decompressor = factory.fastDecompressor();
-        decompressor.decompress(data, 0, decompressed, 0, arrayLengthInBytes);
+        byte[] decompressed = new byte[length];
+        
+        try {
+            LZ4FastDecompressor decompressor = factory.fastDecompressor();
+            decompressor.decompress(data, 0, decompressed, 0, length);
+        } catch (LZ4Exception ex) {
+            throw new DataFormatException(ex.getMessage());
+        }
         
         return decompressed;
     }
+
+    @Override
+    public int forwardTransform(ByteBuffer src, ByteBuffer dest) throws DataFormatException {
+        LZ4Compressor compressor = factory.fastCompressor();
+        int compressedLength;
+        
+        try {
+            compressedLength = compressor.compress(src, src.position(), src.remaining(), dest, dest.position(), dest.remaining());
+        } catch (LZ4Exception ex) {
+            // Only thrown by the compressor when the destination is too small
+            throw new BufferOverflowException();
+        }
+        
+        src.position(src.limit());
+        dest.position(dest.position() + compressedLength);
+        
+        return compressedLength;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>If the decompressed size was not supplied on construction then the 
+     * data is decompressed into the remaining space of dest, in which case 
+     * insufficient space is reported as a DataFormatException.
+     */
+    @Override
+    public int reverseTransform(ByteBuffer src, ByteBuffer dest) throws DataFormatException {
+        int length = arrayLengthInBytes;
+        
+        if(dest.remaining() < length)
+            throw new BufferOverflowException();
+        
+        try {
+            if(length > 0)
+                factory.fastDecompressor().decompress(src, src.position(), dest, dest.position(), length);
+            else
+                length = factory.safeDecompressor().decompress(src, src.position(), src.remaining(), dest, dest.position(), dest.remaining());
+        } catch (LZ4Exception ex) {
+            throw new DataFormatException(ex.getMessage());
+        }
+        
+        src.position(src.limit());
+        dest.position(dest.position() + length);
+        
+        return length;
+    }
+
+    @Override
+    public int getMaxForwardLength(int length) {
+        return factory.fastCompressor().maxCompressedLength(length);
+    }
+
+    @Override
+    public int getReverseLength(ByteBuffer src) {
+        return (arrayLengthInBytes > 0) ? arrayLengthInBytes : -1;
+    }
+    
+    /**
+     * Recreate the transform when deserialised, as the LZ4Factory is not serialised.
+     * 
+     * @return LZ4DataTransform with the same array length
+     */
+    private Object readResolve() {
+        return new LZ4DataTransform(arrayLengthInBytes);
+    }
 }
@@ -5,6 +5,10 @@
  */
 package com.alanmrace.jimzmlparser.data;
 
+import com.alanmrace.jimzmlparser.util.ByteBufferHelper;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.zip.DataFormatException;
 import ms.numpress.MSNumpress;
@@ -13,7 +17,7 @@ import ms.numpress.MSNumpress;
  *
  * @author Alan
  */
-public class MSNumpressDataTransform implements DataTransform {
+public class MSNumpressDataTransform implements PrimitiveDataTransform, ByteBufferDataTransform {
 
     public enum NumpressAlgorithm {
         LINEAR,
@@ -76,4 +80,70 @@ public class MSNumpressDataTransform implements DataTransform {
         return DataTypeTransform.convertDoublesToBytes(result);
     }
     
+    @Override
+    public double[] reverseTransformToDouble(byte[] data) throws DataFormatException {
+        return MSNumpress.decode(accession, data, data.length);
+    }
+    
+    @Override
+    public float[] reverseTransformToFloat(byte[] data) throws DataFormatException {
+        double[] decoded = reverseTransformToDouble(data);
+        float[] result = new float[decoded.length];
+        
+        for(int i = 0; i < decoded.length; i++)
+            result[i] = (float) decoded[i];
+        
+        return result;
+    }
+    
+    @Override
+    public int forwardTransform(ByteBuffer src, ByteBuffer dest) throws DataFormatException {
+        byte[] encoded = forwardTransform(ByteBufferHelper.getRemainingBytes(src));
+        
+        if(encoded.length > dest.remaining())
+            throw new BufferOverflowException();
+        
+        src.position(src.limit());
+        dest.put(encoded);
+        
+        return encoded.length;
+    }
+
+    @Override
+    public int reverseTransform(ByteBuffer src, ByteBuffer dest) throws DataFormatException {
+        double[] decoded = reverseTransformToDouble(ByteBufferHelper.getRemainingBytes(src));
+        int length = decoded.length * 8;
+        
+        if(length > dest.remaining())
+            throw new BufferOverflowException();
+        
+        dest.duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(decoded);
+        
+        src.position(src.limit());
+        dest.position(dest.position() + length);
+        
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>Each value is encoded in at most 5 bytes, in addition to a header of 
+     * at most 16 bytes.
+     */
+    @Override
+    public int getMaxForwardLength(int length) {
+        return (length / 8) * 5 + 16;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The number of values encoded by MS-Numpress is only known once the 
+     * data has been decoded, so this always returns -1.
+     */
+    @Override
+    public int getReverseLength(ByteBuffer src) {
+        return -1;
+    }
 }
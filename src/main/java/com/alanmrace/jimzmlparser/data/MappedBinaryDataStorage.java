@@ -0,0 +1,192 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * BinaryDataStorage which maps the file into memory so that data can be copied 
+ * directly from the page cache, rather than requiring a seek and read for each 
+ * access. The file is mapped lazily in windows, each smaller than 2 GB, and 
+ * as no file pointer is shared no synchronization is required between threads 
+ * once a window has been mapped.
+ * 
+ * <p>Mapped windows are only released when garbage collected, so on some platforms
+ * the file can remain locked for a time after {@link #close()} has been called.
+ * 
+ * @author Alan Race
+ */
+public class MappedBinaryDataStorage extends BinaryDataStorage {
+    
+    /**
+     * Class logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(MappedBinaryDataStorage.class.getName());
+    
+    /**
+     * Default size in bytes of each mapped window (1 GB).
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+    
+    /**
+     * Size in bytes of each mapped window.
+     */
+    private final int windowSize;
+    
+    /**
+     * Length of the file in bytes at the time it was opened.
+     */
+    private final long fileLength;
+    
+    /**
+     * Mapped windows of the file, populated on first access. Null once the 
+     * storage has been closed.
+     */
+    private volatile AtomicReferenceArray<MappedByteBuffer> windows;
+    
+    /**
+     * Set up a memory mapped file containing binary data, using the default 
+     * window size.
+     * 
+     * @param dataFile File containing binary data
+     * @throws FileNotFoundException Error occurred opening the file
+     */
+    public MappedBinaryDataStorage(File dataFile) throws FileNotFoundException {
+        this(dataFile, DEFAULT_WINDOW_SIZE);
+    }
+    
+    /**
+     * Set up a memory mapped file containing binary data, mapping at most 
+     * windowSize bytes at a time.
+     * 
+     * @param dataFile File containing binary data
+     * @param windowSize Size in bytes of each mapped window
+     * @throws FileNotFoundException Error occurred opening the file
+     */
+    public MappedBinaryDataStorage(File dataFile, int windowSize) throws FileNotFoundException {
+        super(dataFile, false);
+        
+        if(windowSize <= 0)
+            throw new IllegalArgumentException("Window size must be positive, not " + windowSize);
+        
+        this.windowSize = windowSize;
+        this.fileLength = dataFile.length();
+        
+        int numWindows = (int) ((fileLength + windowSize - 1) / windowSize);
+        windows = new AtomicReferenceArray<MappedByteBuffer>(numWindows);
+    }
+
+    @Override
+    protected void readData(long offset, byte[] buffer, int bufferOffset, int length) throws IOException {
+        AtomicReferenceArray<MappedByteBuffer> currentWindows = windows;
+        
+        if(currentWindows == null)
+            throw new IOException("Trying to access data from a closed storage (" + getFile() + ")");
+        
+        // Match the behaviour of RandomAccessFile, where any data requested beyond 
+        // the end of the file is left as zero
+        int available = (int) Math.max(0, Math.min(length, fileLength - offset));
+        
+        if(available < length) {
+            LOGGER.log(Level.WARNING, "Requested {0} bytes at offset {1} but only {2} available in {3}", 
+                    new Object[] {length, offset, available, getFile()});
+        }
+        
+        long position = offset;
+        int copied = 0;
+        
+        // Data can straddle the boundary between two windows, so copy from each in turn
+        while(copied < available) {
+            int windowIndex = (int) (position / windowSize);
+            int windowOffset = (int) (position - (long) windowIndex * windowSize);
+            
+            ByteBuffer window = getWindow(currentWindows, windowIndex).duplicate();
+            int toCopy = Math.min(available - copied, window.limit() - windowOffset);
+            
+            window.position(windowOffset);
+            window.get(buffer, bufferOffset + copied, toCopy);
+            
+            copied += toCopy;
+            position += toCopy;
+        }
+    }
+    
+    /**
+     * Get the data as a read-only, little-endian view of the mapped file, without 
+     * copying. If the data straddles two mapped windows, or extends beyond the 
+     * end of the file, then the data is copied instead.
+     * 
+     * @param offset Offset in bytes within the dataStorage
+     * @param length Length of the data in bytes
+     * @return Read-only ByteBuffer containing the data
+     * @throws IOException Exception thrown when trying to read data
+     */
+    @Override
+    public ByteBuffer getDataAsByteBuffer(long offset, int length) throws IOException {
+        AtomicReferenceArray<MappedByteBuffer> currentWindows = windows;
+        
+        if(currentWindows != null && offset >= 0 && offset + length <= fileLength) {
+            int windowIndex = (int) (offset / windowSize);
+            int windowOffset = (int) (offset - (long) windowIndex * windowSize);
+            
+            ByteBuffer window = getWindow(currentWindows, windowIndex).duplicate();
+            
+            if(windowOffset + length <= window.limit()) {
+                window.position(windowOffset);
+                window.limit(windowOffset + length);
+                
+                return window.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        
+        return super.getDataAsByteBuffer(offset, length);
+    }
+    
+    /**
+     * Get the window with the specified index, mapping it if this is the first access.
+     * 
+     * @param currentWindows Array of windows
+     * @param index Index of the window
+     * @return Mapped window
+     * @throws IOException Issue mapping the file
+     */
+    private MappedByteBuffer getWindow(AtomicReferenceArray<MappedByteBuffer> currentWindows, int index) throws IOException {
+        MappedByteBuffer window = currentWindows.get(index);
+        
+        if(window == null) {
+            long start = (long) index * windowSize;
+            long size = Math.min(windowSize, fileLength - start);
+            
+            window = getFileChannel().map(FileChannel.MapMode.READ_ONLY, start, size);
+            
+            // Another thread may have mapped the same window in the meantime, in which case use that one
+            if(!currentWindows.compareAndSet(index, null, window))
+                window = currentWindows.get(index);
+        }
+        
+        return window;
+    }
+    
+    /**
+     * Get the size in bytes of each mapped window.
+     * 
+     * @return Window size in bytes
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        windows = null;
+        
+        super.close();
+    }
+}
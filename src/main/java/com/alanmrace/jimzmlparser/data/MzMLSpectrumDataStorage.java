@@ -38,6 +38,30 @@ public class MzMLSpectrumDataStorage extends DataStorage {
 	return base64DataStorage;
     }
     
+    /**
+     * Set the cache used to store decoded data. As data is read via the Base64DataStorage,
+     * the cache is also set on that storage.
+     * 
+     * @param dataCache Cache of decoded data, or null to disable caching
+     */
+    @Override
+    public void setDataCache(DataCache dataCache) {
+        super.setDataCache(dataCache);
+        base64DataStorage.setDataCache(dataCache);
+    }
+    
+    /**
+     * Set the store used to hold decoded data off-heap. As data is read via the 
+     * Base64DataStorage, the store is also set on that storage.
+     * 
+     * @param offHeapDataStore Off-heap store of decoded data, or null to disable
+     */
+    @Override
+    public void setOffHeapDataStore(OffHeapDataStore offHeapDataStore) {
+        super.setOffHeapDataStore(offHeapDataStore);
+        base64DataStorage.setOffHeapDataStore(offHeapDataStore);
+    }
+    
     @Override
     public void close() throws IOException {
         super.close();
@@ -0,0 +1,323 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+/**
+ * Size-bounded store of decoded data held outside of the Java heap in direct
+ * buffers, keyed on the {@link DataLocation} from which the data was decoded. 
+ * Keeping decoded data off-heap avoids large old generation heaps and long 
+ * garbage collection pauses when working with datasets larger than a few GB.
+ * 
+ * <p>Data is accessed as read-only {@link DoubleBuffer} or {@link FloatBuffer} 
+ * views. If the data is not in the store, either because it has not been requested 
+ * before or because it has been evicted, it is decoded again from the DataLocation.
+ * When the total size exceeds the maximum size, the least recently used entries 
+ * are evicted.
+ * 
+ * <p>A store can be set on a {@link DataStorage} (see {@link DataStorage#setOffHeapDataStore(OffHeapDataStore)}),
+ * in which case {@link DataLocation#getDoubleBuffer()} and {@link DataLocation#getFloatBuffer()}
+ * return views of the stored data for any data which must be decoded.
+ * 
+ * <p>Memory backing an evicted entry is only released once no views of it remain
+ * and it has been garbage collected, so views previously returned stay valid. 
+ * The total off-heap memory available is limited by the JVM option 
+ * {@code -XX:MaxDirectMemorySize}.
+ * 
+ * @author Alan Race
+ */
+public class OffHeapDataStore {
+    
+    /**
+     * Default maximum size of the store in bytes (1 GB).
+     */
+    public static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+    
+    /**
+     * Decoded data stored off-heap, along with the precision it is stored in.
+     */
+    private static class Entry {
+        
+        /** Direct buffer containing the data in native byte order. */
+        final ByteBuffer buffer;
+        
+        /** Whether the data is stored as float rather than double. */
+        final boolean singlePrecision;
+        
+        Entry(ByteBuffer buffer, boolean singlePrecision) {
+            this.buffer = buffer;
+            this.singlePrecision = singlePrecision;
+        }
+    }
+    
+    /**
+     * Maximum size of the store in bytes.
+     */
+    private final long maxSize;
+    
+    /**
+     * Current size of the store in bytes.
+     */
+    private long currentSize;
+    
+    /**
+     * Stored data, in access order so that the first entry is the least recently used.
+     */
+    private final LinkedHashMap<DataLocation, Entry> store;
+    
+    /**
+     * Number of requests which were served from the store.
+     */
+    private long hitCount;
+    
+    /**
+     * Number of requests which required the data to be decoded.
+     */
+    private long missCount;
+    
+    /**
+     * Number of entries removed from the store to stay within the maximum size.
+     */
+    private long evictionCount;
+    
+    /**
+     * Create a store with the default maximum size.
+     */
+    public OffHeapDataStore() {
+        this(DEFAULT_MAX_SIZE);
+    }
+    
+    /**
+     * Create a store which holds at most maxSize bytes of data.
+     * 
+     * @param maxSize Maximum size of the store in bytes
+     */
+    public OffHeapDataStore(long maxSize) {
+        if(maxSize < 0)
+            throw new IllegalArgumentException("Maximum store size must not be negative, not " + maxSize);
+        
+        this.maxSize = maxSize;
+        this.store = new LinkedHashMap<DataLocation, Entry>(16, 0.75f, true);
+    }
+    
+    /**
+     * Get a read-only view of the data decoded from the specified DataLocation
+     * as double precision values, decoding and storing it if necessary.
+     * 
+     * @param dataLocation Location of the data
+     * @return Read-only view of the decoded data
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public DoubleBuffer getDoubleBuffer(DataLocation dataLocation) throws DataFormatException, IOException {
+        return getBuffer(dataLocation, false).asDoubleBuffer().asReadOnlyBuffer();
+    }
+    
+    /**
+     * Get a read-only view of the data decoded from the specified DataLocation
+     * as single precision values, decoding and storing it if necessary. Storing
+     * data as float halves the memory used, at the expense of precision.
+     * 
+     * @param dataLocation Location of the data
+     * @return Read-only view of the decoded data
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public FloatBuffer getFloatBuffer(DataLocation dataLocation) throws DataFormatException, IOException {
+        return getBuffer(dataLocation, true).asFloatBuffer().asReadOnlyBuffer();
+    }
+    
+    /**
+     * Get the direct buffer containing the data in the requested precision, 
+     * decoding the data if it is not present in the store. Data stored in a 
+     * different precision is replaced.
+     * 
+     * @param dataLocation Location of the data
+     * @param singlePrecision true if the data should be stored as float, false for double
+     * @return Duplicate of the buffer in native byte order
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    private ByteBuffer getBuffer(DataLocation dataLocation, boolean singlePrecision) throws DataFormatException, IOException {
+        synchronized(this) {
+            Entry entry = store.get(dataLocation);
+            
+            if(entry != null && entry.singlePrecision == singlePrecision) {
+                hitCount++;
+                
+                return entry.buffer.duplicate().order(ByteOrder.nativeOrder());
+            }
+            
+            missCount++;
+        }
+        
+        // Decode without holding the lock so that other threads can access the store
+        ByteBuffer buffer;
+        
+        if(singlePrecision) {
+            FloatBuffer data = decodeFloats(dataLocation);
+            
+            buffer = ByteBuffer.allocateDirect(data.remaining() * 4).order(ByteOrder.nativeOrder());
+            buffer.asFloatBuffer().put(data);
+        } else {
+            DoubleBuffer data = decodeDoubles(dataLocation);
+            
+            buffer = ByteBuffer.allocateDirect(data.remaining() * 8).order(ByteOrder.nativeOrder());
+            buffer.asDoubleBuffer().put(data);
+        }
+        
+        put(dataLocation, new Entry(buffer, singlePrecision));
+        
+        return buffer.duplicate().order(ByteOrder.nativeOrder());
+    }
+    
+    /**
+     * Decode the data as float, without widening to double. Data stored uncompressed
+     * as float is copied directly from the raw data.
+     * 
+     * @param dataLocation Location of the data
+     * @return Decoded data
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    private static FloatBuffer decodeFloats(DataLocation dataLocation) throws DataFormatException, IOException {
+        if(dataLocation.getUntransformedDataType() == DataTypeTransform.DataType.FLOAT)
+            return dataLocation.getByteBuffer().asFloatBuffer();
+        
+        return FloatBuffer.wrap(dataLocation.getDataAsFloat());
+    }
+    
+    /**
+     * Decode the data as double. Data stored uncompressed as double is copied 
+     * directly from the raw data.
+     * 
+     * @param dataLocation Location of the data
+     * @return Decoded data
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    private static DoubleBuffer decodeDoubles(DataLocation dataLocation) throws DataFormatException, IOException {
+        if(dataLocation.getUntransformedDataType() == DataTypeTransform.DataType.DOUBLE)
+            return dataLocation.getByteBuffer().asDoubleBuffer();
+        
+        return DoubleBuffer.wrap(dataLocation.getData());
+    }
+    
+    /**
+     * Add an entry to the store, evicting the least recently used entries if 
+     * necessary. Entries larger than the maximum size of the store are not added.
+     * 
+     * @param dataLocation Location of the data
+     * @param entry Stored data
+     */
+    private synchronized void put(DataLocation dataLocation, Entry entry) {
+        long size = entry.buffer.capacity();
+        
+        if(size > maxSize)
+            return;
+        
+        Entry previous = store.put(dataLocation, entry);
+        
+        if(previous != null)
+            currentSize -= previous.buffer.capacity();
+        
+        currentSize += size;
+        
+        Iterator<Map.Entry<DataLocation, Entry>> iterator = store.entrySet().iterator();
+        
+        while(currentSize > maxSize && iterator.hasNext()) {
+            currentSize -= iterator.next().getValue().buffer.capacity();
+            iterator.remove();
+            
+            evictionCount++;
+        }
+    }
+    
+    /**
+     * Remove the data decoded from the specified DataLocation from the store. 
+     * 
+     * @param dataLocation Location of the data
+     */
+    public synchronized void remove(DataLocation dataLocation) {
+        Entry entry = store.remove(dataLocation);
+        
+        if(entry != null)
+            currentSize -= entry.buffer.capacity();
+    }
+    
+    /**
+     * Remove all data from the store.
+     */
+    public synchronized void clear() {
+        store.clear();
+        currentSize = 0;
+    }
+    
+    /**
+     * Get the maximum size of the store in bytes.
+     * 
+     * @return Maximum size in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+    
+    /**
+     * Get the current size of the store in bytes.
+     * 
+     * @return Current size in bytes
+     */
+    public synchronized long getSize() {
+        return currentSize;
+    }
+    
+    /**
+     * Get the number of entries currently in the store.
+     * 
+     * @return Number of entries
+     */
+    public synchronized int getNumberOfEntries() {
+        return store.size();
+    }
+    
+    /**
+     * Get the number of requests which were served from the store.
+     * 
+     * @return Number of hits
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+    
+    /**
+     * Get the number of requests which required the data to be decoded.
+     * 
+     * @return Number of misses
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+    
+    /**
+     * Get the number of entries which have been removed from the store in order
+     * to stay within the maximum size.
+     * 
+     * @return Number of evictions
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return "OffHeapDataStore [" + currentSize + "/" + maxSize + " bytes, " + store.size() + " entries, " 
+                + hitCount + " hits, " + missCount + " misses, " + evictionCount + " evictions]";
+    }
+}
@@ -0,0 +1,61 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * BinaryDataStorage which reads data using positional reads on the file's 
+ * {@link FileChannel}. Positional reads do not use or modify the file pointer, 
+ * so unlike the default implementation no lock is held while reading and 
+ * multiple threads can read from the same file concurrently.
+ * 
+ * <p>Interrupting a thread while it is reading from the storage causes the 
+ * underlying channel to be closed (see {@link java.nio.channels.ClosedByInterruptException}),
+ * after which no further data can be read by any thread.
+ * 
+ * @author Alan Race
+ */
+public class PositionalBinaryDataStorage extends BinaryDataStorage {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(PositionalBinaryDataStorage.class.getName());
+    
+    /**
+     * Set up a file containing binary data for reading with positional reads.
+     * 
+     * @param dataFile File containing binary data
+     * @throws FileNotFoundException Error occurred opening the file
+     */
+    public PositionalBinaryDataStorage(File dataFile) throws FileNotFoundException {
+        super(dataFile, false);
+    }
+
+    @Override
+    protected void readData(long offset, byte[] buffer, int bufferOffset, int length) throws IOException {
+        FileChannel channel = getFileChannel();
+        ByteBuffer destination = ByteBuffer.wrap(buffer, bufferOffset, length);
+        long position = offset;
+        
+        // A single read is not guaranteed to fill the buffer, so continue until 
+        // either all data is read or the end of the file is reached
+        while(destination.hasRemaining()) {
+            int bytesRead = channel.read(destination, position);
+            
+            if(bytesRead < 0) {
+                LOGGER.log(Level.WARNING, "Requested {0} bytes at offset {1} but reached the end of {2}", 
+                        new Object[] {length, offset, getFile()});
+                
+                break;
+            }
+            
+            position += bytesRead;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * DataTransform which can produce the numerical values of its reverse 
+ * transformation directly, rather than as a byte[] representation of double[]. 
+ * When such a transform is the final step of reversing a {@link DataTransformation},
+ * the intermediate byte[] and its subsequent conversion to double[] are skipped.
+ * 
+ * @author Alan Race
+ */
+public interface PrimitiveDataTransform extends DataTransform {
+    
+    /**
+     * Perform the data transformation in reverse, producing the values which 
+     * the byte[] returned by {@link #reverseTransform(byte[])} would represent 
+     * when interpreted as double.
+     * 
+     * @param data Data to reverse the transformation on
+     * @return Transformed data as double[]
+     * @throws DataFormatException Issue with the transformation
+     */
+    double[] reverseTransformToDouble(byte[] data) throws DataFormatException;
+    
+    /**
+     * Perform the data transformation in reverse, producing the values of 
+     * {@link #reverseTransformToDouble(byte[])} rounded to float. Implementations
+     * should avoid widening to double where the data is stored in a narrower type.
+     * 
+     * @param data Data to reverse the transformation on
+     * @return Transformed data as float[]
+     * @throws DataFormatException Issue with the transformation
+     */
+    float[] reverseTransformToFloat(byte[] data) throws DataFormatException;
+}
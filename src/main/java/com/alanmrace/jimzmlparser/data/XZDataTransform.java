@@ -5,100 +5,434 @@
  */
 package com.alanmrace.jimzmlparser.data;
 
-import java.io.ByteArrayInputStream;
+import com.alanmrace.jimzmlparser.util.ByteBufferHelper;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
+import org.tukaani.xz.ArrayCache;
+import org.tukaani.xz.BasicArrayCache;
 import org.tukaani.xz.LZMA2Options;
-import org.tukaani.xz.XZInputStream;
+import org.tukaani.xz.SeekableInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+import org.tukaani.xz.UnsupportedOptionsException;
 import org.tukaani.xz.XZOutputStream;
 
 /**
  * DataTransform describing the compression (forward) and decompression (reverse)
  * of data using the XZ algorithm.
  * 
+ * <p>The decompressed size is read from the index at the end of the XZ stream, 
+ * so that decompression is performed with bulk reads directly into an output 
+ * array of the correct size. Encoder and decoder buffers are reused between 
+ * calls through the xz library's {@link BasicArrayCache}.
+ * 
+ * <p>Data can optionally be compressed into multiple independent blocks, which
+ * are then decompressed in parallel by {@link BlockExecutor}.
+ * 
  * @author alan.race
  */
-public class XZDataTransform implements DataTransform {
+public class XZDataTransform implements ByteBufferDataTransform {
+    
+    /**
+     * Serialisation version ID.
+     */
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Class logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(XZDataTransform.class.getName());
     
+    /**
+     * Cache of encoder and decoder buffers shared between all threads.
+     */
+    private static final ArrayCache ARRAY_CACHE = BasicArrayCache.getInstance();
+    
+    /**
+     * Default compression options, shared between all instances.
+     */
+    private static final LZMA2Options DEFAULT_OPTIONS = new LZMA2Options();
+    
+    /**
+     * Size in bytes of the chunk used to transfer decompressed data to direct buffers.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+    
+    /**
+     * Size in bytes of uncompressed data in each block when compressing, or 0
+     * to compress into a single block.
+     */
+    private final int blockSize;
+    
+    /**
+     * Set up an XZ transform which compresses data into a single block.
+     */
+    public XZDataTransform() {
+        this(0);
+    }
+    
+    /**
+     * Set up an XZ transform which compresses data into independent blocks of
+     * blockSize uncompressed bytes, which can be decompressed in parallel. 
+     * Smaller blocks allow more parallelism but slightly reduce the compression ratio.
+     * 
+     * @param blockSize Size in bytes of uncompressed data in each block, or 0 for a single block
+     */
+    public XZDataTransform(int blockSize) {
+        this.blockSize = Math.max(0, blockSize);
+    }
+    
+    /**
+     * Get the size in bytes of uncompressed data in each block when compressing.
+     * 
+     * @return Block size in bytes, or 0 if data is compressed into a single block
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
     
     @Override
     public byte[] forwardTransform(byte[] data) throws DataFormatException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length);
-        XZOutputStream gzos = null;
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.max(32, data.length / 2));
         
         try {
-            gzos = new XZOutputStream(outputStream, new LZMA2Options());
-            gzos.write(data, 0, data.length);
-            gzos.finish();
+            compress(ByteBuffer.wrap(data), outputStream);
         } catch (IOException ex) {
-            Logger.getLogger(XZDataTransform.class.getName()).log(Level.SEVERE, null, ex);
-        } finally {
-            try {
-                if(gzos != null)
-                    gzos.close();
-            } catch (IOException ex) {
-                Logger.getLogger(XZDataTransform.class.getName()).log(Level.SEVERE, null, ex);
+            LOGGER.log(Level.SEVERE, null, ex);
+            
+            return new byte[0];
+        }
+        
+        return outputStream.toByteArray();
+    }
+
+    @Override
+    public int forwardTransform(ByteBuffer src, ByteBuffer dest) throws DataFormatException {
+        final ByteBuffer out = dest.duplicate();
+        
+        try {
+            compress(src, new OutputStream() {
+                @Override
+                public void write(int b) {
+                    out.put((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    out.put(b, off, len);
+                }
+            });
+        } catch (IOException ex) {
+            throw new DataFormatException(ex.toString());
+        }
+        
+        int written = out.position() - dest.position();
+        
+        src.position(src.limit());
+        dest.position(out.position());
+        
+        return written;
+    }
+    
+    /**
+     * Compress the remaining data in the buffer, without modifying its position,
+     * and write the XZ stream to the output.
+     * 
+     * @param src Data to compress
+     * @param outputStream Stream to write the compressed data to
+     * @throws IOException Issue with the compression
+     */
+    private void compress(ByteBuffer src, OutputStream outputStream) throws IOException {
+        byte[] data = src.hasArray() ? src.array() : ByteBufferHelper.getRemainingBytes(src);
+        int offset = src.hasArray() ? ByteBufferHelper.getArrayPosition(src) : 0;
+        int length = src.remaining();
+        
+        XZOutputStream xzOutputStream = new XZOutputStream(outputStream, getOptions(length), ARRAY_CACHE);
+        
+        if(blockSize > 0) {
+            for(int position = 0; position < length; position += blockSize) {
+                xzOutputStream.write(data, offset + position, Math.min(blockSize, length - position));
+                xzOutputStream.endBlock();
             }
+        } else {
+            xzOutputStream.write(data, offset, length);
         }
         
-        if(gzos != null) {
+        // Finishing the stream returns the encoder buffers to the cache
+        xzOutputStream.finish();
+    }
+    
+    /**
+     * Get the compression options for data of the specified length. The dictionary
+     * is reduced to the size of the data, as a larger dictionary has no benefit
+     * but requires more memory both to compress and decompress.
+     * 
+     * @param dataLength Length of the data in bytes
+     * @return Compression options
+     * @throws UnsupportedOptionsException Invalid dictionary size
+     */
+    private static LZMA2Options getOptions(int dataLength) throws UnsupportedOptionsException {
+        if(dataLength >= DEFAULT_OPTIONS.getDictSize())
+            return DEFAULT_OPTIONS;
+        
+        LZMA2Options options = (LZMA2Options) DEFAULT_OPTIONS.clone();
+        options.setDictSize(Math.max(LZMA2Options.DICT_SIZE_MIN, dataLength));
+        
+        return options;
+    }
+
+    @Override
+    public byte[] reverseTransform(byte[] data) throws DataFormatException {
+        ByteBuffer src = ByteBuffer.wrap(data);
+        
+        try {
+            SeekableXZInputStream xzInputStream = open(src);
+            
             try {
-                outputStream.flush();
-            } catch (IOException ex) {
-                Logger.getLogger(XZDataTransform.class.getName()).log(Level.SEVERE, null, ex);
+                byte[] uncompressed = new byte[getUncompressedLength(xzInputStream)];
+                
+                decompress(xzInputStream, src, ByteBuffer.wrap(uncompressed), uncompressed.length);
+                
+                return uncompressed;
+            } finally {
+                xzInputStream.close();
             }
-            
-            return outputStream.toByteArray();
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
         }
         
         return new byte[0];
     }
 
     @Override
-    public byte[] reverseTransform(byte[] data) throws DataFormatException {
+    public int reverseTransform(ByteBuffer src, ByteBuffer dest) throws DataFormatException {
+        int length;
+        
         try {
-            XZInputStream xzInputStream = new XZInputStream(
-                    new ByteArrayInputStream(data));
+            SeekableXZInputStream xzInputStream = open(src);
             
-            List<Byte> uncompressedData = new ArrayList<Byte>(data.length);
+            try {
+                length = getUncompressedLength(xzInputStream);
+                
+                if(length > dest.remaining())
+                    throw new BufferOverflowException();
+                
+                decompress(xzInputStream, src, dest, length);
+            } finally {
+                xzInputStream.close();
+            }
+        } catch (IOException ex) {
+            throw new DataFormatException(ex.toString());
+        }
+        
+        src.position(src.limit());
+        dest.position(dest.position() + length);
+        
+        return length;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>This allows for data which cannot be compressed being stored in 
+     * uncompressed LZMA2 chunks, and for the headers of each block.
+     */
+    @Override
+    public int getMaxForwardLength(int length) {
+        int numberOfBlocks = (blockSize > 0) ? (length / blockSize + 1) : 1;
+        
+        return length + (length >> 14) + numberOfBlocks * 1100 + 1024;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The decompressed size is read from the index at the end of the XZ stream.
+     */
+    @Override
+    public int getReverseLength(ByteBuffer src) {
+        try {
+            SeekableXZInputStream xzInputStream = open(src);
             
-            int uncompressed = 0;
-            int firstByte;
+            try {
+                return getUncompressedLength(xzInputStream);
+            } finally {
+                xzInputStream.close();
+            }
+        } catch (IOException ex) {
+            return -1;
+        } catch (DataFormatException ex) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Open the XZ stream contained in the remaining data of the buffer, reading
+     * its index. The position of the buffer is not modified.
+     * 
+     * @param src Buffer containing the XZ stream
+     * @return Stream to read the decompressed data
+     * @throws IOException Issue reading the XZ stream
+     */
+    private static SeekableXZInputStream open(ByteBuffer src) throws IOException {
+        return new SeekableXZInputStream(new ByteBufferSeekableInputStream(src), -1, ARRAY_CACHE);
+    }
+    
+    /**
+     * Get the decompressed length of the XZ stream.
+     * 
+     * @param xzInputStream XZ stream
+     * @return Length in bytes of the decompressed data
+     * @throws DataFormatException If the decompressed data is too large for an array
+     */
+    private static int getUncompressedLength(SeekableXZInputStream xzInputStream) throws DataFormatException {
+        long uncompressedLength = xzInputStream.length();
+        
+        if(uncompressedLength > Integer.MAX_VALUE)
+            throw new DataFormatException("Decompressed XZ data is too large (" + uncompressedLength + " bytes)");
+        
+        return (int) uncompressedLength;
+    }
+    
+    /**
+     * Decompress the XZ stream into the destination, starting at its position,
+     * which is not modified. Blocks are decompressed in parallel by 
+     * {@link BlockExecutor} if the stream contains more than one block.
+     * 
+     * @param xzInputStream XZ stream opened on src
+     * @param src Buffer containing the XZ stream
+     * @param dest Buffer to write the decompressed data into
+     * @param length Length in bytes of the decompressed data
+     * @throws IOException Issue reading the XZ stream
+     * @throws DataFormatException Issue decompressing a block
+     */
+    private static void decompress(SeekableXZInputStream xzInputStream, final ByteBuffer src, final ByteBuffer dest, int length) throws IOException, DataFormatException {
+        int blockCount = xzInputStream.getBlockCount();
+        
+        if(BlockExecutor.getExecutor() == null || blockCount < 2) {
+            readFully(xzInputStream, dest.duplicate(), length);
             
-            while((firstByte = xzInputStream.read()) != -1 && 
-                    (uncompressed = xzInputStream.available()) > 0) {
-                // Take into account the first byte
-                uncompressed++;
+            return;
+        }
+        
+        // Querying the index of the stream is not thread safe, so locate the blocks first
+        final int[] blockPositions = new int[blockCount];
+        final int[] blockSizes = new int[blockCount];
+        
+        for(int block = 0; block < blockCount; block++) {
+            blockPositions[block] = (int) xzInputStream.getBlockPos(block);
+            blockSizes[block] = (int) xzInputStream.getBlockSize(block);
+        }
+        
+        BlockExecutor.process(blockCount, new BlockExecutor.BlockTask() {
+            @Override
+            public void process(int block) throws DataFormatException {
+                ByteBuffer blockDest = dest.duplicate();
+                blockDest.position(dest.position() + blockPositions[block]);
                 
-                byte[] temp = new byte[uncompressed]; // 2^20
-                temp[0] = (byte) firstByte;
+                try {
+                    SeekableXZInputStream blockStream = open(src);
 
-                xzInputStream.read(temp, 1, temp.length-1);
-
-                for (int i = 0; i < uncompressed; i++) {
-                    uncompressedData.add(temp[i]);
+                    try {
+                        blockStream.seekToBlock(block);
+                        readFully(blockStream, blockDest, blockSizes[block]);
+                    } finally {
+                        blockStream.close();
+                    }
+                } catch (IOException ex) {
+                    throw new DataFormatException("Failed to decompress XZ block " + block + ": " + ex);
                 }
             }
-                        
-            xzInputStream.close();
-
-            byte[] uncompressedBytes = new byte[uncompressedData.size()];
+        });
+    }
+    
+    /**
+     * Read exactly length bytes from the stream into the buffer, starting at 
+     * its position.
+     * 
+     * @param inputStream Stream to read from
+     * @param buffer Buffer to read into
+     * @param length Number of bytes to read
+     * @throws IOException Issue reading or the stream ended early
+     */
+    private static void readFully(SeekableXZInputStream inputStream, ByteBuffer buffer, int length) throws IOException {
+        byte[] array = buffer.hasArray() ? buffer.array() : new byte[Math.min(length, CHUNK_SIZE)];
+        int read = 0;
+        
+        while(read < length) {
+            int bytesRead;
             
-            for (int i = 0; i < uncompressedData.size(); i++) {
-                uncompressedBytes[i] = uncompressedData.get(i);
+            if(buffer.hasArray()) {
+                bytesRead = inputStream.read(array, ByteBufferHelper.getArrayPosition(buffer) + read, length - read);
+            } else {
+                bytesRead = inputStream.read(array, 0, Math.min(array.length, length - read));
+                
+                if(bytesRead > 0)
+                    buffer.put(array, 0, bytesRead);
             }
             
-            return uncompressedBytes;
-        } catch (IOException ex) {
-            Logger.getLogger(XZDataTransform.class.getName()).log(Level.SEVERE, null, ex);
+            if(bytesRead < 0)
+                throw new IOException("Unexpected end of XZ data after " + read + " of " + length + " bytes");
+            
+            read += bytesRead;
         }
-        
-        return new byte[0];
     }
+    
+    /**
+     * SeekableInputStream reading from the remaining data of a ByteBuffer, 
+     * allowing the index of an XZ stream held in memory to be read.
+     */
+    private static class ByteBufferSeekableInputStream extends SeekableInputStream {
+        
+        private final ByteBuffer data;
+        private int position;
+        
+        ByteBufferSeekableInputStream(ByteBuffer data) {
+            this.data = data.slice();
+        }
 
+        @Override
+        public long length() {
+            return data.limit();
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            if(pos < 0)
+                throw new IOException("Negative seek position: " + pos);
+            
+            position = (int) Math.min(pos, data.limit());
+        }
+
+        @Override
+        public int read() {
+            return (position < data.limit()) ? (data.get(position++) & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if(length == 0)
+                return 0;
+            
+            if(position >= data.limit())
+                return -1;
+            
+            int toRead = Math.min(length, data.limit() - position);
+            data.position(position);
+            data.get(buffer, offset, toRead);
+            position += toRead;
+            
+            return toRead;
+        }
+    }
 }
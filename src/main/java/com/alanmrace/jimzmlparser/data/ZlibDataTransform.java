@@ -1,7 +1,9 @@
 package com.alanmrace.jimzmlparser.data;
 
-import java.util.ArrayList;
-import java.util.List;
+import com.alanmrace.jimzmlparser.util.ByteBufferHelper;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -10,71 +12,285 @@ import java.util.zip.Inflater;
  * DataTransform describing the compression (forward) and decompression (reverse)
  * of data using the zlib algorithm.
  * 
+ * <p>Each thread reuses a single Inflater and Deflater, and (de)compression is 
+ * performed directly into an output array sized from the expected length of the 
+ * data, so that the only allocation is the returned array. The ByteBuffer 
+ * methods (de)compress directly between heap buffers, and use a small 
+ * intermediate chunk for direct buffers.
+ * 
  * @author Alan Race
  */
-public class ZlibDataTransform implements DataTransform {
+public class ZlibDataTransform implements ByteBufferDataTransform, DecompressionDataTransform {
+    
+    /**
+     * Serialisation version ID.
+     */
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Largest initial output size to use for decompression when the decompressed 
+     * length is not known. The output grows as necessary beyond this.
+     */
+    protected static final int BYTE_BUFFER_SIZE = 1 << 20;
+    
+    /**
+     * Size in bytes of the chunk used to transfer data to and from direct buffers.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+    
+    /**
+     * Deflater for each thread, reset before each use.
+     */
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater();
+        }
+    };
+    
+    /**
+     * Inflater for each thread, reset before each use.
+     */
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+    
+    /**
+     * Expected length in bytes of the decompressed data, or 0 if unknown.
+     */
+    private final int arrayLengthInBytes;
     
     /**
-     * Byte buffer size to use for temporary storage for (de)compression.
+     * Set up a zlib transform where the length of the decompressed data is not known.
      */
-    protected static final int BYTE_BUFFER_SIZE = 2 ^ 20;
+    public ZlibDataTransform() {
+        this(0);
+    }
+    
+    /**
+     * Set up a zlib transform where the length of the decompressed data is known,
+     * so that the output can be allocated once at the correct size.
+     * 
+     * @param arrayLengthInBytes Expected length in bytes of the decompressed data, or 0 if unknown
+     */
+    public ZlibDataTransform(int arrayLengthInBytes) {
+        this.arrayLengthInBytes = Math.max(0, arrayLengthInBytes);
+    }
 
     @Override
     public byte[] forwardTransform(byte[] data) throws DataFormatException {
-        Deflater compressor = new Deflater();
+        Deflater compressor = DEFLATER.get();
+        compressor.reset();
         compressor.setInput(data);
         compressor.finish();
-
-        ArrayList<Byte> compressedData = new ArrayList<Byte>();
-        int compressed;
-
-        do {
-            byte[] temp = new byte[BYTE_BUFFER_SIZE]; // 2^20
-
-            compressed = compressor.deflate(temp);
-
-            for (int i = 0; i < compressed; i++) {
-                compressedData.add(temp[i]);
+        
+        // Upper bound of compressed size, so that in practice the output never needs to grow
+        byte[] compressed = new byte[getMaxForwardLength(data.length)];
+        int compressedLength = 0;
+        
+        while (!compressor.finished()) {
+            if (compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
             }
-        } while (compressed != 0);
-
-        byte[] compressedBytes = new byte[compressedData.size()];
-
-        for (int i = 0; i < compressedData.size(); i++) {
-            compressedBytes[i] = compressedData.get(i);
+            
+            compressedLength += compressor.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        
+        if (compressedLength != compressed.length) {
+            return Arrays.copyOf(compressed, compressedLength);
         }
 
-        return compressedBytes;
+        return compressed;
     }
 
     @Override
     public byte[] reverseTransform(byte[] data) throws DataFormatException {
-        Inflater decompressor = new Inflater();
-        decompressor.setInput(data);
-
-        List<Byte> uncompressedData = new ArrayList<Byte>(data.length);
-        int uncompressed;
-
-        do {
-            byte[] temp = new byte[BYTE_BUFFER_SIZE]; // 2^20
-
-            uncompressed = decompressor.inflate(temp);
+        return reverseTransform(data, 0);
+    }
 
-            for (int i = 0; i < uncompressed; i++) {
-                uncompressedData.add(temp[i]);
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The decompressed size is used as the initial size of the output, which 
+     * grows as necessary. If it is not known then the size supplied on 
+     * construction is used, or else an estimate.
+     */
+    @Override
+    public byte[] reverseTransform(byte[] data, int decompressedSize) throws DataFormatException {
+        Inflater decompressor = INFLATER.get();
+        decompressor.reset();
+        decompressor.setInput(data);
+        
+        int initialLength = (decompressedSize > 0) ? decompressedSize : arrayLengthInBytes;
+        
+        // Estimate the decompressed length from a typical compression ratio
+        if (initialLength <= 0) {
+            initialLength = (int) Math.min(BYTE_BUFFER_SIZE, Math.max(64L, data.length * 4L));
+        }
+        
+        byte[] uncompressed = new byte[initialLength];
+        int uncompressedLength = 0;
+        
+        while (!decompressor.finished()) {
+            if (uncompressedLength == uncompressed.length) {
+                uncompressed = Arrays.copyOf(uncompressed, uncompressed.length * 2);
             }
+            
+            int inflated = decompressor.inflate(uncompressed, uncompressedLength, uncompressed.length - uncompressedLength);
+            
+            if (inflated == 0) {
+                if (decompressor.needsDictionary()) {
+                    throw new DataFormatException("zlib data requires a preset dictionary");
+                }
+                
+                // Truncated data, so return what has been decompressed so far
+                if (decompressor.needsInput()) {
+                    break;
+                }
+            }
+            
+            uncompressedLength += inflated;
+        }
+        
+        if (uncompressedLength != uncompressed.length) {
+            return Arrays.copyOf(uncompressed, uncompressedLength);
+        }
 
-        } while (uncompressed != 0);
-
-        byte[] uncompressedBytes = new byte[uncompressedData.size()];
-
-        for (int i = 0; i < uncompressedData.size(); i++) {
-            uncompressedBytes[i] = uncompressedData.get(i);
+        return uncompressed;
+    }
+    
+    @Override
+    public int forwardTransform(ByteBuffer src, ByteBuffer dest) throws DataFormatException {
+        ByteBuffer out = dest.duplicate();
+        
+        Deflater compressor = DEFLATER.get();
+        compressor.reset();
+        compressor.setInput(getInputArray(src), getInputOffset(src), src.remaining());
+        compressor.finish();
+        
+        byte[] chunk = out.hasArray() ? null : new byte[Math.min(CHUNK_SIZE, getMaxForwardLength(src.remaining()))];
+        
+        while (!compressor.finished()) {
+            if (!out.hasRemaining()) {
+                throw new BufferOverflowException();
+            }
+            
+            if (chunk == null) {
+                out.position(out.position() + compressor.deflate(out.array(), ByteBufferHelper.getArrayPosition(out), out.remaining()));
+            } else {
+                int deflated = compressor.deflate(chunk, 0, Math.min(chunk.length, out.remaining()));
+                out.put(chunk, 0, deflated);
+            }
         }
+        
+        return updatePositions(src, dest, out);
+    }
 
-        decompressor.end();
+    @Override
+    public int reverseTransform(ByteBuffer src, ByteBuffer dest) throws DataFormatException {
+        ByteBuffer out = dest.duplicate();
+        
+        Inflater decompressor = INFLATER.get();
+        decompressor.reset();
+        decompressor.setInput(getInputArray(src), getInputOffset(src), src.remaining());
+        
+        byte[] chunk = out.hasArray() ? null : new byte[CHUNK_SIZE];
+        
+        while (!decompressor.finished()) {
+            int inflated;
+            
+            if (!out.hasRemaining()) {
+                inflated = 0;
+            } else if (chunk == null) {
+                inflated = decompressor.inflate(out.array(), ByteBufferHelper.getArrayPosition(out), out.remaining());
+                out.position(out.position() + inflated);
+            } else {
+                inflated = decompressor.inflate(chunk, 0, Math.min(chunk.length, out.remaining()));
+                out.put(chunk, 0, inflated);
+            }
+            
+            if (inflated == 0) {
+                if (decompressor.needsDictionary()) {
+                    throw new DataFormatException("zlib data requires a preset dictionary");
+                }
+                
+                // Truncated data, so keep what has been decompressed so far
+                if (decompressor.needsInput()) {
+                    break;
+                }
+                
+                if (!out.hasRemaining()) {
+                    throw new BufferOverflowException();
+                }
+            }
+        }
+        
+        return updatePositions(src, dest, out);
+    }
+    
+    /**
+     * Get an array containing the remaining data in the buffer, which is the 
+     * backing array if there is one.
+     * 
+     * @param src Buffer containing the input
+     * @return Array containing the input
+     */
+    private static byte[] getInputArray(ByteBuffer src) {
+        return src.hasArray() ? src.array() : ByteBufferHelper.getRemainingBytes(src);
+    }
+    
+    /**
+     * Get the index of the input within the array returned by {@link #getInputArray(ByteBuffer)}.
+     * 
+     * @param src Buffer containing the input
+     * @return Index of the input
+     */
+    private static int getInputOffset(ByteBuffer src) {
+        return src.hasArray() ? ByteBufferHelper.getArrayPosition(src) : 0;
+    }
+    
+    /**
+     * Mark the source as consumed and advance the destination to the end of 
+     * the data written.
+     * 
+     * @param src Source buffer
+     * @param dest Destination buffer
+     * @param out Duplicate of the destination, positioned at the end of the data written
+     * @return Number of bytes written
+     */
+    private static int updatePositions(ByteBuffer src, ByteBuffer dest, ByteBuffer out) {
+        int written = out.position() - dest.position();
+        
+        src.position(src.limit());
+        dest.position(out.position());
+        
+        return written;
+    }
 
-        return uncompressedBytes;
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>This is the upper bound of compressed size used by zlib (compressBound).
+     */
+    @Override
+    public int getMaxForwardLength(int length) {
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
     }
 
+    @Override
+    public int getReverseLength(ByteBuffer src) {
+        return (arrayLengthInBytes > 0) ? arrayLengthInBytes : -1;
+    }
+    
+    /**
+     * Get the expected length in bytes of the decompressed data.
+     * 
+     * @return Expected length in bytes, or 0 if unknown
+     */
+    public int getArrayLengthInBytes() {
+        return arrayLengthInBytes;
+    }
 }
@@ -1,36 +1,250 @@
 package com.alanmrace.jimzmlparser.data;
 
+import com.alanmrace.jimzmlparser.util.ByteBufferHelper;
 import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.zip.DataFormatException;
 
 /**
+ * DataTransform describing the compression (forward) and decompression (reverse)
+ * of data using ZStandard, optionally with a trained dictionary. A dictionary 
+ * greatly improves the compression of small arrays, such as those of processed
+ * imzML spectra, and must be the same for compression and decompression.
  *
  * @author Alan Race
  */
-public class ZstdDataTransform implements DataTransform {
+public class ZstdDataTransform implements ByteBufferDataTransform, DecompressionDataTransform {
 
     protected int arrayLengthInBytes;
     protected int compressionLevel;
     
+    /**
+     * Trained dictionary, or null if no dictionary is used.
+     */
+    private final byte[] dictionary;
+    
+    /**
+     * Digested dictionary for compression, created when first required.
+     */
+    private transient volatile ZstdDictCompress dictionaryCompress;
+    
+    /**
+     * Digested dictionary for decompression, created when first required.
+     */
+    private transient volatile ZstdDictDecompress dictionaryDecompress;
     
     public ZstdDataTransform(int arrayLengthInBytes) {
         this(arrayLengthInBytes, 3);
     }
     
     public ZstdDataTransform(int arrayLengthInBytes, int compressionLevel) {
+        this(arrayLengthInBytes, compressionLevel, null);
+    }
+    
+    /**
+     * Set up a ZStandard transform using a dictionary, for example one trained
+     * using {@link com.github.luben.zstd.ZstdDictTrainer}.
+     * 
+     * @param arrayLengthInBytes Length in bytes of the decompressed data
+     * @param compressionLevel Compression level
+     * @param dictionary Dictionary to use, or null for none
+     */
+    public ZstdDataTransform(int arrayLengthInBytes, int compressionLevel, byte[] dictionary) {
         this.arrayLengthInBytes = arrayLengthInBytes;
         this.compressionLevel = compressionLevel;
+        this.dictionary = dictionary;
+    }
+    
+    /**
+     * Get the dictionary used for compression and decompression.
+     * 
+     * @return Dictionary, or null if no dictionary is used
+     */
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+    
+    private ZstdDictCompress getDictionaryCompress() {
+        if(dictionaryCompress == null) {
+            synchronized(this) {
+                if(dictionaryCompress == null)
+                    dictionaryCompress = new ZstdDictCompress(dictionary, compressionLevel);
+            }
+        }
+        
+        return dictionaryCompress;
+    }
+    
+    private ZstdDictDecompress getDictionaryDecompress() {
+        if(dictionaryDecompress == null) {
+            synchronized(this) {
+                if(dictionaryDecompress == null)
+                    dictionaryDecompress = new ZstdDictDecompress(dictionary);
+            }
+        }
+        
+        return dictionaryDecompress;
     }
     
     @Override
     public byte[] forwardTransform(byte[] data) throws DataFormatException {
+        if(dictionary != null)
+            return Zstd.compress(data, getDictionaryCompress());
+        
         return Zstd.compress(data, compressionLevel);
     }
 
     @Override
     public byte[] reverseTransform(byte[] data) throws DataFormatException {
-        return Zstd.decompress(data, arrayLengthInBytes);
+        return reverseTransform(data, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>If the decompressed size is not known then the size supplied on 
+     * construction is used, or else the size recorded in the frame header.
+     */
+    @Override
+    public byte[] reverseTransform(byte[] data, int decompressedSize) throws DataFormatException {
+        int length = (decompressedSize > 0) ? decompressedSize : arrayLengthInBytes;
+        
+        if(length <= 0) {
+            long frameContentSize = Zstd.decompressedSize(data);
+            
+            if(frameContentSize <= 0 || frameContentSize > Integer.MAX_VALUE)
+                throw new DataFormatException("Decompressed size of ZStandard data is not known");
+            
+            length = (int) frameContentSize;
+        }
+        
+        if(dictionary != null)
+            return Zstd.decompress(data, getDictionaryDecompress(), length);
+        
+        return Zstd.decompress(data, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>When a dictionary is used the data is compressed through an intermediate byte[].
+     */
+    @Override
+    public int forwardTransform(ByteBuffer src, ByteBuffer dest) throws DataFormatException {
+        int maxLength = getMaxForwardLength(src.remaining());
+        
+        // Compress into a temporary array if the destination may be too small, 
+        // so that running out of space can be distinguished from other errors
+        if(dest.remaining() < maxLength || dictionary != null) {
+            byte[] compressed = forwardTransform(ByteBufferHelper.getRemainingBytes(src));
+            
+            if(compressed.length > dest.remaining())
+                throw new BufferOverflowException();
+            
+            src.position(src.limit());
+            dest.put(compressed);
+            
+            return compressed.length;
+        }
+        
+        long result;
+        
+        if(src.isDirect() && dest.isDirect()) {
+            result = Zstd.compressDirectByteBuffer(dest, dest.position(), dest.remaining(), src, src.position(), src.remaining(), compressionLevel);
+        } else if(src.hasArray() && dest.hasArray()) {
+            result = Zstd.compressByteArray(dest.array(), ByteBufferHelper.getArrayPosition(dest), dest.remaining(), 
+                    src.array(), ByteBufferHelper.getArrayPosition(src), src.remaining(), compressionLevel);
+        } else {
+            byte[] compressed = forwardTransform(ByteBufferHelper.getRemainingBytes(src));
+            
+            src.position(src.limit());
+            dest.put(compressed);
+            
+            return compressed.length;
+        }
+        
+        return updatePositions(src, dest, result);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>When a dictionary is used the data is decompressed through an intermediate byte[].
+     */
+    @Override
+    public int reverseTransform(ByteBuffer src, ByteBuffer dest) throws DataFormatException {
+        int length = getReverseLength(src);
+        
+        if(length > dest.remaining())
+            throw new BufferOverflowException();
+        
+        long result;
+        
+        if(dictionary == null && src.isDirect() && dest.isDirect()) {
+            result = Zstd.decompressDirectByteBuffer(dest, dest.position(), dest.remaining(), src, src.position(), src.remaining());
+        } else if(dictionary == null && src.hasArray() && dest.hasArray()) {
+            result = Zstd.decompressByteArray(dest.array(), ByteBufferHelper.getArrayPosition(dest), dest.remaining(), 
+                    src.array(), ByteBufferHelper.getArrayPosition(src), src.remaining());
+        } else {
+            byte[] decompressed = reverseTransform(ByteBufferHelper.getRemainingBytes(src));
+            
+            if(decompressed.length > dest.remaining())
+                throw new BufferOverflowException();
+            
+            src.position(src.limit());
+            dest.put(decompressed);
+            
+            return decompressed.length;
+        }
+        
+        return updatePositions(src, dest, result);
     }
     
-}
+    /**
+     * Check the result of a call to Zstd, then mark the source as consumed and
+     * advance the destination by the number of bytes written.
+     * 
+     * @param src Source buffer
+     * @param dest Destination buffer
+     * @param result Result returned by Zstd
+     * @return Number of bytes written
+     * @throws DataFormatException If the result is an error
+     */
+    private static int updatePositions(ByteBuffer src, ByteBuffer dest, long result) throws DataFormatException {
+        if(Zstd.isError(result))
+            throw new DataFormatException(Zstd.getErrorName(result));
+        
+        src.position(src.limit());
+        dest.position(dest.position() + (int) result);
+        
+        return (int) result;
+    }
 
+    @Override
+    public int getMaxForwardLength(int length) {
+        return (int) Zstd.compressBound(length);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The decompressed size is read from the frame header, where it is 
+     * recorded by default when compressing.
+     */
+    @Override
+    public int getReverseLength(ByteBuffer src) {
+        long length;
+        
+        if(src.isDirect())
+            length = Zstd.decompressedDirectByteBufferSize(src, src.position(), src.remaining());
+        else if(src.hasArray())
+            length = Zstd.decompressedSize(src.array(), ByteBufferHelper.getArrayPosition(src), src.remaining());
+        else
+            length = Zstd.decompressedSize(ByteBufferHelper.getRemainingBytes(src));
+        
+        return (length > 0 && length <= Integer.MAX_VALUE) ? (int) length : -1;
+    }
+}
@@ -0,0 +1,74 @@
+package com.alanmrace.jimzmlparser.imzml;
+
+import com.alanmrace.jimzmlparser.mzml.DataProcessing;
+import com.alanmrace.jimzmlparser.mzml.LazySpectrumList;
+import com.alanmrace.jimzmlparser.mzml.Spectrum;
+
+/**
+ * SpectrumList for imzML where the metadata of the spectra is held in a
+ * {@link SpectrumTable}, and each Spectrum is created from the table when it is
+ * accessed.
+ *
+ * <p>Loaded spectra are not retained by default, so that iterating over all
+ * spectra does not recreate the full object graph of the file in memory. Changes
+ * made to a spectrum may therefore be lost once it is no longer referenced,
+ * unless {@link #setRetainLoadedSpectra(boolean)} is used to retain them. The
+ * pixel locations can be read from the table without creating any spectra.
+ *
+ * @author Alan Race
+ * @see com.alanmrace.jimzmlparser.parser.ImzMLHandler#parseimzML(java.lang.String, boolean, com.alanmrace.jimzmlparser.parser.ParserListener, com.alanmrace.jimzmlparser.data.BinaryDataStorage.AccessMethod, boolean)
+ */
+public class CompactSpectrumList extends LazySpectrumList {
+
+    /**
+     * Serialisation version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Table describing the spectra.
+     */
+    private final transient SpectrumTable spectrumTable;
+
+    /**
+     * Create a list containing all spectra described by the table.
+     *
+     * @param defaultDataProcessingRef Default description of processing applied to the spectra in the list.
+     * @param spectrumTable Table describing the spectra
+     */
+    public CompactSpectrumList(DataProcessing defaultDataProcessingRef, SpectrumTable spectrumTable) {
+        super(defaultDataProcessingRef, spectrumTable.getSpectrumIDs(), spectrumTable);
+
+        this.spectrumTable = spectrumTable;
+
+        setRetainLoadedSpectra(false);
+    }
+
+    /**
+     * Returns the table describing the spectra. Indices within the table only
+     * match those within the list while no spectra have been added or removed.
+     *
+     * @return SpectrumTable
+     */
+    public SpectrumTable getSpectrumTable() {
+        return spectrumTable;
+    }
+
+    /**
+     * Returns the pixel location of the spectrum at the specified index, taken
+     * from the table unless the spectrum is currently loaded.
+     *
+     * @param index Index of the spectrum
+     * @return Location of the spectrum
+     */
+    public synchronized PixelLocation getPixelLocation(int index) {
+        Spectrum spectrum = getLoadedSpectrum(index);
+        int tableIndex = getLoaderIndex(index);
+
+        if (spectrum == null && tableIndex >= 0) {
+            return spectrumTable.getPixelLocation(tableIndex);
+        }
+
+        return get(index).getPixelLocation();
+    }
+}
@@ -27,6 +27,7 @@ import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -71,23 +72,30 @@ public class ImzML extends MzML implements MassSpectrometryImagingData {
     /**
      * List of all possible m/z values associated with this dataset.
      */
-    private double[] fullmzList;
+    private transient double[] fullmzList;
     
     /**
      * Total ion count image of the entire ImzML file.
      */
-    private double[][] ticImage;
+    private transient double[][] ticImage;
 
     /**
      * 3-D Array of Spectrum instances with each Spectrum in the location in the 
      * array as defined by the x, y, and z coordinates of the Spectrum.
      */
-    private Spectrum[][][] spectrumGrid;
+    private transient Spectrum[][][] spectrumGrid;
+
+    /**
+     * 3-D Array of the index of the Spectrum at each location, used in place of 
+     * {@link ImzML#spectrumGrid} for a {@link CompactSpectrumList} so that the 
+     * spectra are only created when requested. -1 where there is no Spectrum.
+     */
+    private transient int[][][] spectrumIndexGrid;
 
     /**
      * Array of the pixel locations that have an associated Spectrum.
      */
-    private PixelLocation[] pixelLocations;
+    private transient PixelLocation[] pixelLocations;
     
     /**
      * Minimum m/z value detected within this ImzML file.
@@ -134,11 +142,11 @@ public class ImzML extends MzML implements MassSpectrometryImagingData {
     public PixelLocation[] getPixelList() {
         // Useful for protein id script
         if(pixelLocations == null) {
-            pixelLocations = new PixelLocation[getRun().getSpectrumList().size()];
-            int index = 0;
+            SpectrumList spectrumList = getRun().getSpectrumList();
+            pixelLocations = new PixelLocation[spectrumList.size()];
             
-            for(Spectrum spectrum : getRun().getSpectrumList()) {
-                pixelLocations[index++] = spectrum.getPixelLocation();
+            for(int index = 0; index < pixelLocations.length; index++) {
+                pixelLocations[index] = getPixelLocation(spectrumList, index);
             }
         }
         
@@ -212,10 +220,9 @@ public class ImzML extends MzML implements MassSpectrometryImagingData {
             dimensionality += getSpatialDimensionality();
 
             // Check if we have MS/MS or mobility by looking to see if we have two or more spectra with same x, y location
-            Spectrum spectrum1 = getRun().getSpectrumList().getSpectrum(0);
-            Spectrum spectrum2 = getRun().getSpectrumList().getSpectrum(1);
+            SpectrumList spectrumList = getRun().getSpectrumList();
 
-            if (spectrum1.getPixelLocation().equals(spectrum2.getPixelLocation())) {
+            if (getPixelLocation(spectrumList, 0).equals(getPixelLocation(spectrumList, 1))) {
                 dimensionality++;
             }
         }
@@ -225,16 +232,15 @@ public class ImzML extends MzML implements MassSpectrometryImagingData {
 
     @Override
     public int getNumberOfSpectraPerPixel() {
-        Spectrum firstSpectrum = getRun().getSpectrumList().getSpectrum(0);
-        PixelLocation location = firstSpectrum.getPixelLocation();
+        SpectrumList spectrumList = getRun().getSpectrumList();
+        PixelLocation location = getPixelLocation(spectrumList, 0);
         
         int numberOfSpectraPerPixel = 1;
         
-        int numSpectra = getRun().getSpectrumList().size();
-        SpectrumList spectrumList = getRun().getSpectrumList();
+        int numSpectra = spectrumList.size();
         
         for(int i = 1; i < numSpectra; i++) {
-            if(spectrumList.getSpectrum(i).getPixelLocation().equals(location))
+            if(getPixelLocation(spectrumList, i).equals(location))
                 numberOfSpectraPerPixel++;
         }
         
@@ -248,6 +254,10 @@ public class ImzML extends MzML implements MassSpectrometryImagingData {
 
     @Override
     public synchronized Spectrum getSpectrum(int x, int y, int z) {
+        if (getRun().getSpectrumList() instanceof CompactSpectrumList) {
+            return getCompactSpectrum((CompactSpectrumList) getRun().getSpectrumList(), x, y, z);
+        }
+        
         if (spectrumGrid == null) {
             spectrumGrid = new Spectrum[getWidth()][getHeight()][getDepth()];
 
@@ -281,6 +291,65 @@ public class ImzML extends MzML implements MassSpectrometryImagingData {
         return null;
     }
 
+    /**
+     * Returns the Spectrum at the specified location from a CompactSpectrumList,
+     * using the pixel locations stored in its table so that only the requested 
+     * Spectrum is created.
+     * 
+     * @param spectrumList List containing the spectra
+     * @param x x-coordinate
+     * @param y y-coordinate
+     * @param z z-coordinate
+     * @return Spectrum at the location, or null if there is none
+     */
+    private Spectrum getCompactSpectrum(CompactSpectrumList spectrumList, int x, int y, int z) {
+        if (spectrumIndexGrid == null) {
+            spectrumIndexGrid = new int[getWidth()][getHeight()][getDepth()];
+            
+            for (int[][] plane : spectrumIndexGrid) {
+                for (int[] row : plane) {
+                    Arrays.fill(row, -1);
+                }
+            }
+
+            for (int i = 0; i < spectrumList.size(); i++) {
+                PixelLocation location = spectrumList.getPixelLocation(i);
+
+                if (location.getX() >= 1 && location.getX() <= spectrumIndexGrid.length 
+                        && location.getY() >= 1 && location.getY() <= spectrumIndexGrid[0].length 
+                        && location.getZ() >= 1 && location.getZ() <= spectrumIndexGrid[0][0].length) {
+                    spectrumIndexGrid[location.getX() - 1][location.getY() - 1][location.getZ() - 1] = i;
+                }
+            }
+        }
+
+        if (spectrumIndexGrid.length >= 1 && x >= 1 && x <= spectrumIndexGrid.length
+                && y >= 1 && y <= spectrumIndexGrid[0].length
+                && z >= 1 && z <= spectrumIndexGrid[0][0].length) {
+            int index = spectrumIndexGrid[x - 1][y - 1][z - 1];
+            
+            return (index < 0) ? null : spectrumList.get(index);
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Returns the pixel location of the spectrum at the specified index, without
+     * creating the spectrum if the list is a CompactSpectrumList.
+     * 
+     * @param spectrumList List containing the spectrum
+     * @param index Index of the spectrum
+     * @return Location of the spectrum
+     */
+    private static PixelLocation getPixelLocation(SpectrumList spectrumList, int index) {
+        if (spectrumList instanceof CompactSpectrumList) {
+            return ((CompactSpectrumList) spectrumList).getPixelLocation(index);
+        }
+        
+        return spectrumList.getSpectrum(index).getPixelLocation();
+    }
+
     @Override
     public int getWidth() {
         if (width != 0) {
@@ -337,7 +406,11 @@ public class ImzML extends MzML implements MassSpectrometryImagingData {
 
         SpectrumList spectrumList = getRun().getSpectrumList();
 
-        if (spectrumList != null) {
+        if (spectrumList instanceof CompactSpectrumList) {
+            for (int i = 0; i < spectrumList.size(); i++) {
+                depth = Math.max(depth, ((CompactSpectrumList) spectrumList).getPixelLocation(i).getZ());
+            }
+        } else if (spectrumList != null) {
             for (Spectrum spectrum : spectrumList) {
                 CVParam maxCountPixelZ = spectrum.getScanList().get(0).getCVParam(Scan.POSITION_Z_ID);
 
@@ -0,0 +1,612 @@
+package com.alanmrace.jimzmlparser.imzml;
+
+import com.alanmrace.jimzmlparser.data.DataLocation;
+import com.alanmrace.jimzmlparser.data.DataStorage;
+import com.alanmrace.jimzmlparser.mzml.SpectrumList;
+import com.alanmrace.jimzmlparser.obo.OBO;
+import com.alanmrace.jimzmlparser.obo.OBOTerm;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Binary index of the metadata of an imzML file, stored alongside the imzML
+ * file (or in a cache directory) so that the file can be reopened without
+ * parsing the XML.
+ *
+ * <p>The index contains the header model, serialised without the spectra, the
+ * {@link SpectrumTable} describing the spectra (including the data transformations
+ * of the binary data arrays) and the columns of the table in binary form. Ontology
+ * terms are stored by ID and resolved against the current ontology when read, and
+ * all data is read from the DataStorage supplied when the index is read.
+ *
+ * <p>The index records the size and modification time of the imzML and IBD files
+ * and the UUID at the start of the IBD file, and is ignored if any of these no
+ * longer match. The index is memory mapped when read, so that the columns are
+ * copied directly from the page cache.
+ *
+ * @author Alan Race
+ * @see com.alanmrace.jimzmlparser.parser.ImzMLHandler#parseimzML(java.lang.String, boolean, com.alanmrace.jimzmlparser.parser.ParserListener, com.alanmrace.jimzmlparser.data.BinaryDataStorage.AccessMethod, boolean, com.alanmrace.jimzmlparser.parser.MzMLHeaderHandler.ParserBackend, boolean, java.io.File)
+ */
+public final class ImzMLMetadataIndex {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ImzMLMetadataIndex.class.getName());
+
+    /**
+     * Extension added to the name of the imzML file to give the name of the index.
+     */
+    public static final String FILE_EXTENSION = ".jmdx";
+
+    /**
+     * Bytes at the start of every index file.
+     */
+    private static final byte[] MAGIC = {'J', 'I', 'M', 'Z', 'M', 'L', 'I', 'X'};
+
+    /**
+     * Version of the index format, incremented whenever the format or the
+     * serialised classes change incompatibly.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Number of bytes of the columns for each spectrum: 4 int, 1 double and 6 long.
+     */
+    private static final int BYTES_PER_SPECTRUM = 4 * 4 + 8 + 6 * 8;
+
+    private ImzMLMetadataIndex() {
+
+    }
+
+    /**
+     * Returns the location of the index for the specified imzML file, stored in
+     * the same directory as the imzML file.
+     *
+     * @param imzMLFile imzML file
+     * @return Location of the index
+     */
+    public static File getIndexFile(File imzMLFile) {
+        return getIndexFile(imzMLFile, null);
+    }
+
+    /**
+     * Returns the location of the index for the specified imzML file within the
+     * cache directory, for example when the imzML files are in a read only location.
+     * Within the cache directory the name includes a hash of the full path of the
+     * imzML file, so that files with the same name in different directories do not
+     * share an index.
+     *
+     * @param imzMLFile imzML file
+     * @param cacheDirectory Directory to store indices in, or null to store the
+     * index in the same directory as the imzML file
+     * @return Location of the index
+     */
+    public static File getIndexFile(File imzMLFile, File cacheDirectory) {
+        if (cacheDirectory == null) {
+            return new File(imzMLFile.getPath() + FILE_EXTENSION);
+        }
+
+        String path = imzMLFile.getAbsolutePath();
+
+        return new File(cacheDirectory, imzMLFile.getName() + "." + Integer.toHexString(path.hashCode()) + FILE_EXTENSION);
+    }
+
+    /**
+     * Write the index for the imzML, which should have been parsed from the
+     * specified files and not modified since. Failure to write the index is logged
+     * and otherwise ignored, as the imzML file can always be parsed instead.
+     *
+     * @param imzML ImzML parsed from imzMLFile
+     * @param imzMLFile imzML file
+     * @param ibdFile IBD file
+     * @return true if the index was written, false otherwise
+     */
+    public static boolean write(ImzML imzML, File imzMLFile, File ibdFile) {
+        return write(imzML, imzMLFile, ibdFile, null);
+    }
+
+    /**
+     * Write the index for the imzML to the cache directory, as
+     * {@link #write(ImzML, File, File)}.
+     *
+     * @param imzML ImzML parsed from imzMLFile
+     * @param imzMLFile imzML file
+     * @param ibdFile IBD file
+     * @param cacheDirectory Directory to store the index in, or null to store it
+     * in the same directory as the imzML file
+     * @return true if the index was written, false otherwise
+     */
+    public static boolean write(ImzML imzML, File imzMLFile, File ibdFile, File cacheDirectory) {
+        File indexFile = getIndexFile(imzMLFile, cacheDirectory);
+        File tempFile = null;
+
+        try {
+            SpectrumList spectrumList = imzML.getRun().getSpectrumList();
+            SpectrumTable table = null;
+
+            if (spectrumList instanceof CompactSpectrumList) {
+                table = ((CompactSpectrumList) spectrumList).getSpectrumTable();
+            }
+
+            if (table == null || table.getNumberOfSpectra() != spectrumList.size()) {
+                table = new SpectrumTable(imzML, spectrumList.size());
+
+                for (int i = 0; i < spectrumList.size(); i++) {
+                    table.addSpectrum(spectrumList.get(i));
+                }
+
+                table.trimToSize();
+            }
+
+            if (table.getNumberOfSpectra() == 0) {
+                return false;
+            }
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            IndexOutputStream headerStream = new IndexOutputStream(header, spectrumList);
+
+            try {
+                headerStream.writeObject(imzML);
+                headerStream.writeObject(table);
+            } finally {
+                headerStream.close();
+            }
+
+            if ((long) header.size() + (long) table.getNumberOfSpectra() * BYTES_PER_SPECTRUM > Integer.MAX_VALUE - 1024) {
+                LOGGER.log(Level.FINE, "Not writing metadata index for {0}, too large to map", imzMLFile);
+
+                return false;
+            }
+
+            File directory = indexFile.getAbsoluteFile().getParentFile();
+
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create directory " + directory);
+            }
+
+            // Write to a unique file so that concurrent writers of the same index
+            // do not interfere, and readers never see a partially written index
+            tempFile = File.createTempFile(indexFile.getName(), ".tmp", directory);
+
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+            try {
+                output.write(MAGIC);
+                output.writeInt(VERSION);
+                output.writeUTF(imzMLFile.getAbsolutePath());
+                output.writeLong(imzMLFile.length());
+                output.writeLong(imzMLFile.lastModified());
+                output.writeLong(getLength(ibdFile));
+                output.writeLong(getLastModified(ibdFile));
+                output.write(readUUIDBytes(ibdFile));
+                output.writeInt(table.getNumberOfSpectra());
+                output.writeInt(header.size());
+                header.writeTo(output);
+
+                table.writeColumns(output);
+            } finally {
+                output.close();
+            }
+
+            // Renaming replaces the index atomically where the platform allows,
+            // otherwise the existing index has to be removed first
+            if (!tempFile.renameTo(indexFile) && (!indexFile.delete() || !tempFile.renameTo(indexFile))) {
+                throw new IOException("Could not replace " + indexFile);
+            }
+
+            return true;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Failed to write metadata index for " + imzMLFile, ex);
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Failed to write metadata index for " + imzMLFile, ex);
+        }
+
+        if (tempFile != null) {
+            tempFile.delete();
+        }
+
+        return false;
+    }
+
+    /**
+     * Read the index for the specified imzML file, if one exists and is still
+     * valid for the imzML and IBD files. The spectra of the returned ImzML are
+     * held in a {@link CompactSpectrumList}, and all binary data is read from the
+     * specified DataStorage.
+     *
+     * @param imzMLFile imzML file
+     * @param ibdFile IBD file
+     * @param dataStorage DataStorage to read the binary data from, or null if
+     * only the metadata is required
+     * @param compactSpectra false to retain spectra once loaded, as when parsing
+     * the imzML file without compact spectra, true otherwise
+     * @return ImzML, or null if there is no valid index
+     */
+    public static ImzML read(File imzMLFile, File ibdFile, DataStorage dataStorage, boolean compactSpectra) {
+        return read(imzMLFile, ibdFile, null, dataStorage, compactSpectra);
+    }
+
+    /**
+     * Read the index for the specified imzML file from the cache directory, as
+     * {@link #read(File, File, DataStorage, boolean)}.
+     *
+     * @param imzMLFile imzML file
+     * @param ibdFile IBD file
+     * @param cacheDirectory Directory the index is stored in, or null if stored
+     * in the same directory as the imzML file
+     * @param dataStorage DataStorage to read the binary data from, or null if
+     * only the metadata is required
+     * @param compactSpectra false to retain spectra once loaded, as when parsing
+     * the imzML file without compact spectra, true otherwise
+     * @return ImzML, or null if there is no valid index
+     */
+    public static ImzML read(File imzMLFile, File ibdFile, File cacheDirectory, DataStorage dataStorage, boolean compactSpectra) {
+        File indexFile = getIndexFile(imzMLFile, cacheDirectory);
+
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        try {
+            ByteBuffer buffer = map(indexFile);
+
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) {
+                    return invalid(indexFile, "not an index");
+                }
+            }
+
+            if (buffer.getInt() != VERSION) {
+                return invalid(indexFile, "different version");
+            }
+
+            if (!imzMLFile.getAbsolutePath().equals(readUTF(buffer))
+                    || buffer.getLong() != imzMLFile.length() || buffer.getLong() != imzMLFile.lastModified()) {
+                return invalid(indexFile, "imzML file changed");
+            }
+
+            if (buffer.getLong() != getLength(ibdFile) || buffer.getLong() != getLastModified(ibdFile)) {
+                return invalid(indexFile, "IBD file changed");
+            }
+
+            byte[] uuid = new byte[16];
+            buffer.get(uuid);
+
+            byte[] ibdUUID = readUUIDBytes(ibdFile);
+
+            for (int i = 0; i < uuid.length; i++) {
+                if (uuid[i] != ibdUUID[i]) {
+                    return invalid(indexFile, "UUID changed");
+                }
+            }
+
+            int numberOfSpectra = buffer.getInt();
+            byte[] header = new byte[buffer.getInt()];
+            buffer.get(header);
+
+            if (buffer.remaining() < (long) numberOfSpectra * BYTES_PER_SPECTRUM) {
+                return invalid(indexFile, "truncated");
+            }
+
+            IndexInputStream headerStream = new IndexInputStream(new ByteArrayInputStream(header), dataStorage);
+            ImzML imzML;
+            SpectrumTable table;
+
+            try {
+                imzML = (ImzML) headerStream.readObject();
+                table = (SpectrumTable) headerStream.readObject();
+            } finally {
+                headerStream.close();
+            }
+
+            if (table.getNumberOfSpectra() != numberOfSpectra) {
+                return invalid(indexFile, "inconsistent number of spectra");
+            }
+
+            table.readColumns(buffer);
+
+            SpectrumList placeholder = imzML.getRun().getSpectrumList();
+            CompactSpectrumList spectrumList = new CompactSpectrumList(placeholder.getDefaultDataProcessingRef(), table);
+            spectrumList.setRetainLoadedSpectra(!compactSpectra);
+
+            imzML.getRun().setSpectrumList(spectrumList);
+            imzML.setibdFile(ibdFile);
+            imzML.setDataStorage(dataStorage);
+
+            return imzML;
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "Failed to read metadata index " + indexFile, ex);
+        } catch (ClassNotFoundException ex) {
+            LOGGER.log(Level.FINE, "Failed to read metadata index " + indexFile, ex);
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.FINE, "Failed to read metadata index " + indexFile, ex);
+        }
+
+        return null;
+    }
+
+    /**
+     * Map the whole index file into memory.
+     *
+     * @param indexFile Index file
+     * @return Read only buffer containing the file
+     * @throws IOException Error mapping the file
+     */
+    private static ByteBuffer map(File indexFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+
+        try {
+            FileChannel channel = file.getChannel();
+
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Index too large to map: " + indexFile);
+            }
+
+            // The mapping remains valid once the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Log why an index was ignored.
+     *
+     * @param indexFile Index file
+     * @param reason Reason the index is not valid
+     * @return null
+     */
+    private static ImzML invalid(File indexFile, String reason) {
+        LOGGER.log(Level.FINE, "Ignoring metadata index {0}: {1}", new Object[]{indexFile, reason});
+
+        return null;
+    }
+
+    /**
+     * Read a string written by {@link DataOutputStream#writeUTF(java.lang.String)}.
+     *
+     * @param buffer Buffer to read from
+     * @return String
+     * @throws IOException Invalid string
+     */
+    private static String readUTF(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[2 + (buffer.getShort(buffer.position()) & 0xFFFF)];
+        buffer.get(bytes);
+
+        return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+    }
+
+    private static long getLength(File file) {
+        return file.isFile() ? file.length() : -1;
+    }
+
+    private static long getLastModified(File file) {
+        return file.isFile() ? file.lastModified() : -1;
+    }
+
+    /**
+     * Returns the UUID stored in the first 16 bytes of the IBD file.
+     *
+     * @param ibdFile IBD file
+     * @return UUID bytes, or all zero if the file is missing or too short
+     * @throws IOException Error reading the file
+     */
+    private static byte[] readUUIDBytes(File ibdFile) throws IOException {
+        byte[] uuid = new byte[16];
+
+        if (ibdFile.isFile() && ibdFile.length() >= uuid.length) {
+            DataInputStream input = new DataInputStream(new FileInputStream(ibdFile));
+
+            try {
+                input.readFully(uuid);
+            } finally {
+                input.close();
+            }
+        }
+
+        return uuid;
+    }
+
+    /**
+     * Reference to an ontology term, stored in place of the term when it belongs
+     * to an ontology.
+     */
+    private static class TermReference implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        TermReference(String id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Reference to an ontology, stored in place of the ontology.
+     */
+    private static class OntologyReference implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        OntologyReference(String id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * ObjectOutputStream which replaces ontologies and their terms with
+     * references, omits any DataStorage and replaces the list of spectra with an
+     * empty list.
+     */
+    private static class IndexOutputStream extends ObjectOutputStream {
+
+        private final SpectrumList spectrumList;
+
+        private final SpectrumList placeholder;
+
+        IndexOutputStream(OutputStream out, SpectrumList spectrumList) throws IOException {
+            super(out);
+
+            this.spectrumList = spectrumList;
+            this.placeholder = new SpectrumList(0, spectrumList.getDefaultDataProcessingRef());
+
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj == spectrumList) {
+                return placeholder;
+            } else if (obj instanceof DataStorage || obj instanceof File) {
+                // Both are replaced by those supplied when the index is read
+                return null;
+            } else if (obj instanceof OBO) {
+                return new OntologyReference(((OBO) obj).getOntology());
+            } else if (obj instanceof OBOTerm) {
+                OBOTerm term = (OBOTerm) obj;
+
+                // Terms which are not part of an ontology are stored in full
+                if (term.getOntology() != null && term.getOntology().getTerm(term.getID()) == term) {
+                    return new TermReference(term.getID());
+                }
+            }
+
+            return obj;
+        }
+    }
+
+    /**
+     * ObjectInputStream which resolves references written by IndexOutputStream
+     * using the current ontology, and reads all data from the specified DataStorage.
+     * Only classes which can be part of the header are resolved, so that an index
+     * file which has been replaced cannot create arbitrary objects.
+     */
+    private static class IndexInputStream extends ObjectInputStream {
+
+        /**
+         * Classes outside of the parser package which can be part of the header.
+         */
+        private static final Set<String> ALLOWED_CLASSES = new HashSet<String>(Arrays.asList(
+                "java.lang.String", "java.lang.Boolean", "java.lang.Character", "java.lang.Number",
+                "java.lang.Byte", "java.lang.Short", "java.lang.Integer", "java.lang.Long",
+                "java.lang.Float", "java.lang.Double", "java.lang.Enum",
+                "java.util.ArrayList", "java.util.LinkedList", "java.util.HashMap", "java.util.LinkedHashMap",
+                "java.util.HashSet", "java.util.LinkedHashSet", "java.util.Date", "java.util.UUID"));
+
+        private final DataStorage dataStorage;
+
+        IndexInputStream(InputStream in, DataStorage dataStorage) throws IOException {
+            super(in);
+
+            this.dataStorage = dataStorage;
+
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "Not permitted in metadata index");
+            }
+
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+            throw new InvalidClassException("Proxy classes are not permitted in metadata index");
+        }
+
+        /**
+         * Returns whether the class with the specified name can be part of the
+         * header: classes of the parser, the allowed value and collection classes
+         * and arrays of either, or of primitives.
+         *
+         * @param name Class name, as returned by {@link Class#getName()}
+         * @return true if the class can be resolved, false otherwise
+         */
+        private static boolean isAllowed(String name) {
+            int dimensions = 0;
+
+            while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+                dimensions++;
+            }
+
+            if (dimensions > 0) {
+                // Primitive arrays are described by a single character
+                if (name.length() == dimensions + 1) {
+                    return true;
+                }
+
+                if (name.charAt(dimensions) != 'L' || !name.endsWith(";")) {
+                    return false;
+                }
+
+                name = name.substring(dimensions + 1, name.length() - 1);
+            }
+
+            return name.startsWith("com.alanmrace.jimzmlparser.") || ALLOWED_CLASSES.contains(name)
+                    || name.startsWith("java.util.Collections$");
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof TermReference) {
+                OBOTerm term = OBO.getOBO().getTerm(((TermReference) obj).id);
+
+                if (term == null) {
+                    throw new InvalidObjectException("Unknown ontology term " + ((TermReference) obj).id);
+                }
+
+                return term;
+            } else if (obj instanceof OntologyReference) {
+                String id = ((OntologyReference) obj).id;
+                OBO obo = (id == null) ? OBO.getOBO() : OBO.getOBO().getOBOWithID(id);
+
+                if (obo == null) {
+                    throw new InvalidObjectException("Unknown ontology " + id);
+                }
+
+                return obo;
+            } else if (obj != null && obj.getClass() == DataLocation.class) {
+                DataLocation location = (DataLocation) obj;
+                DataLocation resolved = new DataLocation(dataStorage, location.getOffset(), location.getLength());
+                resolved.setDataTransformation(location.getDataTransformation(), location.getDecompressedSize());
+
+                return resolved;
+            }
+
+            return obj;
+        }
+    }
+}
@@ -0,0 +1,923 @@
+package com.alanmrace.jimzmlparser.imzml;
+
+import com.alanmrace.jimzmlparser.data.DataLocation;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArrayList;
+import com.alanmrace.jimzmlparser.mzml.CVParam;
+import com.alanmrace.jimzmlparser.mzml.HasChildren;
+import com.alanmrace.jimzmlparser.mzml.LazySpectrumList;
+import com.alanmrace.jimzmlparser.mzml.MzML;
+import com.alanmrace.jimzmlparser.mzml.MzMLContentWithParams;
+import com.alanmrace.jimzmlparser.mzml.MzMLDataContainer;
+import com.alanmrace.jimzmlparser.mzml.MzMLTag;
+import com.alanmrace.jimzmlparser.mzml.ReferenceableTag;
+import com.alanmrace.jimzmlparser.mzml.Scan;
+import com.alanmrace.jimzmlparser.mzml.ScanList;
+import com.alanmrace.jimzmlparser.mzml.SourceFileList;
+import com.alanmrace.jimzmlparser.mzml.Spectrum;
+import com.alanmrace.jimzmlparser.obo.OBOTerm;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, columnar storage of the metadata of the spectra in an imzML file.
+ *
+ * <p>The values which differ between the spectra of a typical imzML file (the
+ * ID, pixel location, TIC, default array length and the external offset, encoded
+ * length and array length of the m/z and intensity arrays) are stored in primitive
+ * arrays indexed by spectrum number. Everything else is taken from the first
+ * spectrum added, which is kept as a template, and a full {@link Spectrum} is
+ * only created when requested by copying the template and filling in the values
+ * from the table.
+ *
+ * <p>When a spectrum is added, it is compared with the template, using the values
+ * in the table in place of those which are replaced when recreating it, and any
+ * spectrum which cannot be recreated exactly (for example one with additional
+ * cvParams) is kept in full instead.
+ *
+ * <p>The columns are not included when the table is serialised, and are instead
+ * written and read in binary form by {@link ImzMLMetadataIndex}.
+ *
+ * @author Alan Race
+ * @see CompactSpectrumList
+ */
+public class SpectrumTable implements LazySpectrumList.SpectrumLoader, Serializable {
+
+    /**
+     * Serialisation version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Initial number of rows if no capacity is specified.
+     */
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * MzML which the spectra belong to, used to link references when creating spectra.
+     */
+    private final MzML mzML;
+
+    /**
+     * Spectrum used to create all spectra which are not stored in full.
+     */
+    private Spectrum template;
+
+    /**
+     * Spectra which could not be recreated from the table, by index.
+     */
+    private final Map<Integer, Spectrum> fullSpectra = new HashMap<Integer, Spectrum>();
+
+    /**
+     * Number of rows in the table.
+     */
+    private int size;
+
+    /**
+     * Prefix shared by the IDs while they follow the pattern prefix + number.
+     */
+    private String idPrefix;
+
+    /**
+     * Number following the prefix in the ID of the first spectrum.
+     */
+    private long idStart;
+
+    /**
+     * IDs of all spectra, only created once an ID does not follow the pattern.
+     */
+    private String[] ids;
+
+    private transient int[] x;
+    private transient int[] y;
+    private transient int[] z;
+    private transient double[] totalIonCurrent;
+    private transient int[] defaultArrayLength;
+    private transient long[] mzOffset;
+    private transient long[] mzEncodedLength;
+    private transient long[] mzArrayLength;
+    private transient long[] intensityOffset;
+    private transient long[] intensityEncodedLength;
+    private transient long[] intensityArrayLength;
+
+    /**
+     * Create an empty table for spectra belonging to the specified MzML.
+     *
+     * @param mzML MzML containing the spectra
+     */
+    public SpectrumTable(MzML mzML) {
+        this(mzML, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty table for spectra belonging to the specified MzML, with
+     * space for the specified number of spectra.
+     *
+     * @param mzML MzML containing the spectra
+     * @param initialCapacity Expected number of spectra
+     */
+    public SpectrumTable(MzML mzML, int initialCapacity) {
+        this.mzML = mzML;
+
+        allocate(Math.max(initialCapacity, 1));
+    }
+
+    /**
+     * Add the metadata of the spectrum to the end of the table.
+     *
+     * @param spectrum Spectrum to add
+     * @return Index of the spectrum within the table
+     */
+    public synchronized int addSpectrum(Spectrum spectrum) {
+        if (size == x.length) {
+            allocate(size * 2);
+        }
+
+        int index = size++;
+
+        setID(index, spectrum.getID());
+
+        PixelLocation location = (spectrum.getScanList() == null) ? null : spectrum.getPixelLocation();
+
+        if (location != null) {
+            x[index] = location.getX();
+            y[index] = location.getY();
+            z[index] = location.getZ();
+        }
+
+        CVParam tic = spectrum.getCVParam(Spectrum.TOTAL_ION_CURRENT_ID);
+        totalIonCurrent[index] = (tic == null) ? Double.NaN : tic.getValueAsDouble();
+
+        defaultArrayLength[index] = spectrum.getDefaultArrayLength();
+
+        BinaryDataArrayList bdaList = spectrum.getBinaryDataArrayList();
+        BinaryDataArray mzArray = bdaList.getmzArray();
+        BinaryDataArray intensityArray = bdaList.getIntensityArray();
+
+        mzOffset[index] = getLongValue(mzArray, BinaryDataArray.EXTERNAL_OFFSET_ID);
+        mzEncodedLength[index] = getLongValue(mzArray, BinaryDataArray.EXTERNAL_ENCODED_LENGTH_ID);
+        mzArrayLength[index] = getLongValue(mzArray, BinaryDataArray.EXTERNAL_ARRAY_LENGTH_ID);
+        intensityOffset[index] = getLongValue(intensityArray, BinaryDataArray.EXTERNAL_OFFSET_ID);
+        intensityEncodedLength[index] = getLongValue(intensityArray, BinaryDataArray.EXTERNAL_ENCODED_LENGTH_ID);
+        intensityArrayLength[index] = getLongValue(intensityArray, BinaryDataArray.EXTERNAL_ARRAY_LENGTH_ID);
+
+        if (template == null) {
+            template = spectrum;
+        } else if (!matchesTemplate(index, spectrum)) {
+            fullSpectra.put(index, spectrum);
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the spectrum at the specified index, creating it from the table
+     * unless it is stored in full. A new instance is created on each call for
+     * spectra which are not stored in full.
+     *
+     * @param index Index of the spectrum
+     * @return Spectrum
+     */
+    public synchronized Spectrum getSpectrum(int index) {
+        checkIndex(index);
+
+        Spectrum spectrum = fullSpectra.get(index);
+
+        if (spectrum == null) {
+            spectrum = createSpectrum(index);
+        }
+
+        return spectrum;
+    }
+
+    @Override
+    public Spectrum loadSpectrum(int index) {
+        return getSpectrum(index);
+    }
+
+    /**
+     * Returns whether the spectrum at the specified index is stored in full
+     * rather than created from the table.
+     *
+     * @param index Index of the spectrum
+     * @return true if stored in full, false otherwise
+     */
+    public synchronized boolean isStoredInFull(int index) {
+        checkIndex(index);
+
+        return fullSpectra.containsKey(index);
+    }
+
+    /**
+     * Returns the number of spectra stored in full rather than created from the table.
+     *
+     * @return Number of spectra stored in full
+     */
+    public synchronized int getNumberOfSpectraStoredInFull() {
+        return fullSpectra.size();
+    }
+
+    /**
+     * Returns the number of spectra in the table.
+     *
+     * @return Number of spectra
+     */
+    public synchronized int getNumberOfSpectra() {
+        return size;
+    }
+
+    /**
+     * Returns a read only view of the IDs of the spectra in the table, which are
+     * created on access if they follow a common pattern.
+     *
+     * @return List of spectrum IDs
+     */
+    public List<String> getSpectrumIDs() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return getID(index);
+            }
+
+            @Override
+            public int size() {
+                return getNumberOfSpectra();
+            }
+        };
+    }
+
+    /**
+     * Returns the ID of the spectrum at the specified index.
+     *
+     * @param index Index of the spectrum
+     * @return Spectrum ID
+     */
+    public synchronized String getID(int index) {
+        checkIndex(index);
+
+        if (ids != null) {
+            return ids[index];
+        }
+
+        return idPrefix + (idStart + index);
+    }
+
+    /**
+     * Returns the pixel location of the spectrum at the specified index.
+     *
+     * @param index Index of the spectrum
+     * @return Location of the spectrum
+     */
+    public synchronized PixelLocation getPixelLocation(int index) {
+        checkIndex(index);
+
+        return new PixelLocation(x[index], y[index], z[index]);
+    }
+
+    /**
+     * Set the pixel location of the spectrum at the specified index. This also
+     * updates the spectrum if it is stored in full.
+     *
+     * @param index Index of the spectrum
+     * @param location New pixel location
+     */
+    public synchronized void setPixelLocation(int index, PixelLocation location) {
+        checkIndex(index);
+
+        x[index] = location.getX();
+        y[index] = location.getY();
+        z[index] = location.getZ();
+
+        Spectrum spectrum = fullSpectra.get(index);
+
+        if (spectrum != null) {
+            // Only include the z position if the spectrum already has one
+            boolean hasZ = spectrum.getScanList() != null && spectrum.getScanList().size() > 0
+                    && spectrum.getScanList().get(0).getCVParam(Scan.POSITION_Z_ID) != null;
+
+            spectrum.setPixelLocation(location.getX(), location.getY(), hasZ ? location.getZ() : -1);
+        }
+    }
+
+    /**
+     * Returns the x-coordinate of the spectrum at the specified index.
+     *
+     * @param index Index of the spectrum
+     * @return x-coordinate
+     */
+    public synchronized int getX(int index) {
+        checkIndex(index);
+
+        return x[index];
+    }
+
+    /**
+     * Returns the y-coordinate of the spectrum at the specified index.
+     *
+     * @param index Index of the spectrum
+     * @return y-coordinate
+     */
+    public synchronized int getY(int index) {
+        checkIndex(index);
+
+        return y[index];
+    }
+
+    /**
+     * Returns the z-coordinate of the spectrum at the specified index, which is
+     * 1 if the spectrum has no z position.
+     *
+     * @param index Index of the spectrum
+     * @return z-coordinate
+     */
+    public synchronized int getZ(int index) {
+        checkIndex(index);
+
+        return z[index];
+    }
+
+    /**
+     * Returns the total ion current of the spectrum at the specified index.
+     *
+     * @param index Index of the spectrum
+     * @return TIC, or NaN if the spectrum has no TIC cvParam
+     */
+    public synchronized double getTotalIonCurrent(int index) {
+        checkIndex(index);
+
+        return totalIonCurrent[index];
+    }
+
+    /**
+     * Returns the default array length of the spectrum at the specified index.
+     *
+     * @param index Index of the spectrum
+     * @return Default array length
+     */
+    public synchronized int getDefaultArrayLength(int index) {
+        checkIndex(index);
+
+        return defaultArrayLength[index];
+    }
+
+    /**
+     * Returns the external offset of the m/z array of the spectrum at the specified index.
+     *
+     * @param index Index of the spectrum
+     * @return Offset in bytes, or -1 if not present
+     */
+    public synchronized long getmzOffset(int index) {
+        checkIndex(index);
+
+        return mzOffset[index];
+    }
+
+    /**
+     * Returns the external encoded length of the m/z array of the spectrum at the specified index.
+     *
+     * @param index Index of the spectrum
+     * @return Encoded length in bytes, or -1 if not present
+     */
+    public synchronized long getmzEncodedLength(int index) {
+        checkIndex(index);
+
+        return mzEncodedLength[index];
+    }
+
+    /**
+     * Returns the external array length of the m/z array of the spectrum at the specified index.
+     *
+     * @param index Index of the spectrum
+     * @return Number of elements, or -1 if not present
+     */
+    public synchronized long getmzArrayLength(int index) {
+        checkIndex(index);
+
+        return mzArrayLength[index];
+    }
+
+    /**
+     * Returns the external offset of the intensity array of the spectrum at the specified index.
+     *
+     * @param index Index of the spectrum
+     * @return Offset in bytes, or -1 if not present
+     */
+    public synchronized long getIntensityOffset(int index) {
+        checkIndex(index);
+
+        return intensityOffset[index];
+    }
+
+    /**
+     * Returns the external encoded length of the intensity array of the spectrum at the specified index.
+     *
+     * @param index Index of the spectrum
+     * @return Encoded length in bytes, or -1 if not present
+     */
+    public synchronized long getIntensityEncodedLength(int index) {
+        checkIndex(index);
+
+        return intensityEncodedLength[index];
+    }
+
+    /**
+     * Returns the external array length of the intensity array of the spectrum at the specified index.
+     *
+     * @param index Index of the spectrum
+     * @return Number of elements, or -1 if not present
+     */
+    public synchronized long getIntensityArrayLength(int index) {
+        checkIndex(index);
+
+        return intensityArrayLength[index];
+    }
+
+    /**
+     * Reduce the size of the columns to the number of spectra in the table,
+     * once all spectra have been added.
+     */
+    public synchronized void trimToSize() {
+        allocate(Math.max(size, 1));
+    }
+
+    /**
+     * Write the columns of the table, in order and big-endian, as
+     * {@link #getNumberOfSpectra()} values per column.
+     *
+     * @param output Output to write the columns to
+     * @throws IOException Error writing to the output
+     */
+    synchronized void writeColumns(DataOutput output) throws IOException {
+        for (int[] column : new int[][]{x, y, z, defaultArrayLength}) {
+            for (int i = 0; i < size; i++) {
+                output.writeInt(column[i]);
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            output.writeDouble(totalIonCurrent[i]);
+        }
+
+        for (long[] column : new long[][]{mzOffset, mzEncodedLength, mzArrayLength, intensityOffset, intensityEncodedLength, intensityArrayLength}) {
+            for (int i = 0; i < size; i++) {
+                output.writeLong(column[i]);
+            }
+        }
+    }
+
+    /**
+     * Read the columns of the table as written by {@link #writeColumns(DataOutput)},
+     * starting at the current position of the buffer. Used to restore the columns
+     * after the table has been deserialised.
+     *
+     * @param buffer Buffer to read the columns from, positioned after the columns once read
+     */
+    synchronized void readColumns(ByteBuffer buffer) {
+        x = null;
+
+        allocate(Math.max(size, 1));
+
+        for (int[] column : new int[][]{x, y, z, defaultArrayLength}) {
+            buffer.asIntBuffer().get(column, 0, size);
+            buffer.position(buffer.position() + size * 4);
+        }
+
+        buffer.asDoubleBuffer().get(totalIonCurrent, 0, size);
+        buffer.position(buffer.position() + size * 8);
+
+        for (long[] column : new long[][]{mzOffset, mzEncodedLength, mzArrayLength, intensityOffset, intensityEncodedLength, intensityArrayLength}) {
+            buffer.asLongBuffer().get(column, 0, size);
+            buffer.position(buffer.position() + size * 8);
+        }
+    }
+
+    /**
+     * Create the spectrum at the specified index by copying the template and
+     * replacing the values stored in the table. Only cvParams belonging directly
+     * to the template are updated, so values inherited from a
+     * referenceableParamGroup are left unchanged.
+     *
+     * @param index Index of the spectrum
+     * @return New Spectrum
+     */
+    private Spectrum createSpectrum(int index) {
+        SourceFileList sourceFileList = (mzML.getFileDescription() == null) ? null : mzML.getFileDescription().getSourceFileList();
+        Spectrum spectrum = new Spectrum(template, mzML.getReferenceableParamGroupList(), mzML.getDataProcessingList(),
+                sourceFileList, mzML.getInstrumentConfigurationList());
+
+        spectrum.setID(getID(index));
+        spectrum.setDefaultArrayLength(defaultArrayLength[index]);
+
+        setValue(spectrum, Spectrum.TOTAL_ION_CURRENT_ID, Double.toString(totalIonCurrent[index]));
+
+        ScanList scanList = spectrum.getScanList();
+
+        if (scanList != null && scanList.size() > 0) {
+            Scan scan = scanList.get(0);
+
+            setValue(scan, Scan.POSITION_X_ID, Integer.toString(x[index]));
+            setValue(scan, Scan.POSITION_Y_ID, Integer.toString(y[index]));
+            setValue(scan, Scan.POSITION_Z_ID, Integer.toString(z[index]));
+        }
+
+        BinaryDataArrayList bdaList = spectrum.getBinaryDataArrayList();
+
+        updateBinaryDataArray(bdaList.getmzArray(), mzOffset[index], mzEncodedLength[index], mzArrayLength[index]);
+        updateBinaryDataArray(bdaList.getIntensityArray(), intensityOffset[index], intensityEncodedLength[index], intensityArrayLength[index]);
+
+        return spectrum;
+    }
+
+    /**
+     * Update the external data cvParams and the DataLocation of a BinaryDataArray
+     * copied from the template.
+     *
+     * @param bda BinaryDataArray to update, or null
+     * @param offset External offset
+     * @param encodedLength External encoded length
+     * @param arrayLength External array length
+     */
+    private static void updateBinaryDataArray(BinaryDataArray bda, long offset, long encodedLength, long arrayLength) {
+        if (bda == null) {
+            return;
+        }
+
+        setValue(bda, BinaryDataArray.EXTERNAL_OFFSET_ID, Long.toString(offset));
+        setValue(bda, BinaryDataArray.EXTERNAL_ENCODED_LENGTH_ID, Long.toString(encodedLength));
+        setValue(bda, BinaryDataArray.EXTERNAL_ARRAY_LENGTH_ID, Long.toString(arrayLength));
+
+        DataLocation templateLocation = bda.getDataLocation();
+
+        if (templateLocation != null) {
+            DataLocation location = new DataLocation(templateLocation.getDataStorage(), offset, (int) encodedLength);
+            // DataTransformations are immutable, so can be shared with the template
+            location.setDataTransformation(templateLocation.getDataTransformation(), bda.getDecompressedSize());
+
+            bda.setDataLocation(location);
+        }
+    }
+
+    /**
+     * Returns whether the spectrum at the specified index would be recreated
+     * exactly by {@link #createSpectrum(int)}, without creating it. The spectrum
+     * is compared with the template as by {@link #isEquivalent(MzMLTag, MzMLTag)},
+     * except that the values replaced when recreating the spectrum are compared
+     * with the values in the table. The ID and default array length are always
+     * recreated exactly, so are not compared.
+     *
+     * @param index Index of the spectrum
+     * @param spectrum Spectrum added at the index
+     * @return true if the spectrum can be recreated from the table, false otherwise
+     */
+    private boolean matchesTemplate(int index, Spectrum spectrum) {
+        if (spectrum.getClass() != template.getClass()
+                || !isSameReference(spectrum.getDataProcessingRef(), template.getDataProcessingRef())
+                || !isSameReference(spectrum.getSourceFileRef(), template.getSourceFileRef())
+                || !isSameValue(spectrum.getSpotID(), template.getSpotID())
+                || !isSameLocation(spectrum.getDataLocation(), template.getDataLocation())) {
+            return false;
+        }
+
+        Map<CVParam, String> values = new IdentityHashMap<CVParam, String>();
+        Map<BinaryDataArray, DataLocation> locations = new IdentityHashMap<BinaryDataArray, DataLocation>();
+
+        putValue(values, template, Spectrum.TOTAL_ION_CURRENT_ID, Double.toString(totalIonCurrent[index]));
+
+        ScanList scanList = template.getScanList();
+
+        if (scanList != null && scanList.size() > 0) {
+            Scan scan = scanList.get(0);
+
+            putValue(values, scan, Scan.POSITION_X_ID, Integer.toString(x[index]));
+            putValue(values, scan, Scan.POSITION_Y_ID, Integer.toString(y[index]));
+            putValue(values, scan, Scan.POSITION_Z_ID, Integer.toString(z[index]));
+        }
+
+        BinaryDataArrayList bdaList = template.getBinaryDataArrayList();
+
+        putBinaryDataArrayValues(values, locations, bdaList.getmzArray(), mzOffset[index], mzEncodedLength[index], mzArrayLength[index]);
+        putBinaryDataArrayValues(values, locations, bdaList.getIntensityArray(), intensityOffset[index], intensityEncodedLength[index], intensityArrayLength[index]);
+
+        return isEquivalentChildren(spectrum, template, values, locations);
+    }
+
+    /**
+     * Record the external data cvParam values and the DataLocation which
+     * {@link #updateBinaryDataArray(BinaryDataArray, long, long, long)} would set
+     * on a copy of a BinaryDataArray of the template.
+     *
+     * @param values Values of the cvParams of the template to replace
+     * @param locations DataLocations of the BinaryDataArrays of the template to replace
+     * @param bda BinaryDataArray of the template, or null
+     * @param offset External offset
+     * @param encodedLength External encoded length
+     * @param arrayLength External array length
+     */
+    private static void putBinaryDataArrayValues(Map<CVParam, String> values, Map<BinaryDataArray, DataLocation> locations,
+            BinaryDataArray bda, long offset, long encodedLength, long arrayLength) {
+        if (bda == null) {
+            return;
+        }
+
+        putValue(values, bda, BinaryDataArray.EXTERNAL_OFFSET_ID, Long.toString(offset));
+        putValue(values, bda, BinaryDataArray.EXTERNAL_ENCODED_LENGTH_ID, Long.toString(encodedLength));
+        putValue(values, bda, BinaryDataArray.EXTERNAL_ARRAY_LENGTH_ID, Long.toString(arrayLength));
+
+        DataLocation templateLocation = bda.getDataLocation();
+
+        if (templateLocation != null) {
+            locations.put(bda, new DataLocation(templateLocation.getDataStorage(), offset, (int) encodedLength));
+        }
+    }
+
+    /**
+     * Record the value which {@link #setValue(MzMLContentWithParams, String, String)}
+     * would set on a copy of the content.
+     *
+     * @param values Values of the cvParams of the template to replace
+     * @param content Content of the template containing the cvParam
+     * @param accession Accession of the cvParam
+     * @param value New value
+     */
+    private static void putValue(Map<CVParam, String> values, MzMLContentWithParams content, String accession, String value) {
+        for (int i = 0; i < content.getCVParamCount(); i++) {
+            CVParam cvParam = content.getCVParam(i);
+
+            if (cvParam.getTerm().getID().equals(accession)) {
+                values.put(cvParam, value);
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * Set the value of the cvParam with the specified accession, if it belongs
+     * directly to the content rather than to a referenceableParamGroup.
+     *
+     * @param content Content containing the cvParam
+     * @param accession Accession of the cvParam
+     * @param value New value
+     */
+    private static void setValue(MzMLContentWithParams content, String accession, String value) {
+        for (int i = 0; i < content.getCVParamCount(); i++) {
+            CVParam cvParam = content.getCVParam(i);
+
+            if (cvParam.getTerm().getID().equals(accession)) {
+                cvParam.setValueAsString(value);
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the value of the cvParam with the specified accession as a long.
+     *
+     * @param bda BinaryDataArray containing the cvParam, or null
+     * @param accession Accession of the cvParam
+     * @return Value, or -1 if not present
+     */
+    private static long getLongValue(BinaryDataArray bda, String accession) {
+        CVParam cvParam = (bda == null) ? null : bda.getCVParam(accession);
+
+        return (cvParam == null) ? -1 : cvParam.getValueAsLong();
+    }
+
+    /**
+     * Store the ID of the spectrum at the specified index, only storing the IDs
+     * individually once one does not match the pattern of the previous IDs.
+     *
+     * @param index Index of the spectrum
+     * @param id Spectrum ID
+     */
+    private void setID(int index, String id) {
+        if (ids == null) {
+            if (index == 0) {
+                int digitsStart = id.length();
+
+                while (digitsStart > 0 && Character.isDigit(id.charAt(digitsStart - 1))) {
+                    digitsStart--;
+                }
+
+                // Leading zeros and very long numbers would not be recreated
+                int digits = id.length() - digitsStart;
+
+                if (digits > 0 && digits < 18 && (digits == 1 || id.charAt(digitsStart) != '0')) {
+                    idPrefix = id.substring(0, digitsStart);
+                    idStart = Long.parseLong(id.substring(digitsStart));
+
+                    return;
+                }
+            } else if (id.equals(idPrefix + (idStart + index))) {
+                return;
+            }
+
+            ids = new String[x.length];
+
+            for (int i = 0; i < index; i++) {
+                ids[i] = idPrefix + (idStart + i);
+            }
+        }
+
+        ids[index] = id;
+    }
+
+    /**
+     * Resize all columns to the specified capacity.
+     *
+     * @param capacity New number of rows
+     */
+    private void allocate(int capacity) {
+        if (x == null) {
+            x = new int[capacity];
+            y = new int[capacity];
+            z = new int[capacity];
+            totalIonCurrent = new double[capacity];
+            defaultArrayLength = new int[capacity];
+            mzOffset = new long[capacity];
+            mzEncodedLength = new long[capacity];
+            mzArrayLength = new long[capacity];
+            intensityOffset = new long[capacity];
+            intensityEncodedLength = new long[capacity];
+            intensityArrayLength = new long[capacity];
+        } else {
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            z = Arrays.copyOf(z, capacity);
+            totalIonCurrent = Arrays.copyOf(totalIonCurrent, capacity);
+            defaultArrayLength = Arrays.copyOf(defaultArrayLength, capacity);
+            mzOffset = Arrays.copyOf(mzOffset, capacity);
+            mzEncodedLength = Arrays.copyOf(mzEncodedLength, capacity);
+            mzArrayLength = Arrays.copyOf(mzArrayLength, capacity);
+            intensityOffset = Arrays.copyOf(intensityOffset, capacity);
+            intensityEncodedLength = Arrays.copyOf(intensityEncodedLength, capacity);
+            intensityArrayLength = Arrays.copyOf(intensityArrayLength, capacity);
+        }
+
+        if (ids != null) {
+            ids = Arrays.copyOf(ids, capacity);
+        }
+    }
+
+    /**
+     * Check that the index refers to a spectrum in the table.
+     *
+     * @param index Index of the spectrum
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Returns whether two tags describe the same content: the same attributes,
+     * cvParams and children, in the same order, and the same location of any
+     * binary data. CVParams are compared by accession, value and units.
+     *
+     * @param tag First tag
+     * @param other Second tag
+     * @return true if the tags are equivalent, false otherwise
+     */
+    static boolean isEquivalent(MzMLTag tag, MzMLTag other) {
+        return isEquivalent(tag, other, Collections.<CVParam, String>emptyMap(), Collections.<BinaryDataArray, DataLocation>emptyMap());
+    }
+
+    /**
+     * Returns whether a tag is equivalent to a tag of the template, once the
+     * specified values and DataLocations of the template have been replaced.
+     *
+     * @param tag Tag to compare
+     * @param templateTag Tag of the template
+     * @param values Replacement values of cvParams of the template
+     * @param locations Replacement DataLocations of BinaryDataArrays of the template
+     * @return true if the tags are equivalent, false otherwise
+     */
+    private static boolean isEquivalent(MzMLTag tag, MzMLTag templateTag, Map<CVParam, String> values, Map<BinaryDataArray, DataLocation> locations) {
+        if (tag.getClass() != templateTag.getClass()) {
+            return false;
+        }
+
+        if (tag instanceof CVParam) {
+            CVParam cvParam = (CVParam) tag;
+            CVParam templateCVParam = (CVParam) templateTag;
+            String templateValue = values.containsKey(templateCVParam) ? values.get(templateCVParam) : templateCVParam.getValueAsString();
+
+            return cvParam.getTerm().getID().equals(templateCVParam.getTerm().getID())
+                    && isSameTerm(cvParam.getUnits(), templateCVParam.getUnits())
+                    && isSameValue(cvParam.getValueAsString(), templateValue);
+        }
+
+        if (!tag.getXMLAttributeText().equals(templateTag.getXMLAttributeText())) {
+            return false;
+        }
+
+        if (tag instanceof MzMLDataContainer && !isSameLocation(((MzMLDataContainer) tag).getDataLocation(), ((MzMLDataContainer) templateTag).getDataLocation())) {
+            return false;
+        }
+
+        if (tag instanceof BinaryDataArray) {
+            BinaryDataArray templateBDA = (BinaryDataArray) templateTag;
+            DataLocation templateLocation = locations.containsKey(templateBDA) ? locations.get(templateBDA) : templateBDA.getDataLocation();
+
+            if (!isSameLocation(((BinaryDataArray) tag).getDataLocation(), templateLocation)) {
+                return false;
+            }
+        }
+
+        return isEquivalentChildren(tag, templateTag, values, locations);
+    }
+
+    /**
+     * Returns whether the children of a tag are equivalent to the children of a
+     * tag of the template, in the same order.
+     *
+     * @param tag Tag to compare
+     * @param templateTag Tag of the template
+     * @param values Replacement values of cvParams of the template
+     * @param locations Replacement DataLocations of BinaryDataArrays of the template
+     * @return true if the children are equivalent, false otherwise
+     */
+    private static boolean isEquivalentChildren(MzMLTag tag, MzMLTag templateTag, Map<CVParam, String> values, Map<BinaryDataArray, DataLocation> locations) {
+        if (tag instanceof HasChildren) {
+            List<MzMLTag> children = new ArrayList<MzMLTag>();
+            List<MzMLTag> templateChildren = new ArrayList<MzMLTag>();
+
+            ((HasChildren) tag).addChildrenToCollection(children);
+            ((HasChildren) templateTag).addChildrenToCollection(templateChildren);
+
+            if (children.size() != templateChildren.size()) {
+                return false;
+            }
+
+            for (int i = 0; i < children.size(); i++) {
+                if (!isEquivalent(children.get(i), templateChildren.get(i), values, locations)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns whether two optional ontology terms have the same ID.
+     *
+     * @param term First term, or null
+     * @param other Second term, or null
+     * @return true if both are null or have the same ID
+     */
+    private static boolean isSameTerm(OBOTerm term, OBOTerm other) {
+        return (term == null) ? (other == null) : (other != null && term.getID().equals(other.getID()));
+    }
+
+    /**
+     * Returns whether two optional values are equal.
+     *
+     * @param value First value, or null
+     * @param other Second value, or null
+     * @return true if both are null or equal
+     */
+    private static boolean isSameValue(String value, String other) {
+        return (value == null) ? (other == null) : value.equals(other);
+    }
+
+    /**
+     * Returns whether two optional references refer to tags with the same ID.
+     *
+     * @param reference First reference, or null
+     * @param other Second reference, or null
+     * @return true if both are null or have the same ID
+     */
+    private static boolean isSameReference(ReferenceableTag reference, ReferenceableTag other) {
+        return (reference == null) ? (other == null) : (other != null && reference.getID().equals(other.getID()));
+    }
+
+    /**
+     * Returns whether two optional DataLocations refer to the same bytes.
+     *
+     * @param location First location, or null
+     * @param other Second location, or null
+     * @return true if both are null or have the same storage, offset and length
+     */
+    private static boolean isSameLocation(DataLocation location, DataLocation other) {
+        if (location == null || other == null) {
+            return location == other;
+        }
+
+        return location.getDataStorage() == other.getDataStorage()
+                && location.getOffset() == other.getOffset()
+                && location.getLength() == other.getLength();
+    }
+}
@@ -4,17 +4,16 @@ import com.alanmrace.jimzmlparser.data.DataLocation;
 import com.alanmrace.jimzmlparser.data.DataTransformation;
 import com.alanmrace.jimzmlparser.data.DataTypeTransform;
 import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
-import com.alanmrace.jimzmlparser.data.LZ4DataTransform;
-import com.alanmrace.jimzmlparser.data.MSNumpressDataTransform;
-import com.alanmrace.jimzmlparser.data.MSNumpressDataTransform.NumpressAlgorithm;
-import com.alanmrace.jimzmlparser.data.XZDataTransform;
-import com.alanmrace.jimzmlparser.data.ZlibDataTransform;
-import com.alanmrace.jimzmlparser.data.ZstdDataTransform;
 import com.alanmrace.jimzmlparser.obo.OBO;
 import com.alanmrace.jimzmlparser.obo.OBOTerm;
 import com.alanmrace.jimzmlparser.util.XMLHelper;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
@@ -41,66 +40,219 @@ public class BinaryDataArray extends MzMLContentWithParams {
         /**
          * No compression.
          */
-        NONE,
+        NONE(NO_COMPRESSION_ID),
 
         /**
          * ZLib compression.
          */
-        ZLIB,
+        ZLIB(ZLIB_COMPRESSION_ID),
         
         /**
          * XZ compression.
          */
-        XZ,
+        XZ(XZ_COMPRESSION_ID),
         
         /**
          * LZ4 compression
          */
-        LZ4,
+        LZ4(LZ4_COMPRESSION_ID),
         
         /**
          * ZStandard compression
          */
-        ZSTD,
+        ZSTD(ZSTD_COMPRESSION_ID),
         
         /**
          * MS Numpress linear prediction compression
          */
-        MSNUMPRESS_LINEAR,
+        MSNUMPRESS_LINEAR(MSNUMPRESS_LINEAR_ID),
         
         /**
          * MS Numpress positive integer compression
          */
-        MSNUMPRESS_POSITIVE,
+        MSNUMPRESS_POSITIVE(MSNUMPRESS_POSITIVE_ID),
         
         /**
          * MS Numpress short logged float compression
          */
-        MSNUMPRESS_SLOF,
+        MSNUMPRESS_SLOF(MSNUMPRESS_SLOF_ID),
         
-        MSNUMPRESS_LINEAR_ZLIB,
+        MSNUMPRESS_LINEAR_ZLIB(MSNUMPRESS_LINEAR_ZLIB_ID),
                 
-        MSNUMPRESS_POSITIVE_ZLIB,
+        MSNUMPRESS_POSITIVE_ZLIB(MSNUMPRESS_POSITIVE_ZLIB_ID),
         
-        MSNUMPRESS_SLOF_ZLIB,
+        MSNUMPRESS_SLOF_ZLIB(MSNUMPRESS_SLOF_ZLIB_ID),
         
-        MSNUMPRESS_LINEAR_XZ,
+        MSNUMPRESS_LINEAR_XZ(MSNUMPRESS_LINEAR_XZ_ID),
                 
-        MSNUMPRESS_POSITIVE_XZ,
+        MSNUMPRESS_POSITIVE_XZ(MSNUMPRESS_POSITIVE_XZ_ID),
         
-        MSNUMPRESS_SLOF_XZ,
+        MSNUMPRESS_SLOF_XZ(MSNUMPRESS_SLOF_XZ_ID),
         
-        MSNUMPRESS_LINEAR_LZ4,
+        MSNUMPRESS_LINEAR_LZ4(MSNUMPRESS_LINEAR_LZ4_ID),
                 
-        MSNUMPRESS_POSITIVE_LZ4,
+        MSNUMPRESS_POSITIVE_LZ4(MSNUMPRESS_POSITIVE_LZ4_ID),
         
-        MSNUMPRESS_SLOF_LZ4,
+        MSNUMPRESS_SLOF_LZ4(MSNUMPRESS_SLOF_LZ4_ID),
         
-        MSNUMPRESS_LINEAR_ZSTD,
+        MSNUMPRESS_LINEAR_ZSTD(MSNUMPRESS_LINEAR_ZSTD_ID),
                 
-        MSNUMPRESS_POSITIVE_ZSTD,
+        MSNUMPRESS_POSITIVE_ZSTD(MSNUMPRESS_POSITIVE_ZSTD_ID),
         
-        MSNUMPRESS_SLOF_ZSTD;
+        MSNUMPRESS_SLOF_ZSTD(MSNUMPRESS_SLOF_ZSTD_ID),
+        
+        /**
+         * Byte shuffle followed by ZLib compression.
+         */
+        SHUFFLE_ZLIB(ZLIB_COMPRESSION_ID, BYTE_SHUFFLE),
+        
+        /**
+         * Byte shuffle followed by XZ compression.
+         */
+        SHUFFLE_XZ(XZ_COMPRESSION_ID, BYTE_SHUFFLE),
+        
+        /**
+         * Byte shuffle followed by LZ4 compression.
+         */
+        SHUFFLE_LZ4(LZ4_COMPRESSION_ID, BYTE_SHUFFLE),
+        
+        /**
+         * Byte shuffle followed by ZStandard compression.
+         */
+        SHUFFLE_ZSTD(ZSTD_COMPRESSION_ID, BYTE_SHUFFLE),
+        
+        /**
+         * ZLib compression of independent blocks, see {@link com.alanmrace.jimzmlparser.data.ChunkedDataTransform}.
+         */
+        CHUNKED_ZLIB(ZLIB_COMPRESSION_ID, CHUNKED_COMPRESSION),
+        
+        /**
+         * ZStandard compression of independent blocks, see {@link com.alanmrace.jimzmlparser.data.ChunkedDataTransform}.
+         */
+        CHUNKED_ZSTD(ZSTD_COMPRESSION_ID, CHUNKED_COMPRESSION);
+        
+        /**
+         * Map of accessions to the CompressionType they describe, without any 
+         * variant signalled by a userParam.
+         */
+        private static final Map<String, CompressionType> ACCESSION_MAP = new HashMap<String, CompressionType>();
+        
+        static {
+            for(CompressionType compressionType : values()) {
+                if(compressionType.userParamName == null)
+                    ACCESSION_MAP.put(compressionType.accession, compressionType);
+            }
+        }
+        
+        /**
+         * Accession of the ontology term describing the CompressionType.
+         */
+        private final String accession;
+        
+        /**
+         * Name of the userParam signalling this variant of the compression, or 
+         * null if the ontology term alone describes it.
+         */
+        private final String userParamName;
+        
+        CompressionType(String accession) {
+            this(accession, null);
+        }
+        
+        CompressionType(String accession, String userParamName) {
+            this.accession = accession;
+            this.userParamName = userParamName;
+        }
+        
+        /**
+         * Get the accession of the ontology term describing the CompressionType.
+         * 
+         * @return Accession
+         */
+        public String getAccession() {
+            return accession;
+        }
+        
+        /**
+         * Convert an ontology term accession to the CompressionType it describes.
+         * 
+         * @param accession Accession of the compression ontology term
+         * @return CompressionType described by the accession, or null if no match
+         */
+        public static CompressionType fromAccession(String accession) {
+            return ACCESSION_MAP.get(accession);
+        }
+        
+        /**
+         * Convert an ontology term accession and the name of the userParam 
+         * signalling a variant of the compression to the CompressionType they describe.
+         * 
+         * @param accession Accession of the compression ontology term
+         * @param userParamName Name of the userParam signalling the variant, or null for none
+         * @return CompressionType described, or null if no match
+         */
+        public static CompressionType fromAccession(String accession, String userParamName) {
+            if(userParamName == null)
+                return fromAccession(accession);
+            
+            for(CompressionType compressionType : values()) {
+                if(userParamName.equals(compressionType.userParamName) && compressionType.accession.equals(accession))
+                    return compressionType;
+            }
+            
+            return null;
+        }
+        
+        /**
+         * Get the name of the userParam which signals this variant of the 
+         * compression in addition to the compression ontology term.
+         * 
+         * @return Name of the userParam, or null if none is required
+         */
+        public String getUserParamName() {
+            return userParamName;
+        }
+        
+        /**
+         * Check whether the data is byte shuffled prior to compression. Byte 
+         * shuffling is not described by the ontology, so is signalled by the 
+         * generic compression ontology term ({@link #COMPRESSION_TYPE_ID}) along 
+         * with the {@link #BYTE_SHUFFLE} userParam, whose value is the accession 
+         * of the compression applied after shuffling.
+         * 
+         * @return true if byte shuffled
+         */
+        public boolean isByteShuffled() {
+            return BYTE_SHUFFLE.equals(userParamName);
+        }
+        
+        /**
+         * Check whether the data is compressed in independent blocks. Chunked 
+         * data starts with a table of blocks, so is not readable by other software
+         * as plain compressed data. It is therefore signalled, as for byte shuffling, 
+         * by the generic compression ontology term ({@link #COMPRESSION_TYPE_ID}) 
+         * along with the {@link #CHUNKED_COMPRESSION} userParam, whose value is 
+         * the accession of the compression applied to each block.
+         * 
+         * @return true if compressed in independent blocks
+         */
+        public boolean isChunked() {
+            return CHUNKED_COMPRESSION.equals(userParamName);
+        }
+        
+        /**
+         * Get the CompressionType which applies the same compression, with or 
+         * without byte shuffling.
+         * 
+         * @param byteShuffled Whether the data is byte shuffled prior to compression
+         * @return CompressionType, or null if byte shuffling is not supported for the compression
+         */
+        public CompressionType withByteShuffle(boolean byteShuffled) {
+            if(isByteShuffled() == byteShuffled)
+                return this;
+            
+            return fromAccession(accession, byteShuffled ? BYTE_SHUFFLE : null);
+        }
         
         /**
          * Convert CompressionType enum to OBOTerm, using ontology terms found in the 
@@ -110,6 +262,11 @@ public class BinaryDataArray extends MzMLContentWithParams {
          * @return Ontology term which describes the CompressionType, or null if no match
          */
         public static OBOTerm toOBOTerm(CompressionType compressionType) {
+            // The term of the compression alone must not be used for variants, 
+            // as other software would then read the data as plain compressed data
+            if(compressionType.userParamName != null)
+                return OBO.getOBO().getTerm(COMPRESSION_TYPE_ID);
+            
             switch(compressionType) {
                 case NONE:
                     return OBO.getOBO().getTerm(NO_COMPRESSION_ID);
@@ -315,6 +472,32 @@ public class BinaryDataArray extends MzMLContentWithParams {
     
     public static final String MSNUMPRESS_SLOF_ZSTD_ID = "IMS:1005012";
     
+    /**
+     * Name of the userParam signalling that the data is byte shuffled prior to
+     * compression, see {@link CompressionType#isByteShuffled()}. The value is the 
+     * accession of the compression applied after shuffling.
+     */
+    public static final String BYTE_SHUFFLE = "byte shuffle";
+    
+    /**
+     * Name of the userParam signalling that the data is compressed in 
+     * independent blocks, see {@link CompressionType#isChunked()}. The value is
+     * the accession of the compression applied to each block.
+     */
+    public static final String CHUNKED_COMPRESSION = "chunked compression";
+    
+    /**
+     * Name of the userParam giving the offset in bytes, within the binary data 
+     * file, of the dictionary used for ZStandard compression.
+     */
+    public static final String ZSTD_DICTIONARY_OFFSET = "zstd dictionary offset";
+    
+    /**
+     * Name of the userParam giving the length in bytes of the dictionary used 
+     * for ZStandard compression.
+     */
+    public static final String ZSTD_DICTIONARY_LENGTH = "zstd dictionary length";
+    
     /**
      * Accession: External array length (IMS:1000103). MUST supply once
      */
@@ -580,6 +763,10 @@ public class BinaryDataArray extends MzMLContentWithParams {
     /**
      * Get the data array as double[], convert and decompress as necessary,
      * optionally keeping the data in memory.
+     * 
+     * <p>Keeping data in memory holds on to it for the lifetime of the BinaryDataArray.
+     * To bound the memory used instead, set a {@link com.alanmrace.jimzmlparser.data.DataCache}
+     * on the data storage and leave keepInMemory as false.
      *
      * @param keepInMemory true if data should be kept in memory, false
      * otherwise
@@ -590,16 +777,7 @@ public class BinaryDataArray extends MzMLContentWithParams {
         if(data != null)
             return data;
 
-        // If there is no dataLocation stored for the BinaryDataArray then it is 
-        // likely that the data storage is MzMLDataStorage and so needs to be converted 
-        // to Base64Storage prior to being able to load any data
-        if (dataLocation == null && parent != null) {
-            MzMLTag grandParent = parent.getParent();
-
-            if (grandParent instanceof MzMLDataContainer) {
-                ((MzMLDataContainer) grandParent).convertMzMLDataStorageToBase64();
-            }
-        }
+        ensureDataLocation();
          
         // If there is still no dataLocation after the conversion, then no data to load
         if (dataLocation == null) {
@@ -621,6 +799,147 @@ public class BinaryDataArray extends MzMLContentWithParams {
         return loadedData;
     }
     
+    /**
+     * Get the data array as float[], convert and decompress as necessary. Data
+     * stored as float or integers is converted directly to float, rather than 
+     * first being widened to double.
+     *
+     * @return Uncompressed data as float[]
+     * @throws IOException On failure to read from data location
+     * @see DataLocation#getDataAsFloat()
+     */
+    public float[] getDataAsFloat() throws IOException {
+        if(data != null) {
+            float[] floatData = new float[data.length];
+            
+            for(int i = 0; i < data.length; i++)
+                floatData[i] = (float) data[i];
+            
+            return floatData;
+        }
+        
+        ensureDataLocation();
+        
+        if (dataLocation == null) {
+            return new float[0];
+        }
+        
+        try {
+            return dataLocation.getDataAsFloat();
+        } catch (DataFormatException ex) {
+            Logger.getLogger(BinaryDataArray.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        
+        return new float[0];
+    }
+    
+    /**
+     * Get the data array as a read-only FloatBuffer. Data stored uncompressed as
+     * float is a view of the raw data, and if an {@link com.alanmrace.jimzmlparser.data.OffHeapDataStore}
+     * has been set on the DataStorage then other data is decoded into and served
+     * from the store rather than the heap.
+     *
+     * @return Uncompressed data as a read-only FloatBuffer
+     * @throws IOException On failure to read from data location
+     * @see DataLocation#getFloatBuffer()
+     */
+    public FloatBuffer getDataAsFloatBuffer() throws IOException {
+        if(data != null) {
+            return FloatBuffer.wrap(getDataAsFloat()).asReadOnlyBuffer();
+        }
+        
+        ensureDataLocation();
+        
+        if (dataLocation == null) {
+            return FloatBuffer.allocate(0).asReadOnlyBuffer();
+        }
+        
+        try {
+            return dataLocation.getFloatBuffer();
+        } catch (DataFormatException ex) {
+            Logger.getLogger(BinaryDataArray.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        
+        return FloatBuffer.allocate(0).asReadOnlyBuffer();
+    }
+    
+    /**
+     * If there is no dataLocation stored for the BinaryDataArray then it is 
+     * likely that the data storage is MzMLDataStorage and so needs to be converted 
+     * to Base64Storage prior to being able to load any data.
+     * 
+     * @throws IOException On failure to read from data location
+     */
+    private void ensureDataLocation() throws IOException {
+        if (dataLocation == null && parent != null) {
+            MzMLTag grandParent = parent.getParent();
+
+            if (grandParent instanceof MzMLDataContainer) {
+                ((MzMLDataContainer) grandParent).convertMzMLDataStorageToBase64();
+            }
+        }
+    }
+    
+    /**
+     * Decode the data array into the supplied array, starting at offset, rather
+     * than allocating a new array. This allows the same array to be reused when 
+     * iterating over many spectra.
+     *
+     * @param dest Array to write the data into
+     * @param offset Index within dest at which to write the first value
+     * @return Number of values written
+     * @throws IOException On failure to read from data location
+     * @see DataLocation#getData(DoubleBuffer)
+     */
+    public int getDataAsDouble(double[] dest, int offset) throws IOException {
+        return getDataAsDouble(DoubleBuffer.wrap(dest, offset, dest.length - offset));
+    }
+    
+    /**
+     * Decode the data array into the supplied buffer, starting at its current 
+     * position, rather than allocating a new array. The position of the buffer 
+     * is advanced by the number of values written.
+     *
+     * @param dest Buffer to write the data into
+     * @return Number of values written
+     * @throws IOException On failure to read from data location
+     * @see DataLocation#getData(DoubleBuffer)
+     */
+    public int getDataAsDouble(DoubleBuffer dest) throws IOException {
+        if(data != null) {
+            if(dest.remaining() < data.length)
+                throw new BufferOverflowException();
+            
+            dest.put(data);
+            
+            return data.length;
+        }
+        
+        ensureDataLocation();
+        
+        if (dataLocation == null) {
+            return 0;
+        }
+        
+        try {
+            return dataLocation.getData(dest);
+        } catch (DataFormatException ex) {
+            Logger.getLogger(BinaryDataArray.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        
+        return 0;
+    }
+    
+    /**
+     * Check whether the data is currently held in memory, either because it was 
+     * set directly or because it was loaded with keepInMemory set to true.
+     * 
+     * @return true if the data is held in memory, false otherwise
+     */
+    boolean isDataInMemory() {
+        return data != null;
+    }
+    
     /**
      * Set the data internally. This does not update any metadata, and therefore
      * should only be used when metadata is also updated. Alternatively use
@@ -652,96 +971,119 @@ public class BinaryDataArray extends MzMLContentWithParams {
      * included within this BinaryDataArray. This describes the forward transformation
      * from a double[] to a (optionally new data type, optionally compressed) byte[].
      * 
+     * <p>If the data is compressed with ZStandard using a dictionary, as described
+     * by the {@link #ZSTD_DICTIONARY_OFFSET} and {@link #ZSTD_DICTIONARY_LENGTH}
+     * userParams, the dictionary is read from the DataStorage of this BinaryDataArray.
+     * 
      * @return DataTransformation describing CVParams
+     * @see #generateDataTransformation(byte[])
      */
     public DataTransformation generateDataTransformation() {
-        DataTransformation transformation = new DataTransformation();
-
-        // Always add in the conversion to data type first
-        if (!DataType.DOUBLE.equals(getDataType())) {
-            transformation.addTransform(new DataTypeTransform(DataType.DOUBLE, getDataType()));
-        }
-
-        CVParam compressionCVParam = this.getCVParamOrChild(BinaryDataArray.COMPRESSION_TYPE_ID);
-        
-        // Add in any compression
-        if (BinaryDataArray.ZLIB_COMPRESSION_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new ZlibDataTransform());
-        } else if(BinaryDataArray.XZ_COMPRESSION_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new XZDataTransform());
-        } else if(BinaryDataArray.LZ4_COMPRESSION_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new LZ4DataTransform((int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)))));
-        } else if(BinaryDataArray.ZSTD_COMPRESSION_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new ZstdDataTransform((int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)))));
-        } else if(BinaryDataArray.MSNUMPRESS_LINEAR_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
-        } else if(BinaryDataArray.MSNUMPRESS_POSITIVE_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
-        } else if(BinaryDataArray.MSNUMPRESS_SLOF_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
-        } else if(BinaryDataArray.MSNUMPRESS_LINEAR_LZ4_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
-            
-            int decompressedSize = (int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)));
-            UserParam userParam = this.getUserParam("LZ4 decompression size");
-            
-            if(userParam != null) {
-                decompressedSize = Integer.parseInt(this.getUserParam("LZ4 decompression size").getValue());
+        byte[] zstdDictionary = null;
+        UserParam dictionaryOffset = getUserParam(ZSTD_DICTIONARY_OFFSET);
+        UserParam dictionaryLength = getUserParam(ZSTD_DICTIONARY_LENGTH);
+        
+        if(dictionaryOffset != null && dictionaryLength != null) {
+            if(dataLocation == null || dataLocation.getDataStorage() == null) {
+                LOGGER.log(Level.WARNING, "ZStandard dictionary specified but no data storage available for {0}", this);
+            } else {
+                try {
+                    zstdDictionary = dataLocation.getDataStorage().getSharedData(Long.parseLong(dictionaryOffset.getValue()), 
+                            Integer.parseInt(dictionaryLength.getValue()));
+                } catch (IOException ex) {
+                    LOGGER.log(Level.SEVERE, "Failed to read ZStandard dictionary", ex);
+                }
             }
+        }
+        
+        return generateDataTransformation(zstdDictionary);
+    }
+    
+    /**
+     * Create a {@link DataTransformation} based on the relevant CVParams 
+     * included within this BinaryDataArray, using the supplied dictionary if the
+     * data is compressed with ZStandard.
+     * 
+     * <p>BinaryDataArrays with the same data type, compression and dictionary 
+     * share a single immutable DataTransformation, see 
+     * {@link DataTransformation#create(DataType, CompressionType, byte[])}. The
+     * size of the decompressed data, which differs between arrays, is given by
+     * {@link #getDecompressedSize()}.
+     * 
+     * @param zstdDictionary Dictionary used for ZStandard compression, or null for none
+     * @return DataTransformation describing CVParams
+     */
+    public DataTransformation generateDataTransformation(byte[] zstdDictionary) {
+        CVParam dataTypeCVParam = getCVParamOrChild(BINARY_DATA_TYPE_ID);
+        DataType dataType = (dataTypeCVParam == null) ? null : DataType.fromOBOTerm(dataTypeCVParam.getTerm());
+        
+        return DataTransformation.create(dataType, getCompressionType(), zstdDictionary);
+    }
+    
+    /**
+     * Get the size in bytes of the data before the final compression step of 
+     * the {@link DataTransformation} returned by {@link #generateDataTransformation()}.
+     * This is required to decompress LZ4 data, and should be supplied alongside 
+     * the DataTransformation, see {@link DataLocation#setDataTransformation(DataTransformation, int)}.
+     * 
+     * @return Decompressed size in bytes, or 0 if unknown
+     */
+    public int getDecompressedSize() {
+        CompressionType compressionType = getCompressionType();
+        
+        // The size of LZ4 compressed MS-Numpress data is recorded when writing
+        if(compressionType == CompressionType.MSNUMPRESS_LINEAR_LZ4 || compressionType == CompressionType.MSNUMPRESS_POSITIVE_LZ4 
+                || compressionType == CompressionType.MSNUMPRESS_SLOF_LZ4) {
+            UserParam userParam = getUserParam("LZ4 decompression size");
             
-            transformation.addTransform(new LZ4DataTransform(decompressedSize));
-        } else if(BinaryDataArray.MSNUMPRESS_LINEAR_XZ_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
-            transformation.addTransform(new XZDataTransform());
-        } else if(BinaryDataArray.MSNUMPRESS_LINEAR_ZLIB_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
-            transformation.addTransform(new ZlibDataTransform());
-        } else if(BinaryDataArray.MSNUMPRESS_LINEAR_ZSTD_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
-            transformation.addTransform(new ZstdDataTransform((int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)))));
-        } else if(BinaryDataArray.MSNUMPRESS_POSITIVE_LZ4_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
-            
-            int decompressedSize = (int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)));
-            UserParam userParam = this.getUserParam("LZ4 decompression size");
-            
-            if(userParam != null) {
-                decompressedSize = Integer.parseInt(this.getUserParam("LZ4 decompression size").getValue());
+            return (userParam == null) ? 0 : Integer.parseInt(userParam.getValue());
+        }
+        
+        CVParam dataTypeCVParam = getCVParamOrChild(BINARY_DATA_TYPE_ID);
+        DataType dataType = (dataTypeCVParam == null) ? null : DataType.fromOBOTerm(dataTypeCVParam.getTerm());
+        
+        // External array length is only known for imzML, otherwise the transforms grow their output as required
+        if(compressionType == CompressionType.NONE || dataType == null)
+            return 0;
+        
+        return (int) (Math.max(0, getExternalArrayLength()) * DataTypeTransform.getSizeInBytes(dataType));
+    }
+
+    /**
+     * Gets the compression applied to the binary data.
+     * 
+     * @return Compression, or {@link CompressionType#NONE} if no known compression is specified
+     */
+    public CompressionType getCompressionType() {
+        CVParam compressionCVParam = getCVParamOrChild(COMPRESSION_TYPE_ID);
+        
+        if(compressionCVParam == null)
+            return CompressionType.NONE;
+        
+        String accession = compressionCVParam.getTerm().getID();
+        
+        // Compression not described by the ontology is signalled by the generic 
+        // term, with the compression applied given by the value of a userParam
+        if(COMPRESSION_TYPE_ID.equals(accession)) {
+            for(String userParamName : new String[] {BYTE_SHUFFLE, CHUNKED_COMPRESSION}) {
+                UserParam userParam = getUserParam(userParamName);
+                CompressionType variant = (userParam == null) ? null : CompressionType.fromAccession(userParam.getValue(), userParamName);
+                
+                if(variant != null)
+                    return variant;
             }
             
-            transformation.addTransform(new LZ4DataTransform(decompressedSize));
-        } else if(BinaryDataArray.MSNUMPRESS_POSITIVE_XZ_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
-            transformation.addTransform(new XZDataTransform());
-        } else if(BinaryDataArray.MSNUMPRESS_POSITIVE_ZLIB_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
-            transformation.addTransform(new ZlibDataTransform());
-        } else if(BinaryDataArray.MSNUMPRESS_POSITIVE_ZSTD_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
-            transformation.addTransform(new ZstdDataTransform((int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)))));
-        } else if(BinaryDataArray.MSNUMPRESS_SLOF_LZ4_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
-            
-            int decompressedSize = (int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)));
-            UserParam userParam = this.getUserParam("LZ4 decompression size");
-            
-            if(userParam != null) {
-                decompressedSize = Integer.parseInt(this.getUserParam("LZ4 decompression size").getValue());
-            }
+            LOGGER.log(Level.WARNING, "Unknown compression for {0}, ignoring", this);
             
-            transformation.addTransform(new LZ4DataTransform(decompressedSize));
-        } else if(BinaryDataArray.MSNUMPRESS_SLOF_XZ_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
-            transformation.addTransform(new XZDataTransform());
-        } else if(BinaryDataArray.MSNUMPRESS_SLOF_ZLIB_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
-            transformation.addTransform(new ZlibDataTransform());
-        } else if(BinaryDataArray.MSNUMPRESS_SLOF_ZSTD_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
-            transformation.addTransform(new ZstdDataTransform((int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)))));
+            return CompressionType.NONE;
         }
         
-        return transformation;
+        CompressionType compressionType = CompressionType.fromAccession(accession);
+        
+        if(compressionType == null)
+            return CompressionType.NONE;
+        
+        return compressionType;
     }
 
     /**
@@ -875,13 +1217,28 @@ public class BinaryDataArray extends MzMLContentWithParams {
     }
 
     /**
-     * Sets the compression (or none).
+     * Sets the compression (or none). Byte shuffling and chunked compression are 
+     * signalled by the {@link #BYTE_SHUFFLE} and {@link #CHUNKED_COMPRESSION} userParams.
+     * Both are described by the generic compression ontology term, so that 
+     * software which does not recognise the userParam does not read the data 
+     * as plain compressed data, see {@link CompressionType#isByteShuffled()} and
+     * {@link CompressionType#isChunked()}.
      * 
      * @param compression Compression
      */
     public void setCompression(BinaryDataArray.CompressionType compression) {        
-        this.removeChildrenOfCVParam(BinaryDataArray.COMPRESSION_TYPE_ID, false);
+        this.removeChildrenOfCVParam(BinaryDataArray.COMPRESSION_TYPE_ID, true);
         this.addCVParam(new EmptyCVParam(BinaryDataArray.CompressionType.toOBOTerm(compression)));
+        
+        for(int i = getUserParamList().size() - 1; i >= 0; i--) {
+            String name = getUserParam(i).getName();
+            
+            if(BYTE_SHUFFLE.equals(name) || CHUNKED_COMPRESSION.equals(name))
+                removeUserParam(i);
+        }
+        
+        if(compression.getUserParamName() != null)
+            addUserParam(new UserParam(compression.getUserParamName(), compression.getAccession()));
     }
     
     /**
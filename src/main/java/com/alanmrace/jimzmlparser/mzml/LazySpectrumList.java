@@ -0,0 +1,439 @@
+package com.alanmrace.jimzmlparser.mzml;
+
+import com.alanmrace.jimzmlparser.exceptions.FatalParseIssue;
+import com.alanmrace.jimzmlparser.exceptions.FatalRuntimeParseException;
+import com.alanmrace.jimzmlparser.exceptions.InvalidXPathException;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * SpectrumList where only the IDs of the spectra are known up front, and each
+ * Spectrum is created by a {@link SpectrumLoader} the first time it is accessed.
+ *
+ * <p>This is used when opening indexed mzML files, where the index supplies the
+ * ID and location of every spectrum, so the full SAX pass over the file can be
+ * skipped. Once loaded, a Spectrum is kept by the list, so later calls return
+ * the same instance, unless the list is set not to retain loaded spectra.
+ *
+ * @author Alan Race
+ * @see com.alanmrace.jimzmlparser.parser.IndexedMzMLHandler
+ */
+public class LazySpectrumList extends SpectrumList {
+
+    /**
+     * Serialisation version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Interface for creating the Spectrum at a given index of the list on demand.
+     */
+    public interface SpectrumLoader {
+
+        /**
+         * Create the Spectrum at the specified index.
+         *
+         * @param index Index of the spectrum within the list
+         * @return Spectrum at the index
+         * @throws IOException Issue reading the spectrum
+         */
+        Spectrum loadSpectrum(int index) throws IOException;
+    }
+
+    /**
+     * Loader used to create spectra which have not yet been accessed.
+     */
+    private final transient SpectrumLoader loader;
+
+    /**
+     * IDs of all spectra in the list, in order. This is the list supplied on
+     * creation until the list is first modified, when a copy is made.
+     */
+    private List<String> ids;
+
+    /**
+     * Spectra in the list which are held by the list, null for any which have
+     * not yet been loaded or are held only in {@link #softSpectra}.
+     */
+    private final List<Spectrum> spectra;
+
+    /**
+     * Spectra which have been loaded but which can be discarded if memory is
+     * required, as they can be loaded again. Null when loaded spectra are retained.
+     */
+    private transient List<SoftReference<Spectrum>> softSpectra;
+
+    /**
+     * Index supplied to the loader for each spectrum in the list, which differs
+     * from the position in the list once spectra have been removed. Null while
+     * the list has not been modified, in which case the two are the same.
+     */
+    private List<Integer> loaderIndices;
+
+    /**
+     * Map from spectrum ID to index within the list, created when first required.
+     */
+    private Map<String, Integer> idIndex;
+
+    /**
+     * DataProcessingList to assign to each spectrum once it is loaded.
+     */
+    private ReferenceList<DataProcessing> dataProcessingList;
+
+    /**
+     * Create a list of spectra with the specified IDs, which are loaded on first
+     * access using the supplied loader. The list of IDs is used directly until
+     * the list is modified, so should not be changed by the caller.
+     *
+     * @param defaultDataProcessingRef Default description of processing applied to the spectra in the list.
+     * @param ids IDs of the spectra, in order
+     * @param loader SpectrumLoader used to create each spectrum
+     */
+    public LazySpectrumList(DataProcessing defaultDataProcessingRef, List<String> ids, SpectrumLoader loader) {
+        super(0, defaultDataProcessingRef);
+
+        this.loader = loader;
+        this.ids = ids;
+        this.spectra = new ArrayList<Spectrum>(Collections.<Spectrum>nCopies(ids.size(), null));
+    }
+
+    /**
+     * Set whether spectra are kept by the list once loaded, which is the default.
+     * If not, loaded spectra are only softly referenced, so the garbage collector
+     * can discard them when memory is low and they are loaded again on the next
+     * access. This bounds the memory used when iterating over very large lists,
+     * at the cost that changes made to a discarded spectrum are lost. Spectra
+     * added to the list are always kept.
+     *
+     * @param retainLoadedSpectra true to keep loaded spectra, false to allow them to be discarded
+     */
+    public synchronized void setRetainLoadedSpectra(boolean retainLoadedSpectra) {
+        if (retainLoadedSpectra == isRetainLoadedSpectra()) {
+            return;
+        }
+
+        if (retainLoadedSpectra) {
+            for (int i = 0; i < spectra.size(); i++) {
+                if (spectra.get(i) == null) {
+                    spectra.set(i, getLoadedSpectrum(i));
+                }
+            }
+
+            softSpectra = null;
+        } else {
+            softSpectra = new ArrayList<SoftReference<Spectrum>>(Collections.<SoftReference<Spectrum>>nCopies(spectra.size(), null));
+
+            for (int i = 0; i < spectra.size(); i++) {
+                if (spectra.get(i) != null && getLoaderIndex(i) >= 0) {
+                    softSpectra.set(i, new SoftReference<Spectrum>(spectra.get(i)));
+                    spectra.set(i, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether spectra are kept by the list once loaded.
+     *
+     * @return true if loaded spectra are kept, false if they can be discarded
+     * @see #setRetainLoadedSpectra(boolean)
+     */
+    public synchronized boolean isRetainLoadedSpectra() {
+        return softSpectra == null;
+    }
+
+    /**
+     * Returns whether the spectrum at the specified index has already been loaded.
+     *
+     * @param index Index of the spectrum
+     * @return true if the spectrum has been loaded, false otherwise
+     */
+    public synchronized boolean isLoaded(int index) {
+        return getLoadedSpectrum(index) != null;
+    }
+
+    @Override
+    public synchronized List<Spectrum> getLoadedSpectra() {
+        List<Spectrum> loadedSpectra = new ArrayList<Spectrum>();
+
+        for (int i = 0; i < spectra.size(); i++) {
+            Spectrum spectrum = getLoadedSpectrum(i);
+
+            if (spectrum != null) {
+                loadedSpectra.add(spectrum);
+            }
+        }
+
+        return loadedSpectra;
+    }
+
+    /**
+     * Returns the spectrum at the specified index if it is currently loaded,
+     * without loading it.
+     *
+     * @param index Index of the spectrum
+     * @return Spectrum, or null if it is not loaded
+     */
+    protected synchronized Spectrum getLoadedSpectrum(int index) {
+        Spectrum spectrum = spectra.get(index);
+
+        if (spectrum == null && softSpectra != null) {
+            SoftReference<Spectrum> reference = softSpectra.get(index);
+
+            if (reference != null) {
+                spectrum = reference.get();
+            }
+        }
+
+        return spectrum;
+    }
+
+    /**
+     * Returns the index supplied to the loader for the spectrum at the specified
+     * index of the list.
+     *
+     * @param index Index of the spectrum
+     * @return Index used by the loader, or -1 if the spectrum was added to the list
+     */
+    protected synchronized int getLoaderIndex(int index) {
+        if (loaderIndices == null) {
+            return index;
+        }
+
+        return loaderIndices.get(index);
+    }
+
+    @Override
+    protected synchronized void setDataProcessingList(ReferenceList<DataProcessing> dataProcessingList) {
+        super.setDataProcessingList(dataProcessingList);
+
+        this.dataProcessingList = dataProcessingList;
+
+        for (Spectrum spectrum : getLoadedSpectra()) {
+            spectrum.setDataProcessingList(dataProcessingList);
+        }
+    }
+
+    @Override
+    public synchronized Spectrum get(int index) {
+        Spectrum spectrum = getLoadedSpectrum(index);
+
+        if (spectrum == null) {
+            try {
+                spectrum = loader.loadSpectrum(getLoaderIndex(index));
+            } catch (IOException ex) {
+                throw new FatalRuntimeParseException(new FatalParseIssue("Failed to load spectrum " + ids.get(index), ex.getLocalizedMessage()), ex);
+            }
+
+            spectrum.setParent(this);
+
+            if (dataProcessingList != null) {
+                spectrum.setDataProcessingList(dataProcessingList);
+            }
+
+            if (softSpectra == null) {
+                spectra.set(index, spectrum);
+            } else {
+                softSpectra.set(index, new SoftReference<Spectrum>(spectrum));
+            }
+        }
+
+        return spectrum;
+    }
+
+    @Override
+    public synchronized Spectrum get(String id) {
+        Integer index = getIDIndex().get(id);
+
+        if (index == null) {
+            return null;
+        }
+
+        return get(index);
+    }
+
+    @Override
+    public synchronized boolean containsID(String id) {
+        return getIDIndex().containsKey(id);
+    }
+
+    @Override
+    public synchronized void add(Spectrum spectrum) {
+        spectrum.setParent(this);
+
+        if (dataProcessingList != null) {
+            spectrum.setDataProcessingList(dataProcessingList);
+        }
+
+        prepareForModification();
+
+        if (idIndex != null) {
+            idIndex.put(spectrum.getID(), spectra.size());
+        }
+
+        ids.add(spectrum.getID());
+        spectra.add(spectrum);
+        loaderIndices.add(-1);
+
+        if (softSpectra != null) {
+            softSpectra.add(null);
+        }
+    }
+
+    @Override
+    public synchronized Spectrum remove(int index) {
+        Spectrum removed = get(index);
+
+        prepareForModification();
+
+        ids.remove(index);
+        spectra.remove(index);
+        loaderIndices.remove(index);
+
+        if (softSpectra != null) {
+            softSpectra.remove(index);
+        }
+
+        idIndex = null;
+
+        return removed;
+    }
+
+    @Override
+    public synchronized boolean remove(Spectrum spectrum) {
+        int index = indexOf(spectrum);
+
+        if (index < 0) {
+            return false;
+        }
+
+        remove(index);
+
+        return true;
+    }
+
+    @Override
+    public synchronized int indexOf(Spectrum spectrum) {
+        if (spectrum == null) {
+            return -1;
+        }
+
+        Integer index = getIDIndex().get(spectrum.getID());
+
+        if (index == null || getLoadedSpectrum(index) != spectrum) {
+            return -1;
+        }
+
+        return index;
+    }
+
+    @Override
+    public synchronized boolean contains(Spectrum spectrum) {
+        return indexOf(spectrum) >= 0;
+    }
+
+    @Override
+    public synchronized int size() {
+        return spectra.size();
+    }
+
+    @Override
+    public synchronized void clear() {
+        prepareForModification();
+
+        ids.clear();
+        spectra.clear();
+        loaderIndices.clear();
+
+        if (softSpectra != null) {
+            softSpectra.clear();
+        }
+
+        idIndex = null;
+    }
+
+    @Override
+    public void addChildrenToCollection(Collection<MzMLTag> children) {
+        for (Spectrum spectrum : this) {
+            children.add(spectrum);
+        }
+    }
+
+    @Override
+    protected void addTagSpecificElementsAtXPathToCollection(Collection<MzMLTag> elements, String fullXPath, String currentXPath) throws InvalidXPathException {
+        if (size() == 0) {
+            super.addTagSpecificElementsAtXPathToCollection(elements, fullXPath, currentXPath);
+        } else if (currentXPath.startsWith("/" + get(0).getTagName())) {
+            for (Spectrum spectrum : this) {
+                spectrum.addElementsAtXPathToCollection(elements, fullXPath, currentXPath);
+            }
+        }
+    }
+
+    @Override
+    public Iterator<Spectrum> iterator() {
+        return new Iterator<Spectrum>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size();
+            }
+
+            @Override
+            public Spectrum next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return get(index++);
+            }
+
+            @Override
+            public void remove() {
+                LazySpectrumList.this.remove(--index);
+            }
+        };
+    }
+
+    /**
+     * Copy the IDs and create the loader indices before the list is first
+     * modified, so that the supplied list of IDs is left unchanged.
+     */
+    private void prepareForModification() {
+        if (loaderIndices == null) {
+            ids = new ArrayList<String>(ids);
+            loaderIndices = new ArrayList<Integer>(spectra.size());
+
+            for (int i = 0; i < spectra.size(); i++) {
+                loaderIndices.add(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the map from ID to index, creating it if the list has been
+     * modified since it was last used.
+     *
+     * @return Map from spectrum ID to index within the list
+     */
+    private Map<String, Integer> getIDIndex() {
+        if (idIndex == null) {
+            idIndex = new HashMap<String, Integer>(ids.size() * 4 / 3 + 1);
+
+            for (int i = 0; i < ids.size(); i++) {
+                idIndex.put(ids.get(i), i);
+            }
+        }
+
+        return idIndex;
+    }
+}
@@ -7,6 +7,8 @@ import java.io.Serializable;
 
 import com.alanmrace.jimzmlparser.obo.OBO;
 import com.alanmrace.jimzmlparser.data.DataLocation;
+import com.alanmrace.jimzmlparser.data.DataCache;
+import com.alanmrace.jimzmlparser.data.OffHeapDataStore;
 import com.alanmrace.jimzmlparser.data.DataStorage;
 import com.alanmrace.jimzmlparser.util.XMLHelper;
 import java.util.logging.Level;
@@ -179,6 +181,31 @@ public class MzML extends MzMLContentWithParams implements Serializable {
         this.dataStorage = dataStorage;
     }
 
+    /**
+     * Set the cache used to store data decoded from the data storage, so that 
+     * repeated requests for the same spectra are served from memory without 
+     * keeping every decoded array in memory indefinitely.
+     * 
+     * @param dataCache Cache of decoded data, or null to disable caching
+     * @see DataStorage#setDataCache(DataCache)
+     */
+    public synchronized void setDataCache(DataCache dataCache) {
+        if(dataStorage != null)
+            dataStorage.setDataCache(dataCache);
+    }
+
+    /**
+     * Set the store used to hold data decoded from the data storage off-heap,
+     * which is used when the data is accessed as a buffer.
+     * 
+     * @param offHeapDataStore Off-heap store of decoded data, or null to disable
+     * @see DataStorage#setOffHeapDataStore(OffHeapDataStore)
+     */
+    public synchronized void setOffHeapDataStore(OffHeapDataStore offHeapDataStore) {
+        if(dataStorage != null)
+            dataStorage.setOffHeapDataStore(offHeapDataStore);
+    }
+
     /**
      * Set the ontology dictionary to use for matching cvParams.
      * 
@@ -592,8 +619,9 @@ public class MzML extends MzMLContentWithParams implements Serializable {
 
         SpectrumList spectrumList = getRun().getSpectrumList();
 
-        
-        for(Spectrum spectrum : spectrumList) {
+        // Only spectra in memory can hold open DataStorage, so avoid loading any
+        // spectra which have not yet been accessed
+        for(Spectrum spectrum : spectrumList.getLoadedSpectra()) {
             closeDataStorage(spectrum.getDataLocation());
 
             for(BinaryDataArray bda : spectrum.getBinaryDataArrayList()) {
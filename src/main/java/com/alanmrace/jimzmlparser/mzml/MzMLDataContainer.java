@@ -5,6 +5,7 @@ import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
 import com.alanmrace.jimzmlparser.data.MzMLSpectrumDataStorage;
 import com.alanmrace.jimzmlparser.util.XMLHelper;
 import java.io.IOException;
+import java.nio.FloatBuffer;
 
 /**
  * Base class with default implementations of methods for MzMLTags which describe 
@@ -103,7 +104,25 @@ public abstract class MzMLDataContainer extends MzMLIndexedContentWithParams {
 
         return binaryDataArrayList;
     }
-    
+
+    /**
+     * Returns the default length of the binary data arrays (number of elements).
+     *
+     * @return Default array length
+     */
+    public int getDefaultArrayLength() {
+        return defaultArrayLength;
+    }
+
+    /**
+     * Set the default length of the binary data arrays (number of elements).
+     *
+     * @param defaultArrayLength Default array length
+     */
+    public void setDefaultArrayLength(int defaultArrayLength) {
+        this.defaultArrayLength = defaultArrayLength;
+    }
+
     // Set optional attributes
 
     /**
@@ -199,7 +218,7 @@ public abstract class MzMLDataContainer extends MzMLIndexedContentWithParams {
 
                         DataLocation location = new DataLocation(mzMLDataStorage.getBase64DataStorage(), binaryStart + dataLocation.getOffset(), binaryEnd - binaryStart);
                         bda.setDataLocation(location);
-                        location.setDataTransformation(bda.generateDataTransformation());
+                        location.setDataTransformation(bda.generateDataTransformation(), bda.getDecompressedSize());
 
                     }
                 }
@@ -236,6 +255,62 @@ public abstract class MzMLDataContainer extends MzMLIndexedContentWithParams {
 
         return binaryDataArrayList.getIntensityArray().getDataAsDouble(keepInMemory);
     }
+    
+    /**
+     * Get the intensity array as a float[], without widening to double.
+     * 
+     * @return Intensity array
+     * @throws IOException Issue when trying to access DataLocation
+     * @see BinaryDataArray#getDataAsFloat()
+     */
+    public float[] getIntensityArrayAsFloat() throws IOException {
+        if (binaryDataArrayList == null) {
+            return new float[0];
+        }
+
+        ensureLoadableData();
+
+        return binaryDataArrayList.getIntensityArray().getDataAsFloat();
+    }
+    
+    /**
+     * Get the intensity array as a read-only FloatBuffer, which is held off-heap
+     * if an {@link com.alanmrace.jimzmlparser.data.OffHeapDataStore} has been set
+     * on the DataStorage.
+     * 
+     * @return Intensity array
+     * @throws IOException Issue when trying to access DataLocation
+     * @see BinaryDataArray#getDataAsFloatBuffer()
+     */
+    public FloatBuffer getIntensityArrayAsFloatBuffer() throws IOException {
+        if (binaryDataArrayList == null) {
+            return FloatBuffer.allocate(0).asReadOnlyBuffer();
+        }
+
+        ensureLoadableData();
+
+        return binaryDataArrayList.getIntensityArray().getDataAsFloatBuffer();
+    }
+    
+    /**
+     * Decode the intensity array into the supplied array, starting at offset,
+     * rather than allocating a new array.
+     * 
+     * @param dest Array to write the intensities into
+     * @param offset Index within dest at which to write the first value
+     * @return Number of values written
+     * @throws IOException Issue when trying to access DataLocation
+     * @see BinaryDataArray#getDataAsDouble(double[], int)
+     */
+    public int getIntensityArray(double[] dest, int offset) throws IOException {
+        if (binaryDataArrayList == null) {
+            return 0;
+        }
+
+        ensureLoadableData();
+
+        return binaryDataArrayList.getIntensityArray().getDataAsDouble(dest, offset);
+    }
         
     /**
      * Sets the compression (or none) to all BinaryDataArray within this data 
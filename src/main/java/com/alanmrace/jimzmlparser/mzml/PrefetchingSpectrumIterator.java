@@ -0,0 +1,305 @@
+package com.alanmrace.jimzmlparser.mzml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Iterator over a {@link SpectrumList} which reads and decodes the data of 
+ * upcoming spectra on background threads while the current spectrum is being 
+ * processed, so that I/O and decompression overlap with the caller's work.
+ * 
+ * <p>Each spectrum returned by {@link #next()} has all of its binary data arrays
+ * already decoded and held in memory, so calls such as {@link Spectrum#getmzArray()}
+ * and {@link Spectrum#getIntensityArray()} return immediately. The decoded data 
+ * is released again when the iterator advances to the following spectrum, so 
+ * at most depth + 1 spectra are held in memory at once. Data which was already
+ * held in memory before iteration is left untouched.
+ * 
+ * <p>The background threads are stopped, and the data of the final spectrum 
+ * released, as soon as {@link #hasNext()} returns false. The iterator should 
+ * be closed if iteration is stopped early, to cancel any outstanding reads 
+ * and stop the background threads.
+ * 
+ * @author Alan Race
+ */
+public class PrefetchingSpectrumIterator implements Iterator<Spectrum>, Closeable {
+    
+    /**
+     * Class logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(PrefetchingSpectrumIterator.class.getName());
+    
+    /**
+     * Default number of spectra to read ahead of the current spectrum.
+     */
+    public static final int DEFAULT_DEPTH = 4;
+    
+    /**
+     * Default number of background threads used to read spectra.
+     */
+    public static final int DEFAULT_NUMBER_OF_THREADS = 2;
+    
+    /**
+     * Spectra to iterate over.
+     */
+    private final SpectrumList spectrumList;
+    
+    /**
+     * Number of spectra to read ahead of the current spectrum.
+     */
+    private final int depth;
+    
+    /**
+     * Executor used to read spectra in the background.
+     */
+    private final ExecutorService executor;
+    
+    /**
+     * Outstanding reads, in order of spectrum index.
+     */
+    private final LinkedList<Future<List<BinaryDataArray>>> prefetched;
+    
+    /**
+     * Index of the next spectrum to be returned by {@link #next()}.
+     */
+    private int nextIndex;
+    
+    /**
+     * Index of the next spectrum to be submitted for reading.
+     */
+    private int nextToPrefetch;
+    
+    /**
+     * Binary data arrays of the current spectrum which were loaded by the iterator,
+     * and so should be released when the iterator advances.
+     */
+    private List<BinaryDataArray> currentlyLoaded;
+    
+    /**
+     * Create an iterator over the spectrum list with the default depth and 
+     * number of threads.
+     * 
+     * @param spectrumList Spectra to iterate over
+     */
+    public PrefetchingSpectrumIterator(SpectrumList spectrumList) {
+        this(spectrumList, DEFAULT_DEPTH, DEFAULT_NUMBER_OF_THREADS);
+    }
+    
+    /**
+     * Create an iterator over the spectrum list which reads ahead up to depth 
+     * spectra using the specified number of background threads.
+     * 
+     * @param spectrumList Spectra to iterate over
+     * @param depth Number of spectra to read ahead of the current spectrum
+     * @param numberOfThreads Number of background threads used to read spectra
+     */
+    public PrefetchingSpectrumIterator(SpectrumList spectrumList, int depth, int numberOfThreads) {
+        if(depth < 1)
+            throw new IllegalArgumentException("Prefetch depth must be at least 1, not " + depth);
+        if(numberOfThreads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1, not " + numberOfThreads);
+        
+        this.spectrumList = spectrumList;
+        this.depth = depth;
+        this.prefetched = new LinkedList<Future<List<BinaryDataArray>>>();
+        this.currentlyLoaded = Collections.emptyList();
+        
+        this.executor = Executors.newFixedThreadPool(numberOfThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Spectrum prefetch");
+                thread.setDaemon(true);
+                
+                return thread;
+            }
+        });
+        
+        for(int i = 0; i < depth; i++)
+            prefetchNext();
+    }
+    
+    /**
+     * Submit the next spectrum for reading, if there are any remaining.
+     */
+    private void prefetchNext() {
+        if(nextToPrefetch >= spectrumList.size())
+            return;
+        
+        final Spectrum spectrum = spectrumList.getSpectrum(nextToPrefetch++);
+        
+        prefetched.add(executor.submit(new Callable<List<BinaryDataArray>>() {
+            @Override
+            public List<BinaryDataArray> call() throws IOException {
+                return load(spectrum);
+            }
+        }));
+    }
+    
+    /**
+     * Decode all binary data arrays of the spectrum which are not already in
+     * memory and keep them in memory.
+     * 
+     * @param spectrum Spectrum to load
+     * @return Binary data arrays which were loaded
+     * @throws IOException Issue reading the data
+     */
+    private static List<BinaryDataArray> load(Spectrum spectrum) throws IOException {
+        List<BinaryDataArray> loaded = new ArrayList<BinaryDataArray>();
+        
+        spectrum.ensureLoadableData();
+        
+        BinaryDataArrayList binaryDataArrayList = spectrum.getBinaryDataArrayList();
+        
+        if(binaryDataArrayList != null) {
+            for(BinaryDataArray binaryDataArray : binaryDataArrayList) {
+                if(!binaryDataArray.isDataInMemory()) {
+                    binaryDataArray.getDataAsDouble(true);
+                    loaded.add(binaryDataArray);
+                }
+            }
+        }
+        
+        return loaded;
+    }
+    
+    /**
+     * Release the data loaded for the current spectrum.
+     */
+    private void releaseCurrent() {
+        release(currentlyLoaded);
+        
+        currentlyLoaded = Collections.emptyList();
+    }
+    
+    /**
+     * Release the data of the binary data arrays.
+     * 
+     * @param loaded Binary data arrays loaded by the iterator
+     */
+    private static void release(List<BinaryDataArray> loaded) {
+        for(BinaryDataArray binaryDataArray : loaded)
+            binaryDataArray.setData(null);
+    }
+
+    /**
+     * Check whether there are any remaining spectra. Once there are none, the 
+     * iterator is closed so that the background threads are stopped without 
+     * requiring an explicit call to {@link #close()}.
+     * 
+     * @return true if there is another spectrum, false otherwise
+     */
+    @Override
+    public boolean hasNext() {
+        if(nextIndex < spectrumList.size())
+            return true;
+        
+        if(!executor.isShutdown())
+            close();
+        
+        return false;
+    }
+
+    /**
+     * Get the next spectrum, waiting for its data to be read if necessary. If 
+     * reading the data in the background failed, the issue is logged and the 
+     * spectrum is returned without its data in memory, in which case the data 
+     * is read again when requested.
+     * 
+     * @return Next spectrum
+     */
+    @Override
+    public Spectrum next() {
+        if(!hasNext())
+            throw new NoSuchElementException();
+        
+        releaseCurrent();
+        
+        if(prefetched.isEmpty())
+            prefetchNext();
+        
+        Future<List<BinaryDataArray>> future = prefetched.removeFirst();
+        Spectrum spectrum = spectrumList.getSpectrum(nextIndex++);
+        
+        prefetchNext();
+        
+        try {
+            currentlyLoaded = future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            
+            LOGGER.log(Level.WARNING, "Interrupted while waiting for " + spectrum, ex);
+        } catch (ExecutionException ex) {
+            LOGGER.log(Level.SEVERE, "Failed to read data for " + spectrum, ex.getCause());
+        }
+        
+        return spectrum;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Removing spectra is not supported.");
+    }
+    
+    /**
+     * Get the number of spectra which are read ahead of the current spectrum.
+     * 
+     * @return Prefetch depth
+     */
+    public int getDepth() {
+        return depth;
+    }
+    
+    /**
+     * Check whether the background threads have been stopped, either by 
+     * closing the iterator or by reaching the end of the spectrum list.
+     * 
+     * @return true if the iterator no longer reads spectra in the background
+     */
+    boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * Cancel any outstanding reads, release the data of the current spectrum 
+     * and stop the background threads. Reads already in progress are allowed 
+     * to finish, as interrupting them could close the underlying file channel.
+     */
+    @Override
+    public void close() {
+        for(Future<List<BinaryDataArray>> future : prefetched) {
+            // Reads which could not be cancelled have already started, so wait 
+            // for them to complete in order to release their data
+            if(!future.cancel(false)) {
+                try {
+                    release(future.get());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ex) {
+                    LOGGER.log(Level.FINE, null, ex.getCause());
+                }
+            }
+        }
+        
+        prefetched.clear();
+        nextToPrefetch = spectrumList.size();
+        nextIndex = spectrumList.size();
+        
+        releaseCurrent();
+        
+        executor.shutdown();
+    }
+}
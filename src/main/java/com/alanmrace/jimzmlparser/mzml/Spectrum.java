@@ -199,6 +199,15 @@ public class Spectrum extends MzMLDataContainer {
         this.sourceFileRef = sourceFileRef;
     }
 
+    /**
+     * Get SourceFileRef.
+     *
+     * @return Source file reference, or null if none
+     */
+    public SourceFile getSourceFileRef() {
+        return sourceFileRef;
+    }
+
     /**
      * Set spotID attribute for spectrum XML tag.
      *
@@ -208,6 +217,15 @@ public class Spectrum extends MzMLDataContainer {
         this.spotID = spotID;
     }
 
+    /**
+     * Get spotID attribute for spectrum XML tag.
+     *
+     * @return Spot ID, or null if none
+     */
+    public String getSpotID() {
+        return spotID;
+    }
+
     /**
      * Get ScanList.
      *
@@ -456,6 +474,47 @@ public class Spectrum extends MzMLDataContainer {
 
         return binaryDataArrayList.getmzArray().getDataAsDouble(keepInMemory);
     }
+    
+    /**
+     * Get the m/z array of the spectrum as a float[], without widening to double. 
+     * Note that single precision may not be sufficient to represent m/z values 
+     * from high resolution instruments.
+     *
+     * @return m/z array
+     * @throws IOException If an error occurred during file access
+     * (DataLocation)
+     * @see BinaryDataArray#getDataAsFloat()
+     */
+    public float[] getmzArrayAsFloat() throws IOException {
+        if (binaryDataArrayList == null) {
+            return new float[0];
+        }
+
+        ensureLoadableData();
+
+        return binaryDataArrayList.getmzArray().getDataAsFloat();
+    }
+    
+    /**
+     * Decode the m/z array into the supplied array, starting at offset, rather 
+     * than allocating a new array.
+     *
+     * @param dest Array to write the m/z values into
+     * @param offset Index within dest at which to write the first value
+     * @return Number of values written
+     * @throws IOException If an error occurred during file access
+     * (DataLocation)
+     * @see BinaryDataArray#getDataAsDouble(double[], int)
+     */
+    public int getmzArray(double[] dest, int offset) throws IOException {
+        if (binaryDataArrayList == null) {
+            return 0;
+        }
+
+        ensureLoadableData();
+
+        return binaryDataArrayList.getmzArray().getDataAsDouble(dest, offset);
+    }
 
     /**
      * Set the m/z array to be equal to the supplied double[]. This does not
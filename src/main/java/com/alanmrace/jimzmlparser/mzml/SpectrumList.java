@@ -114,9 +114,20 @@ public class SpectrumList extends MzMLIDContentList<Spectrum> {
     protected void setDataProcessingList(ReferenceList<DataProcessing> dataProcessingList) {
         this.dataProcessingList = dataProcessingList;
         
-        for(Spectrum spectrum : this)
+        for(Spectrum spectrum : getLoadedSpectra())
             spectrum.setDataProcessingList(dataProcessingList);
     }
+    
+    /**
+     * Returns the spectra which are currently held in memory. For a SpectrumList 
+     * this is every spectrum in the list, however subclasses which create spectra
+     * on demand (such as {@link LazySpectrumList}) only return those created so far.
+     * 
+     * @return Spectra currently in memory
+     */
+    public List<Spectrum> getLoadedSpectra() {
+        return getList();
+    }
 
     @Override
     public void add(Spectrum spectrum) {
@@ -139,6 +150,19 @@ public class SpectrumList extends MzMLIDContentList<Spectrum> {
         add(spectrum);
     }
 
+    /**
+     * Create an iterator over the spectra which reads and decodes the data of 
+     * upcoming spectra in the background.
+     * 
+     * @param depth Number of spectra to read ahead of the current spectrum
+     * @param numberOfThreads Number of background threads used to read spectra
+     * @return Prefetching iterator, which should be closed if iteration stops early
+     * @see PrefetchingSpectrumIterator
+     */
+    public PrefetchingSpectrumIterator prefetchingIterator(int depth, int numberOfThreads) {
+        return new PrefetchingSpectrumIterator(this, depth, numberOfThreads);
+    }
+    
     /**
      * Calls get(int index). Kept to retain previous API.
      * 
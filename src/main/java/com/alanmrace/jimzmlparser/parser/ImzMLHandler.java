@@ -5,16 +5,17 @@ import com.alanmrace.jimzmlparser.data.BinaryDataStorage;
 import com.alanmrace.jimzmlparser.exceptions.FatalParseIssue;
 import com.alanmrace.jimzmlparser.exceptions.ImzMLParseException;
 import com.alanmrace.jimzmlparser.exceptions.InvalidExternalOffset;
+import com.alanmrace.jimzmlparser.imzml.CompactSpectrumList;
 import com.alanmrace.jimzmlparser.imzml.ImzML;
+import com.alanmrace.jimzmlparser.imzml.ImzMLMetadataIndex;
 
 import java.io.File;
 import java.io.IOException;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import com.alanmrace.jimzmlparser.imzml.PixelLocation;
+import com.alanmrace.jimzmlparser.imzml.SpectrumTable;
 import com.alanmrace.jimzmlparser.mzml.*;
 import com.alanmrace.jimzmlparser.obo.OBO;
 
@@ -98,6 +99,18 @@ public class ImzMLHandler extends MzMLHeaderHandler {
     private int currentMaxX = 0;
     private int currentMaxY = 0;
 
+    /**
+     * Whether to store the spectrum metadata in a {@link SpectrumTable} rather
+     * than as a full object graph for every spectrum.
+     */
+    private boolean compactSpectra;
+
+    /**
+     * Table the metadata of each spectrum is added to once parsed, when
+     * {@link ImzMLHandler#compactSpectra} is set.
+     */
+    private SpectrumTable spectrumTable;
+
     /**
      * Set up a SAX parser for imzML metadata only with the specified ontology
      * dictionary.
@@ -118,12 +131,27 @@ public class ImzMLHandler extends MzMLHeaderHandler {
      * @throws FileNotFoundException If no IBD file could be found
      */
     public ImzMLHandler(OBO obo, File ibdFile, boolean openDataStorage) throws FileNotFoundException {
+        this(obo, ibdFile, openDataStorage, BinaryDataStorage.AccessMethod.RANDOM_ACCESS_FILE);
+    }
+
+    /**
+     * Set up a SAX parser for imzML with the specified ontology dictionary,
+     * reading the binary data using the specified access method.
+     *
+     * @param obo Ontology database
+     * @param ibdFile IBD file containing the binary data for the imzML file
+     * @param openDataStorage if true, open the binary data file, otherwise just
+     * process metadata
+     * @param accessMethod Method used to read data from the IBD file
+     * @throws FileNotFoundException If no IBD file could be found
+     */
+    public ImzMLHandler(OBO obo, File ibdFile, boolean openDataStorage, BinaryDataStorage.AccessMethod accessMethod) throws FileNotFoundException {
         super(obo);
 
         this.ibdFile = ibdFile;
 
         if (openDataStorage) {
-            this.dataStorage = new BinaryDataStorage(ibdFile, false);
+            this.dataStorage = BinaryDataStorage.open(ibdFile, accessMethod);
         }
     }
 
@@ -171,6 +199,105 @@ public class ImzMLHandler extends MzMLHeaderHandler {
      * @throws ImzMLParseException If a fatal parse error occurs
      */
     public static ImzML parseimzML(String filename, boolean openDataStorage, ParserListener listener) throws ImzMLParseException {
+        return parseimzML(filename, openDataStorage, listener, BinaryDataStorage.AccessMethod.RANDOM_ACCESS_FILE);
+    }
+
+    /**
+     * Set up an ImzMLHandler, perform the parsing and return the ImzML
+     * representation, optionally opening the IBD binary data storage for
+     * reading using the specified access method. Memory mapping the IBD file 
+     * ({@link BinaryDataStorage.AccessMethod#MEMORY_MAPPED}) avoids contention 
+     * between threads reading spectra concurrently.
+     *
+     * @param filename Location of the imzML file
+     * @param openDataStorage true to open the IBD binary data storage, false to
+     * only parse metadata
+     * @param listener ParserListener which will be notified of any non-fatal
+     * parsing issues
+     * @param accessMethod Method used to read data from the IBD file
+     * @return ImzML representation of the imzML file
+     * @throws ImzMLParseException If a fatal parse error occurs
+     */
+    public static ImzML parseimzML(String filename, boolean openDataStorage, ParserListener listener, BinaryDataStorage.AccessMethod accessMethod) throws ImzMLParseException {
+        return parseimzML(filename, openDataStorage, listener, accessMethod, false);
+    }
+
+    /**
+     * Set up an ImzMLHandler, perform the parsing and return the ImzML
+     * representation, optionally storing the spectrum metadata in compact form.
+     * When compact, the values which vary between spectra are held in a 
+     * {@link SpectrumTable} and each Spectrum is only created when accessed 
+     * (see {@link CompactSpectrumList}), which greatly reduces the memory required
+     * for images with a large number of pixels.
+     *
+     * @param filename Location of the imzML file
+     * @param openDataStorage true to open the IBD binary data storage, false to
+     * only parse metadata
+     * @param listener ParserListener which will be notified of any non-fatal
+     * parsing issues
+     * @param accessMethod Method used to read data from the IBD file
+     * @param compactSpectra true to store the spectrum metadata in compact form
+     * @return ImzML representation of the imzML file
+     * @throws ImzMLParseException If a fatal parse error occurs
+     */
+    public static ImzML parseimzML(String filename, boolean openDataStorage, ParserListener listener, BinaryDataStorage.AccessMethod accessMethod, boolean compactSpectra) throws ImzMLParseException {
+        return parseimzML(filename, openDataStorage, listener, accessMethod, compactSpectra, ParserBackend.SAX);
+    }
+
+    /**
+     * Set up an ImzMLHandler, perform the parsing with the specified XML parser
+     * and return the ImzML representation, as 
+     * {@link #parseimzML(String, boolean, ParserListener, BinaryDataStorage.AccessMethod, boolean)}.
+     *
+     * @param filename Location of the imzML file
+     * @param openDataStorage true to open the IBD binary data storage, false to
+     * only parse metadata
+     * @param listener ParserListener which will be notified of any non-fatal
+     * parsing issues
+     * @param accessMethod Method used to read data from the IBD file
+     * @param compactSpectra true to store the spectrum metadata in compact form
+     * @param parserBackend XML parser to use
+     * @return ImzML representation of the imzML file
+     * @throws ImzMLParseException If a fatal parse error occurs
+     */
+    public static ImzML parseimzML(String filename, boolean openDataStorage, ParserListener listener, BinaryDataStorage.AccessMethod accessMethod, boolean compactSpectra, ParserBackend parserBackend) throws ImzMLParseException {
+        return parseimzML(filename, openDataStorage, listener, accessMethod, compactSpectra, parserBackend, false, null);
+    }
+
+    /**
+     * Set up an ImzMLHandler, perform the parsing and return the ImzML
+     * representation, as 
+     * {@link #parseimzML(String, boolean, ParserListener, BinaryDataStorage.AccessMethod, boolean, ParserBackend)},
+     * optionally using an {@link ImzMLMetadataIndex} so that files which are opened
+     * repeatedly only have to be parsed once.
+     * 
+     * <p>If useMetadataIndex is set, the metadata is read from a valid index if 
+     * one exists, rather than parsing the file, and otherwise the index is written
+     * once the file has been parsed. When the metadata is read from the index:
+     * <ul>
+     * <li>the spectra are always held in a {@link CompactSpectrumList}, even when
+     * compactSpectra is not set, in which case each Spectrum is retained once it 
+     * has been accessed;</li>
+     * <li>the listener is not notified of any issues, as the file is not parsed.
+     * Issues are only reported when the file is parsed and the index written.</li>
+     * </ul>
+     *
+     * @param filename Location of the imzML file
+     * @param openDataStorage true to open the IBD binary data storage, false to
+     * only parse metadata
+     * @param listener ParserListener which will be notified of any non-fatal
+     * parsing issues
+     * @param accessMethod Method used to read data from the IBD file
+     * @param compactSpectra true to store the spectrum metadata in compact form
+     * @param parserBackend XML parser to use
+     * @param useMetadataIndex true to read the metadata from an index, or to write
+     * the index after parsing
+     * @param metadataIndexDirectory Directory to store the index in, or null to 
+     * store it in the same directory as the imzML file
+     * @return ImzML representation of the imzML file
+     * @throws ImzMLParseException If a fatal parse error occurs
+     */
+    public static ImzML parseimzML(String filename, boolean openDataStorage, ParserListener listener, BinaryDataStorage.AccessMethod accessMethod, boolean compactSpectra, ParserBackend parserBackend, boolean useMetadataIndex, File metadataIndexDirectory) throws ImzMLParseException {
         ImzMLHandler handler;
         InputStream inputStream = null;
 
@@ -180,18 +307,27 @@ public class ImzMLHandler extends MzMLHeaderHandler {
             File ibdFile = new File(filename.substring(0, filename.toLowerCase().lastIndexOf(".imzml")) + ".ibd");
 
             // Convert mzML header information -> imzML
-            handler = new ImzMLHandler(obo, ibdFile, openDataStorage);
+            handler = new ImzMLHandler(obo, ibdFile, openDataStorage, accessMethod);
 
             if (listener != null) {
                 handler.registerParserListener(listener);
             }
 
-            SAXParserFactory spf = SAXParserFactory.newInstance();
-
-            //get a new instance of parser
-            SAXParser sp = spf.newSAXParser();
+            handler.setCompactSpectra(compactSpectra);
+            handler.setParserBackend(parserBackend);
 
             File file = new File(filename);
+
+            if (useMetadataIndex) {
+                ImzML imzML = ImzMLMetadataIndex.read(file, ibdFile, metadataIndexDirectory, handler.dataStorage, compactSpectra);
+
+                if (imzML != null) {
+                    imzML.setOBO(obo);
+
+                    return imzML;
+                }
+            }
+
             inputStream = new FileInputStream(file);
 
             if (filename.endsWith(".lz4")) {
@@ -203,7 +339,7 @@ public class ImzMLHandler extends MzMLHeaderHandler {
             }
 
             //parse the file and also register this class for call backs
-            sp.parse(inputStream, handler);
+            handler.parse(inputStream);
 
             ImzML imzML = handler.getimzML();
             imzML.setOBO(obo);
@@ -214,17 +350,30 @@ public class ImzMLHandler extends MzMLHeaderHandler {
                 int minX = Integer.MAX_VALUE;
                 int minY = Integer.MAX_VALUE;
 
-                for(Spectrum spectrum : imzML.getRun().getSpectrumList()) {
-                    PixelLocation location = spectrum.getPixelLocation();
-                    if(location.getX() < minX)
-                        minX = location.getX();
-                    if(location.getY() < minY)
-                        minY = location.getY();
-                }
-
-                for(Spectrum spectrum : imzML.getRun().getSpectrumList()) {
-                    PixelLocation location = spectrum.getPixelLocation();
-                    spectrum.setPixelLocation(location.getX() - minX + 1, location.getY() - minY + 1);
+                if (imzML.getRun().getSpectrumList() instanceof CompactSpectrumList) {
+                    SpectrumTable table = ((CompactSpectrumList) imzML.getRun().getSpectrumList()).getSpectrumTable();
+
+                    for (int i = 0; i < table.getNumberOfSpectra(); i++) {
+                        minX = Math.min(minX, table.getX(i));
+                        minY = Math.min(minY, table.getY(i));
+                    }
+
+                    for (int i = 0; i < table.getNumberOfSpectra(); i++) {
+                        table.setPixelLocation(i, new PixelLocation(table.getX(i) - minX + 1, table.getY(i) - minY + 1, table.getZ(i)));
+                    }
+                } else {
+                    for(Spectrum spectrum : imzML.getRun().getSpectrumList()) {
+                        PixelLocation location = spectrum.getPixelLocation();
+                        if(location.getX() < minX)
+                            minX = location.getX();
+                        if(location.getY() < minY)
+                            minY = location.getY();
+                    }
+
+                    for(Spectrum spectrum : imzML.getRun().getSpectrumList()) {
+                        PixelLocation location = spectrum.getPixelLocation();
+                        spectrum.setPixelLocation(location.getX() - minX + 1, location.getY() - minY + 1);
+                    }
                 }
 
                 CVParam curWidth = imzML.getScanSettingsList().getScanSettings(0).getCVParam(ScanSettings.MAX_COUNT_PIXEL_X_ID);
@@ -233,6 +382,10 @@ public class ImzMLHandler extends MzMLHeaderHandler {
                 CVParam curHeight = imzML.getScanSettingsList().getScanSettings(0).getCVParam(ScanSettings.MAX_COUNT_PIXEL_Y_ID);
                 curHeight.setValueAsString("" + (curHeight.getValueAsLong() - minY + 1));
             }
+
+            if (useMetadataIndex) {
+                ImzMLMetadataIndex.write(imzML, file, ibdFile, metadataIndexDirectory);
+            }
         } catch (SAXException ex) {
             LOGGER.log(Level.SEVERE, null, ex);
 
@@ -299,12 +452,12 @@ public class ImzMLHandler extends MzMLHeaderHandler {
             if (z != current3DPositionZ) {
                 if (current3DPositionZ != Double.POSITIVE_INFINITY && !haveDoneCheck) {
                     int imageSize = imageMaxX * imageMaxY;
-                    int numImagesGuess = (int) Math.ceil((numberOfSpectra * 1.0) / spectrumList.size());
+                    int numImagesGuess = (int) Math.ceil((numberOfSpectra * 1.0) / getNumberOfSpectraParsed());
 
                     maxImagesX = (int) Math.ceil(Math.sqrt(numImagesGuess));
 
                     LOGGER.log(Level.FINER, "Found image size {0} ({1}, {2})", new Object[]{imageSize, imageMaxX, imageMaxY});
-                    LOGGER.log(Level.FINER, "Guessing we have {0} images based on {1} spectra", new Object[]{numImagesGuess, spectrumList.size()});
+                    LOGGER.log(Level.FINER, "Guessing we have {0} images based on {1} spectra", new Object[]{numImagesGuess, getNumberOfSpectraParsed()});
                     LOGGER.log(Level.FINER, "Putting {0} images in x", maxImagesX);
 
                     haveDoneCheck = true;
@@ -335,6 +488,57 @@ public class ImzMLHandler extends MzMLHeaderHandler {
         super.startUserParam(attributes);
     }
 
+    /**
+     * Set whether to store the spectrum metadata in a {@link SpectrumTable}, 
+     * creating each Spectrum only when accessed, rather than as a full object
+     * graph for every spectrum. This must be set before parsing.
+     *
+     * @param compactSpectra true to store the spectrum metadata in compact form
+     */
+    public void setCompactSpectra(boolean compactSpectra) {
+        this.compactSpectra = compactSpectra;
+    }
+
+    /**
+     * Returns whether the spectrum metadata is stored in compact form.
+     *
+     * @return true if stored in a {@link SpectrumTable}, false otherwise
+     */
+    public boolean isCompactSpectra() {
+        return compactSpectra;
+    }
+
+    /**
+     * Returns the number of spectra parsed so far, including the current spectrum.
+     *
+     * @return Number of spectra
+     */
+    private int getNumberOfSpectraParsed() {
+        return spectrumList.size() + ((spectrumTable == null) ? 0 : spectrumTable.getNumberOfSpectra());
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+        super.startElement(uri, localName, qName, attributes);
+
+        if (compactSpectra && "spectrumList".equals(qName)) {
+            // Parse each spectrum into a temporary list, before adding it to the table
+            spectrumTable = new SpectrumTable(mzML, numberOfSpectra);
+            spectrumList = new SpectrumList(1, spectrumList.getDefaultDataProcessingRef());
+        }
+    }
+
+    @Override
+    protected MzMLDataContainer getDataContainer() {
+        // Offsets within the imzML are not used to locate data, and looking up
+        // the spectrum would create it from the table
+        if (compactSpectra) {
+            return null;
+        }
+
+        return super.getDataContainer();
+    }
+
     @Override
     protected void startMzML(Attributes attributes) {
         mzML = new ImzML(attributes.getValue("version"));
@@ -366,7 +570,7 @@ public class ImzMLHandler extends MzMLHeaderHandler {
 
             DataLocation location = new DataLocation(this.dataStorage, currentOffset, (int) this.currentNumBytes);
             currentBinaryDataArray.setDataLocation(location);
-            location.setDataTransformation(currentBinaryDataArray.generateDataTransformation());
+            location.setDataTransformation(currentBinaryDataArray.generateDataTransformation(), currentBinaryDataArray.getDecompressedSize());
         }
 
         if ("scan".equals(qName) && processingSCiLS3DData) {
@@ -421,6 +625,20 @@ public class ImzMLHandler extends MzMLHeaderHandler {
         }
 
         super.endElement(uri, localName, qName);
+
+        if (spectrumTable != null) {
+            if ("spectrum".equals(qName)) {
+                spectrumTable.addSpectrum(spectrumList.getSpectrum(0));
+                spectrumList = new SpectrumList(1, spectrumList.getDefaultDataProcessingRef());
+            } else if ("spectrumList".equals(qName)) {
+                spectrumTable.trimToSize();
+
+                spectrumList = new CompactSpectrumList(spectrumList.getDefaultDataProcessingRef(), spectrumTable);
+                run.setSpectrumList(spectrumList);
+
+                spectrumTable = null;
+            }
+        }
     }
 
     /**
@@ -0,0 +1,537 @@
+package com.alanmrace.jimzmlparser.parser;
+
+import com.alanmrace.jimzmlparser.exceptions.FatalParseIssue;
+import com.alanmrace.jimzmlparser.exceptions.FatalRuntimeParseException;
+import com.alanmrace.jimzmlparser.exceptions.InvalidMzMLIssue;
+import com.alanmrace.jimzmlparser.exceptions.MzMLParseException;
+import com.alanmrace.jimzmlparser.mzml.LazySpectrumList;
+import com.alanmrace.jimzmlparser.mzml.MzML;
+import com.alanmrace.jimzmlparser.mzml.Spectrum;
+import com.alanmrace.jimzmlparser.mzml.SpectrumList;
+import com.alanmrace.jimzmlparser.obo.OBO;
+import com.alanmrace.jimzmlparser.util.BinaryPositionInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX parser for indexed mzML files which uses the index at the end of the file
+ * to avoid parsing every spectrum up front.
+ *
+ * <p>The {@literal <indexListOffset>} is read from the end of the file and used
+ * to parse the {@literal <indexList>}, which gives the ID and byte offset of each
+ * spectrum. Only the metadata before the {@literal <spectrumList>} is then parsed,
+ * and the run is given a {@link LazySpectrumList}, which parses each
+ * {@literal <spectrum>} tag the first time the Spectrum is accessed by reading
+ * the bytes between its offset and the offset of the next spectrum.
+ *
+ * <p>If the file is not indexed, or the index does not match the file, the whole
+ * file is parsed with {@link MzMLHeaderHandler#parsemzMLHeader(String, boolean, ParserListener)}
+ * instead.
+ *
+ * <p>Chromatograms are not parsed when opening a file lazily, so the run will not
+ * have a ChromatogramList.
+ *
+ * @author Alan Race
+ */
+public class IndexedMzMLHandler extends MzMLHeaderHandler implements LazySpectrumList.SpectrumLoader {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(IndexedMzMLHandler.class.getName());
+
+    /**
+     * Number of bytes at the end of the file to search for the {@literal <indexListOffset>} tag.
+     */
+    static final int TAIL_LENGTH = 4096;
+
+    /**
+     * Pattern matching the {@literal <indexListOffset>} tag.
+     */
+    private static final Pattern INDEX_LIST_OFFSET_PATTERN = Pattern.compile("<indexListOffset>\\s*(\\d+)\\s*</indexListOffset>");
+
+    /**
+     * Closing tag of a spectrum, used to trim the bytes read for a spectrum.
+     */
+    private static final byte[] SPECTRUM_END_TAG = "</spectrum>".getBytes();
+
+    /**
+     * Index read from the end of the file.
+     */
+    private final MzMLIndex index;
+
+    /**
+     * True while the metadata before the {@literal <spectrumList>} is being parsed.
+     */
+    private boolean parsingHeader;
+
+    /**
+     * Set up a SAX parser for the indexed mzML file, using the supplied index.
+     *
+     * @param obo Ontology database
+     * @param mzMLFile Indexed mzML file
+     * @param index Index read from the end of the mzML file
+     * @throws FileNotFoundException mzML file could not be opened
+     */
+    IndexedMzMLHandler(OBO obo, File mzMLFile, MzMLIndex index) throws FileNotFoundException {
+        super(obo, mzMLFile, true);
+
+        this.index = index;
+    }
+
+    /**
+     * Open an indexed mzML file, parsing each spectrum on first access. Calls
+     * openIndexedmzML(filename, null); defaulting to no ParserListener.
+     *
+     * @param filename mzML file to open
+     * @return MzML with a LazySpectrumList
+     * @throws MzMLParseException Issue parsing the mzML file
+     * @see #openIndexedmzML(String, ParserListener)
+     */
+    public static MzML openIndexedmzML(String filename) throws MzMLParseException {
+        return openIndexedmzML(filename, null);
+    }
+
+    /**
+     * Open an indexed mzML file, parsing only the metadata before the
+     * {@literal <spectrumList>} and parsing each spectrum on first access.
+     * Files without a valid index are parsed in full.
+     *
+     * @param filename mzML file to open
+     * @param listener ParserListener to notify of any issues, or null
+     * @return MzML with a LazySpectrumList
+     * @throws MzMLParseException Issue parsing the mzML file
+     */
+    public static MzML openIndexedmzML(String filename, ParserListener listener) throws MzMLParseException {
+        return openIndexedmzML(filename, listener, ParserBackend.SAX);
+    }
+
+    /**
+     * Open an indexed mzML file as {@link #openIndexedmzML(String, ParserListener)},
+     * using the specified XML parser for the metadata and for each spectrum.
+     *
+     * @param filename mzML file to open
+     * @param listener ParserListener to notify of any issues, or null
+     * @param parserBackend XML parser to use
+     * @return MzML with a LazySpectrumList
+     * @throws MzMLParseException Issue parsing the mzML file
+     */
+    public static MzML openIndexedmzML(String filename, ParserListener listener, ParserBackend parserBackend) throws MzMLParseException {
+        RandomAccessFile raf = null;
+        IndexedMzMLHandler handler = null;
+
+        try {
+            raf = new RandomAccessFile(filename, "r");
+
+            MzMLIndex index = readIndex(raf);
+
+            if (index == null || index.getNumberOfSpectra() == 0 || !startsWith(raf, index.getSpectrumOffset(0), "<spectrum")) {
+                LOGGER.log(Level.INFO, "No valid spectrum index found in {0}, parsing whole file", filename);
+            } else {
+                OBO obo = OBO.getOBO();
+
+                handler = new IndexedMzMLHandler(obo, new File(filename), index);
+                handler.setParserBackend(parserBackend);
+
+                if (listener != null) {
+                    handler.registerParserListener(listener);
+                }
+
+                raf.seek(0);
+
+                if (handler.parseHeader(Channels.newInputStream(raf.getChannel()))) {
+                    handler.getmzML().setOBO(obo);
+                } else {
+                    LOGGER.log(Level.INFO, "No <spectrumList> found in {0}, parsing whole file", filename);
+
+                    handler.dataStorage.close();
+                    handler = null;
+                }
+            }
+        } catch (FatalRuntimeParseException runtimeException) {
+            throw new MzMLParseException(runtimeException.getIssue(), runtimeException);
+        } catch (SAXException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+
+            throw new MzMLParseException(new InvalidMzMLIssue("SAXException: " + ex, ex.getLocalizedMessage()), ex);
+        } catch (FileNotFoundException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+
+            throw new MzMLParseException(new FatalParseIssue("File not found: " + filename, ex.getLocalizedMessage()), ex);
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+
+            throw new MzMLParseException(new FatalParseIssue("IOException: " + ex, ex.getLocalizedMessage()), ex);
+        } catch (ParserConfigurationException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+
+            throw new MzMLParseException(new FatalParseIssue("ParserConfigurationException: " + ex, ex.getLocalizedMessage()), ex);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.SEVERE, null, ex);
+                }
+            }
+        }
+
+        if (handler == null) {
+            return parsemzMLHeader(filename, true, listener, parserBackend);
+        }
+
+        return handler.getmzML();
+    }
+
+    /**
+     * Parse the metadata up to the {@literal <spectrumList>} tag and replace the
+     * SpectrumList of the run with a LazySpectrumList backed by the index.
+     *
+     * @param is InputStream of the mzML file, from the start of the file
+     * @return true if a {@literal <spectrumList>} was found, false otherwise
+     * @throws IOException Issue reading the file
+     * @throws SAXException Issue parsing the file
+     * @throws ParserConfigurationException Could not create a SAX parser
+     */
+    private boolean parseHeader(InputStream is) throws IOException, SAXException, ParserConfigurationException {
+        parsingHeader = true;
+
+        try {
+            parse(is);
+        } catch (HeaderParsedException ex) {
+            LOGGER.log(Level.FINER, "Finished parsing header");
+        } finally {
+            parsingHeader = false;
+        }
+
+        if (spectrumList == null) {
+            return false;
+        }
+
+        LazySpectrumList lazySpectrumList = new LazySpectrumList(spectrumList.getDefaultDataProcessingRef(), index.getSpectrumIDs(), this);
+
+        contentStack.remove(spectrumList);
+        run.setSpectrumList(lazySpectrumList);
+        spectrumList = lazySpectrumList;
+
+        return true;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+        super.startElement(uri, localName, qName, attributes);
+
+        if (parsingHeader && ("spectrumList".equals(qName) || "chromatogramList".equals(qName))) {
+            throw new HeaderParsedException();
+        }
+    }
+
+    @Override
+    public synchronized Spectrum loadSpectrum(int spectrumIndex) throws IOException {
+        long offset = index.getSpectrumOffset(spectrumIndex);
+        byte[] data = dataStorage.getData(offset, index.getSpectrumLength(spectrumIndex));
+        int length = lastIndexOf(data, SPECTRUM_END_TAG);
+
+        if (length < 0) {
+            throw new IOException("No </spectrum> found for " + index.getSpectrumIDs().get(spectrumIndex) + " at offset " + offset);
+        }
+
+        length += SPECTRUM_END_TAG.length;
+
+        // Parse the spectrum into a temporary list, so that the lazy list is not
+        // modified while it is loading
+        SpectrumList lazySpectrumList = spectrumList;
+        SpectrumList loadedSpectra = new SpectrumList(1, lazySpectrumList.getDefaultDataProcessingRef());
+        int stackSize = contentStack.size();
+
+        spectrumList = loadedSpectra;
+        contentStack.push(loadedSpectra);
+
+        // Locate the Base64 data of each array from the positions of the <binary> tags
+        binaryPositionStream = new BinaryPositionInputStream(new ByteArrayInputStream(data, 0, length), offset);
+
+        try {
+            parse(binaryPositionStream);
+        } catch (SAXException ex) {
+            throw new IOException("Failed to parse spectrum " + index.getSpectrumIDs().get(spectrumIndex) + ": " + ex.getLocalizedMessage(), ex);
+        } catch (ParserConfigurationException ex) {
+            throw new IOException("Failed to create parser for spectrum " + index.getSpectrumIDs().get(spectrumIndex), ex);
+        } finally {
+            binaryPositionStream = null;
+
+            while (contentStack.size() > stackSize) {
+                contentStack.pop();
+            }
+
+            spectrumList = lazySpectrumList;
+        }
+
+        if (loadedSpectra.size() != 1) {
+            throw new IOException("Expected 1 spectrum at offset " + offset + " but found " + loadedSpectra.size());
+        }
+
+        Spectrum spectrum = loadedSpectra.get(0);
+
+        if (!spectrum.getID().equals(index.getSpectrumIDs().get(spectrumIndex))) {
+            LOGGER.log(Level.WARNING, "Spectrum at offset {0} has ID {1} but index gives {2}",
+                    new Object[]{offset, spectrum.getID(), index.getSpectrumIDs().get(spectrumIndex)});
+        }
+
+        return spectrum;
+    }
+
+    /**
+     * Read the index of an indexed mzML file, using the {@literal <indexListOffset>}
+     * found at the end of the file.
+     *
+     * @param raf Open mzML file
+     * @return Index of the file, or null if the file is not indexed
+     * @throws IOException Issue reading the file
+     */
+    static MzMLIndex readIndex(RandomAccessFile raf) throws IOException {
+        long fileLength = raf.length();
+        int tailLength = (int) Math.min(fileLength, TAIL_LENGTH);
+
+        byte[] tail = new byte[tailLength];
+        raf.seek(fileLength - tailLength);
+        raf.readFully(tail);
+
+        Matcher matcher = INDEX_LIST_OFFSET_PATTERN.matcher(new String(tail, "UTF-8"));
+
+        if (!matcher.find()) {
+            return null;
+        }
+
+        long indexListOffset = Long.parseLong(matcher.group(1));
+
+        if (indexListOffset <= 0 || indexListOffset >= fileLength || fileLength - indexListOffset > Integer.MAX_VALUE) {
+            LOGGER.log(Level.WARNING, "Invalid <indexListOffset> {0}", indexListOffset);
+
+            return null;
+        }
+
+        byte[] indexData = new byte[(int) (fileLength - indexListOffset)];
+        raf.seek(indexListOffset);
+        raf.readFully(indexData);
+
+        String indexList = new String(indexData, "UTF-8");
+        int indexListEnd = indexList.indexOf("</indexList>");
+
+        if (!indexList.startsWith("<indexList") || indexListEnd < 0) {
+            LOGGER.log(Level.WARNING, "No <indexList> found at <indexListOffset> {0}", indexListOffset);
+
+            return null;
+        }
+
+        IndexHandler indexHandler = new IndexHandler();
+
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(
+                    new ByteArrayInputStream(indexList.substring(0, indexListEnd + "</indexList>".length()).getBytes("UTF-8")), indexHandler);
+        } catch (ParserConfigurationException ex) {
+            throw new IOException("Failed to create parser for <indexList>", ex);
+        } catch (SAXException ex) {
+            LOGGER.log(Level.WARNING, "Failed to parse <indexList>", ex);
+
+            return null;
+        } catch (NumberFormatException ex) {
+            LOGGER.log(Level.WARNING, "Invalid offset in <indexList>", ex);
+
+            return null;
+        }
+
+        return new MzMLIndex(indexHandler.spectrumIDs, indexHandler.spectrumOffsets, indexHandler.chromatogramOffsets, indexListOffset);
+    }
+
+    /**
+     * Check whether the bytes at the specified offset of the file match the prefix.
+     *
+     * @param raf Open file
+     * @param offset Offset within the file
+     * @param prefix Expected text at the offset
+     * @return true if the text at the offset matches the prefix, false otherwise
+     * @throws IOException Issue reading the file
+     */
+    private static boolean startsWith(RandomAccessFile raf, long offset, String prefix) throws IOException {
+        byte[] expected = prefix.getBytes("UTF-8");
+
+        if (offset < 0 || offset + expected.length > raf.length()) {
+            return false;
+        }
+
+        byte[] actual = new byte[expected.length];
+        raf.seek(offset);
+        raf.readFully(actual);
+
+        return prefix.equals(new String(actual, "UTF-8"));
+    }
+
+    /**
+     * Find the last occurrence of the pattern within the data.
+     *
+     * @param data Data to search
+     * @param pattern Bytes to search for
+     * @return Index of the start of the last occurrence, or -1 if not found
+     */
+    private static int lastIndexOf(byte[] data, byte[] pattern) {
+        for (int i = data.length - pattern.length; i >= 0; i--) {
+            int j = 0;
+
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                j++;
+            }
+
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Exception thrown to stop the SAX parser once the metadata has been parsed.
+     */
+    private static class HeaderParsedException extends SAXException {
+
+        private static final long serialVersionUID = 1L;
+
+        HeaderParsedException() {
+            super("Reached <spectrumList>");
+        }
+    }
+
+    /**
+     * SAX handler collecting the IDs and offsets from an {@literal <indexList>}.
+     */
+    private static class IndexHandler extends DefaultHandler {
+
+        private final List<String> spectrumIDs = new ArrayList<String>();
+        private final List<Long> spectrumOffsets = new ArrayList<Long>();
+        private final List<Long> chromatogramOffsets = new ArrayList<Long>();
+
+        private final StringBuilder offsetData = new StringBuilder();
+
+        private boolean processingSpectrumIndex;
+        private boolean processingOffset;
+        private String currentIDRef;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            if ("index".equals(qName)) {
+                processingSpectrumIndex = "spectrum".equals(attributes.getValue("name"));
+            } else if ("offset".equals(qName)) {
+                currentIDRef = attributes.getValue("idRef");
+                offsetData.setLength(0);
+                processingOffset = true;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (processingOffset) {
+                offsetData.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if ("offset".equals(qName)) {
+                long offset = Long.parseLong(offsetData.toString().trim());
+
+                if (processingSpectrumIndex) {
+                    spectrumIDs.add(currentIDRef);
+                    spectrumOffsets.add(offset);
+                } else {
+                    chromatogramOffsets.add(offset);
+                }
+
+                processingOffset = false;
+            }
+        }
+    }
+
+    /**
+     * Spectrum index of an indexed mzML file.
+     */
+    static class MzMLIndex {
+
+        private final List<String> spectrumIDs;
+        private final long[] spectrumOffsets;
+        private final long[] spectrumEnds;
+        private final long indexListOffset;
+
+        /**
+         * Create the index from the offsets listed in the {@literal <indexList>}.
+         *
+         * @param spectrumIDs IDs of the spectra, in order
+         * @param spectrumOffsets Offsets of the spectra, in the same order as the IDs
+         * @param chromatogramOffsets Offsets of the chromatograms
+         * @param indexListOffset Offset of the {@literal <indexList>}
+         */
+        MzMLIndex(List<String> spectrumIDs, List<Long> spectrumOffsets, List<Long> chromatogramOffsets, long indexListOffset) {
+            this.spectrumIDs = spectrumIDs;
+            this.indexListOffset = indexListOffset;
+            this.spectrumOffsets = new long[spectrumOffsets.size()];
+            this.spectrumEnds = new long[spectrumOffsets.size()];
+
+            for (int i = 0; i < this.spectrumOffsets.length; i++) {
+                this.spectrumOffsets[i] = spectrumOffsets.get(i);
+            }
+
+            // Each spectrum ends where the next begins. The last spectrum ends at
+            // the first chromatogram following it, or the index itself
+            for (int i = 0; i < this.spectrumOffsets.length; i++) {
+                long end = indexListOffset;
+
+                if (i + 1 < this.spectrumOffsets.length) {
+                    end = this.spectrumOffsets[i + 1];
+                } else {
+                    for (Long chromatogramOffset : chromatogramOffsets) {
+                        if (chromatogramOffset > this.spectrumOffsets[i] && chromatogramOffset < end) {
+                            end = chromatogramOffset;
+                        }
+                    }
+                }
+
+                this.spectrumEnds[i] = end;
+            }
+        }
+
+        List<String> getSpectrumIDs() {
+            return spectrumIDs;
+        }
+
+        int getNumberOfSpectra() {
+            return spectrumOffsets.length;
+        }
+
+        long getSpectrumOffset(int index) {
+            return spectrumOffsets[index];
+        }
+
+        int getSpectrumLength(int index) {
+            return (int) (spectrumEnds[index] - spectrumOffsets[index]);
+        }
+
+        long getIndexListOffset() {
+            return indexListOffset;
+        }
+    }
+}
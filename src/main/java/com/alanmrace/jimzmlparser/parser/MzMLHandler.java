@@ -7,18 +7,18 @@ import com.alanmrace.jimzmlparser.exceptions.MzMLParseException;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import com.alanmrace.jimzmlparser.mzml.MzML;
 import com.alanmrace.jimzmlparser.obo.OBO;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.apache.commons.codec.binary.Base64;
+import com.alanmrace.jimzmlparser.util.Base64Decoder;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -32,13 +32,30 @@ public class MzMLHandler extends MzMLHeaderHandler {
     protected File temporaryBinaryFile;
 
     protected DataOutputStream temporaryFileStream;
-    protected StringBuilder binaryData;
+    
+    /**
+     * Decoder for the Base64 text of the current {@literal <binary>} tag, which is 
+     * decoded as it is received rather than being collected in full first.
+     */
+    protected Base64Decoder base64Decoder;
+    
+    /**
+     * Buffer for decoded data before it is written to the temporary file.
+     */
+    protected byte[] decodedData;
+    
+    /**
+     * Number of decoded bytes written for the current {@literal <binary>} tag.
+     */
+    protected int currentBinaryLength;
+    
     protected long offset = 0;
 
     public MzMLHandler(OBO obo, File temporaryBinaryFile) throws FileNotFoundException {
         super(obo);
 
-        binaryData = new StringBuilder();
+        base64Decoder = new Base64Decoder();
+        decodedData = new byte[8192];
         this.temporaryBinaryFile = temporaryBinaryFile;
         this.dataStorage = new BinaryDataStorage(temporaryBinaryFile, true);
 
@@ -50,6 +67,21 @@ public class MzMLHandler extends MzMLHeaderHandler {
     }
 
     public static MzML parsemzML(String filename, ParserListener listener) throws MzMLParseException {
+        return parsemzML(filename, listener, ParserBackend.SAX);
+    }
+
+    /**
+     * Parse the mzML file using the specified XML parser, decoding the binary
+     * data into a temporary file.
+     *
+     * @param filename Location of the mzML file
+     * @param listener ParserListener which will be notified of any non-fatal
+     * parsing issues, or null
+     * @param parserBackend XML parser to use
+     * @return MzML representation of the mzML file
+     * @throws MzMLParseException If a fatal parse error occurs
+     */
+    public static MzML parsemzML(String filename, ParserListener listener, ParserBackend parserBackend) throws MzMLParseException {
         try {
             OBO obo = OBO.getOBO();
 
@@ -58,20 +90,20 @@ public class MzMLHandler extends MzMLHeaderHandler {
 
             // Parse mzML
             MzMLHandler handler = new MzMLHandler(obo, tmpFile);
+            handler.setParserBackend(parserBackend);
 
             if (listener != null) {
                 handler.registerParserListener(listener);
             }
 
-            SAXParserFactory spf = SAXParserFactory.newInstance();
-
-            //get a new instance of parser
-            SAXParser sp = spf.newSAXParser();
+            InputStream is = new FileInputStream(filename);
 
-            File file = new File(filename);
-
-            //parse the file and also register this class for call backs
-            sp.parse(file, handler);
+            try {
+                //parse the file and also register this class for call backs
+                handler.parse(is);
+            } finally {
+                is.close();
+            }
 
             handler.getmzML().setOBO(obo);
 
@@ -96,6 +128,11 @@ public class MzMLHandler extends MzMLHeaderHandler {
         }
     }
 
+    @Override
+    protected boolean requiresBinaryContent() {
+        return true;
+    }
+
     public boolean deleteTemporaryFile() {
         try {
             temporaryFileStream.close();
@@ -110,7 +147,8 @@ public class MzMLHandler extends MzMLHeaderHandler {
     @Override
     public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
         if ("binary".equals(qName)) {
-            binaryData.setLength(0);
+            base64Decoder.reset();
+            currentBinaryLength = 0;
 
             processingBinary = true;
         } else {
@@ -121,7 +159,13 @@ public class MzMLHandler extends MzMLHeaderHandler {
     @Override
     public void characters(char[] ch, int start, int length) throws SAXException {
         if (processingBinary) {
-            binaryData.append(ch, start, length);
+            int maxDecodedLength = Base64Decoder.getMaxDecodedLength(length);
+            
+            if (decodedData.length < maxDecodedLength) {
+                decodedData = new byte[maxDecodedLength];
+            }
+            
+            writeDecodedData(base64Decoder.decode(ch, start, length, decodedData, 0));
         } else {
             super.characters(ch, start, length);
         }
@@ -130,20 +174,14 @@ public class MzMLHandler extends MzMLHeaderHandler {
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if ("binary".equals(qName)) {
-            // Convert the data from base 64
-            byte[] processedData = Base64.decodeBase64(binaryData.toString().getBytes());
+            // Write out any remaining data from the final group of Base64 characters
+            writeDecodedData(base64Decoder.finish(decodedData, 0));
 
-            int lengthToWrite = processedData.length;
-
-            try {
-                temporaryFileStream.write(processedData, 0, lengthToWrite);
-            } catch (IOException ex) {
-                LOGGER.log(Level.SEVERE, null, ex);
-            }
+            int lengthToWrite = currentBinaryLength;
 
             DataLocation location = new DataLocation(dataStorage, offset, lengthToWrite);
             currentBinaryDataArray.setDataLocation(location);
-            location.setDataTransformation(currentBinaryDataArray.generateDataTransformation());
+            location.setDataTransformation(currentBinaryDataArray.generateDataTransformation(), currentBinaryDataArray.getDecompressedSize());
 
             offset += lengthToWrite;
 
@@ -152,4 +190,19 @@ public class MzMLHandler extends MzMLHeaderHandler {
             super.endElement(uri, localName, qName);
         }
     }
+
+    /**
+     * Write decoded data from the start of the decodedData buffer to the temporary file.
+     * 
+     * @param length Number of bytes to write
+     */
+    protected void writeDecodedData(int length) {
+        try {
+            temporaryFileStream.write(decodedData, 0, length);
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+        
+        currentBinaryLength += length;
+    }
 }
@@ -23,6 +23,7 @@ import javax.xml.parsers.SAXParserFactory;
 import com.alanmrace.jimzmlparser.mzml.*;
 import com.alanmrace.jimzmlparser.obo.OBO;
 import com.alanmrace.jimzmlparser.obo.OBOTerm;
+import com.alanmrace.jimzmlparser.util.BinaryPositionInputStream;
 import com.alanmrace.jimzmlparser.exceptions.InvalidMzMLIssue;
 import com.alanmrace.jimzmlparser.exceptions.Issue;
 import com.alanmrace.jimzmlparser.exceptions.MzMLParseException;
@@ -77,6 +78,24 @@ public class MzMLHeaderHandler extends DefaultHandler {
      */
     private static final Logger LOGGER = Logger.getLogger(MzMLHeaderHandler.class.getName());
 
+    /**
+     * Possible XML parsers used to read (i)mzML files.
+     */
+    public enum ParserBackend {
+
+        /**
+         * JAXP SAX parser.
+         */
+        SAX,
+
+        /**
+         * Byte level parser tuned for (i)mzML.
+         *
+         * @see MzMLTokenizer
+         */
+        TOKENIZER
+    }
+
     /**
      * SAX document locator. TODO: Why is it used?
      */
@@ -315,10 +334,32 @@ public class MzMLHeaderHandler extends DefaultHandler {
     DataStorage dataStorage;
     private boolean openDataStorage = true;
 
+    /**
+     * Stream recording the position of each {@literal <binary>} tag as it is parsed,
+     * or null if the positions are not available, in which case the data are
+     * located from the {@literal <offset>} index after parsing.
+     */
+    protected BinaryPositionInputStream binaryPositionStream;
+
     int numberOfSpectra = 0;
 
     private List<ParserListener> listeners;
 
+    /**
+     * SAX parser, created on first use and reused for subsequent parsing.
+     */
+    private SAXParser saxParser;
+
+    /**
+     * Tokenizer, created on first use and reused for subsequent parsing.
+     */
+    private MzMLTokenizer tokenizer;
+
+    /**
+     * XML parser used by this handler.
+     */
+    private ParserBackend parserBackend = ParserBackend.SAX;
+
     /**
      * Set up a SAX parser for MzML metadata with the specified ontology
      * dictionary.
@@ -365,6 +406,64 @@ public class MzMLHeaderHandler extends DefaultHandler {
         }
     }
 
+    /**
+     * Set the XML parser used by this handler. Defaults to {@link ParserBackend#SAX}.
+     *
+     * @param parserBackend Parser to use
+     */
+    public void setParserBackend(ParserBackend parserBackend) {
+        this.parserBackend = parserBackend;
+    }
+
+    /**
+     * Returns the XML parser used by this handler.
+     *
+     * @return Parser in use
+     */
+    public ParserBackend getParserBackend() {
+        return parserBackend;
+    }
+
+    /**
+     * Returns whether the handler uses the content of {@literal <binary>} tags. If
+     * not, the tokenizer skips the content without decoding it.
+     *
+     * @return true if the content is required, false otherwise
+     */
+    protected boolean requiresBinaryContent() {
+        return false;
+    }
+
+    /**
+     * Parse the XML document using the {@link ParserBackend} of this handler, with this
+     * handler receiving the events.
+     *
+     * @param is InputStream of the document
+     * @throws IOException Issue reading the document
+     * @throws SAXException Issue parsing the document
+     * @throws ParserConfigurationException Could not create a SAX parser
+     */
+    protected void parse(InputStream is) throws IOException, SAXException, ParserConfigurationException {
+        if (parserBackend == ParserBackend.TOKENIZER) {
+            if (tokenizer == null) {
+                tokenizer = new MzMLTokenizer();
+                tokenizer.setSkipBinaryContent(!requiresBinaryContent());
+            }
+
+            tokenizer.parse(is, this);
+        } else {
+            if (saxParser == null) {
+                saxParser = SAXParserFactory.newInstance().newSAXParser();
+            }
+
+            try {
+                saxParser.parse(is, this);
+            } finally {
+                saxParser.reset();
+            }
+        }
+    }
+
     public void registerParserListener(ParserListener listener) {        
         this.listeners.add(listener);
         
@@ -392,6 +491,23 @@ public class MzMLHeaderHandler extends DefaultHandler {
     }
 
     public static MzML parsemzMLHeader(String filename, boolean openDataFile, ParserListener listener) throws MzMLParseException {
+        return parsemzMLHeader(filename, openDataFile, listener, ParserBackend.SAX);
+    }
+
+    /**
+     * Parse the metadata of the mzML file, locating the binary data within the
+     * mzML file rather than decoding it, using the specified XML parser.
+     *
+     * @param filename Location of the mzML file
+     * @param openDataFile true to open the mzML file for reading the binary data,
+     * false to only parse metadata
+     * @param listener ParserListener which will be notified of any non-fatal
+     * parsing issues, or null
+     * @param parserBackend XML parser to use
+     * @return MzML representation of the mzML file
+     * @throws MzMLParseException If a fatal parse error occurs
+     */
+    public static MzML parsemzMLHeader(String filename, boolean openDataFile, ParserListener listener, ParserBackend parserBackend) throws MzMLParseException {
         OBO obo = OBO.getOBO();
 
         RandomAccessFile raf = null;
@@ -402,22 +518,24 @@ public class MzMLHeaderHandler extends DefaultHandler {
             // Parse mzML
             handler = new MzMLHeaderHandler(obo, new File(filename), openDataFile);
             handler.setOpenDataStorage(openDataFile);
+            handler.setParserBackend(parserBackend);
 
             if (listener != null) {
                 handler.registerParserListener(listener);
             }
 
-            SAXParserFactory spf = SAXParserFactory.newInstance();
-
             // TODO: INDEXED RAF when reading!!!
             raf = new RandomAccessFile(filename, "r");
             is = Channels.newInputStream(raf.getChannel());
 
-            //get a new instance of parser
-            SAXParser sp = spf.newSAXParser();
+            // Record where the Base64 data are while parsing, to avoid searching for them afterwards
+            if (handler.dataStorage instanceof MzMLSpectrumDataStorage) {
+                handler.binaryPositionStream = new BinaryPositionInputStream(is);
+                is = handler.binaryPositionStream;
+            }
 
             //parse the file and also register this class for call backs
-            sp.parse(is, handler);
+            handler.parse(is);
 
             handler.getmzML().setOBO(obo);
 
@@ -1763,6 +1881,11 @@ public class MzMLHeaderHandler extends DefaultHandler {
     }
 
     protected void setDataContainer(MzMLDataContainer dataContainer, long offset) {
+        // Data already located from the positions of the <binary> tags
+        if (binaryPositionStream != null) {
+            return;
+        }
+
         if (previousOffset != -1 && openDataStorage && dataContainer != null) {
             DataLocation dataLocation = new DataLocation(dataStorage, previousOffset, (int) (offset - previousOffset));
 
@@ -1770,6 +1893,29 @@ public class MzMLHeaderHandler extends DefaultHandler {
         }
     }
 
+    /**
+     * Set the DataLocation of the current BinaryDataArray to the Base64 data 
+     * between the {@literal <binary>} and {@literal </binary>} tags just parsed,
+     * if their positions have been recorded.
+     */
+    protected void setBinaryDataLocation() {
+        if (binaryPositionStream == null) {
+            return;
+        }
+
+        long start = binaryPositionStream.pollBinaryStart();
+        long end = binaryPositionStream.pollBinaryEnd();
+
+        if (start < 0 || end < start) {
+            LOGGER.log(Level.WARNING, "Invalid <binary> position {0} to {1}", new Object[]{start, end});
+        } else if (currentBinaryDataArray != null && openDataStorage) {
+            DataLocation location = new DataLocation(((MzMLSpectrumDataStorage) dataStorage).getBase64DataStorage(), start, (int) (end - start));
+            location.setDataTransformation(currentBinaryDataArray.generateDataTransformation(), currentBinaryDataArray.getDecompressedSize());
+
+            currentBinaryDataArray.setDataLocation(location);
+        }
+    }
+
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if ("spectrum".equals(qName)) {
@@ -1850,6 +1996,8 @@ public class MzMLHeaderHandler extends DefaultHandler {
             }
         } else if ("chromatogram".equals(qName)) {
             processingChromatogram = false;
+        } else if ("binary".equals(qName)) {
+            setBinaryDataLocation();
         } else if ("precursor".equals(qName)) {
             processingPrecursor = false;
         } else if ("product".equals(qName)) {
@@ -1868,9 +2016,10 @@ public class MzMLHeaderHandler extends DefaultHandler {
             previousOffset = offset;
             processingOffset = false;
         } else if ("mzML".equals(qName) || "indexedmzML".equals(qName)) {
-            // Go through spectra and chromatograms to convert the data storage if necessary
+            // Go through spectra and chromatograms to convert the data storage if necessary.
+            // Spectra which are yet to be loaded are given loadable data when created
             if (spectrumList != null) {
-                for (Spectrum spectrum : spectrumList) {
+                for (Spectrum spectrum : spectrumList.getLoadedSpectra()) {
                     try {
                         spectrum.ensureLoadableData();
                     } catch (IOException ex) {
@@ -0,0 +1,1110 @@
+package com.alanmrace.jimzmlparser.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Byte level XML parser for mzML and imzML files, which drives the same
+ * {@link DefaultHandler} callbacks as a non-namespace aware JAXP SAX parser with
+ * less overhead.
+ *
+ * <p>Element and attribute names are looked up directly from the bytes in a table
+ * of interned Strings, which is populated in advance with the names used in the
+ * mzML schema, so no String is created for each tag and comparisons such as
+ * {@code "spectrum".equals(qName)} succeed on identity. The content of
+ * {@literal <binary>} tags can optionally be skipped without being decoded,
+ * for handlers which locate the data separately.
+ *
+ * <p>Only UTF-8, US-ASCII and ISO-8859-1 encoded documents are supported.
+ * Comments, processing instructions, CDATA sections and the predefined and
+ * character entity references are handled, however the DOCTYPE declaration is
+ * skipped, so entities defined within it are reported as errors.
+ *
+ * @author Alan Race
+ * @see MzMLHeaderHandler.ParserBackend
+ */
+public class MzMLTokenizer {
+
+    /**
+     * Size of the buffer used to read from the InputStream.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * UTF-8 character set.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Pattern matching the encoding within the XML declaration.
+     */
+    private static final Pattern ENCODING_PATTERN = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
+    /**
+     * Tag whose content can be skipped.
+     */
+    private static final String BINARY_TAG = "binary";
+
+    /**
+     * Element and attribute names used in mzML and imzML, added to the name table
+     * in advance.
+     */
+    private static final String[] KNOWN_NAMES = {
+        "indexedmzML", "mzML", "cvList", "cv", "fileDescription", "fileContent", "sourceFileList",
+        "sourceFile", "contact", "referenceableParamGroupList", "referenceableParamGroup",
+        "referenceableParamGroupRef", "sampleList", "sample", "softwareList", "software",
+        "scanSettingsList", "scanSettings", "sourceFileRefList", "sourceFileRef", "targetList",
+        "target", "instrumentConfigurationList", "instrumentConfiguration", "componentList",
+        "source", "analyzer", "detector", "softwareRef", "dataProcessingList", "dataProcessing",
+        "processingMethod", "run", "spectrumList", "spectrum", "scanList", "scan", "scanWindowList",
+        "scanWindow", "precursorList", "precursor", "isolationWindow", "selectedIonList",
+        "selectedIon", "activation", "productList", "product", "binaryDataArrayList",
+        "binaryDataArray", BINARY_TAG, "chromatogramList", "chromatogram", "cvParam", "userParam",
+        "indexList", "index", "offset", "indexListOffset", "fileChecksum",
+        "id", "version", "accession", "cvRef", "name", "value", "type", "unitAccession", "unitCvRef",
+        "unitName", "count", "ref", "location", "URI", "fullName", "order", "defaultArrayLength",
+        "dataProcessingRef", "spotID", "defaultDataProcessingRef",
+        "defaultInstrumentConfigurationRef", "defaultSourceFileRef", "sampleRef", "startTimeStamp",
+        "instrumentConfigurationRef", "scanSettingsRef", "externalSpectrumID", "spectrumRef",
+        "sourceFileRef", "encodedLength", "arrayLength", "idRef", "xmlns", "xmlns:xsi",
+        "xsi:schemaLocation"
+    };
+
+    /**
+     * Interned element and attribute names.
+     */
+    private final NameTable names = new NameTable();
+
+    /**
+     * Attributes of the current start tag, reused for every tag.
+     */
+    private final TokenizerAttributes attributes = new TokenizerAttributes();
+
+    /**
+     * Locator reporting the current line.
+     */
+    private final Locator locator = new TokenizerLocator();
+
+    /**
+     * True if the content of {@literal <binary>} tags should not be reported.
+     */
+    private boolean skipBinaryContent;
+
+    private InputStream in;
+    private DefaultHandler handler;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    /**
+     * True if each byte is a character (ISO-8859-1), false for UTF-8.
+     */
+    private boolean latin1;
+
+    private int lineNumber;
+
+    private byte[] nameBuffer = new byte[64];
+
+    private char[] charBuffer = new char[8192];
+    private int charLength;
+
+    /**
+     * True when charBuffer holds character data which can be reported in parts,
+     * false when it holds a single value which must be kept whole.
+     */
+    private boolean inText;
+
+    private String[] elementStack = new String[32];
+    private int depth;
+    private boolean rootClosed;
+
+    /**
+     * Create a tokenizer, which can be reused for multiple documents.
+     */
+    public MzMLTokenizer() {
+        for (String name : KNOWN_NAMES) {
+            names.add(name);
+        }
+    }
+
+    /**
+     * Set whether the content of {@literal <binary>} tags is skipped rather than
+     * reported to {@link DefaultHandler#characters(char[], int, int)}.
+     *
+     * @param skipBinaryContent true to skip the content, false to report it
+     */
+    public void setSkipBinaryContent(boolean skipBinaryContent) {
+        this.skipBinaryContent = skipBinaryContent;
+    }
+
+    /**
+     * Returns whether the content of {@literal <binary>} tags is skipped.
+     *
+     * @return true if skipped, false otherwise
+     */
+    public boolean isSkipBinaryContent() {
+        return skipBinaryContent;
+    }
+
+    /**
+     * Parse the XML document, reporting events to the handler.
+     *
+     * @param is InputStream of the document
+     * @param handler Handler to report events to
+     * @throws IOException Issue reading the InputStream
+     * @throws SAXException Document is not well formed, or thrown by the handler
+     */
+    public void parse(InputStream is, DefaultHandler handler) throws IOException, SAXException {
+        this.in = is;
+        this.handler = handler;
+
+        position = 0;
+        limit = 0;
+        latin1 = false;
+        lineNumber = 1;
+        charLength = 0;
+        inText = false;
+        depth = 0;
+        rootClosed = false;
+
+        try {
+            handler.setDocumentLocator(locator);
+            handler.startDocument();
+
+            skipByteOrderMark();
+
+            int b;
+
+            while ((b = read()) != -1) {
+                if (b == '<') {
+                    parseMarkup();
+                } else {
+                    unread();
+                    parseText();
+                }
+            }
+
+            if (depth > 0) {
+                throw error("Unexpected end of document, <" + elementStack[depth - 1] + "> not closed");
+            } else if (!rootClosed) {
+                throw error("No root element");
+            }
+
+            handler.endDocument();
+        } finally {
+            this.in = null;
+            this.handler = null;
+        }
+    }
+
+    private void skipByteOrderMark() throws IOException, SAXException {
+        int b = read();
+
+        if (b == 0xEF) {
+            if (read() != 0xBB || read() != 0xBF) {
+                throw error("Invalid byte order mark");
+            }
+        } else if (b == 0xFE || b == 0xFF) {
+            throw error("UTF-16 documents are not supported");
+        } else if (b != -1) {
+            unread();
+        }
+    }
+
+    private void parseMarkup() throws IOException, SAXException {
+        int b = read();
+
+        if (b == '/') {
+            parseEndTag();
+        } else if (b == '?') {
+            parseProcessingInstruction();
+        } else if (b == '!') {
+            b = read();
+
+            if (b == '-') {
+                expect('-');
+                skipComment();
+            } else if (b == '[') {
+                expect("CDATA[");
+                parseCDATA();
+            } else {
+                skipDeclaration();
+            }
+        } else if (b == -1) {
+            throw error("Unexpected end of document");
+        } else {
+            unread();
+            parseStartTag();
+        }
+    }
+
+    private void parseStartTag() throws IOException, SAXException {
+        if (rootClosed && depth == 0) {
+            throw error("Content is not allowed after the root element");
+        }
+
+        String name = readName();
+
+        attributes.clear();
+
+        while (true) {
+            int b = skipWhitespace();
+
+            if (b == '>') {
+                startElement(name, false);
+
+                return;
+            } else if (b == '/') {
+                expect('>');
+                startElement(name, true);
+
+                return;
+            } else if (b == -1) {
+                throw error("Unexpected end of document in <" + name + ">");
+            }
+
+            unread();
+
+            String attributeName = readName();
+
+            if (skipWhitespace() != '=') {
+                throw error("Expected '=' after attribute " + attributeName + " in <" + name + ">");
+            }
+
+            int quote = skipWhitespace();
+
+            if (quote != '"' && quote != '\'') {
+                throw error("Expected quote for value of attribute " + attributeName + " in <" + name + ">");
+            }
+
+            attributes.add(attributeName, readAttributeValue(quote));
+        }
+    }
+
+    private void startElement(String name, boolean empty) throws IOException, SAXException {
+        handler.startElement("", "", name, attributes);
+
+        if (empty) {
+            endElement(name);
+        } else {
+            if (depth == elementStack.length) {
+                elementStack = Arrays.copyOf(elementStack, depth * 2);
+            }
+
+            elementStack[depth++] = name;
+
+            if (skipBinaryContent && name == BINARY_TAG) {
+                skipToMarkup();
+            }
+        }
+    }
+
+    private void endElement(String name) throws SAXException {
+        handler.endElement("", "", name);
+
+        if (depth == 0) {
+            rootClosed = true;
+        }
+    }
+
+    private void parseEndTag() throws IOException, SAXException {
+        String name = readName();
+
+        if (skipWhitespace() != '>') {
+            throw error("Expected '>' to end </" + name + ">");
+        }
+
+        // Names are interned, so an identity check is sufficient
+        if (depth == 0 || elementStack[depth - 1] != name) {
+            throw error("End tag </" + name + "> does not match start tag" + (depth == 0 ? "" : " <" + elementStack[depth - 1] + ">"));
+        }
+
+        depth--;
+        endElement(name);
+    }
+
+    private void parseText() throws IOException, SAXException {
+        if (depth == 0) {
+            int b;
+
+            while ((b = read()) != -1 && b != '<') {
+                if (!isWhitespace(b)) {
+                    throw error("Content is not allowed outside the root element");
+                }
+            }
+
+            if (b == '<') {
+                unread();
+            }
+
+            return;
+        }
+
+        inText = true;
+        charLength = 0;
+
+        int b;
+
+        while (true) {
+            copyASCII();
+
+            if ((b = read()) == -1) {
+                break;
+            } else if (b == '<') {
+                unread();
+                break;
+            }
+
+            ensureCharCapacity(2);
+
+            if (b == '&') {
+                appendReference();
+            } else if (b == '\r') {
+                charBuffer[charLength++] = '\n';
+                skipLineFeed();
+            } else if (b < 0x80) {
+                charBuffer[charLength++] = (char) b;
+            } else {
+                appendEncoded(b);
+            }
+        }
+
+        flushText();
+        inText = false;
+    }
+
+    private void parseCDATA() throws IOException, SAXException {
+        if (depth == 0) {
+            throw error("CDATA is not allowed outside the root element");
+        }
+
+        inText = true;
+        charLength = 0;
+
+        // Closing brackets are held back until it is known whether they end the section
+        int brackets = 0;
+
+        while (true) {
+            int b = read();
+
+            if (b == -1) {
+                throw error("Unexpected end of document in CDATA section");
+            } else if (b == ']') {
+                brackets++;
+
+                continue;
+            } else if (b == '>' && brackets >= 2) {
+                appendBrackets(brackets - 2);
+
+                break;
+            }
+
+            appendBrackets(brackets);
+            brackets = 0;
+
+            ensureCharCapacity(2);
+
+            if (b == '\r') {
+                charBuffer[charLength++] = '\n';
+                skipLineFeed();
+            } else if (b < 0x80) {
+                charBuffer[charLength++] = (char) b;
+            } else {
+                appendEncoded(b);
+            }
+        }
+
+        flushText();
+        inText = false;
+    }
+
+    /**
+     * Copy plain ASCII characters directly from the buffer into the character
+     * buffer, stopping at the first byte which needs further processing: markup,
+     * references, quotes, carriage returns, tabs or multi-byte characters. Line
+     * feeds are copied, so this is only used where they are not normalised.
+     */
+    private void copyASCII() throws SAXException {
+        while (true) {
+            int p = position;
+            int l = limit;
+            int length = charLength;
+            int max = charBuffer.length;
+            char[] chars = charBuffer;
+            byte[] bytes = buffer;
+
+            while (p < l && length < max) {
+                byte b = bytes[p];
+
+                if (b < ' ') {
+                    if (b != '\n' || !inText) {
+                        break;
+                    }
+
+                    lineNumber++;
+                } else if (b == '<' || b == '&' || b == '"' || b == '\'') {
+                    break;
+                }
+
+                chars[length++] = (char) b;
+                p++;
+            }
+
+            position = p;
+            charLength = length;
+
+            if (length < max || !inText) {
+                return;
+            }
+
+            flushText();
+        }
+    }
+
+    private void appendBrackets(int count) throws SAXException {
+        for (int i = 0; i < count; i++) {
+            ensureCharCapacity(1);
+            charBuffer[charLength++] = ']';
+        }
+    }
+
+    private void parseProcessingInstruction() throws IOException, SAXException {
+        String target = readName();
+
+        charLength = 0;
+
+        boolean question = false;
+        boolean leadingWhitespace = true;
+
+        while (true) {
+            int b = read();
+
+            if (b == -1) {
+                throw error("Unexpected end of document in processing instruction");
+            } else if (question && b == '>') {
+                break;
+            }
+
+            if (question) {
+                ensureCharCapacity(1);
+                charBuffer[charLength++] = '?';
+                question = false;
+            }
+
+            if (b == '?') {
+                question = true;
+            } else if (!leadingWhitespace || !isWhitespace(b)) {
+                leadingWhitespace = false;
+
+                ensureCharCapacity(2);
+
+                if (b < 0x80) {
+                    charBuffer[charLength++] = (char) b;
+                } else {
+                    appendEncoded(b);
+                }
+            }
+        }
+
+        String data = new String(charBuffer, 0, charLength);
+
+        if ("xml".equalsIgnoreCase(target)) {
+            setEncoding(data);
+        } else {
+            handler.processingInstruction(target, data);
+        }
+    }
+
+    private void setEncoding(String declaration) throws SAXException {
+        Matcher matcher = ENCODING_PATTERN.matcher(declaration);
+
+        if (!matcher.find()) {
+            return;
+        }
+
+        String encoding = matcher.group(1);
+
+        if ("UTF-8".equalsIgnoreCase(encoding) || "UTF8".equalsIgnoreCase(encoding) || "US-ASCII".equalsIgnoreCase(encoding)) {
+            latin1 = false;
+        } else if ("ISO-8859-1".equalsIgnoreCase(encoding) || "Latin1".equalsIgnoreCase(encoding)) {
+            latin1 = true;
+        } else {
+            throw error("Unsupported encoding " + encoding);
+        }
+    }
+
+    private void skipComment() throws IOException, SAXException {
+        int dashes = 0;
+
+        while (true) {
+            int b = read();
+
+            if (b == -1) {
+                throw error("Unexpected end of document in comment");
+            } else if (b == '-') {
+                dashes++;
+            } else if (b == '>' && dashes >= 2) {
+                return;
+            } else {
+                dashes = 0;
+            }
+        }
+    }
+
+    /**
+     * Skip a declaration such as {@literal <!DOCTYPE>}, including any internal subset.
+     */
+    private void skipDeclaration() throws IOException, SAXException {
+        int brackets = 0;
+        int quote = 0;
+
+        while (true) {
+            int b = read();
+
+            if (b == -1) {
+                throw error("Unexpected end of document in declaration");
+            } else if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '[') {
+                brackets++;
+            } else if (b == ']') {
+                brackets--;
+            } else if (b == '>' && brackets <= 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Skip over character data until the next markup, without decoding it.
+     */
+    private void skipToMarkup() throws IOException {
+        while (true) {
+            while (position < limit) {
+                byte b = buffer[position];
+
+                if (b == '<') {
+                    return;
+                } else if (b == '\n') {
+                    lineNumber++;
+                }
+
+                position++;
+            }
+
+            if (!fill()) {
+                return;
+            }
+        }
+    }
+
+    private String readName() throws IOException, SAXException {
+        int b = read();
+
+        if (!isNameStartCharacter(b)) {
+            throw error("Invalid name character '" + (b == -1 ? "EOF" : String.valueOf((char) b)) + "'");
+        }
+
+        // Look up the name directly from the buffer if it is entirely within it
+        int start = position - 1;
+        int end = position;
+
+        while (end < limit && isNameCharacter(buffer[end] & 0xFF)) {
+            end++;
+        }
+
+        if (end < limit) {
+            position = end;
+
+            return names.get(buffer, start, end - start);
+        }
+
+        int length = 0;
+
+        do {
+            if (length == nameBuffer.length) {
+                nameBuffer = Arrays.copyOf(nameBuffer, length * 2);
+            }
+
+            nameBuffer[length++] = (byte) b;
+            b = read();
+        } while (isNameCharacter(b));
+
+        if (b != -1) {
+            unread();
+        }
+
+        return names.get(nameBuffer, 0, length);
+    }
+
+    private String readAttributeValue(int quote) throws IOException, SAXException {
+        charLength = 0;
+
+        while (true) {
+            copyASCII();
+
+            int b = read();
+
+            if (b == quote) {
+                break;
+            } else if (b == -1) {
+                throw error("Unexpected end of document in attribute value");
+            } else if (b == '<') {
+                throw error("'<' is not allowed in attribute values");
+            }
+
+            ensureCharCapacity(2);
+
+            if (b == '&') {
+                appendReference();
+            } else if (b == '\r') {
+                // Line endings are normalised before attribute value whitespace
+                charBuffer[charLength++] = ' ';
+                skipLineFeed();
+            } else if (b == '\n' || b == '\t') {
+                charBuffer[charLength++] = ' ';
+            } else if (b < 0x80) {
+                charBuffer[charLength++] = (char) b;
+            } else {
+                appendEncoded(b);
+            }
+        }
+
+        return new String(charBuffer, 0, charLength);
+    }
+
+    private void appendReference() throws IOException, SAXException {
+        int b = read();
+        int codePoint = 0;
+
+        if (b == '#') {
+            int radix = 10;
+            int digits = 0;
+
+            b = read();
+
+            if (b == 'x') {
+                radix = 16;
+                b = read();
+            }
+
+            while (b != ';') {
+                int digit = (b == -1) ? -1 : Character.digit(b, radix);
+
+                if (digit < 0 || codePoint > 0x10FFFF) {
+                    throw error("Invalid character reference");
+                }
+
+                codePoint = codePoint * radix + digit;
+                digits++;
+                b = read();
+            }
+
+            if (digits == 0 || codePoint > 0x10FFFF) {
+                throw error("Invalid character reference");
+            }
+        } else {
+            if (b == -1) {
+                throw error("Unexpected end of document in entity reference");
+            }
+
+            unread();
+
+            String name = readName();
+            expect(';');
+
+            if ("lt".equals(name)) {
+                codePoint = '<';
+            } else if ("gt".equals(name)) {
+                codePoint = '>';
+            } else if ("amp".equals(name)) {
+                codePoint = '&';
+            } else if ("quot".equals(name)) {
+                codePoint = '"';
+            } else if ("apos".equals(name)) {
+                codePoint = '\'';
+            } else {
+                throw error("Undefined entity &" + name + ";");
+            }
+        }
+
+        appendCodePoint(codePoint);
+    }
+
+    /**
+     * Decode a character whose first byte is at least 0x80.
+     *
+     * @param b First byte of the character
+     */
+    private void appendEncoded(int b) throws IOException, SAXException {
+        if (latin1) {
+            appendCodePoint(b);
+
+            return;
+        }
+
+        int codePoint;
+        int remaining;
+
+        if ((b & 0xE0) == 0xC0) {
+            codePoint = b & 0x1F;
+            remaining = 1;
+        } else if ((b & 0xF0) == 0xE0) {
+            codePoint = b & 0x0F;
+            remaining = 2;
+        } else if ((b & 0xF8) == 0xF0) {
+            codePoint = b & 0x07;
+            remaining = 3;
+        } else {
+            throw error("Invalid UTF-8 byte 0x" + Integer.toHexString(b));
+        }
+
+        for (int i = 0; i < remaining; i++) {
+            int next = read();
+
+            if ((next & 0xC0) != 0x80) {
+                throw error("Invalid UTF-8 sequence");
+            }
+
+            codePoint = (codePoint << 6) | (next & 0x3F);
+        }
+
+        appendCodePoint(codePoint);
+    }
+
+    private void appendCodePoint(int codePoint) throws SAXException {
+        ensureCharCapacity(2);
+
+        if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            charBuffer[charLength++] = (char) codePoint;
+        } else {
+            charLength += Character.toChars(codePoint, charBuffer, charLength);
+        }
+    }
+
+    private void ensureCharCapacity(int extra) throws SAXException {
+        if (charLength + extra > charBuffer.length) {
+            if (inText) {
+                flushText();
+            } else {
+                charBuffer = Arrays.copyOf(charBuffer, charBuffer.length * 2);
+            }
+        }
+    }
+
+    private void flushText() throws SAXException {
+        if (charLength > 0) {
+            handler.characters(charBuffer, 0, charLength);
+            charLength = 0;
+        }
+    }
+
+    private void skipLineFeed() throws IOException {
+        int b = read();
+
+        if (b != '\n' && b != -1) {
+            unread();
+        }
+    }
+
+    private int skipWhitespace() throws IOException {
+        int b;
+
+        do {
+            b = read();
+        } while (isWhitespace(b));
+
+        return b;
+    }
+
+    private void expect(int expected) throws IOException, SAXException {
+        if (read() != expected) {
+            throw error("Expected '" + (char) expected + "'");
+        }
+    }
+
+    private void expect(String expected) throws IOException, SAXException {
+        for (int i = 0; i < expected.length(); i++) {
+            expect(expected.charAt(i));
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+
+        int b = buffer[position++] & 0xFF;
+
+        if (b == '\n') {
+            lineNumber++;
+        }
+
+        return b;
+    }
+
+    /**
+     * Step back over the last byte read, which must not have been the end of the stream.
+     */
+    private void unread() {
+        if (buffer[--position] == '\n') {
+            lineNumber--;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int bytesRead = in.read(buffer, 0, buffer.length);
+
+        position = 0;
+        limit = Math.max(bytesRead, 0);
+
+        return bytesRead > 0;
+    }
+
+    private SAXParseException error(String message) {
+        return new SAXParseException(message, locator);
+    }
+
+    private static boolean isWhitespace(int b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+    }
+
+    private static boolean isNameStartCharacter(int b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '_' || b == ':' || b >= 0x80;
+    }
+
+    private static boolean isNameCharacter(int b) {
+        return isNameStartCharacter(b) || (b >= '0' && b <= '9') || b == '-' || b == '.';
+    }
+
+    /**
+     * Open addressing hash table from the bytes of a name to the interned String.
+     */
+    private static final class NameTable {
+
+        private byte[][] keys = new byte[256][];
+        private String[] values = new String[256];
+        private int size;
+
+        void add(String name) {
+            byte[] bytes = name.getBytes(UTF_8);
+
+            get(bytes, 0, bytes.length, name);
+        }
+
+        String get(byte[] bytes, int offset, int length) {
+            return get(bytes, offset, length, null);
+        }
+
+        private String get(byte[] bytes, int offset, int length, String name) {
+            int mask = keys.length - 1;
+            int index = hash(bytes, offset, length) & mask;
+
+            while (keys[index] != null) {
+                if (matches(keys[index], bytes, offset, length)) {
+                    return values[index];
+                }
+
+                index = (index + 1) & mask;
+            }
+
+            if (name == null) {
+                name = new String(bytes, offset, length, UTF_8).intern();
+            }
+
+            keys[index] = Arrays.copyOfRange(bytes, offset, offset + length);
+            values[index] = name;
+
+            if (++size * 2 > keys.length) {
+                resize();
+            }
+
+            return name;
+        }
+
+        private void resize() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+
+            int mask = keys.length - 1;
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int index = hash(oldKeys[i], 0, oldKeys[i].length) & mask;
+
+                    while (keys[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                }
+            }
+        }
+
+        private static int hash(byte[] bytes, int offset, int length) {
+            int hash = 0;
+
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean matches(byte[] key, byte[] bytes, int offset, int length) {
+            if (key.length != length) {
+                return false;
+            }
+
+            for (int i = 0; i < length; i++) {
+                if (key[i] != bytes[offset + i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Attributes of a start tag, reused for each tag.
+     */
+    private static final class TokenizerAttributes implements Attributes {
+
+        private String[] names = new String[16];
+        private String[] values = new String[16];
+        private int length;
+
+        void clear() {
+            length = 0;
+        }
+
+        void add(String name, String value) {
+            if (length == names.length) {
+                names = Arrays.copyOf(names, length * 2);
+                values = Arrays.copyOf(values, length * 2);
+            }
+
+            names[length] = name;
+            values[length] = value;
+            length++;
+        }
+
+        @Override
+        public int getLength() {
+            return length;
+        }
+
+        @Override
+        public String getURI(int index) {
+            return (index >= 0 && index < length) ? "" : null;
+        }
+
+        @Override
+        public String getLocalName(int index) {
+            return (index >= 0 && index < length) ? "" : null;
+        }
+
+        @Override
+        public String getQName(int index) {
+            return (index >= 0 && index < length) ? names[index] : null;
+        }
+
+        @Override
+        public String getType(int index) {
+            return (index >= 0 && index < length) ? "CDATA" : null;
+        }
+
+        @Override
+        public String getValue(int index) {
+            return (index >= 0 && index < length) ? values[index] : null;
+        }
+
+        @Override
+        public int getIndex(String uri, String localName) {
+            return -1;
+        }
+
+        @Override
+        public int getIndex(String qName) {
+            // Names are interned, so check identity first
+            for (int i = 0; i < length; i++) {
+                if (names[i] == qName) {
+                    return i;
+                }
+            }
+
+            for (int i = 0; i < length; i++) {
+                if (names[i].equals(qName)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        @Override
+        public String getType(String uri, String localName) {
+            return null;
+        }
+
+        @Override
+        public String getType(String qName) {
+            return getType(getIndex(qName));
+        }
+
+        @Override
+        public String getValue(String uri, String localName) {
+            return null;
+        }
+
+        @Override
+        public String getValue(String qName) {
+            return getValue(getIndex(qName));
+        }
+    }
+
+    /**
+     * Locator reporting the line currently being parsed.
+     */
+    private final class TokenizerLocator implements Locator {
+
+        @Override
+        public String getPublicId() {
+            return null;
+        }
+
+        @Override
+        public String getSystemId() {
+            return null;
+        }
+
+        @Override
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        @Override
+        public int getColumnNumber() {
+            return -1;
+        }
+    }
+}
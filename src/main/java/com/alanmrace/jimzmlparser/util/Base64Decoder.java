@@ -0,0 +1,204 @@
+package com.alanmrace.jimzmlparser.util;
+
+import java.util.Arrays;
+
+/**
+ * Streaming Base64 decoder, which decodes encoded data supplied in chunks of 
+ * any size directly into an output buffer. Partial groups of characters at the 
+ * end of one chunk are carried over to the next, so that data can be decoded 
+ * as it is read from a file or received from a SAX parser without first 
+ * collecting the full encoded text.
+ * 
+ * <p>Both the standard and URL-safe alphabets are accepted. As with 
+ * {@link org.apache.commons.codec.binary.Base64#decodeBase64(byte[])}, characters
+ * outside of the alphabet (such as whitespace) are ignored and decoding stops at
+ * the first padding character.
+ * 
+ * <p>A decoder holds the state of a single encoded stream and so is not thread 
+ * safe. Call {@link #finish(byte[], int)} at the end of each stream, after which
+ * the decoder can be reused.
+ * 
+ * @author Alan Race
+ */
+public class Base64Decoder {
+    
+    /**
+     * Padding character.
+     */
+    private static final int PAD = '=';
+    
+    /**
+     * Value of each ASCII character in Base64, or -1 if not part of the alphabet.
+     */
+    private static final byte[] DECODE_TABLE = new byte[128];
+    
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+        
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        
+        for(int i = 0; i < alphabet.length(); i++)
+            DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+        
+        // URL-safe alphabet
+        DECODE_TABLE['-'] = 62;
+        DECODE_TABLE['_'] = 63;
+    }
+    
+    /**
+     * Bits of the current incomplete group of 4 characters.
+     */
+    private int bits;
+    
+    /**
+     * Number of characters in the current incomplete group.
+     */
+    private int numCharacters;
+    
+    /**
+     * Whether padding has been reached, after which all input is ignored.
+     */
+    private boolean paddingReached;
+    
+    /**
+     * Get the maximum number of bytes which could be written by a single call to
+     * decode (or decode followed by finish) given the specified number of 
+     * encoded characters.
+     * 
+     * @param encodedLength Number of encoded characters
+     * @return Maximum number of decoded bytes
+     */
+    public static int getMaxDecodedLength(int encodedLength) {
+        return (int) (((long) encodedLength + 3) / 4 * 3);
+    }
+    
+    /**
+     * Decode a chunk of Base64 encoded bytes.
+     * 
+     * @param src Encoded data
+     * @param srcOffset Offset of the first encoded byte in src
+     * @param length Number of encoded bytes
+     * @param dest Buffer to write decoded data into, with at least 
+     * {@link #getMaxDecodedLength(int)} bytes available from destOffset
+     * @param destOffset Offset within dest to write the first decoded byte
+     * @return Number of decoded bytes written
+     */
+    public int decode(byte[] src, int srcOffset, int length, byte[] dest, int destOffset) {
+        int position = destOffset;
+        int end = srcOffset + length;
+        
+        for(int i = srcOffset; i < end && !paddingReached; i++)
+            position = decodeCharacter(src[i] & 0xFF, dest, position);
+        
+        return position - destOffset;
+    }
+    
+    /**
+     * Decode a chunk of Base64 encoded characters, such as those supplied to 
+     * {@link org.xml.sax.ContentHandler#characters(char[], int, int)}.
+     * 
+     * @param src Encoded data
+     * @param srcOffset Offset of the first encoded character in src
+     * @param length Number of encoded characters
+     * @param dest Buffer to write decoded data into, with at least 
+     * {@link #getMaxDecodedLength(int)} bytes available from destOffset
+     * @param destOffset Offset within dest to write the first decoded byte
+     * @return Number of decoded bytes written
+     */
+    public int decode(char[] src, int srcOffset, int length, byte[] dest, int destOffset) {
+        int position = destOffset;
+        int end = srcOffset + length;
+        
+        for(int i = srcOffset; i < end && !paddingReached; i++)
+            position = decodeCharacter(src[i], dest, position);
+        
+        return position - destOffset;
+    }
+    
+    /**
+     * Decode a single character, writing out 3 bytes if it completes a group.
+     * 
+     * @param character Encoded character
+     * @param dest Buffer to write decoded data into
+     * @param position Position in dest to write the next decoded byte
+     * @return Position in dest after writing any decoded bytes
+     */
+    private int decodeCharacter(int character, byte[] dest, int position) {
+        if(character >= DECODE_TABLE.length)
+            return position;
+        
+        int value = DECODE_TABLE[character];
+        
+        if(value < 0) {
+            if(character == PAD) {
+                paddingReached = true;
+                
+                return flush(dest, position);
+            }
+            
+            return position;
+        }
+        
+        bits = (bits << 6) | value;
+        numCharacters++;
+        
+        if(numCharacters == 4) {
+            dest[position++] = (byte) (bits >> 16);
+            dest[position++] = (byte) (bits >> 8);
+            dest[position++] = (byte) bits;
+            
+            bits = 0;
+            numCharacters = 0;
+        }
+        
+        return position;
+    }
+    
+    /**
+     * Write out any bytes from an incomplete group of characters.
+     * 
+     * @param dest Buffer to write decoded data into
+     * @param position Position in dest to write the next decoded byte
+     * @return Position in dest after writing any decoded bytes
+     */
+    private int flush(byte[] dest, int position) {
+        if(numCharacters == 2) {
+            dest[position++] = (byte) (bits >> 4);
+        } else if(numCharacters == 3) {
+            dest[position++] = (byte) (bits >> 10);
+            dest[position++] = (byte) (bits >> 2);
+        }
+        
+        bits = 0;
+        numCharacters = 0;
+        
+        return position;
+    }
+    
+    /**
+     * Finish decoding the current stream, writing out any bytes from an incomplete
+     * final group of characters when no padding was present, and reset the 
+     * decoder ready for the next stream.
+     * 
+     * @param dest Buffer to write decoded data into, with at least 2 bytes 
+     * available from destOffset
+     * @param destOffset Offset within dest to write the first decoded byte
+     * @return Number of decoded bytes written
+     */
+    public int finish(byte[] dest, int destOffset) {
+        int written = flush(dest, destOffset) - destOffset;
+        
+        reset();
+        
+        return written;
+    }
+    
+    /**
+     * Reset the decoder, discarding any incomplete group of characters.
+     */
+    public void reset() {
+        bits = 0;
+        numCharacters = 0;
+        paddingReached = false;
+    }
+}
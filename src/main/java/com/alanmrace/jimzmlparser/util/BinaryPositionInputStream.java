@@ -0,0 +1,231 @@
+package com.alanmrace.jimzmlparser.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * InputStream which records the byte position of the content of each
+ * {@literal <binary>} tag as the XML passes through it, so that the Base64 data
+ * can be located without searching the file again after parsing.
+ *
+ * <p>The SAX parser reads ahead of the events it reports, so positions are
+ * queued in the order the tags appear, and should be removed with
+ * {@link #pollBinaryStart()} and {@link #pollBinaryEnd()} as each
+ * {@literal </binary>} end tag is reported. Tags within comments or CDATA
+ * sections are not distinguished, which is not an issue for mzML.
+ *
+ * @author Alan Race
+ */
+public class BinaryPositionInputStream extends FilterInputStream {
+
+    /**
+     * Start of the opening tag, which must be followed by '&gt;', '/' or whitespace
+     * to distinguish it from tags such as {@literal <binaryDataArray>}.
+     */
+    private static final byte[] START_TAG = "<binary".getBytes();
+
+    /**
+     * Closing tag.
+     */
+    private static final byte[] END_TAG = "</binary>".getBytes();
+
+    /**
+     * Positions of the first byte of the content of each {@literal <binary>} tag.
+     */
+    private final Deque<Long> binaryStarts = new ArrayDeque<Long>();
+
+    /**
+     * Positions of the byte after the content of each {@literal <binary>} tag.
+     */
+    private final Deque<Long> binaryEnds = new ArrayDeque<Long>();
+
+    /**
+     * Position of the next byte to be read.
+     */
+    private long position;
+
+    /**
+     * Number of bytes of START_TAG matched so far.
+     */
+    private int startMatched;
+
+    /**
+     * Number of bytes of END_TAG matched so far.
+     */
+    private int endMatched;
+
+    /**
+     * True after {@literal <binary} followed by attributes, until the end of the tag.
+     */
+    private boolean inStartTag;
+
+    /**
+     * Previous byte read.
+     */
+    private int previous;
+
+    /**
+     * Create a stream which records positions relative to the start of the stream.
+     *
+     * @param in InputStream to read from
+     */
+    public BinaryPositionInputStream(InputStream in) {
+        this(in, 0);
+    }
+
+    /**
+     * Create a stream which records positions relative to the specified position,
+     * for example when the stream starts part way into a file.
+     *
+     * @param in InputStream to read from
+     * @param initialPosition Position of the first byte of the stream
+     */
+    public BinaryPositionInputStream(InputStream in, long initialPosition) {
+        super(in);
+
+        this.position = initialPosition;
+    }
+
+    /**
+     * Remove and return the position of the first byte of the content of the
+     * earliest {@literal <binary>} tag not yet polled.
+     *
+     * @return Position, or -1 if there are none
+     */
+    public long pollBinaryStart() {
+        Long start = binaryStarts.poll();
+
+        return (start == null) ? -1 : start;
+    }
+
+    /**
+     * Remove and return the position of the end of the content of the earliest
+     * {@literal <binary>} tag not yet polled, which is the position of the
+     * {@literal </binary>} tag.
+     *
+     * @return Position, or -1 if there are none
+     */
+    public long pollBinaryEnd() {
+        Long end = binaryEnds.poll();
+
+        return (end == null) ? -1 : end;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+
+        if (b != -1) {
+            scan(b);
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int bytesRead = super.read(b, off, len);
+
+        for (int i = 0; i < bytesRead; i++) {
+            scan(b[off + i] & 0xFF);
+        }
+
+        return bytesRead;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes must still be scanned for tags
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+
+        while (skipped < n) {
+            int bytesRead = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+
+            if (bytesRead == -1) {
+                break;
+            }
+
+            skipped += bytesRead;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Update the tag matching state with the next byte.
+     *
+     * @param b Next byte of the stream
+     */
+    private void scan(int b) {
+        position++;
+
+        if (inStartTag) {
+            if (b == '>') {
+                binaryStarts.add(position);
+
+                // Empty tag, <binary />
+                if (previous == '/') {
+                    binaryEnds.add(position);
+                }
+
+                inStartTag = false;
+            }
+        } else if (startMatched == START_TAG.length) {
+            startMatched = 0;
+
+            if (b == '>') {
+                binaryStarts.add(position);
+            } else if (b == '/' || Character.isWhitespace(b)) {
+                inStartTag = true;
+            }
+
+            endMatched = 0;
+        } else {
+            startMatched = advance(START_TAG, startMatched, b);
+            endMatched = advance(END_TAG, endMatched, b);
+
+            if (endMatched == END_TAG.length) {
+                binaryEnds.add(position - END_TAG.length);
+                endMatched = 0;
+            }
+        }
+
+        previous = b;
+    }
+
+    /**
+     * Advance the number of bytes of the pattern matched with the next byte.
+     * Neither tag repeats its first byte, so a mismatch only needs to check
+     * whether the byte starts a new match.
+     *
+     * @param pattern Pattern being matched
+     * @param matched Number of bytes currently matched
+     * @param b Next byte
+     * @return Number of bytes matched including the next byte
+     */
+    private static int advance(byte[] pattern, int matched, int b) {
+        if (pattern[matched] == b) {
+            return matched + 1;
+        }
+
+        return (pattern[0] == b) ? 1 : 0;
+    }
+}
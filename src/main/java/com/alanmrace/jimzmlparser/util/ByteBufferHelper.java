@@ -0,0 +1,45 @@
+package com.alanmrace.jimzmlparser.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class ByteBufferHelper {
+    
+    private ByteBufferHelper() {
+        // No constructor required for this class.
+    }
+    
+    /**
+     * Get the remaining bytes of the buffer as a byte[], without modifying the 
+     * position of the buffer. If the buffer is backed by an array which contains
+     * exactly the remaining bytes then that array is returned without copying, 
+     * so the returned array must not be modified.
+     * 
+     * @param buffer Buffer to get the bytes from
+     * @return Remaining bytes of the buffer
+     */
+    public static byte[] getRemainingBytes(ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() + buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        
+        return bytes;
+    }
+    
+    /**
+     * Get the index within the backing array of the buffer corresponding to the
+     * position of the buffer. The buffer must have an accessible backing array.
+     * 
+     * @param buffer Buffer backed by an array
+     * @return Index within {@link ByteBuffer#array()} of the current position
+     */
+    public static int getArrayPosition(ByteBuffer buffer) {
+        return buffer.arrayOffset() + buffer.position();
+    }
+}
@@ -1,6 +1,10 @@
 package com.alanmrace.jimzmlparser.writer;
 
+import com.alanmrace.jimzmlparser.data.ByteShuffleDataTransform;
+import com.alanmrace.jimzmlparser.data.DataTransformation;
+import com.alanmrace.jimzmlparser.data.DataTypeTransform;
 import com.alanmrace.jimzmlparser.mzml.BinaryDataArray;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray.CompressionType;
 import com.alanmrace.jimzmlparser.mzml.BooleanCVParam;
 import com.alanmrace.jimzmlparser.mzml.CV;
 import com.alanmrace.jimzmlparser.mzml.CVParam;
@@ -11,20 +15,25 @@ import com.alanmrace.jimzmlparser.mzml.FileContent;
 import com.alanmrace.jimzmlparser.mzml.MzML;
 import com.alanmrace.jimzmlparser.mzml.ReferenceableParamGroup;
 import com.alanmrace.jimzmlparser.mzml.Spectrum;
+import com.alanmrace.jimzmlparser.mzml.SpectrumList;
 import com.alanmrace.jimzmlparser.mzml.StringCVParam;
 import com.alanmrace.jimzmlparser.obo.OBO;
 import com.alanmrace.jimzmlparser.util.HexHelper;
 import com.alanmrace.jimzmlparser.util.UUIDHelper;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
 import java.io.DataOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
 /**
  * Writer for exporting both the metadata into an imzML file and the binary data
  * to an IBD file.
@@ -38,7 +47,10 @@ public class ImzMLWriter extends ImzMLWriterAbstract {
      */
     private static final Logger LOGGER = Logger.getLogger(ImzMLWriter.class.getName());
 
-
+    /**
+     * Default size in bytes of trained ZStandard dictionaries.
+     */
+    public static final int DEFAULT_ZSTD_DICTIONARY_SIZE = 112640;
 
     /**
      * Possible means of outputting data, as defined by the ImzML standard.
@@ -68,6 +80,155 @@ public class ImzMLWriter extends ImzMLWriterAbstract {
         checksum = Checksum.SHA1;
     }
 
+    /**
+     * Number of spectra to sample when training ZStandard dictionaries, or 0 to
+     * not train dictionaries.
+     */
+    private int zstdDictionarySamples;
+
+    /**
+     * Size in bytes of trained ZStandard dictionaries.
+     */
+    private int zstdDictionarySize = DEFAULT_ZSTD_DICTIONARY_SIZE;
+
+    /**
+     * Enable training of ZStandard dictionaries. Before any data is written, the
+     * specified number of spectra are sampled evenly from the spectrum list and
+     * used to train one dictionary for m/z arrays and one for intensity arrays 
+     * compressed with ZStandard. The dictionaries are written to the IBD file 
+     * after the UUID and referenced from each binaryDataArray by the 
+     * {@link BinaryDataArray#ZSTD_DICTIONARY_OFFSET} and {@link BinaryDataArray#ZSTD_DICTIONARY_LENGTH} 
+     * userParams.
+     *
+     * <p>This greatly improves compression of processed data with small spectra.
+     *
+     * @param numberOfSamples Number of spectra to sample, or 0 to disable training
+     * @param dictionarySize Size in bytes of each dictionary
+     */
+    public void setZstdDictionaryTraining(int numberOfSamples, int dictionarySize) {
+        this.zstdDictionarySamples = Math.max(0, numberOfSamples);
+        this.zstdDictionarySize = dictionarySize;
+    }
+
+    /**
+     * Train and write out ZStandard dictionaries for m/z and intensity arrays, 
+     * as set up by {@link #setZstdDictionaryTraining(int, int)}.
+     *
+     * @param spectrumList Spectra to sample
+     * @throws IOException Issue reading the sampled data or writing the dictionaries
+     */
+    protected void trainZstdDictionaries(SpectrumList spectrumList) throws IOException {
+        List<byte[]> mzArraySamples = new ArrayList<byte[]>();
+        List<byte[]> intensityArraySamples = new ArrayList<byte[]>();
+
+        int step = Math.max(1, spectrumList.size() / zstdDictionarySamples);
+
+        for (int i = 0; i < spectrumList.size() && i / step < zstdDictionarySamples; i += step) {
+            for (BinaryDataArray bda : spectrumList.getSpectrum(i).getBinaryDataArrayList()) {
+                if (!DataTransformation.usesZstd(bda.getCompressionType())) {
+                    continue;
+                }
+
+                if (bda.ismzArray()) {
+                    mzArraySamples.add(getZstdInput(bda));
+                } else if (bda.isIntensityArray()) {
+                    intensityArraySamples.add(getZstdInput(bda));
+                }
+            }
+        }
+
+        mzArrayZstdDictionary = trainZstdDictionary(mzArraySamples);
+        intensityArrayZstdDictionary = trainZstdDictionary(intensityArraySamples);
+    }
+
+    /**
+     * Get the data of the BinaryDataArray as it will be passed to ZStandard, 
+     * after data type conversion and any MS-Numpress compression or byte shuffle.
+     *
+     * @param bda BinaryDataArray compressed with ZStandard
+     * @return Data as input to ZStandard
+     * @throws IOException Issue reading the data
+     */
+    private static byte[] getZstdInput(BinaryDataArray bda) throws IOException {
+        CompressionType compressionType;
+
+        switch (bda.getCompressionType()) {
+            case MSNUMPRESS_LINEAR_ZSTD:
+                compressionType = CompressionType.MSNUMPRESS_LINEAR;
+                break;
+            case MSNUMPRESS_POSITIVE_ZSTD:
+                compressionType = CompressionType.MSNUMPRESS_POSITIVE;
+                break;
+            case MSNUMPRESS_SLOF_ZSTD:
+                compressionType = CompressionType.MSNUMPRESS_SLOF;
+                break;
+            default:
+                compressionType = CompressionType.NONE;
+                break;
+        }
+
+        double[] data = bda.getDataAsDouble();
+
+        if (data == null) {
+            return new byte[0];
+        }
+
+        try {
+            byte[] zstdInput = DataTransformation.create(bda.getDataType(), compressionType).performForwardTransform(data);
+
+            if (bda.getCompressionType().isByteShuffled()) {
+                DataTypeTransform.DataType dataType = (bda.getDataType() == null) ? DataTypeTransform.DataType.DOUBLE : bda.getDataType();
+
+                zstdInput = new ByteShuffleDataTransform(DataTypeTransform.getSizeInBytes(dataType)).forwardTransform(zstdInput);
+            }
+
+            return zstdInput;
+        } catch (DataFormatException ex) {
+            throw new IOException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Train a ZStandard dictionary from the samples and write it out to the IBD file.
+     *
+     * @param samples Samples to train the dictionary from
+     * @return Dictionary and its location, or null if there were no samples or training failed
+     * @throws IOException Issue writing the dictionary
+     */
+    private ZstdDictionary trainZstdDictionary(List<byte[]> samples) throws IOException {
+        long totalSize = 0;
+
+        for (byte[] sample : samples) {
+            totalSize += sample.length;
+        }
+
+        if (totalSize == 0) {
+            return null;
+        }
+
+        ZstdDictTrainer trainer = new ZstdDictTrainer((int) Math.min(totalSize, Integer.MAX_VALUE), zstdDictionarySize);
+
+        for (byte[] sample : samples) {
+            trainer.addSample(sample);
+        }
+
+        byte[] dictionary;
+
+        try {
+            dictionary = trainer.trainSamples();
+        } catch (ZstdException ex) {
+            LOGGER.log(Level.WARNING, "Failed to train ZStandard dictionary from {0} samples, compressing without a dictionary: {1}", 
+                    new Object[] {samples.size(), ex.getMessage()});
+
+            return null;
+        }
+
+        long offset = getDataPointer();
+        writeData(dictionary);
+
+        return new ZstdDictionary(dictionary, offset);
+    }
+
 
 
     protected void updateOBOList(MzML mzML) {
@@ -145,6 +306,13 @@ public class ImzMLWriter extends ImzMLWriterAbstract {
             UUID uuid = UUID.randomUUID();
             writeData(UUIDHelper.uuidToByteArray(uuid));
 
+            mzArrayZstdDictionary = null;
+            intensityArrayZstdDictionary = null;
+
+            if (zstdDictionarySamples > 0 && mzML.getRun().getSpectrumList() != null) {
+                trainZstdDictionaries(mzML.getRun().getSpectrumList());
+            }
+
             if (mzML.getRun().getSpectrumList() != null) {
                 // TODO: For continuous data only write the m/z list once
                 for (Spectrum spectrum : mzML.getRun().getSpectrumList()) {
@@ -59,6 +59,38 @@ public abstract class ImzMLWriterAbstract extends ImzMLHeaderWriter {
      * Current message digest for the checksum.
      */
     protected MessageDigest messageDigest;
+    
+    /**
+     * ZStandard dictionary written to the binary data file for m/z arrays, or null if none.
+     */
+    protected ZstdDictionary mzArrayZstdDictionary;
+    
+    /**
+     * ZStandard dictionary written to the binary data file for intensity arrays, or null if none.
+     */
+    protected ZstdDictionary intensityArrayZstdDictionary;
+    
+    /**
+     * Dictionary used for ZStandard compression, and its location within the
+     * binary data file.
+     */
+    protected static class ZstdDictionary {
+        
+        /**
+         * Dictionary data.
+         */
+        protected final byte[] data;
+        
+        /**
+         * Offset in bytes of the dictionary within the binary data file.
+         */
+        protected final long offset;
+        
+        public ZstdDictionary(byte[] data, long offset) {
+            this.data = data;
+            this.offset = offset;
+        }
+    }
 
     protected String getIBDLocationFromOutput(String outputLocation) {
         String ibdLocation = outputLocation;
@@ -116,7 +148,18 @@ public abstract class ImzMLWriterAbstract extends ImzMLHeaderWriter {
         byte[] byteData = null;
 
         try {
-            DataTransformation transformation = binaryDataArray.generateDataTransformation();
+            // Any existing dictionary refers to the file the data was read from
+            removeUserParam(binaryDataArray, BinaryDataArray.ZSTD_DICTIONARY_OFFSET);
+            removeUserParam(binaryDataArray, BinaryDataArray.ZSTD_DICTIONARY_LENGTH);
+            
+            ZstdDictionary dictionary = getZstdDictionary(binaryDataArray);
+            
+            if (dictionary != null) {
+                binaryDataArray.addUserParam(new UserParam(BinaryDataArray.ZSTD_DICTIONARY_OFFSET, "" + dictionary.offset));
+                binaryDataArray.addUserParam(new UserParam(BinaryDataArray.ZSTD_DICTIONARY_LENGTH, "" + dictionary.data.length));
+            }
+            
+            DataTransformation transformation = binaryDataArray.generateDataTransformation((dictionary == null) ? null : dictionary.data);
             byte[] transformedData = transformation.performForwardTransform(data);
 
             // If using LZ4, the size of the decompressed data is required before decompression, so add this in as a UserParam that can be used later
@@ -149,6 +192,42 @@ public abstract class ImzMLWriterAbstract extends ImzMLHeaderWriter {
         return byteData;
     }
 
+    /**
+     * Get the ZStandard dictionary to use when compressing the specified 
+     * BinaryDataArray.
+     * 
+     * @param binaryDataArray BinaryDataArray to compress
+     * @return Dictionary to use, or null if the data is not compressed using a dictionary
+     */
+    protected ZstdDictionary getZstdDictionary(BinaryDataArray binaryDataArray) {
+        if (!DataTransformation.usesZstd(binaryDataArray.getCompressionType())) {
+            return null;
+        }
+        
+        if (binaryDataArray.ismzArray()) {
+            return mzArrayZstdDictionary;
+        } else if (binaryDataArray.isIntensityArray()) {
+            return intensityArrayZstdDictionary;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Remove the userParam with the specified name, if present, from the 
+     * BinaryDataArray itself (rather than from a referenceableParamGroup).
+     * 
+     * @param binaryDataArray BinaryDataArray to remove the userParam from
+     * @param name Name of the userParam
+     */
+    private static void removeUserParam(BinaryDataArray binaryDataArray, String name) {
+        for (int i = binaryDataArray.getUserParamList().size() - 1; i >= 0; i--) {
+            if (name.equals(binaryDataArray.getUserParam(i).getName())) {
+                binaryDataArray.removeUserParam(i);
+            }
+        }
+    }
+
     @Override
     public void writeData(byte[] data) throws IOException {
         if (data.length > 0) {
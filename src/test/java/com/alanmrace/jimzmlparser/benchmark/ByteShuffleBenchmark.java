@@ -0,0 +1,69 @@
+package com.alanmrace.jimzmlparser.benchmark;
+
+import com.alanmrace.jimzmlparser.data.DataTransformation;
+import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray.CompressionType;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+/**
+ * Benchmark comparing compression ratio and decompression speed of LZ4 and 
+ * ZStandard with and without a byte shuffle, for profile m/z and intensity arrays.
+ * 
+ * <p>Usage: ByteShuffleBenchmark [iterations]
+ * 
+ * @author Alan Race
+ */
+public class ByteShuffleBenchmark {
+    
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int arrayLength = 50000;
+        
+        Random random = new Random(1);
+        double[] mzs = new double[arrayLength];
+        double[] intensities = new double[arrayLength];
+        
+        for(int i = 0; i < arrayLength; i++) {
+            double mz = 100 + i * 0.02;
+            
+            // Spacing of profile data increases with m/z
+            mzs[i] = mz + mz * mz * 1e-7;
+            intensities[i] = Math.abs(random.nextGaussian() * 100) * (random.nextInt(20) == 0 ? 50 : 1);
+        }
+        
+        System.out.println("array\tcompression\tratio\tdecompressMBps");
+        
+        for(CompressionType compressionType : new CompressionType[] {CompressionType.LZ4, CompressionType.SHUFFLE_LZ4, 
+                CompressionType.ZSTD, CompressionType.SHUFFLE_ZSTD}) {
+            run("m/z (double)", DataType.DOUBLE, compressionType, mzs, iterations);
+            run("intensity (float)", DataType.FLOAT, compressionType, intensities, iterations);
+        }
+    }
+    
+    private static void run(String name, DataType dataType, CompressionType compressionType, double[] data, int iterations) throws DataFormatException {
+        int decompressedSize = data.length * (dataType == DataType.DOUBLE ? 8 : 4);
+        DataTransformation transformation = DataTransformation.create(dataType, compressionType);
+        
+        byte[] compressed = transformation.performForwardTransform(data);
+        long checksum = 0;
+        
+        for(int i = 0; i < iterations; i++)
+            checksum += transformation.performReverseTransform(compressed, decompressedSize).length;
+        
+        long start = System.nanoTime();
+        
+        for(int i = 0; i < iterations; i++)
+            checksum += transformation.performReverseTransform(compressed, decompressedSize).length;
+        
+        long time = System.nanoTime() - start;
+        double megabytes = (double) decompressedSize * iterations / (1024 * 1024);
+        
+        System.out.printf("%s\t%s\t%.2f\t%.1f%n", name, compressionType, 
+                (double) decompressedSize / compressed.length, megabytes / (time / 1e9));
+        
+        // Use the checksum so that the work cannot be optimised away
+        if(checksum == 0)
+            System.out.println(checksum);
+    }
+}
@@ -0,0 +1,70 @@
+package com.alanmrace.jimzmlparser.benchmark;
+
+import com.alanmrace.jimzmlparser.data.ChunkedDataTransform;
+import com.alanmrace.jimzmlparser.data.DataTransform;
+import com.alanmrace.jimzmlparser.data.DataTypeTransform;
+import com.alanmrace.jimzmlparser.data.ZlibDataTransform;
+import com.alanmrace.jimzmlparser.data.ZstdDataTransform;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+/**
+ * Benchmark comparing single-threaded ZLib and ZStandard against 
+ * {@link ChunkedDataTransform} for a large intensity array, as produced by 
+ * continuous-mode high-resolution data.
+ * 
+ * <p>Usage: ChunkedBenchmark [iterations] [arrayLength]
+ * 
+ * @author Alan Race
+ */
+public class ChunkedBenchmark {
+    
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int arrayLength = args.length > 1 ? Integer.parseInt(args[1]) : 8000000;
+        
+        Random random = new Random(1);
+        double[] intensities = new double[arrayLength];
+        
+        for(int i = 0; i < arrayLength; i++)
+            intensities[i] = Math.abs(random.nextGaussian() * 100) * (random.nextInt(20) == 0 ? 50 : 1);
+        
+        byte[] data = DataTypeTransform.convertData(DataTypeTransform.convertDoublesToBytes(intensities), 
+                DataTypeTransform.DataType.DOUBLE, DataTypeTransform.DataType.FLOAT);
+        
+        System.out.println("threads\t" + Runtime.getRuntime().availableProcessors());
+        System.out.println("implementation\tratio\tcompressMBps\tdecompressMBps");
+        
+        run("zlib", new ZlibDataTransform(data.length), data, iterations);
+        run("chunked zlib", new ChunkedDataTransform(ChunkedDataTransform.Codec.ZLIB), data, iterations);
+        run("zstd", new ZstdDataTransform(data.length), data, iterations);
+        run("chunked zstd", new ChunkedDataTransform(ChunkedDataTransform.Codec.ZSTD), data, iterations);
+    }
+    
+    private static void run(String name, DataTransform transform, byte[] data, int iterations) throws DataFormatException {
+        byte[] compressed = transform.forwardTransform(data);
+        long checksum = transform.reverseTransform(compressed).length;
+        
+        long start = System.nanoTime();
+        
+        for(int i = 0; i < iterations; i++)
+            checksum += transform.forwardTransform(data).length;
+        
+        long compressTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        
+        for(int i = 0; i < iterations; i++)
+            checksum += transform.reverseTransform(compressed).length;
+        
+        long decompressTime = System.nanoTime() - start;
+        
+        double megabytes = (double) data.length * iterations / (1024 * 1024);
+        
+        System.out.printf("%s\t%.2f\t%.1f\t%.1f%n", name, (double) data.length / compressed.length,
+                megabytes / (compressTime / 1e9), megabytes / (decompressTime / 1e9));
+        
+        // Use the checksum so that the work cannot be optimised away
+        if(checksum == 0)
+            System.out.println(checksum);
+    }
+}
@@ -0,0 +1,123 @@
+package com.alanmrace.jimzmlparser.benchmark;
+
+import com.alanmrace.jimzmlparser.data.BinaryDataStorage.AccessMethod;
+import com.alanmrace.jimzmlparser.imzml.ImzML;
+import com.alanmrace.jimzmlparser.mzml.SpectrumList;
+import com.alanmrace.jimzmlparser.parser.ImzMLHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Benchmark of {@link com.alanmrace.jimzmlparser.mzml.Spectrum#getIntensityArray()} 
+ * throughput when a single ImzML is shared between an increasing number of 
+ * threads, for each {@link AccessMethod}. Each thread reads an interleaved 
+ * subset of the spectra, so all threads contend for the same data storage.
+ * 
+ * <p>Usage: ConcurrentReadBenchmark file.imzML [maxThreads] [passes]
+ * 
+ * <p>To measure the storage rather than the disk, run on a file which fits in 
+ * the page cache; the first pass for each access method is treated as a warm up.
+ * 
+ * @author Alan Race
+ */
+public class ConcurrentReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1) {
+            System.err.println("Usage: ConcurrentReadBenchmark file.imzML [maxThreads] [passes]");
+            
+            return;
+        }
+        
+        String filename = args[0];
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int passes = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        
+        System.out.println("accessMethod\tthreads\tspectraPerSecond\tspeedUp");
+        
+        for(AccessMethod accessMethod : AccessMethod.values()) {
+            ImzML imzML = ImzMLHandler.parseimzML(filename, true, null, accessMethod);
+            
+            try {
+                // Warm up
+                readAll(imzML.getRun().getSpectrumList(), 1);
+                
+                double singleThreaded = 0;
+                
+                for(int threads = 1; threads <= maxThreads; threads *= 2) {
+                    double best = 0;
+                    
+                    for(int pass = 0; pass < passes; pass++) {
+                        best = Math.max(best, readAll(imzML.getRun().getSpectrumList(), threads));
+                    }
+                    
+                    if(threads == 1)
+                        singleThreaded = best;
+                    
+                    System.out.printf("%s\t%d\t%.1f\t%.2f%n", accessMethod, threads, best, best / singleThreaded);
+                }
+            } finally {
+                imzML.close();
+            }
+        }
+    }
+    
+    /**
+     * Read the intensity array of every spectrum, divided between the specified 
+     * number of threads.
+     * 
+     * @param spectrumList Spectra to read
+     * @param numThreads Number of threads
+     * @return Number of spectra read per second
+     * @throws Exception Issue reading the data
+     */
+    private static double readAll(final SpectrumList spectrumList, final int numThreads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        
+        try {
+            List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+            
+            for(int thread = 0; thread < numThreads; thread++) {
+                final int firstSpectrum = thread;
+                
+                tasks.add(new Callable<Double>() {
+                    @Override
+                    public Double call() throws IOException {
+                        double checksum = 0;
+                        
+                        for(int i = firstSpectrum; i < spectrumList.size(); i += numThreads) {
+                            double[] intensities = spectrumList.getSpectrum(i).getIntensityArray();
+                            
+                            if(intensities.length > 0)
+                                checksum += intensities[0];
+                        }
+                        
+                        return checksum;
+                    }
+                });
+            }
+            
+            long start = System.nanoTime();
+            double checksum = 0;
+            
+            for(Future<Double> result : executor.invokeAll(tasks)) {
+                checksum += result.get();
+            }
+            
+            long end = System.nanoTime();
+            
+            // Use the checksum so that the reads cannot be optimised away
+            if(checksum == Double.MIN_VALUE)
+                System.out.println(checksum);
+            
+            return spectrumList.size() / ((end - start) / 1e9);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.alanmrace.jimzmlparser.benchmark;
+
+import com.alanmrace.jimzmlparser.data.DataTypeTransform;
+import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
+import java.util.Random;
+
+/**
+ * Benchmark comparing {@link DataTypeTransform#convertData(byte[], DataType, DataType)}
+ * against the reference implementation {@link DataTypeTransform#convertDataReference(byte[], DataType, DataType)}
+ * when converting double data to each of the other data types and back again.
+ * 
+ * <p>Usage: DataTypeBenchmark [iterations]
+ * 
+ * @author Alan Race
+ */
+public class DataTypeBenchmark {
+    
+    private static final int NUMBER_OF_VALUES = 100000;
+    
+    public static void main(String[] args) {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        
+        Random random = new Random(0);
+        double[] values = new double[NUMBER_OF_VALUES];
+        
+        for(int i = 0; i < values.length; i++)
+            values[i] = random.nextInt(20000);
+        
+        byte[] data = DataTypeTransform.convertDoublesToBytes(values);
+        
+        System.out.println("Conversion\tReference (MB/s)\tDirect (MB/s)");
+        
+        for(DataType to : DataType.values()) {
+            if(to == DataType.DOUBLE)
+                continue;
+            
+            byte[] converted = DataTypeTransform.convertData(data, DataType.DOUBLE, to);
+            
+            double referenceForward = time(data, DataType.DOUBLE, to, iterations, true);
+            double directForward = time(data, DataType.DOUBLE, to, iterations, false);
+            double referenceReverse = time(converted, to, DataType.DOUBLE, iterations, true);
+            double directReverse = time(converted, to, DataType.DOUBLE, iterations, false);
+            
+            System.out.printf("DOUBLE -> %s\t%.1f\t%.1f%n", to, referenceForward, directForward);
+            System.out.printf("%s -> DOUBLE\t%.1f\t%.1f%n", to, referenceReverse, directReverse);
+        }
+    }
+    
+    /**
+     * Time the conversion, returning the throughput in MB/s of source data.
+     */
+    private static double time(byte[] data, DataType from, DataType to, int iterations, boolean reference) {
+        long checksum = 0;
+        
+        // Warm up
+        for(int i = 0; i < iterations / 4 + 1; i++)
+            checksum += convert(data, from, to, reference).length;
+        
+        long start = System.nanoTime();
+        
+        for(int i = 0; i < iterations; i++)
+            checksum += convert(data, from, to, reference).length;
+        
+        long elapsed = System.nanoTime() - start;
+        
+        if(checksum == 0)
+            System.out.println("No data converted");
+        
+        return (data.length * (double) iterations / (1024 * 1024)) / (elapsed / 1e9);
+    }
+    
+    private static byte[] convert(byte[] data, DataType from, DataType to, boolean reference) {
+        if(reference)
+            return DataTypeTransform.convertDataReference(data, from, to);
+        
+        return DataTypeTransform.convertData(data, from, to);
+    }
+}
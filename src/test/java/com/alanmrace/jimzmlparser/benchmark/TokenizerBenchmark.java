@@ -0,0 +1,138 @@
+package com.alanmrace.jimzmlparser.benchmark;
+
+import com.alanmrace.jimzmlparser.parser.MzMLTokenizer;
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Benchmark comparing the JAXP SAX parser against {@link MzMLTokenizer} for a
+ * generated mzML document, with a handler which looks up attributes in the same
+ * way as the mzML handlers.
+ * 
+ * <p>Usage: TokenizerBenchmark [iterations] [numberOfSpectra] [arrayLength]
+ * 
+ * @author Alan Race
+ */
+public class TokenizerBenchmark {
+    
+    private static final String[] ACCESSIONS = {"MS:1000579", "MS:1000511", "MS:1000130", "MS:1000127", 
+        "MS:1000504", "MS:1000505", "MS:1000285", "MS:1000528", "MS:1000527"};
+    
+    /**
+     * Handler doing a similar amount of work per event as the mzML handlers.
+     */
+    private static class CountingHandler extends DefaultHandler {
+        long checksum;
+        
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if("cvParam".equals(qName)) {
+                checksum += attributes.getValue("accession").length();
+                checksum += attributes.getValue("value").length();
+            } else if("spectrum".equals(qName)) {
+                checksum += attributes.getValue("id").length();
+                checksum += Integer.parseInt(attributes.getValue("defaultArrayLength"));
+            } else if("binaryDataArray".equals(qName)) {
+                checksum += Integer.parseInt(attributes.getValue("encodedLength"));
+            }
+        }
+        
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            checksum += length;
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int numberOfSpectra = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int arrayLength = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        
+        byte[] document = generateDocument(numberOfSpectra, arrayLength);
+        
+        System.out.println("documentMB\t" + String.format("%.1f", document.length / (1024.0 * 1024.0)));
+        System.out.println("implementation\tMBps");
+        
+        SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+        MzMLTokenizer tokenizer = new MzMLTokenizer();
+        MzMLTokenizer skippingTokenizer = new MzMLTokenizer();
+        skippingTokenizer.setSkipBinaryContent(true);
+        
+        // Warm up
+        for(int i = 0; i < 3; i++) {
+            saxParser.parse(new ByteArrayInputStream(document), new CountingHandler());
+            tokenizer.parse(new ByteArrayInputStream(document), new CountingHandler());
+            skippingTokenizer.parse(new ByteArrayInputStream(document), new CountingHandler());
+        }
+        
+        long checksum = 0;
+        double megabytes = (double) document.length * iterations / (1024 * 1024);
+        
+        for(int implementation = 0; implementation < 3; implementation++) {
+            long start = System.nanoTime();
+            
+            for(int i = 0; i < iterations; i++) {
+                CountingHandler handler = new CountingHandler();
+                
+                if(implementation == 0)
+                    saxParser.parse(new ByteArrayInputStream(document), handler);
+                else if(implementation == 1)
+                    tokenizer.parse(new ByteArrayInputStream(document), handler);
+                else
+                    skippingTokenizer.parse(new ByteArrayInputStream(document), handler);
+                
+                checksum += handler.checksum;
+            }
+            
+            long time = System.nanoTime() - start;
+            String name = implementation == 0 ? "sax" : (implementation == 1 ? "tokenizer" : "tokenizer skipping binary");
+            
+            System.out.printf("%s\t%.1f%n", name, megabytes / (time / 1e9));
+        }
+        
+        // Use the checksum so that the work cannot be optimised away
+        if(checksum == 0)
+            System.out.println(checksum);
+    }
+    
+    private static byte[] generateDocument(int numberOfSpectra, int arrayLength) throws Exception {
+        Random random = new Random(1);
+        StringBuilder builder = new StringBuilder();
+        int encodedLength = ((arrayLength * 8 + 2) / 3) * 4;
+        
+        builder.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<mzML version=\"1.1.0\">\n <run id=\"run\">\n");
+        builder.append("  <spectrumList count=\"").append(numberOfSpectra).append("\" defaultDataProcessingRef=\"dp\">\n");
+        
+        for(int s = 0; s < numberOfSpectra; s++) {
+            builder.append("   <spectrum index=\"").append(s).append("\" id=\"scan=").append(s + 1)
+                    .append("\" defaultArrayLength=\"").append(arrayLength).append("\">\n");
+            
+            for(String accession : ACCESSIONS)
+                builder.append("    <cvParam cvRef=\"MS\" accession=\"").append(accession).append("\" name=\"param\" value=\"")
+                        .append(random.nextInt(1000)).append("\"/>\n");
+            
+            builder.append("    <binaryDataArrayList count=\"2\">\n");
+            
+            for(int a = 0; a < 2; a++) {
+                builder.append("     <binaryDataArray encodedLength=\"").append(encodedLength).append("\">\n");
+                builder.append("      <cvParam cvRef=\"MS\" accession=\"MS:1000523\" name=\"64-bit float\" value=\"\"/>\n");
+                builder.append("      <binary>");
+                
+                for(int i = 0; i < encodedLength; i++)
+                    builder.append((char) ('A' + random.nextInt(26)));
+                
+                builder.append("</binary>\n     </binaryDataArray>\n");
+            }
+            
+            builder.append("    </binaryDataArrayList>\n   </spectrum>\n");
+        }
+        
+        builder.append("  </spectrumList>\n </run>\n</mzML>\n");
+        
+        return builder.toString().getBytes("UTF-8");
+    }
+}
@@ -0,0 +1,149 @@
+package com.alanmrace.jimzmlparser.benchmark;
+
+import com.alanmrace.jimzmlparser.data.DataTransform;
+import com.alanmrace.jimzmlparser.data.DataTypeTransform;
+import com.alanmrace.jimzmlparser.data.ZlibDataTransform;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Benchmark comparing {@link ZlibDataTransform} against the previous implementation,
+ * which collected output into a List of boxed bytes, for spectra of various sizes.
+ * 
+ * <p>Usage: ZlibBenchmark [iterations]
+ * 
+ * @author Alan Race
+ */
+public class ZlibBenchmark {
+    
+    /**
+     * Previous implementation of ZlibDataTransform, kept for comparison.
+     */
+    static class LegacyZlibDataTransform implements DataTransform {
+        
+        private static final int BYTE_BUFFER_SIZE = 2 ^ 20;
+
+        @Override
+        public byte[] forwardTransform(byte[] data) throws DataFormatException {
+            Deflater compressor = new Deflater();
+            compressor.setInput(data);
+            compressor.finish();
+
+            ArrayList<Byte> compressedData = new ArrayList<Byte>();
+            int compressed;
+
+            do {
+                byte[] temp = new byte[BYTE_BUFFER_SIZE];
+
+                compressed = compressor.deflate(temp);
+
+                for (int i = 0; i < compressed; i++) {
+                    compressedData.add(temp[i]);
+                }
+            } while (compressed != 0);
+
+            byte[] compressedBytes = new byte[compressedData.size()];
+
+            for (int i = 0; i < compressedData.size(); i++) {
+                compressedBytes[i] = compressedData.get(i);
+            }
+
+            return compressedBytes;
+        }
+
+        @Override
+        public byte[] reverseTransform(byte[] data) throws DataFormatException {
+            Inflater decompressor = new Inflater();
+            decompressor.setInput(data);
+
+            List<Byte> uncompressedData = new ArrayList<Byte>(data.length);
+            int uncompressed;
+
+            do {
+                byte[] temp = new byte[BYTE_BUFFER_SIZE];
+
+                uncompressed = decompressor.inflate(temp);
+
+                for (int i = 0; i < uncompressed; i++) {
+                    uncompressedData.add(temp[i]);
+                }
+
+            } while (uncompressed != 0);
+
+            byte[] uncompressedBytes = new byte[uncompressedData.size()];
+
+            for (int i = 0; i < uncompressedData.size(); i++) {
+                uncompressedBytes[i] = uncompressedData.get(i);
+            }
+
+            decompressor.end();
+
+            return uncompressedBytes;
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        
+        System.out.println("arrayLength\timplementation\tcompressMBps\tdecompressMBps");
+        
+        for(int arrayLength : new int[] {1000, 10000, 100000}) {
+            byte[] data = generateSpectrum(arrayLength);
+            
+            run("legacy", new LegacyZlibDataTransform(), data, iterations);
+            run("pooled", new ZlibDataTransform(), data, iterations);
+            run("pooled+length", new ZlibDataTransform(data.length), data, iterations);
+        }
+    }
+    
+    /**
+     * Generate a float intensity array resembling a profile spectrum.
+     */
+    private static byte[] generateSpectrum(int arrayLength) {
+        Random random = new Random(arrayLength);
+        double[] intensities = new double[arrayLength];
+        
+        for(int i = 0; i < arrayLength; i++)
+            intensities[i] = Math.abs(random.nextGaussian() * 100) * (random.nextInt(20) == 0 ? 50 : 1);
+        
+        return DataTypeTransform.convertData(DataTypeTransform.convertDoublesToBytes(intensities), 
+                DataTypeTransform.DataType.DOUBLE, DataTypeTransform.DataType.FLOAT);
+    }
+    
+    private static void run(String name, DataTransform transform, byte[] data, int iterations) throws DataFormatException {
+        byte[] compressed = transform.forwardTransform(data);
+        long checksum = 0;
+        
+        // Warm up both directions
+        for(int i = 0; i < iterations; i++) {
+            checksum += transform.forwardTransform(data).length;
+            checksum += transform.reverseTransform(compressed).length;
+        }
+        
+        long start = System.nanoTime();
+        
+        for(int i = 0; i < iterations; i++)
+            checksum += transform.forwardTransform(data).length;
+        
+        long compressTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        
+        for(int i = 0; i < iterations; i++)
+            checksum += transform.reverseTransform(compressed).length;
+        
+        long decompressTime = System.nanoTime() - start;
+        
+        double megabytes = (double) data.length * iterations / (1024 * 1024);
+        
+        System.out.printf("%d\t%s\t%.1f\t%.1f%n", data.length / 4, name, 
+                megabytes / (compressTime / 1e9), megabytes / (decompressTime / 1e9));
+        
+        // Use the checksum so that the work cannot be optimised away
+        if(checksum == 0)
+            System.out.println(checksum);
+    }
+}
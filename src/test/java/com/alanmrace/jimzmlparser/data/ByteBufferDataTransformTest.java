@@ -0,0 +1,135 @@
+package com.alanmrace.jimzmlparser.data;
+
+import com.alanmrace.jimzmlparser.data.MSNumpressDataTransform.NumpressAlgorithm;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class ByteBufferDataTransformTest {
+    
+    private static final int NUMBER_OF_VALUES = 5000;
+    
+    public ByteBufferDataTransformTest() {
+    }
+    
+    private static byte[] generateData() {
+        Random random = new Random(NUMBER_OF_VALUES);
+        double[] data = new double[NUMBER_OF_VALUES];
+        
+        for(int i = 0; i < data.length; i++)
+            data[i] = (random.nextInt(5) == 0) ? random.nextInt(1000) : 0;
+        
+        return DataTypeTransform.convertDoublesToBytes(data);
+    }
+    
+    private static ByteBufferDataTransform[] getTransforms(int length) {
+        return new ByteBufferDataTransform[] {
+            new ZlibDataTransform(), new ZlibDataTransform(length), new LZ4DataTransform(length), new ZstdDataTransform(length), 
+            new XZDataTransform(), new XZDataTransform(length / 3), new MSNumpressDataTransform(NumpressAlgorithm.PIC)
+        };
+    }
+    
+    /**
+     * Create a buffer containing the data, starting at position 3 (and 
+     * arrayOffset 2 for heap buffers) and followed by an unused byte.
+     */
+    private static ByteBuffer createBuffer(byte[] data, int capacity, boolean direct) {
+        ByteBuffer buffer;
+        
+        if(direct) {
+            buffer = ByteBuffer.allocateDirect(capacity + 4);
+        } else {
+            ByteBuffer parent = ByteBuffer.allocate(capacity + 6);
+            parent.position(2);
+            buffer = parent.slice();
+        }
+        
+        buffer.position(3);
+        
+        if(data != null) {
+            buffer.put(data);
+            buffer.position(3);
+            buffer.limit(3 + data.length);
+        }
+        
+        return buffer;
+    }
+    
+    private static byte[] getWritten(ByteBuffer buffer, int length) {
+        byte[] written = new byte[length];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(buffer.position() - length);
+        duplicate.get(written);
+        
+        return written;
+    }
+
+    /**
+     * Test that the ByteBuffer methods of each ByteBufferDataTransform give the 
+     * same result as the byte[] methods, for heap and direct buffers.
+     */
+    @Test
+    public void testTransformMatchesByteArray() throws Exception {
+        byte[] data = generateData();
+        
+        for(ByteBufferDataTransform transform : getTransforms(data.length)) {
+            byte[] expectedEncoded = transform.forwardTransform(data);
+            byte[] expectedDecoded = transform.reverseTransform(expectedEncoded);
+            
+            for(boolean direct : new boolean[] {false, true}) {
+                String message = transform.getClass().getSimpleName() + (direct ? " (direct)" : " (heap)");
+                
+                ByteBuffer src = createBuffer(data, data.length, direct);
+                ByteBuffer encodedBuffer = createBuffer(null, transform.getMaxForwardLength(data.length), direct);
+                
+                int encodedLength = transform.forwardTransform(src, encodedBuffer);
+                
+                assertEquals(message, src.limit(), src.position());
+                assertEquals(message, 3 + encodedLength, encodedBuffer.position());
+                assertArrayEquals(message, expectedEncoded, getWritten(encodedBuffer, encodedLength));
+                
+                ByteBuffer encoded = createBuffer(expectedEncoded, expectedEncoded.length, direct);
+                int reverseLength = transform.getReverseLength(encoded);
+                
+                assertTrue(message, reverseLength == -1 || reverseLength == expectedDecoded.length);
+                
+                ByteBuffer decodedBuffer = createBuffer(null, data.length, direct);
+                int decodedLength = transform.reverseTransform(encoded, decodedBuffer);
+                
+                assertEquals(message, encoded.limit(), encoded.position());
+                assertArrayEquals(message, expectedDecoded, getWritten(decodedBuffer, decodedLength));
+                assertArrayEquals(message, data, expectedDecoded);
+            }
+        }
+    }
+    
+    /**
+     * Test that each ByteBufferDataTransform throws BufferOverflowException, 
+     * without modifying the positions of the buffers, when the destination is 
+     * too small.
+     */
+    @Test
+    public void testReverseTransformOverflow() throws Exception {
+        byte[] data = generateData();
+        
+        for(ByteBufferDataTransform transform : getTransforms(data.length)) {
+            ByteBuffer src = ByteBuffer.wrap(transform.forwardTransform(data));
+            ByteBuffer dest = ByteBuffer.allocate(data.length - 1);
+            
+            try {
+                transform.reverseTransform(src, dest);
+                
+                fail(transform.getClass().getSimpleName() + " did not throw BufferOverflowException");
+            } catch (BufferOverflowException ex) {
+                assertEquals(0, src.position());
+                assertEquals(0, dest.position());
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.alanmrace.jimzmlparser.data;
+
+import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray.CompressionType;
+import com.alanmrace.jimzmlparser.mzml.EmptyCVParam;
+import com.alanmrace.jimzmlparser.mzml.UserParam;
+import com.alanmrace.jimzmlparser.obo.OBOTerm;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class ByteShuffleDataTransformTest {
+
+    /**
+     * Test of forwardTransform method, of class ByteShuffleDataTransform.
+     */
+    @Test
+    public void testForwardTransform() throws Exception {
+        byte[] data = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+        
+        assertArrayEquals(new byte[] {1, 5, 9, 2, 6, 10, 3, 7, 11, 4, 8, 12}, 
+                new ByteShuffleDataTransform(4).forwardTransform(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12}));
+        
+        // Bytes after the last whole element are left in place
+        assertArrayEquals(new byte[] {1, 5, 2, 6, 3, 7, 4, 8, 9, 10, 11}, new ByteShuffleDataTransform(4).forwardTransform(data));
+    }
+
+    /**
+     * Test of reverseTransform method, of class ByteShuffleDataTransform.
+     */
+    @Test
+    public void testReverseTransform() throws Exception {
+        Random random = new Random(1);
+        
+        for(int elementSize : new int[] {1, 2, 4, 8}) {
+            for(int length : new int[] {0, 3, 64, 1001}) {
+                byte[] data = new byte[length];
+                random.nextBytes(data);
+                
+                ByteShuffleDataTransform transform = new ByteShuffleDataTransform(elementSize);
+                
+                assertArrayEquals(data, transform.reverseTransform(transform.forwardTransform(data)));
+            }
+        }
+    }
+    
+    /**
+     * Test that byte shuffled compression types create a DataTransformation
+     * which round trips the data and improves compression of smooth data.
+     */
+    @Test
+    public void testShuffledCompression() throws Exception {
+        double[] data = new double[5000];
+        
+        for(int i = 0; i < data.length; i++)
+            data[i] = 100 + i * 0.01 + Math.sin(i * 0.1);
+        
+        int decompressedSize = data.length * 8;
+        
+        DataTransformation shuffled = DataTransformation.create(DataType.DOUBLE, CompressionType.SHUFFLE_ZSTD);
+        DataTransformation unshuffled = DataTransformation.create(DataType.DOUBLE, CompressionType.ZSTD);
+        
+        byte[] compressed = shuffled.performForwardTransform(data);
+        
+        assertTrue(compressed.length < unshuffled.performForwardTransform(data).length);
+        assertArrayEquals(data, shuffled.performReverseTransform(compressed, decompressedSize), 0);
+    }
+    
+    /**
+     * Test of withByteShuffle method, of enum CompressionType.
+     */
+    @Test
+    public void testWithByteShuffle() {
+        assertEquals(CompressionType.SHUFFLE_LZ4, CompressionType.LZ4.withByteShuffle(true));
+        assertEquals(CompressionType.LZ4, CompressionType.SHUFFLE_LZ4.withByteShuffle(false));
+        assertEquals(CompressionType.ZSTD, CompressionType.ZSTD.withByteShuffle(false));
+        assertNull(CompressionType.MSNUMPRESS_LINEAR.withByteShuffle(true));
+        assertEquals(CompressionType.ZSTD, CompressionType.fromAccession(CompressionType.SHUFFLE_ZSTD.getAccession()));
+    }
+    
+    /**
+     * Test that byte shuffled compression is only read from the generic compression
+     * term, so that the term of the compression alone always describes unshuffled
+     * data, of method getCompressionType, of class BinaryDataArray.
+     */
+    @Test
+    public void testCompressionTypeSignalling() {
+        OBOTerm compressionTerm = new OBOTerm(null, BinaryDataArray.COMPRESSION_TYPE_ID);
+        OBOTerm zstdTerm = new OBOTerm(null, BinaryDataArray.ZSTD_COMPRESSION_ID);
+        zstdTerm.addParent(compressionTerm);
+        
+        BinaryDataArray shuffled = new BinaryDataArray(0);
+        shuffled.addCVParam(new EmptyCVParam(compressionTerm));
+        shuffled.addUserParam(new UserParam(BinaryDataArray.BYTE_SHUFFLE, BinaryDataArray.ZSTD_COMPRESSION_ID));
+        
+        assertEquals(CompressionType.SHUFFLE_ZSTD, shuffled.getCompressionType());
+        
+        BinaryDataArray unshuffled = new BinaryDataArray(0);
+        unshuffled.addCVParam(new EmptyCVParam(zstdTerm));
+        unshuffled.addUserParam(new UserParam(BinaryDataArray.BYTE_SHUFFLE, BinaryDataArray.ZSTD_COMPRESSION_ID));
+        
+        assertEquals(CompressionType.ZSTD, unshuffled.getCompressionType());
+    }
+}
@@ -0,0 +1,164 @@
+package com.alanmrace.jimzmlparser.data;
+
+import com.alanmrace.jimzmlparser.data.ChunkedDataTransform.BlockTable;
+import com.alanmrace.jimzmlparser.data.ChunkedDataTransform.Codec;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray.CompressionType;
+import com.alanmrace.jimzmlparser.mzml.EmptyCVParam;
+import com.alanmrace.jimzmlparser.mzml.UserParam;
+import com.alanmrace.jimzmlparser.obo.OBOTerm;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class ChunkedDataTransformTest {
+    
+    private static byte[] generateData(int numValues) {
+        double[] data = new double[numValues];
+        
+        for(int i = 0; i < data.length; i++)
+            data[i] = 100 + i * 0.01 + Math.sin(i * 0.1);
+        
+        return DataTypeTransform.convertDoublesToBytes(data);
+    }
+
+    /**
+     * Test of forwardTransform and reverseTransform methods, of class ChunkedDataTransform.
+     */
+    @Test
+    public void testTransform() throws Exception {
+        byte[] data = generateData(10000);
+        
+        for(Codec codec : Codec.values()) {
+            ChunkedDataTransform transform = new ChunkedDataTransform(codec, 7000);
+            byte[] compressed = transform.forwardTransform(data);
+            
+            BlockTable blockTable = BlockTable.read(compressed);
+            
+            assertEquals(12, blockTable.getNumberOfBlocks());
+            assertEquals(data.length, blockTable.getUncompressedLength());
+            assertEquals(data.length - 11 * 7000, blockTable.getUncompressedLength(11));
+            
+            assertArrayEquals(data, transform.reverseTransform(compressed));
+            
+            // An empty array has no blocks
+            assertEquals(0, BlockTable.read(transform.forwardTransform(new byte[0])).getNumberOfBlocks());
+            assertEquals(0, transform.reverseTransform(transform.forwardTransform(new byte[0])).length);
+        }
+    }
+    
+    /**
+     * Test that blocks are processed correctly without an executor.
+     */
+    @Test
+    public void testTransformSequential() throws Exception {
+        byte[] data = generateData(10000);
+        ChunkedDataTransform transform = new ChunkedDataTransform(Codec.ZSTD, 5000);
+        ExecutorService previousExecutor = BlockExecutor.getExecutor();
+        ExecutorService singleThreadExecutor = Executors.newSingleThreadExecutor();
+        
+        try {
+            BlockExecutor.setExecutor(null);
+            
+            byte[] compressed = transform.forwardTransform(data);
+            
+            assertArrayEquals(data, transform.reverseTransform(compressed));
+            
+            BlockExecutor.setExecutor(singleThreadExecutor);
+            
+            assertArrayEquals(compressed, transform.forwardTransform(data));
+            assertArrayEquals(data, transform.reverseTransform(compressed));
+        } finally {
+            BlockExecutor.setExecutor(previousExecutor);
+            singleThreadExecutor.shutdown();
+        }
+    }
+    
+    /**
+     * Test of reverseTransform method for a range of the data, of class ChunkedDataTransform.
+     */
+    @Test
+    public void testReverseTransformRange() throws Exception {
+        byte[] data = generateData(10000);
+        ChunkedDataTransform transform = new ChunkedDataTransform(Codec.ZLIB, 4096);
+        byte[] compressed = transform.forwardTransform(data);
+        
+        int[][] ranges = new int[][] {{0, 10}, {4000, 200}, {4096, 4096}, {1000, 30000}, {data.length - 1, 1}, {500, 0}};
+        
+        for(int[] range : ranges)
+            assertArrayEquals(Arrays.copyOfRange(data, range[0], range[0] + range[1]), transform.reverseTransform(compressed, range[0], range[1]));
+        
+        try {
+            transform.reverseTransform(compressed, data.length - 10, 20);
+            fail("Range outside of the data");
+        } catch (DataFormatException ex) {
+            // Expected
+        }
+    }
+    
+    /**
+     * Test that invalid block tables are rejected.
+     */
+    @Test
+    public void testInvalidBlockTable() throws Exception {
+        byte[] compressed = new ChunkedDataTransform(Codec.ZSTD, 4096).forwardTransform(generateData(2000));
+        
+        for(byte[] invalid : new byte[][] {new byte[2], Arrays.copyOf(compressed, compressed.length - 1), 
+                new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F}}) {
+            try {
+                BlockTable.read(invalid);
+                fail("Invalid block table accepted");
+            } catch (DataFormatException ex) {
+                // Expected
+            }
+        }
+    }
+    
+    /**
+     * Test that chunked compression types create a DataTransformation which 
+     * round trips the data.
+     */
+    @Test
+    public void testChunkedCompression() throws Exception {
+        double[] data = DataTypeTransform.convertDataToDouble(generateData(400000), DataTypeTransform.DataType.DOUBLE);
+        
+        DataTransformation transformation = DataTransformation.create(DataTypeTransform.DataType.FLOAT, CompressionType.CHUNKED_ZSTD);
+        
+        assertArrayEquals(data, transformation.performReverseTransform(transformation.performForwardTransform(data)), 1e-3);
+        assertEquals(CompressionType.CHUNKED_ZSTD, CompressionType.fromAccession(CompressionType.ZSTD.getAccession(), CompressionType.CHUNKED_ZSTD.getUserParamName()));
+        assertEquals(CompressionType.ZSTD, CompressionType.fromAccession(CompressionType.CHUNKED_ZSTD.getAccession()));
+        assertTrue(CompressionType.CHUNKED_ZLIB.isChunked());
+        assertFalse(CompressionType.CHUNKED_ZLIB.isByteShuffled());
+    }
+    
+    /**
+     * Test that chunked compression is only read from the generic compression 
+     * term, as chunked data is not readable as plain compressed data, of method
+     * getCompressionType, of class BinaryDataArray.
+     */
+    @Test
+    public void testCompressionTypeSignalling() {
+        OBOTerm compressionTerm = new OBOTerm(null, BinaryDataArray.COMPRESSION_TYPE_ID);
+        OBOTerm zlibTerm = new OBOTerm(null, BinaryDataArray.ZLIB_COMPRESSION_ID);
+        zlibTerm.addParent(compressionTerm);
+        
+        BinaryDataArray chunked = new BinaryDataArray(0);
+        chunked.addCVParam(new EmptyCVParam(compressionTerm));
+        chunked.addUserParam(new UserParam(BinaryDataArray.CHUNKED_COMPRESSION, BinaryDataArray.ZLIB_COMPRESSION_ID));
+        
+        assertEquals(CompressionType.CHUNKED_ZLIB, chunked.getCompressionType());
+        
+        BinaryDataArray unchunked = new BinaryDataArray(0);
+        unchunked.addCVParam(new EmptyCVParam(zlibTerm));
+        unchunked.addUserParam(new UserParam(BinaryDataArray.CHUNKED_COMPRESSION, BinaryDataArray.ZLIB_COMPRESSION_ID));
+        
+        assertEquals(CompressionType.ZLIB, unchunked.getCompressionType());
+    }
+}
@@ -0,0 +1,92 @@
+package com.alanmrace.jimzmlparser.data;
+
+import com.alanmrace.jimzmlparser.data.CompressionAdvisor.ArrayType;
+import com.alanmrace.jimzmlparser.data.CompressionAdvisor.Objective;
+import com.alanmrace.jimzmlparser.data.CompressionAdvisor.Result;
+import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray.CompressionType;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class CompressionAdvisorTest {
+    
+    private static List<double[]> generateSpectra() {
+        Random random = new Random(1);
+        List<double[]> spectra = new ArrayList<double[]>();
+        
+        for(int spectrum = 0; spectrum < 10; spectrum++) {
+            double[] mzs = new double[2000];
+            
+            for(int i = 0; i < mzs.length; i++)
+                mzs[i] = 100 + i * 0.05 + random.nextInt(3) * 0.001;
+            
+            spectra.add(mzs);
+        }
+        
+        return spectra;
+    }
+
+    /**
+     * Test of benchmark and recommend methods, of class CompressionAdvisor.
+     */
+    @Test
+    public void testBenchmark() {
+        CompressionAdvisor advisor = new CompressionAdvisor();
+        advisor.setRepeats(1);
+        
+        List<Result> results = advisor.benchmark(ArrayType.MZ, DataType.DOUBLE, generateSpectra());
+        
+        Result none = null;
+        
+        for(Result result : results) {
+            assertEquals(ArrayType.MZ, result.getArrayType());
+            assertEquals(10, result.getNumberOfArrays());
+            assertEquals(10 * 2000 * 8, result.getUncompressedBytes());
+            
+            if(result.getCompressionType() == CompressionType.NONE)
+                none = result;
+            
+            // LZ4 requires the size of each array to be supplied when decompressing
+            if(result.getCompressionType() == CompressionType.LZ4 || result.getCompressionType() == CompressionType.SHUFFLE_LZ4)
+                assertEquals(0, result.getMaxRelativeError(), 0);
+            if(result.getCompressionType() == CompressionType.MSNUMPRESS_LINEAR_LZ4)
+                assertTrue(result.getMaxRelativeError() < 1e-6);
+        }
+        
+        assertNotNull(none);
+        assertEquals(0, none.getMaxRelativeError(), 0);
+        
+        // Lossless compression only by default
+        Result smallest = advisor.recommend(results, ArrayType.MZ, Objective.SMALLEST_SIZE);
+        
+        assertEquals(0, smallest.getMaxRelativeError(), 0);
+        assertTrue(smallest.getCompressedBytes() < none.getCompressedBytes());
+        
+        for(Result result : results) {
+            if(result.getMaxRelativeError() == 0)
+                assertTrue(smallest.getCompressedBytes() <= result.getCompressedBytes());
+        }
+        
+        // MS-Numpress linear prediction compresses evenly spaced m/z values far better, with small error
+        advisor.setMaxRelativeError(1e-6);
+        
+        Result lossy = advisor.recommend(results, ArrayType.MZ, Objective.SMALLEST_SIZE);
+        
+        assertTrue(lossy.getCompressedBytes() < smallest.getCompressedBytes());
+        assertNull(advisor.recommend(results, ArrayType.INTENSITY, Objective.SMALLEST_SIZE));
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        advisor.printReport(results, Objective.FASTEST_DECODE, new PrintStream(output));
+        
+        assertTrue(output.toString().contains("Recommended for MZ (FASTEST_DECODE)"));
+    }
+}
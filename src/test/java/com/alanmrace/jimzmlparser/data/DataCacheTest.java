@@ -0,0 +1,130 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class DataCacheTest {
+    
+    public DataCacheTest() {
+    }
+
+    /**
+     * Test that an equal DataLocation created again for the same data, such as 
+     * when a spectrum is recreated, finds the cached entry, of class DataCache.
+     */
+    @Test
+    public void testRecreatedLocation() {
+        DataCache cache = new DataCache();
+        DataTransformation transformation = DataTransformation.create(DataTypeTransform.DataType.FLOAT, null);
+        
+        DataLocation location = new DataLocation(null, 800, 400);
+        location.setDataTransformation(transformation);
+        
+        DataLocation recreated = new DataLocation(null, 800, 400);
+        recreated.setDataTransformation(transformation);
+        
+        cache.put(location, new double[100]);
+        
+        assertEquals(location, recreated);
+        assertEquals(location.hashCode(), recreated.hashCode());
+        assertNotNull(cache.get(recreated));
+        
+        assertNull(cache.get(new DataLocation(null, 800, 400)));
+        assertNull(cache.get(new DataLocation(null, 1200, 400)));
+    }
+    
+    /**
+     * Test of put and get methods, of class DataCache, checking that the least
+     * recently used entry is evicted once the maximum size is reached.
+     */
+    @Test
+    public void testEviction() {
+        DataCache cache = new DataCache(3 * DataCache.getSizeOf(new double[100]));
+        
+        DataLocation first = new DataLocation(null, 0, 800);
+        DataLocation second = new DataLocation(null, 800, 800);
+        DataLocation third = new DataLocation(null, 1600, 800);
+        DataLocation fourth = new DataLocation(null, 2400, 800);
+        
+        cache.put(first, new double[100]);
+        cache.put(second, new double[100]);
+        cache.put(third, new double[100]);
+        
+        assertEquals(3, cache.getNumberOfEntries());
+        assertEquals(0, cache.getEvictionCount());
+        
+        // Access the first so that the second becomes the least recently used
+        assertNotNull(cache.get(first));
+        
+        cache.put(fourth, new double[100]);
+        
+        assertEquals(3, cache.getNumberOfEntries());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get(second));
+        assertNotNull(cache.get(first));
+        assertNotNull(cache.get(third));
+        assertNotNull(cache.get(fourth));
+        
+        assertEquals(4, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+        
+        // Data larger than the whole cache should not be added
+        cache.put(second, new double[1000]);
+        
+        assertNull(cache.get(second));
+        assertEquals(3, cache.getNumberOfEntries());
+    }
+    
+    /**
+     * Test of getData method, of class DataLocation, when a DataCache is set on 
+     * the DataStorage.
+     */
+    @Test
+    public void testDataLocationGetData() throws Exception {
+        File dataFile = File.createTempFile("dataCacheTest", ".ibd");
+        dataFile.deleteOnExit();
+        
+        double[] data = new double[] {1.0, 2.5, 3.75};
+        FileOutputStream outputStream = new FileOutputStream(dataFile);
+        
+        try {
+            outputStream.write(DataTypeTransform.convertDoublesToBytes(data));
+        } finally {
+            outputStream.close();
+        }
+        
+        BinaryDataStorage storage = new BinaryDataStorage(dataFile, false);
+        
+        try {
+            DataCache cache = new DataCache();
+            storage.setDataCache(cache);
+            
+            DataLocation location = new DataLocation(storage, 0, data.length * 8);
+            
+            double[] firstRead = location.getData();
+            double[] secondRead = location.getData();
+            
+            assertArrayEquals(data, firstRead, 0);
+            assertArrayEquals(data, secondRead, 0);
+            assertEquals(1, cache.getMissCount());
+            assertEquals(1, cache.getHitCount());
+            
+            // Modifying the returned data does not modify the cached data
+            firstRead[0] = -1;
+            secondRead[1] = -1;
+            
+            assertArrayEquals(data, location.getData(), 0);
+            assertEquals(2, cache.getHitCount());
+        } finally {
+            storage.close();
+            dataFile.delete();
+        }
+    }
+}
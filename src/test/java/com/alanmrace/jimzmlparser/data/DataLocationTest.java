@@ -0,0 +1,153 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class DataLocationTest {
+    
+    private File dataFile;
+    private BinaryDataStorage storage;
+    private double[] data;
+    
+    private DataLocation doubleLocation;
+    private DataLocation floatLocation;
+    private DataLocation zlibLocation;
+    
+    public DataLocationTest() {
+    }
+    
+    @Before
+    public void setUp() throws Exception {
+        data = new double[5000];
+        
+        for(int i = 0; i < data.length; i++)
+            data[i] = Math.round(Math.random() * 100000);
+        
+        DataTransformation floatTransformation = new DataTransformation();
+        floatTransformation.addTransform(new DataTypeTransform(DataTypeTransform.DataType.DOUBLE, DataTypeTransform.DataType.FLOAT));
+        
+        DataTransformation zlibTransformation = new DataTransformation();
+        zlibTransformation.addTransform(new DataTypeTransform(DataTypeTransform.DataType.DOUBLE, DataTypeTransform.DataType.INTEGER_32BIT));
+        zlibTransformation.addTransform(new ZlibDataTransform());
+        
+        byte[] doubleBytes = DataTypeTransform.convertDoublesToBytes(data);
+        byte[] floatBytes = floatTransformation.performForwardTransform(data);
+        byte[] zlibBytes = zlibTransformation.performForwardTransform(data);
+        
+        dataFile = File.createTempFile("dataLocationTest", ".ibd");
+        dataFile.deleteOnExit();
+        
+        FileOutputStream outputStream = new FileOutputStream(dataFile);
+        
+        try {
+            outputStream.write(doubleBytes);
+            outputStream.write(floatBytes);
+            outputStream.write(zlibBytes);
+        } finally {
+            outputStream.close();
+        }
+        
+        storage = new BinaryDataStorage(dataFile, false);
+        
+        doubleLocation = new DataLocation(storage, 0, doubleBytes.length);
+        
+        floatLocation = new DataLocation(storage, doubleBytes.length, floatBytes.length);
+        floatLocation.setDataTransformation(floatTransformation);
+        
+        zlibLocation = new DataLocation(storage, doubleBytes.length + floatBytes.length, zlibBytes.length);
+        zlibLocation.setDataTransformation(zlibTransformation);
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        storage.close();
+        dataFile.delete();
+    }
+
+    /**
+     * Test of getData method with a destination array, of class DataLocation.
+     */
+    @Test
+    public void testGetDataIntoArray() throws Exception {
+        double[] dest = new double[data.length + 10];
+        
+        for(DataLocation location : new DataLocation[] {doubleLocation, floatLocation, zlibLocation}) {
+            assertEquals(data.length, location.getData(dest, 10));
+            
+            for(int i = 0; i < data.length; i++)
+                assertEquals(data[i], dest[i + 10], 0);
+        }
+    }
+    
+    /**
+     * Test of getData method with a destination buffer, of class DataLocation.
+     */
+    @Test
+    public void testGetDataIntoBuffer() throws Exception {
+        DoubleBuffer dest = ByteBuffer.allocateDirect(data.length * 8 * 3).asDoubleBuffer();
+        
+        assertEquals(data.length, doubleLocation.getData(dest));
+        assertEquals(data.length, floatLocation.getData(dest));
+        assertEquals(data.length, zlibLocation.getData(dest));
+        
+        assertEquals(data.length * 3, dest.position());
+        
+        for(int i = 0; i < data.length * 3; i++)
+            assertEquals(data[i % data.length], dest.get(i), 0);
+    }
+    
+    /**
+     * Test of getDataAsFloat method, of class DataLocation.
+     */
+    @Test
+    public void testGetDataAsFloat() throws Exception {
+        for(DataLocation location : new DataLocation[] {doubleLocation, floatLocation, zlibLocation}) {
+            float[] floatData = location.getDataAsFloat();
+            
+            assertEquals(data.length, floatData.length);
+            
+            for(int i = 0; i < data.length; i++)
+                assertEquals((float) data[i], floatData[i], 0);
+        }
+    }
+    
+    /**
+     * Test of getDoubleBuffer and getFloatBuffer methods, of class DataLocation.
+     */
+    @Test
+    public void testGetBufferViews() throws Exception {
+        for(DataLocation location : new DataLocation[] {doubleLocation, floatLocation, zlibLocation}) {
+            DoubleBuffer doubleBuffer = location.getDoubleBuffer();
+            FloatBuffer floatBuffer = location.getFloatBuffer();
+            
+            assertTrue(doubleBuffer.isReadOnly());
+            assertTrue(floatBuffer.isReadOnly());
+            assertEquals(data.length, doubleBuffer.remaining());
+            assertEquals(data.length, floatBuffer.remaining());
+            
+            for(int i = 0; i < data.length; i++) {
+                assertEquals(data[i], doubleBuffer.get(i), 0);
+                assertEquals((float) data[i], floatBuffer.get(i), 0);
+            }
+        }
+    }
+    
+    /**
+     * Test of getData method with a destination array which is too small, of class DataLocation.
+     */
+    @Test(expected = java.nio.BufferOverflowException.class)
+    public void testGetDataIntoSmallArray() throws Exception {
+        floatLocation.getData(new double[data.length - 1], 0);
+    }
+}
@@ -0,0 +1,161 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class DataStorageTest {
+    
+    private File dataFile;
+    
+    public DataStorageTest() {
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        dataFile = File.createTempFile("dataStorageTest", ".ibd");
+        dataFile.deleteOnExit();
+    }
+    
+    @After
+    public void tearDown() {
+        dataFile.delete();
+    }
+    
+    private void writeFile(byte[] contents) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(dataFile);
+        
+        try {
+            outputStream.write(contents);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Test of getData method with a collection of DataLocations, of class DataStorage, 
+     * for locations which are unordered, overlapping, adjacent and separated.
+     */
+    @Test
+    public void testGetDataBatch() throws Exception {
+        byte[] contents = new byte[100000];
+        new Random(1234).nextBytes(contents);
+        writeFile(contents);
+        
+        BinaryDataStorage storage = new BinaryDataStorage(dataFile, false);
+        
+        try {
+            List<DataLocation> locations = new ArrayList<DataLocation>();
+            locations.add(new DataLocation(storage, 5000, 100));
+            locations.add(new DataLocation(storage, 0, 100));
+            locations.add(new DataLocation(storage, 100, 100));
+            locations.add(new DataLocation(storage, 150, 20));
+            locations.add(new DataLocation(storage, 90000, 5000));
+            locations.add(new DataLocation(storage, 300, 0));
+            locations.add(new DataLocation(storage, 20000, 30000));
+            
+            for(int maxGap : new int[] {0, 100, DataStorage.DEFAULT_MAX_GAP, 100000}) {
+                List<byte[]> data = storage.getData(locations, maxGap, 10000);
+                
+                assertEquals(locations.size(), data.size());
+                
+                for(int i = 0; i < locations.size(); i++) {
+                    assertArrayEquals(locations.get(i).getBytes(), data.get(i));
+                }
+            }
+        } finally {
+            storage.close();
+        }
+    }
+    
+    /**
+     * Test of getData method with a collection of DataLocations, of class 
+     * Base64DataStorage, checking that each location is decoded separately.
+     */
+    @Test
+    public void testGetDataBatchBase64() throws Exception {
+        byte[] first = Base64.encodeBase64("first array".getBytes("US-ASCII"));
+        byte[] second = Base64.encodeBase64("second array".getBytes("US-ASCII"));
+        
+        byte[] contents = new byte[first.length + second.length + 10];
+        System.arraycopy(first, 0, contents, 0, first.length);
+        Arrays.fill(contents, first.length, first.length + 10, (byte) ' ');
+        System.arraycopy(second, 0, contents, first.length + 10, second.length);
+        writeFile(contents);
+        
+        Base64DataStorage storage = new Base64DataStorage(dataFile);
+        
+        try {
+            List<DataLocation> locations = new ArrayList<DataLocation>();
+            locations.add(new DataLocation(storage, first.length + 10, second.length));
+            locations.add(new DataLocation(storage, 0, first.length));
+            
+            List<byte[]> data = storage.getData(locations);
+            
+            assertEquals("second array", new String(data.get(0), "US-ASCII"));
+            assertEquals("first array", new String(data.get(1), "US-ASCII"));
+        } finally {
+            storage.close();
+        }
+    }
+    
+    /**
+     * Test of getData method, of class Base64DataStorage, for data larger than 
+     * a single chunk and surrounded by other text.
+     */
+    @Test
+    public void testGetDataBase64() throws Exception {
+        byte[] data = new byte[Base64DataStorage.CHUNK_SIZE * 2 + 1000];
+        new Random(1234).nextBytes(data);
+        
+        byte[] encoded = Base64.encodeBase64Chunked(data);
+        byte[] header = "<binary>".getBytes("US-ASCII");
+        byte[] footer = "</binary>".getBytes("US-ASCII");
+        
+        byte[] contents = new byte[header.length + encoded.length + footer.length];
+        System.arraycopy(header, 0, contents, 0, header.length);
+        System.arraycopy(encoded, 0, contents, header.length, encoded.length);
+        System.arraycopy(footer, 0, contents, header.length + encoded.length, footer.length);
+        writeFile(contents);
+        
+        Base64DataStorage storage = new Base64DataStorage(dataFile);
+        
+        try {
+            assertArrayEquals(data, storage.getData(header.length, encoded.length));
+        } finally {
+            storage.close();
+        }
+    }
+    
+    /**
+     * Test of getData method with a collection of DataLocations, of class DataStorage, 
+     * when one of the locations refers to a different DataStorage.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetDataBatchDifferentStorage() throws Exception {
+        writeFile(new byte[100]);
+        
+        BinaryDataStorage storage = new BinaryDataStorage(dataFile, false);
+        BinaryDataStorage otherStorage = new BinaryDataStorage(dataFile, false);
+        
+        try {
+            storage.getData(Arrays.asList(new DataLocation(storage, 0, 10), new DataLocation(otherStorage, 10, 10)));
+        } finally {
+            storage.close();
+            otherStorage.close();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.alanmrace.jimzmlparser.data;
+
+import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
+import com.alanmrace.jimzmlparser.data.MSNumpressDataTransform.NumpressAlgorithm;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray.CompressionType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class DataTransformationTest {
+    
+    public DataTransformationTest() {
+    }
+    
+    /**
+     * Reverse each transform as byte[] and then convert to double[], as was 
+     * done before the final step could produce double[] directly.
+     */
+    private static double[] reverseStepByStep(byte[] data, List<DataTransform> transforms) throws Exception {
+        byte[] transformedData = data;
+        
+        for(int i = transforms.size() - 1; i >= 0; i--)
+            transformedData = transforms.get(i).reverseTransform(transformedData);
+        
+        return DataTypeTransform.convertDataToDouble(transformedData, DataType.DOUBLE);
+    }
+    
+    private static double[] generateData(int length) {
+        Random random = new Random(length);
+        double[] data = new double[length];
+        
+        for(int i = 0; i < length; i++)
+            data[i] = 100 + i * 0.01 + random.nextInt(1000) * 0.001;
+        
+        return data;
+    }
+
+    /**
+     * Test of performReverseTransform and performReverseTransformToFloat methods,
+     * of class DataTransformation, when the first step produces values directly.
+     */
+    @Test
+    public void testPerformReverseTransformPrimitive() throws Exception {
+        double[] data = generateData(5000);
+        
+        DataTransform[][] chains = {
+            {new DataTypeTransform(DataType.DOUBLE, DataType.FLOAT), new ZlibDataTransform()},
+            {new DataTypeTransform(DataType.DOUBLE, DataType.INTEGER_32BIT)},
+            {new MSNumpressDataTransform(NumpressAlgorithm.LINEAR), new ZlibDataTransform()},
+            {new MSNumpressDataTransform(NumpressAlgorithm.PIC)},
+            {new ZlibDataTransform()}
+        };
+        
+        for(DataTransform[] chain : chains) {
+            DataTransformation transformation = new DataTransformation();
+            
+            for(DataTransform transform : chain)
+                transformation.addTransform(transform);
+            
+            byte[] encoded = transformation.performForwardTransform(data);
+            double[] expected = reverseStepByStep(encoded, Arrays.asList(chain));
+            
+            double[] decoded = transformation.performReverseTransform(encoded);
+            float[] decodedFloat = transformation.performReverseTransformToFloat(encoded);
+            
+            assertArrayEquals(transformation.toString(), expected, decoded, 0);
+            assertEquals(expected.length, decodedFloat.length);
+            
+            for(int i = 0; i < expected.length; i++)
+                assertEquals((float) expected[i], decodedFloat[i], 0);
+        }
+    }
+    
+    /**
+     * Test of create method, of class DataTransformation.
+     */
+    @Test
+    public void testCreate() throws Exception {
+        DataTransformation transformation = DataTransformation.create(DataType.FLOAT, CompressionType.ZLIB);
+        
+        assertSame(transformation, DataTransformation.create(DataType.FLOAT, CompressionType.ZLIB));
+        assertNotSame(transformation, DataTransformation.create(DataType.DOUBLE, CompressionType.ZLIB));
+        
+        // No data type is stored as double
+        assertSame(DataTransformation.create(DataType.DOUBLE, CompressionType.ZLIB), DataTransformation.create(null, CompressionType.ZLIB));
+        
+        assertTrue(transformation.isImmutable());
+        assertTrue(DataTransformation.create(null, null).isEmpty());
+        
+        double[] data = generateData(1000);
+        byte[] encoded = transformation.performForwardTransform(data);
+        
+        assertArrayEquals(new int[] {8000, 4000, encoded.length}, transformation.getDataSizeAtEachStage());
+        
+        double[] decoded = transformation.performReverseTransform(encoded, 4000);
+        
+        for(int i = 0; i < data.length; i++)
+            assertEquals((float) data[i], decoded[i], 0);
+    }
+    
+    /**
+     * Test of usesNumpress method, of class DataTransformation.
+     */
+    @Test
+    public void testUsesNumpress() {
+        assertTrue(DataTransformation.usesNumpress(CompressionType.MSNUMPRESS_LINEAR));
+        assertTrue(DataTransformation.usesNumpress(CompressionType.MSNUMPRESS_SLOF_ZLIB));
+        assertTrue(DataTransformation.usesNumpress(CompressionType.MSNUMPRESS_POSITIVE_ZSTD));
+        
+        assertFalse(DataTransformation.usesNumpress(CompressionType.NONE));
+        assertFalse(DataTransformation.usesNumpress(CompressionType.ZSTD));
+        assertFalse(DataTransformation.usesNumpress(CompressionType.SHUFFLE_LZ4));
+        assertFalse(DataTransformation.usesNumpress(CompressionType.CHUNKED_ZLIB));
+    }
+    
+    /**
+     * Test that DataTransformations using a dictionary are shared between uses
+     * of the same dictionary instance, and are not retained with those without
+     * a dictionary, of method create, of class DataTransformation.
+     */
+    @Test
+    public void testCreateWithDictionary() {
+        byte[] dictionary = new byte[1024];
+        byte[] sameContents = dictionary.clone();
+        int retained = DataTransformation.getNumberOfDictionaryTransformations();
+        
+        DataTransformation transformation = DataTransformation.create(DataType.FLOAT, CompressionType.ZSTD, dictionary);
+        DataTransformation otherTransformation = DataTransformation.create(DataType.FLOAT, CompressionType.ZSTD, sameContents);
+        
+        assertSame(transformation, DataTransformation.create(DataType.FLOAT, CompressionType.ZSTD, dictionary));
+        assertNotSame(transformation, otherTransformation);
+        assertNotSame(transformation, DataTransformation.create(DataType.FLOAT, CompressionType.ZSTD));
+        assertTrue(transformation.isImmutable());
+        
+        // The dictionary is only used with ZStandard
+        assertSame(DataTransformation.create(DataType.FLOAT, CompressionType.ZLIB), DataTransformation.create(DataType.FLOAT, CompressionType.ZLIB, dictionary));
+        
+        assertEquals(retained + 2, DataTransformation.getNumberOfDictionaryTransformations());
+    }
+    
+    /**
+     * Test that a single shared DataTransformation decodes LZ4 data of different
+     * sizes, when the decompressed size is supplied with each call, of class DataTransformation.
+     */
+    @Test
+    public void testDecompressedSize() throws Exception {
+        DataTransformation transformation = DataTransformation.create(DataType.FLOAT, CompressionType.LZ4);
+        
+        for(int length : new int[] {10, 1000}) {
+            double[] data = generateData(length);
+            byte[] encoded = transformation.performForwardTransform(data);
+            
+            double[] decoded = transformation.performReverseTransform(encoded, length * 4);
+            float[] decodedFloat = transformation.performReverseTransformToFloat(encoded, length * 4);
+            
+            assertEquals(length, decoded.length);
+            assertEquals(length, decodedFloat.length);
+            
+            for(int i = 0; i < length; i++) {
+                assertEquals((float) data[i], decoded[i], 0);
+                assertEquals((float) data[i], decodedFloat[i], 0);
+            }
+        }
+        
+        try {
+            transformation.performReverseTransform(transformation.performForwardTransform(generateData(10)));
+            fail("LZ4 data cannot be decompressed without the decompressed size");
+        } catch (DataFormatException ex) {
+            // Expected
+        }
+    }
+    
+    /**
+     * Test of addTransform method, of class DataTransformation, on a shared instance.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAddTransformImmutable() {
+        DataTransformation.create(DataType.FLOAT, CompressionType.NONE).addTransform(new ZlibDataTransform());
+    }
+}
@@ -0,0 +1,110 @@
+package com.alanmrace.jimzmlparser.data;
+
+import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class DataTypeTransformTest {
+    
+    public DataTypeTransformTest() {
+    }
+    
+    /**
+     * Generate little-endian data of the specified type, including values which
+     * are out of range or not exactly representable in the other data types.
+     */
+    private static byte[] generateData(DataType dataType, int length) {
+        Random random = new Random(length);
+        ByteBuffer buffer = ByteBuffer.allocate(length * DataTypeTransform.getSizeInBytes(dataType)).order(ByteOrder.LITTLE_ENDIAN);
+        
+        double[] doubleEdges = {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MAX_VALUE, 
+            Double.MIN_VALUE, -0.0, 1e20, -1e20, 3.4e39, 65535.7, -129.5};
+        long[] longEdges = {Long.MAX_VALUE, Long.MIN_VALUE, (1L << 53) + 1, -(1L << 53) - 1, (1L << 24) + 1, 
+            Integer.MAX_VALUE + 1L, Integer.MIN_VALUE - 1L, 40000, -40000};
+        
+        for(int i = 0; i < length; i++) {
+            switch(dataType) {
+                case DOUBLE:
+                    buffer.putDouble(i < doubleEdges.length ? doubleEdges[i] : (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(24)));
+                    break;
+                case FLOAT:
+                    buffer.putFloat(i < doubleEdges.length ? (float) doubleEdges[i] : (float) ((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(24))));
+                    break;
+                case INTEGER_64BIT:
+                    buffer.putLong(i < longEdges.length ? longEdges[i] : random.nextLong() >> random.nextInt(64));
+                    break;
+                case INTEGER_32BIT:
+                    buffer.putInt(i < longEdges.length ? (int) longEdges[i] : random.nextInt() >> random.nextInt(32));
+                    break;
+                case INTEGER_16BIT:
+                    buffer.putShort((short) random.nextInt());
+                    break;
+                case INTEGER_8BIT:
+                    buffer.put((byte) random.nextInt());
+                    break;
+            }
+        }
+        
+        return buffer.array();
+    }
+
+    /**
+     * Test of convertData method, of class DataTypeTransform, comparing the 
+     * result for every pair of data types against the reference implementation.
+     */
+    @Test
+    public void testConvertDataMatchesReference() {
+        for(DataType from : DataType.values()) {
+            byte[] data = generateData(from, 1000);
+            
+            for(DataType to : DataType.values()) {
+                assertArrayEquals(from + " to " + to, DataTypeTransform.convertDataReference(data, from, to), 
+                        DataTypeTransform.convertData(data, from, to));
+            }
+        }
+    }
+    
+    /**
+     * Test of convertData method, of class DataTypeTransform, converting between 
+     * ByteBuffers which do not start at position 0, including direct buffers.
+     */
+    @Test
+    public void testConvertDataByteBuffer() {
+        byte[] data = generateData(DataType.INTEGER_32BIT, 100);
+        byte[] expected = DataTypeTransform.convertDataReference(data, DataType.INTEGER_32BIT, DataType.DOUBLE);
+        
+        ByteBuffer source = ByteBuffer.allocateDirect(data.length + 3);
+        source.position(3);
+        source.put(data);
+        source.position(3);
+        
+        ByteBuffer dest = ByteBuffer.allocate(expected.length + 5);
+        dest.position(5);
+        
+        assertEquals(100, DataTypeTransform.convertData(source, DataType.INTEGER_32BIT, dest, DataType.DOUBLE));
+        assertEquals(3, source.position());
+        assertEquals(dest.capacity(), dest.position());
+        
+        byte[] result = new byte[expected.length];
+        dest.position(5);
+        dest.get(result);
+        
+        assertArrayEquals(expected, result);
+    }
+    
+    /**
+     * Test of convertData method, of class DataTypeTransform, when there is
+     * insufficient space in the destination.
+     */
+    @Test(expected = java.nio.BufferOverflowException.class)
+    public void testConvertDataOverflow() {
+        DataTypeTransform.convertData(ByteBuffer.allocate(16), DataType.FLOAT, ByteBuffer.allocate(31), DataType.DOUBLE);
+    }
+}
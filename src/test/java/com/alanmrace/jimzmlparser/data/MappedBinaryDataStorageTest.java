@@ -0,0 +1,132 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class MappedBinaryDataStorageTest {
+    
+    private File dataFile;
+    private byte[] fileContents;
+    
+    public MappedBinaryDataStorageTest() {
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        fileContents = new byte[10000];
+        new Random(1234).nextBytes(fileContents);
+        
+        dataFile = File.createTempFile("mappedBinaryDataStorageTest", ".ibd");
+        dataFile.deleteOnExit();
+        
+        FileOutputStream outputStream = new FileOutputStream(dataFile);
+        
+        try {
+            outputStream.write(fileContents);
+        } finally {
+            outputStream.close();
+        }
+    }
+    
+    @After
+    public void tearDown() {
+        dataFile.delete();
+    }
+
+    /**
+     * Test of getData method, of class MappedBinaryDataStorage, comparing 
+     * against the RandomAccessFile implementation for reads within and across
+     * mapped windows.
+     */
+    @Test
+    public void testGetData() throws Exception {
+        BinaryDataStorage reference = new BinaryDataStorage(dataFile, false);
+        MappedBinaryDataStorage mapped = new MappedBinaryDataStorage(dataFile, 1024);
+        
+        try {
+            int[][] reads = {{0, 16}, {1000, 48}, {1020, 8}, {2040, 3000}, {9990, 10}, {0, 10000}};
+            
+            for(int[] read : reads) {
+                assertArrayEquals(reference.getData(read[0], read[1]), mapped.getData(read[0], read[1]));
+            }
+        } finally {
+            reference.close();
+            mapped.close();
+        }
+    }
+    
+    /**
+     * Test of getData method, of class MappedBinaryDataStorage, when the data 
+     * requested extends beyond the end of the file.
+     */
+    @Test
+    public void testGetDataBeyondEndOfFile() throws Exception {
+        MappedBinaryDataStorage mapped = new MappedBinaryDataStorage(dataFile, 1024);
+        
+        try {
+            byte[] data = mapped.getData(9995, 10);
+            
+            assertEquals(10, data.length);
+            
+            for(int i = 0; i < 5; i++) {
+                assertEquals(fileContents[9995 + i], data[i]);
+                assertEquals(0, data[5 + i]);
+            }
+        } finally {
+            mapped.close();
+        }
+    }
+    
+    /**
+     * Test of getDataAsByteBuffer method, of class MappedBinaryDataStorage, for
+     * data within a single window and data straddling two windows.
+     */
+    @Test
+    public void testGetDataAsByteBuffer() throws Exception {
+        MappedBinaryDataStorage mapped = new MappedBinaryDataStorage(dataFile, 1024);
+        
+        try {
+            int[][] reads = {{100, 800}, {1000, 48}};
+            
+            for(int[] read : reads) {
+                ByteBuffer buffer = mapped.getDataAsByteBuffer(read[0], read[1]);
+                
+                assertTrue(buffer.isReadOnly());
+                assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+                assertEquals(read[1], buffer.remaining());
+                
+                for(int i = 0; i < read[1]; i++)
+                    assertEquals(fileContents[read[0] + i], buffer.get(i));
+            }
+        } finally {
+            mapped.close();
+        }
+    }
+    
+    /**
+     * Test of open method, of class BinaryDataStorage.
+     */
+    @Test
+    public void testOpen() throws Exception {
+        BinaryDataStorage storage = BinaryDataStorage.open(dataFile, BinaryDataStorage.AccessMethod.MEMORY_MAPPED);
+        
+        try {
+            assertTrue(storage instanceof MappedBinaryDataStorage);
+            assertArrayEquals(fileContents, storage.getData(0, fileContents.length));
+        } finally {
+            storage.close();
+        }
+    }
+}
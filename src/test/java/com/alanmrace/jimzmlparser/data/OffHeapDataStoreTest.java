@@ -0,0 +1,174 @@
+package com.alanmrace.jimzmlparser.data;
+
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray;
+import com.alanmrace.jimzmlparser.mzml.MzML;
+import com.alanmrace.jimzmlparser.parser.MzMLHeaderHandler;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class OffHeapDataStoreTest {
+    
+    /**
+     * Resource mzML file for testing (from http://www.psidev.info/mzml_1_0_0%20).
+     */
+    private static final String TINY_PWIZ_RESOURCE = "/tiny.pwiz.1.1.mzML";
+    
+    private File dataFile;
+    private BinaryDataStorage storage;
+    private double[] data;
+    
+    public OffHeapDataStoreTest() {
+    }
+    
+    @Before
+    public void setUp() throws Exception {
+        data = new double[1000];
+        
+        for(int i = 0; i < data.length; i++)
+            data[i] = i * 0.125;
+        
+        dataFile = File.createTempFile("offHeapDataStoreTest", ".ibd");
+        dataFile.deleteOnExit();
+        
+        FileOutputStream outputStream = new FileOutputStream(dataFile);
+        
+        try {
+            // Write the same data twice, so that there are two locations to store
+            outputStream.write(DataTypeTransform.convertDoublesToBytes(data));
+            outputStream.write(DataTypeTransform.convertDoublesToBytes(data));
+        } finally {
+            outputStream.close();
+        }
+        
+        storage = new BinaryDataStorage(dataFile, false);
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        storage.close();
+        dataFile.delete();
+    }
+
+    /**
+     * Test of getDoubleBuffer and getFloatBuffer methods, of class OffHeapDataStore.
+     */
+    @Test
+    public void testGetBuffer() throws Exception {
+        OffHeapDataStore store = new OffHeapDataStore();
+        DataLocation location = new DataLocation(storage, 0, data.length * 8);
+        
+        DoubleBuffer doubleBuffer = store.getDoubleBuffer(location);
+        
+        assertTrue(doubleBuffer.isReadOnly());
+        assertEquals(data.length, doubleBuffer.remaining());
+        
+        for(int i = 0; i < data.length; i++)
+            assertEquals(data[i], doubleBuffer.get(i), 0);
+        
+        store.getDoubleBuffer(location);
+        
+        assertEquals(1, store.getMissCount());
+        assertEquals(1, store.getHitCount());
+        
+        FloatBuffer floatBuffer = store.getFloatBuffer(location);
+        
+        assertEquals(data.length, floatBuffer.remaining());
+        
+        for(int i = 0; i < data.length; i++)
+            assertEquals((float) data[i], floatBuffer.get(i), 0);
+        
+        assertEquals(data.length * 4, store.getSize());
+    }
+    
+    /**
+     * Test of eviction and re-decoding, of class OffHeapDataStore.
+     */
+    @Test
+    public void testEviction() throws Exception {
+        OffHeapDataStore store = new OffHeapDataStore(data.length * 8);
+        DataLocation first = new DataLocation(storage, 0, data.length * 8);
+        DataLocation second = new DataLocation(storage, data.length * 8, data.length * 8);
+        
+        DoubleBuffer firstBuffer = store.getDoubleBuffer(first);
+        store.getDoubleBuffer(second);
+        
+        assertEquals(1, store.getNumberOfEntries());
+        assertEquals(1, store.getEvictionCount());
+        
+        // Views of evicted data remain valid
+        assertEquals(data[10], firstBuffer.get(10), 0);
+        
+        // Evicted data is decoded again
+        assertEquals(data[10], store.getDoubleBuffer(first).get(10), 0);
+        assertEquals(3, store.getMissCount());
+    }
+    
+    /**
+     * Test that the store is used by DataLocation when set on the DataStorage,
+     * of class OffHeapDataStore.
+     */
+    @Test
+    public void testDataStorageIntegration() throws Exception {
+        OffHeapDataStore store = new OffHeapDataStore();
+        DataLocation location = new DataLocation(storage, 0, data.length * 8);
+        
+        storage.setOffHeapDataStore(store);
+        
+        try {
+            // Data stored as double is a view of the raw data, so is not stored
+            assertEquals(data[10], location.getDoubleBuffer().get(10), 0);
+            assertEquals(0, store.getNumberOfEntries());
+            
+            FloatBuffer floatBuffer = location.getFloatBuffer();
+            
+            assertTrue(floatBuffer.isReadOnly());
+            assertEquals((float) data[10], floatBuffer.get(10), 0);
+            assertEquals((float) data[10], location.getFloatBuffer().get(10), 0);
+            assertEquals(1, store.getMissCount());
+            assertEquals(1, store.getHitCount());
+        } finally {
+            storage.setOffHeapDataStore(null);
+        }
+    }
+    
+    /**
+     * Test that the store is used for the Base64 data of an mzML file, which is
+     * read directly from the mzML file, when set on the MzML, of class OffHeapDataStore.
+     */
+    @Test
+    public void testMzMLIntegration() throws Exception {
+        assertNotNull("Test file missing", OffHeapDataStoreTest.class.getResource(TINY_PWIZ_RESOURCE));
+        
+        String resourcePath = OffHeapDataStoreTest.class.getResource(TINY_PWIZ_RESOURCE).getPath();
+        MzML mzML = MzMLHeaderHandler.parsemzMLHeader(resourcePath, true);
+        OffHeapDataStore store = new OffHeapDataStore();
+        
+        try {
+            mzML.setOffHeapDataStore(store);
+            
+            BinaryDataArray intensityArray = mzML.getRun().getSpectrumList().getSpectrum(0).getBinaryDataArrayList().getIntensityArray();
+            double[] intensities = intensityArray.getDataAsDouble();
+            FloatBuffer floatBuffer = intensityArray.getDataLocation().getFloatBuffer();
+            
+            assertEquals(intensities.length, floatBuffer.remaining());
+            
+            for(int i = 0; i < intensities.length; i++)
+                assertEquals((float) intensities[i], floatBuffer.get(i), 0);
+            
+            assertEquals(1, store.getNumberOfEntries());
+            assertEquals(1, store.getMissCount());
+        } finally {
+            mzML.close();
+        }
+    }
+}
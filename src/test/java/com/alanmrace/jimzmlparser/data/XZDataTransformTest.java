@@ -5,11 +5,19 @@
  */
 package com.alanmrace.jimzmlparser.data;
 
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
 import static org.junit.Assert.*;
 
 /**
@@ -70,4 +78,75 @@ public class XZDataTransformTest {
         }
     }
     
+    /**
+     * Test of reverseTransform method, of class XZDataTransform, for data
+     * compressed into multiple blocks, both sequentially and in parallel.
+     */
+    @Test
+    public void testReverseTransformMultipleBlocks() throws Exception {
+        byte[] data = new byte[100000];
+        
+        for(int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251 == 0 ? i : 0);
+        }
+        
+        XZDataTransform transform = new XZDataTransform(16384);
+        byte[] compressedData = transform.forwardTransform(data);
+        
+        assertArrayEquals(data, transform.reverseTransform(compressedData));
+        
+        ExecutorService previousExecutor = BlockExecutor.getExecutor();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        
+        try {
+            BlockExecutor.setExecutor(null);
+            
+            assertArrayEquals(data, new XZDataTransform().reverseTransform(compressedData));
+            
+            BlockExecutor.setExecutor(executor);
+            
+            assertArrayEquals(data, new XZDataTransform().reverseTransform(compressedData));
+            
+            // Decompressing from a task on a fully occupied executor does not wait for the executor
+            final ExecutorService singleThreadExecutor = Executors.newSingleThreadExecutor();
+            final byte[] compressed = compressedData;
+            
+            try {
+                BlockExecutor.setExecutor(singleThreadExecutor);
+                
+                Future<byte[]> result = singleThreadExecutor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return new XZDataTransform().reverseTransform(compressed);
+                    }
+                });
+                
+                assertArrayEquals(data, result.get(30, TimeUnit.SECONDS));
+            } finally {
+                singleThreadExecutor.shutdown();
+            }
+        } finally {
+            BlockExecutor.setExecutor(previousExecutor);
+            executor.shutdown();
+        }
+    }
+    
+    /**
+     * Test of reverseTransform method, of class XZDataTransform, for data
+     * compressed with default options and for empty data.
+     */
+    @Test
+    public void testReverseTransformCompatibility() throws Exception {
+        byte[] data = "Compressed with default LZMA2 options".getBytes("US-ASCII");
+        
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        XZOutputStream xzOutputStream = new XZOutputStream(outputStream, new LZMA2Options());
+        xzOutputStream.write(data);
+        xzOutputStream.close();
+        
+        XZDataTransform transform = new XZDataTransform();
+        
+        assertArrayEquals(data, transform.reverseTransform(outputStream.toByteArray()));
+        assertArrayEquals(new byte[0], transform.reverseTransform(transform.forwardTransform(new byte[0])));
+    }
 }
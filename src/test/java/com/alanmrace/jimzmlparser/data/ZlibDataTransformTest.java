@@ -0,0 +1,69 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class ZlibDataTransformTest {
+    
+    public ZlibDataTransformTest() {
+    }
+    
+    /**
+     * Generate data resembling a profile spectrum, mostly zero with occasional peaks.
+     */
+    private static byte[] generateData(int length) {
+        Random random = new Random(length);
+        double[] data = new double[length];
+        
+        for(int i = 0; i < length; i++) {
+            if(random.nextInt(10) == 0)
+                data[i] = random.nextInt(1000);
+        }
+        
+        return DataTypeTransform.convertDoublesToBytes(data);
+    }
+
+    /**
+     * Test of forwardTransform and reverseTransform methods, of class ZlibDataTransform,
+     * with known, unknown and underestimated decompressed lengths.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        for(int length : new int[] {0, 1, 100, 10877, 500000}) {
+            byte[] data = generateData(length);
+            
+            for(ZlibDataTransform transform : new ZlibDataTransform[] {new ZlibDataTransform(), 
+                    new ZlibDataTransform(data.length), new ZlibDataTransform(data.length / 3)}) {
+                byte[] compressed = transform.forwardTransform(data);
+                
+                assertArrayEquals(data, transform.reverseTransform(compressed));
+            }
+        }
+    }
+    
+    /**
+     * Test of reverseTransform method, of class ZlibDataTransform, on data 
+     * compressed by a separate Deflater.
+     */
+    @Test
+    public void testReverseTransformCompatibility() throws Exception {
+        byte[] data = generateData(20000);
+        
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(data);
+        deflater.finish();
+        
+        byte[] compressed = new byte[data.length * 2];
+        int compressedLength = deflater.deflate(compressed);
+        deflater.end();
+        
+        assertArrayEquals(data, new ZlibDataTransform(data.length).reverseTransform(Arrays.copyOf(compressed, compressedLength)));
+    }
+}
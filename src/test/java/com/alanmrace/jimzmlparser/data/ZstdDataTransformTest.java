@@ -0,0 +1,97 @@
+package com.alanmrace.jimzmlparser.data;
+
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray.CompressionType;
+import com.github.luben.zstd.ZstdDictTrainer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class ZstdDataTransformTest {
+    
+    /**
+     * Generate a small centroided m/z array, as found in processed imzML data, 
+     * where most peaks recur from spectrum to spectrum.
+     */
+    private static byte[] generateSpectrum(Random random) {
+        double[] mzs = new double[100];
+        int peak = 0;
+        
+        for(int i = 0; i < mzs.length; i++) {
+            peak += 1 + random.nextInt(3);
+            mzs[i] = 100 + peak * 1.0078250319 + (peak % 7) * 0.0012;
+        }
+        
+        return DataTypeTransform.convertDoublesToBytes(mzs);
+    }
+    
+    private static byte[] trainDictionary() {
+        Random random = new Random(1);
+        byte[][] samples = new byte[200][];
+        int totalSize = 0;
+        
+        for(int i = 0; i < samples.length; i++) {
+            samples[i] = generateSpectrum(random);
+            totalSize += samples[i].length;
+        }
+        
+        ZstdDictTrainer trainer = new ZstdDictTrainer(totalSize, 16 * 1024);
+        
+        for(byte[] sample : samples)
+            trainer.addSample(sample);
+        
+        return trainer.trainSamples();
+    }
+
+    /**
+     * Test of forwardTransform and reverseTransform methods using a dictionary, of class ZstdDataTransform.
+     */
+    @Test
+    public void testTransformWithDictionary() throws Exception {
+        byte[] dictionary = trainDictionary();
+        byte[] data = generateSpectrum(new Random(1000));
+        
+        ZstdDataTransform withDictionary = new ZstdDataTransform(data.length, 3, dictionary);
+        ZstdDataTransform withoutDictionary = new ZstdDataTransform(data.length, 3);
+        
+        byte[] compressed = withDictionary.forwardTransform(data);
+        
+        assertTrue(compressed.length < withoutDictionary.forwardTransform(data).length);
+        assertArrayEquals(data, withDictionary.reverseTransform(compressed));
+        
+        ByteBuffer dest = ByteBuffer.allocateDirect(data.length);
+        ByteBuffer src = ByteBuffer.allocateDirect(compressed.length);
+        src.put(compressed).flip();
+        
+        assertEquals(data.length, withDictionary.reverseTransform(src, dest));
+        
+        byte[] result = new byte[data.length];
+        dest.flip();
+        dest.get(result);
+        
+        assertTrue(Arrays.equals(data, result));
+    }
+    
+    /**
+     * Test that shared DataTransformations are only reused for the same dictionary.
+     */
+    @Test
+    public void testCreateWithDictionary() throws Exception {
+        byte[] dictionary = trainDictionary();
+        byte[] data = generateSpectrum(new Random(1000));
+        
+        DataTransformation transformation = DataTransformation.create(DataTypeTransform.DataType.DOUBLE, CompressionType.ZSTD, dictionary);
+        
+        assertSame(transformation, DataTransformation.create(DataTypeTransform.DataType.DOUBLE, CompressionType.ZSTD, dictionary));
+        assertNotSame(transformation, DataTransformation.create(DataTypeTransform.DataType.DOUBLE, CompressionType.ZSTD));
+        
+        double[] values = DataTypeTransform.convertDataToDouble(data, DataTypeTransform.DataType.DOUBLE);
+        
+        assertArrayEquals(values, transformation.performReverseTransform(transformation.performForwardTransform(values), data.length), 0);
+    }
+}
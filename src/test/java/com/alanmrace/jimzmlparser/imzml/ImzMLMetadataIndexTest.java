@@ -0,0 +1,374 @@
+package com.alanmrace.jimzmlparser.imzml;
+
+import com.alanmrace.jimzmlparser.data.BinaryDataStorage;
+import com.alanmrace.jimzmlparser.data.DataLocation;
+import com.alanmrace.jimzmlparser.exceptions.Issue;
+import com.alanmrace.jimzmlparser.mzml.Run;
+import com.alanmrace.jimzmlparser.mzml.Spectrum;
+import com.alanmrace.jimzmlparser.mzml.SpectrumList;
+import com.alanmrace.jimzmlparser.parser.ImzMLHandler;
+import com.alanmrace.jimzmlparser.parser.MzMLHeaderHandler.ParserBackend;
+import com.alanmrace.jimzmlparser.parser.ParserListener;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ImzMLMetadataIndex}, using spectra created by {@link SpectrumTableTest}.
+ *
+ * @author Alan Race
+ */
+public class ImzMLMetadataIndexTest {
+
+    private File imzMLFile;
+    private File ibdFile;
+
+    @Before
+    public void setUp() throws IOException {
+        imzMLFile = File.createTempFile("imzMLMetadataIndexTest", ".imzML");
+        imzMLFile.deleteOnExit();
+        ibdFile = new File(imzMLFile.getPath().substring(0, imzMLFile.getPath().length() - ".imzML".length()) + ".ibd");
+        ibdFile.deleteOnExit();
+
+        byte[] contents = new byte[2000];
+        new Random(1234).nextBytes(contents);
+
+        writeFile(imzMLFile, "<mzML/>".getBytes("UTF-8"));
+        writeFile(ibdFile, contents);
+    }
+
+    @After
+    public void tearDown() {
+        ImzMLMetadataIndex.getIndexFile(imzMLFile).delete();
+        imzMLFile.delete();
+        ibdFile.delete();
+    }
+
+    private static void writeFile(File file, byte[] contents) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+
+        try {
+            outputStream.write(contents);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static ImzML createImzML(int numberOfSpectra, boolean compact) {
+        ImzML imzML = new ImzML("1.1");
+        imzML.setRun(new Run("run", null));
+
+        SpectrumTable table = SpectrumTableTest.createTable(imzML, numberOfSpectra);
+
+        if (compact) {
+            imzML.getRun().setSpectrumList(new CompactSpectrumList(null, table));
+        } else {
+            SpectrumList spectrumList = new SpectrumList(numberOfSpectra, null);
+
+            for (int i = 0; i < numberOfSpectra; i++) {
+                spectrumList.add(table.getSpectrum(i));
+            }
+
+            imzML.getRun().setSpectrumList(spectrumList);
+        }
+
+        return imzML;
+    }
+
+    /**
+     * Test that the metadata is recreated from the index, of class ImzMLMetadataIndex.
+     */
+    @Test
+    public void testReadWrite() throws IOException {
+        assertNull(ImzMLMetadataIndex.read(imzMLFile, ibdFile, null, true));
+        assertTrue(ImzMLMetadataIndex.write(createImzML(7, true), imzMLFile, ibdFile));
+        assertTrue(ImzMLMetadataIndex.getIndexFile(imzMLFile).isFile());
+
+        BinaryDataStorage dataStorage = new BinaryDataStorage(ibdFile, false);
+
+        try {
+            ImzML imzML = ImzMLMetadataIndex.read(imzMLFile, ibdFile, dataStorage, true);
+
+            assertNotNull(imzML);
+            assertSame(ibdFile, imzML.getIBDFile());
+
+            CompactSpectrumList spectrumList = (CompactSpectrumList) imzML.getRun().getSpectrumList();
+
+            assertEquals(7, spectrumList.size());
+            assertFalse(spectrumList.isRetainLoadedSpectra());
+            assertEquals(new PixelLocation(2, 2, 1), spectrumList.getPixelLocation(4));
+
+            for (int i = 0; i < 7; i++) {
+                Spectrum expected = SpectrumTableTest.createSpectrum("Scan=" + (i + 1), i % 3 + 1, i / 3 + 1, i * 100.0, 16 + i * 120L);
+                Spectrum spectrum = spectrumList.get(i);
+
+                assertEquals(expected.getID(), spectrum.getID());
+                assertEquals(expected.getPixelLocation(), spectrum.getPixelLocation());
+                assertEquals(i * 100.0, spectrum.getCVParam(Spectrum.TOTAL_ION_CURRENT_ID).getValueAsDouble(), 0);
+
+                DataLocation location = spectrum.getBinaryDataArrayList().getIntensityArray().getDataLocation();
+
+                assertSame(dataStorage, location.getDataStorage());
+                assertEquals(16 + i * 120L + 80, location.getOffset());
+                assertEquals(40, location.getLength());
+            }
+        } finally {
+            dataStorage.close();
+        }
+    }
+
+    /**
+     * Test that an index of spectra which are not compact can be written and
+     * that spectra are retained once read, of class ImzMLMetadataIndex.
+     */
+    @Test
+    public void testReadWriteNotCompact() {
+        assertTrue(ImzMLMetadataIndex.write(createImzML(4, false), imzMLFile, ibdFile));
+
+        ImzML imzML = ImzMLMetadataIndex.read(imzMLFile, ibdFile, null, false);
+        CompactSpectrumList spectrumList = (CompactSpectrumList) imzML.getRun().getSpectrumList();
+
+        assertEquals(4, spectrumList.size());
+        assertTrue(spectrumList.isRetainLoadedSpectra());
+        assertEquals(0, spectrumList.getSpectrumTable().getNumberOfSpectraStoredInFull());
+        assertSame(spectrumList.get(3), spectrumList.get(3));
+        assertEquals("Scan=4", spectrumList.get(3).getID());
+    }
+
+    /**
+     * Test that the index is ignored once the imzML or IBD file changes, of class ImzMLMetadataIndex.
+     */
+    @Test
+    public void testInvalidation() throws IOException {
+        assertTrue(ImzMLMetadataIndex.write(createImzML(3, true), imzMLFile, ibdFile));
+        assertNotNull(ImzMLMetadataIndex.read(imzMLFile, ibdFile, null, true));
+
+        // Change the UUID without changing the size or modification time
+        long lastModified = ibdFile.lastModified();
+        RandomAccessFile file = new RandomAccessFile(ibdFile, "rw");
+
+        try {
+            file.seek(3);
+            byte value = file.readByte();
+            file.seek(3);
+            file.writeByte(value + 1);
+        } finally {
+            file.close();
+        }
+
+        assertTrue(ibdFile.setLastModified(lastModified));
+        assertNull(ImzMLMetadataIndex.read(imzMLFile, ibdFile, null, true));
+
+        assertTrue(ImzMLMetadataIndex.write(createImzML(3, true), imzMLFile, ibdFile));
+        assertNotNull(ImzMLMetadataIndex.read(imzMLFile, ibdFile, null, true));
+
+        writeFile(imzMLFile, "<mzML></mzML>".getBytes("UTF-8"));
+
+        assertNull(ImzMLMetadataIndex.read(imzMLFile, ibdFile, null, true));
+    }
+
+    /**
+     * Test that a truncated or corrupt index, or one containing classes which
+     * cannot be part of the metadata, is ignored rather than read, of class
+     * ImzMLMetadataIndex.
+     */
+    @Test
+    public void testCorruptIndex() throws IOException {
+        File indexFile = ImzMLMetadataIndex.getIndexFile(imzMLFile);
+
+        assertTrue(ImzMLMetadataIndex.write(createImzML(5, true), imzMLFile, ibdFile));
+
+        byte[] index = readFile(indexFile);
+        int headerStart = getHeaderStart(index);
+        int headerSize = readInt(index, headerStart - 4);
+
+        writeFile(indexFile, Arrays.copyOf(index, index.length / 2));
+        assertNull(ImzMLMetadataIndex.read(imzMLFile, ibdFile, null, true));
+
+        byte[] corrupt = index.clone();
+        Arrays.fill(corrupt, headerStart + headerSize / 2, headerStart + headerSize / 2 + 16, (byte) 0xFF);
+        writeFile(indexFile, corrupt);
+        assertNull(ImzMLMetadataIndex.read(imzMLFile, ibdFile, null, true));
+
+        // Replace the header with an object which is not part of the metadata
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        ObjectOutputStream headerStream = new ObjectOutputStream(header);
+        headerStream.writeObject(new TreeMap<String, String>());
+        headerStream.close();
+
+        ByteArrayOutputStream replaced = new ByteArrayOutputStream();
+        DataOutputStream replacedStream = new DataOutputStream(replaced);
+        replacedStream.write(index, 0, headerStart - 4);
+        replacedStream.writeInt(header.size());
+        header.writeTo(replacedStream);
+        replacedStream.write(index, headerStart + headerSize, index.length - headerStart - headerSize);
+        replacedStream.close();
+
+        writeFile(indexFile, replaced.toByteArray());
+
+        final List<Throwable> thrown = new ArrayList<Throwable>();
+        Logger logger = Logger.getLogger(ImzMLMetadataIndex.class.getName());
+        Level previousLevel = logger.getLevel();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                thrown.add(record.getThrown());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        logger.setLevel(Level.FINE);
+        logger.addHandler(handler);
+
+        try {
+            assertNull(ImzMLMetadataIndex.read(imzMLFile, ibdFile, null, true));
+        } finally {
+            logger.removeHandler(handler);
+            logger.setLevel(previousLevel);
+        }
+
+        assertEquals(1, thrown.size());
+        assertTrue(thrown.get(0) instanceof InvalidClassException);
+
+        // The index is replaced by a valid one, without leaving temporary files
+        assertTrue(ImzMLMetadataIndex.write(createImzML(5, true), imzMLFile, ibdFile));
+        assertNotNull(ImzMLMetadataIndex.read(imzMLFile, ibdFile, null, true));
+
+        for (String name : indexFile.getAbsoluteFile().getParentFile().list()) {
+            assertFalse(name, name.startsWith(indexFile.getName()) && name.endsWith(".tmp"));
+        }
+    }
+
+    /**
+     * Returns the position of the serialised header within the index, which
+     * follows the file details and the number of spectra and size of the header.
+     */
+    private static int getHeaderStart(byte[] index) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(index));
+
+        input.skipBytes(8 + 4);
+        int utfLength = input.readUnsignedShort();
+
+        return 8 + 4 + 2 + utfLength + 4 * 8 + 16 + 4 + 4;
+    }
+
+    private static int readInt(byte[] data, int offset) throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(data, offset, 4)).readInt();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] contents = new byte[(int) file.length()];
+        DataInputStream input = new DataInputStream(new FileInputStream(file));
+
+        try {
+            input.readFully(contents);
+        } finally {
+            input.close();
+        }
+
+        return contents;
+    }
+
+    /**
+     * Test that indices are stored in the cache directory when set, of class ImzMLMetadataIndex.
+     */
+    @Test
+    public void testCacheDirectory() throws IOException {
+        File cacheDirectory = new File(imzMLFile.getParentFile(), "imzMLMetadataIndexTest" + System.nanoTime());
+
+        try {
+            File indexFile = ImzMLMetadataIndex.getIndexFile(imzMLFile, cacheDirectory);
+
+            assertEquals(cacheDirectory, indexFile.getParentFile());
+            assertTrue(ImzMLMetadataIndex.write(createImzML(2, true), imzMLFile, ibdFile, cacheDirectory));
+            assertTrue(indexFile.isFile());
+            assertFalse(ImzMLMetadataIndex.getIndexFile(imzMLFile).isFile());
+            assertNull(ImzMLMetadataIndex.read(imzMLFile, ibdFile, null, true));
+            assertNotNull(ImzMLMetadataIndex.read(imzMLFile, ibdFile, cacheDirectory, null, true));
+
+            indexFile.delete();
+        } finally {
+            cacheDirectory.delete();
+        }
+
+        assertEquals(new File(imzMLFile.getPath() + ImzMLMetadataIndex.FILE_EXTENSION), ImzMLMetadataIndex.getIndexFile(imzMLFile));
+        assertEquals(new File(imzMLFile.getPath() + ImzMLMetadataIndex.FILE_EXTENSION), ImzMLMetadataIndex.getIndexFile(imzMLFile, null));
+    }
+
+    /**
+     * Test that parsing an imzML file with the metadata index writes the index,
+     * and that the ImzML read from the index matches the parsed ImzML, of class 
+     * ImzMLMetadataIndex.
+     */
+    @Test
+    public void testParseWithIndex() throws Exception {
+        String path = ImzMLMetadataIndexTest.class.getResource("/MatrixTests_N2.imzML").getPath();
+        File cacheDirectory = new File(imzMLFile.getParentFile(), "imzMLMetadataIndexTest" + System.nanoTime());
+        File indexFile = ImzMLMetadataIndex.getIndexFile(new File(path), cacheDirectory);
+
+        try {
+            ImzML parsed = ImzMLHandler.parseimzML(path, true, null, BinaryDataStorage.AccessMethod.RANDOM_ACCESS_FILE, false, ParserBackend.SAX, true, cacheDirectory);
+
+            assertTrue(indexFile.isFile());
+            assertFalse(parsed.getRun().getSpectrumList() instanceof CompactSpectrumList);
+
+            final List<Issue> issues = new ArrayList<Issue>();
+            ImzML indexed = ImzMLHandler.parseimzML(path, true, new ParserListener() {
+                @Override
+                public void issueFound(Issue issue) {
+                    issues.add(issue);
+                }
+            }, BinaryDataStorage.AccessMethod.RANDOM_ACCESS_FILE, false, ParserBackend.SAX, true, cacheDirectory);
+
+            try {
+                assertTrue(indexed.getRun().getSpectrumList() instanceof CompactSpectrumList);
+                assertTrue(issues.isEmpty());
+                assertEquals(parsed.getRun().getSpectrumList().size(), indexed.getRun().getSpectrumList().size());
+
+                for (int i = 0; i < parsed.getRun().getSpectrumList().size(); i++) {
+                    Spectrum expected = parsed.getRun().getSpectrumList().get(i);
+                    Spectrum spectrum = indexed.getRun().getSpectrumList().get(i);
+
+                    assertEquals(expected.getID(), spectrum.getID());
+                    assertEquals(expected.getPixelLocation(), spectrum.getPixelLocation());
+                    assertArrayEquals(expected.getmzArray(), spectrum.getmzArray(), 0);
+                    assertArrayEquals(expected.getIntensityArray(), spectrum.getIntensityArray(), 0);
+                }
+            } finally {
+                parsed.close();
+                indexed.close();
+            }
+        } finally {
+            indexFile.delete();
+            cacheDirectory.delete();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.alanmrace.jimzmlparser.imzml;
+
+import com.alanmrace.jimzmlparser.data.DataLocation;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArrayList;
+import com.alanmrace.jimzmlparser.mzml.DoubleCVParam;
+import com.alanmrace.jimzmlparser.mzml.EmptyCVParam;
+import com.alanmrace.jimzmlparser.mzml.IntegerCVParam;
+import com.alanmrace.jimzmlparser.mzml.LongCVParam;
+import com.alanmrace.jimzmlparser.mzml.Scan;
+import com.alanmrace.jimzmlparser.mzml.ScanList;
+import com.alanmrace.jimzmlparser.mzml.Spectrum;
+import com.alanmrace.jimzmlparser.obo.OBOTerm;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SpectrumTable}, using ontology terms created without loading
+ * the ontology.
+ *
+ * @author Alan Race
+ */
+public class SpectrumTableTest {
+
+    private static final OBOTerm BINARY_DATA_ARRAY = new OBOTerm(null, BinaryDataArray.BINARY_DATA_ARRAY_ID);
+    private static final OBOTerm MZ_ARRAY = createChildTerm(BinaryDataArray.MZ_ARRAY_ID, BINARY_DATA_ARRAY);
+    private static final OBOTerm INTENSITY_ARRAY = createChildTerm(BinaryDataArray.INTENSITY_ARRAY_ID, BINARY_DATA_ARRAY);
+    private static final OBOTerm EXTERNAL_OFFSET = new OBOTerm(null, BinaryDataArray.EXTERNAL_OFFSET_ID);
+    private static final OBOTerm EXTERNAL_ENCODED_LENGTH = new OBOTerm(null, BinaryDataArray.EXTERNAL_ENCODED_LENGTH_ID);
+    private static final OBOTerm EXTERNAL_ARRAY_LENGTH = new OBOTerm(null, BinaryDataArray.EXTERNAL_ARRAY_LENGTH_ID);
+    private static final OBOTerm POSITION_X = new OBOTerm(null, Scan.POSITION_X_ID);
+    private static final OBOTerm POSITION_Y = new OBOTerm(null, Scan.POSITION_Y_ID);
+    private static final OBOTerm TOTAL_ION_CURRENT = new OBOTerm(null, Spectrum.TOTAL_ION_CURRENT_ID);
+    private static final OBOTerm BASE_PEAK_INTENSITY = new OBOTerm(null, "MS:1000505");
+
+    private static OBOTerm createChildTerm(String id, OBOTerm parent) {
+        OBOTerm term = new OBOTerm(null, id);
+        term.addParent(parent);
+
+        return term;
+    }
+
+    /**
+     * Create an imzML style spectrum with data stored at the specified offset.
+     */
+    static Spectrum createSpectrum(String id, int x, int y, double tic, long offset) {
+        Spectrum spectrum = new Spectrum(id, 10);
+        spectrum.addCVParam(new DoubleCVParam(TOTAL_ION_CURRENT, tic));
+
+        Scan scan = new Scan();
+        scan.addCVParam(new IntegerCVParam(POSITION_X, x));
+        scan.addCVParam(new IntegerCVParam(POSITION_Y, y));
+
+        ScanList scanList = new ScanList(1);
+        scanList.add(scan);
+        spectrum.setScanList(scanList);
+
+        BinaryDataArrayList bdaList = new BinaryDataArrayList(2);
+        bdaList.addBinaryDataArray(createBinaryDataArray(MZ_ARRAY, offset, 80, 10));
+        bdaList.addBinaryDataArray(createBinaryDataArray(INTENSITY_ARRAY, offset + 80, 40, 10));
+        spectrum.setBinaryDataArrayList(bdaList);
+
+        return spectrum;
+    }
+
+    private static BinaryDataArray createBinaryDataArray(OBOTerm arrayType, long offset, int encodedLength, int arrayLength) {
+        BinaryDataArray bda = new BinaryDataArray(0);
+        bda.addCVParam(new EmptyCVParam(arrayType));
+        bda.addCVParam(new LongCVParam(EXTERNAL_ARRAY_LENGTH, arrayLength));
+        bda.addCVParam(new LongCVParam(EXTERNAL_ENCODED_LENGTH, encodedLength));
+        bda.addCVParam(new LongCVParam(EXTERNAL_OFFSET, offset));
+        bda.setDataLocation(new DataLocation(null, offset, encodedLength));
+
+        return bda;
+    }
+
+    static SpectrumTable createTable(int numberOfSpectra) {
+        return createTable(new ImzML("1.1"), numberOfSpectra);
+    }
+
+    static SpectrumTable createTable(ImzML imzML, int numberOfSpectra) {
+        SpectrumTable table = new SpectrumTable(imzML, 1);
+
+        for (int i = 0; i < numberOfSpectra; i++) {
+            table.addSpectrum(createSpectrum("Scan=" + (i + 1), i % 3 + 1, i / 3 + 1, i * 100.0, 16 + i * 120L));
+        }
+
+        return table;
+    }
+
+    /**
+     * Test that spectra are recreated from the table, of class SpectrumTable.
+     */
+    @Test
+    public void testGetSpectrum() {
+        SpectrumTable table = createTable(7);
+
+        assertEquals(7, table.getNumberOfSpectra());
+        assertEquals(0, table.getNumberOfSpectraStoredInFull());
+
+        for (int i = 0; i < 7; i++) {
+            Spectrum expected = createSpectrum("Scan=" + (i + 1), i % 3 + 1, i / 3 + 1, i * 100.0, 16 + i * 120L);
+            Spectrum spectrum = table.getSpectrum(i);
+
+            assertTrue(SpectrumTable.isEquivalent(expected, spectrum));
+            assertEquals(expected.getPixelLocation(), spectrum.getPixelLocation());
+            assertEquals(i * 100.0, spectrum.getCVParam(Spectrum.TOTAL_ION_CURRENT_ID).getValueAsDouble(), 0);
+
+            DataLocation location = spectrum.getBinaryDataArrayList().getIntensityArray().getDataLocation();
+
+            assertEquals(16 + i * 120L + 80, location.getOffset());
+            assertEquals(40, location.getLength());
+            assertEquals(16 + i * 120L, table.getmzOffset(i));
+            assertEquals(80, table.getmzEncodedLength(i));
+            assertEquals(10, table.getIntensityArrayLength(i));
+            assertFalse(table.isStoredInFull(i));
+        }
+
+        assertNotSame(table.getSpectrum(3), table.getSpectrum(3));
+        assertEquals(Arrays.asList("Scan=1", "Scan=2", "Scan=3"), table.getSpectrumIDs().subList(0, 3));
+    }
+
+    /**
+     * Test that spectra which differ from the template are stored in full, of class SpectrumTable.
+     */
+    @Test
+    public void testIrregularSpectrum() {
+        SpectrumTable table = createTable(2);
+
+        Spectrum irregular = createSpectrum("pixel 3", 5, 6, 1.0, 1000);
+        irregular.addCVParam(new DoubleCVParam(BASE_PEAK_INTENSITY, 2.0));
+        table.addSpectrum(irregular);
+        table.addSpectrum(createSpectrum("Scan=4", 7, 8, 1.0, 2000));
+
+        assertEquals(1, table.getNumberOfSpectraStoredInFull());
+        assertTrue(table.isStoredInFull(2));
+        assertSame(irregular, table.getSpectrum(2));
+        assertFalse(table.isStoredInFull(3));
+        assertEquals(Arrays.asList("Scan=1", "Scan=2", "pixel 3", "Scan=4"), table.getSpectrumIDs());
+        assertEquals(new PixelLocation(7, 8, 1), table.getSpectrum(3).getPixelLocation());
+    }
+
+    /**
+     * Test of setPixelLocation method, of class SpectrumTable.
+     */
+    @Test
+    public void testSetPixelLocation() {
+        SpectrumTable table = createTable(4);
+
+        table.setPixelLocation(1, new PixelLocation(20, 30, 1));
+        table.trimToSize();
+
+        assertEquals(new PixelLocation(20, 30, 1), table.getPixelLocation(1));
+        assertEquals(new PixelLocation(20, 30, 1), table.getSpectrum(1).getPixelLocation());
+        assertEquals(new PixelLocation(3, 1, 1), table.getPixelLocation(2));
+    }
+
+    /**
+     * Test of isEquivalent method, of class SpectrumTable.
+     */
+    @Test
+    public void testIsEquivalent() {
+        assertTrue(SpectrumTable.isEquivalent(createSpectrum("Scan=1", 1, 2, 3.0, 16), createSpectrum("Scan=1", 1, 2, 3.0, 16)));
+        assertFalse(SpectrumTable.isEquivalent(createSpectrum("Scan=1", 1, 2, 3.0, 16), createSpectrum("Scan=1", 1, 3, 3.0, 16)));
+        assertFalse(SpectrumTable.isEquivalent(createSpectrum("Scan=1", 1, 2, 3.0, 16), createSpectrum("Scan=1", 1, 2, 3.5, 16)));
+        assertFalse(SpectrumTable.isEquivalent(createSpectrum("Scan=1", 1, 2, 3.0, 16), createSpectrum("Scan=2", 1, 2, 3.0, 16)));
+
+        Spectrum moved = createSpectrum("Scan=1", 1, 2, 3.0, 16);
+        moved.getBinaryDataArrayList().getmzArray().setDataLocation(new DataLocation(null, 17, 80));
+
+        assertFalse(SpectrumTable.isEquivalent(createSpectrum("Scan=1", 1, 2, 3.0, 16), moved));
+    }
+
+    /**
+     * Test that the spectrum table is used by CompactSpectrumList without creating spectra.
+     */
+    @Test
+    public void testCompactSpectrumList() {
+        CompactSpectrumList spectrumList = new CompactSpectrumList(null, createTable(5));
+
+        assertEquals(5, spectrumList.size());
+        assertFalse(spectrumList.isRetainLoadedSpectra());
+        assertEquals(new PixelLocation(2, 2, 1), spectrumList.getPixelLocation(4));
+        assertFalse(spectrumList.isLoaded(4));
+        assertTrue(spectrumList.containsID("Scan=5"));
+
+        Spectrum spectrum = spectrumList.get("Scan=5");
+
+        assertSame(spectrumList, spectrum.getParent());
+        assertSame(spectrum, spectrumList.get(4));
+        assertEquals(new PixelLocation(2, 2, 1), spectrum.getPixelLocation());
+
+        spectrumList.remove(0);
+
+        assertEquals(new PixelLocation(2, 2, 1), spectrumList.getPixelLocation(3));
+        assertEquals("Scan=2", spectrumList.get(0).getID());
+    }
+}
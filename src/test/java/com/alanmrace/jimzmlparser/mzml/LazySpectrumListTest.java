@@ -0,0 +1,119 @@
+package com.alanmrace.jimzmlparser.mzml;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class LazySpectrumListTest {
+    
+    private static final List<String> IDS = Arrays.asList("scan=1", "scan=2", "scan=3");
+    
+    private int numberLoaded;
+    
+    private LazySpectrumList createList() {
+        numberLoaded = 0;
+        
+        return new LazySpectrumList(null, IDS, new LazySpectrumList.SpectrumLoader() {
+            @Override
+            public Spectrum loadSpectrum(int index) throws IOException {
+                numberLoaded++;
+                
+                return new Spectrum(IDS.get(index), 0);
+            }
+        });
+    }
+
+    /**
+     * Test that spectra are only loaded on first access, of class LazySpectrumList.
+     */
+    @Test
+    public void testGet() {
+        LazySpectrumList spectrumList = createList();
+        
+        assertEquals(3, spectrumList.size());
+        assertEquals(0, numberLoaded);
+        assertTrue(spectrumList.getLoadedSpectra().isEmpty());
+        assertTrue(spectrumList.containsID("scan=2"));
+        assertEquals(0, numberLoaded);
+        
+        Spectrum spectrum = spectrumList.get("scan=2");
+        
+        assertEquals("scan=2", spectrum.getID());
+        assertSame(spectrumList, spectrum.getParent());
+        assertSame(spectrum, spectrumList.get(1));
+        assertTrue(spectrumList.isLoaded(1));
+        assertFalse(spectrumList.isLoaded(0));
+        assertEquals(1, numberLoaded);
+        assertEquals(Arrays.asList(spectrum), spectrumList.getLoadedSpectra());
+        assertNull(spectrumList.get("scan=4"));
+        
+        int index = 0;
+        
+        for(Spectrum current : spectrumList)
+            assertEquals(IDS.get(index++), current.getID());
+        
+        assertEquals(3, index);
+        assertEquals(3, numberLoaded);
+    }
+
+    /**
+     * Test of add and remove methods, of class LazySpectrumList.
+     */
+    @Test
+    public void testAddRemove() {
+        LazySpectrumList spectrumList = createList();
+        
+        Spectrum added = new Spectrum("scan=4", 0);
+        spectrumList.add(added);
+        
+        assertEquals(4, spectrumList.size());
+        assertEquals(3, spectrumList.indexOf(added));
+        assertSame(added, spectrumList.get("scan=4"));
+        
+        assertTrue(spectrumList.remove(spectrumList.get(0)));
+        assertEquals(3, spectrumList.size());
+        assertEquals(2, spectrumList.indexOf(added));
+        assertFalse(spectrumList.containsID("scan=1"));
+        assertEquals("scan=3", spectrumList.get("scan=3").getID());
+        assertEquals(1, spectrumList.indexOf(spectrumList.get("scan=3")));
+        assertEquals(Arrays.asList("scan=1", "scan=2", "scan=3"), IDS);
+    }
+
+    /**
+     * Test that loaded spectra are only softly referenced when not retained, of class LazySpectrumList.
+     */
+    @Test
+    public void testRetainLoadedSpectra() {
+        LazySpectrumList spectrumList = createList();
+        
+        assertTrue(spectrumList.isRetainLoadedSpectra());
+        
+        Spectrum first = spectrumList.get(0);
+        spectrumList.setRetainLoadedSpectra(false);
+        
+        assertFalse(spectrumList.isRetainLoadedSpectra());
+        assertTrue(spectrumList.isLoaded(0));
+        assertSame(first, spectrumList.get(0));
+        
+        Spectrum added = new Spectrum("scan=4", 0);
+        spectrumList.add(added);
+        Spectrum second = spectrumList.get(1);
+        
+        assertEquals(2, numberLoaded);
+        assertSame(second, spectrumList.get(1));
+        assertEquals(1, spectrumList.indexOf(second));
+        assertTrue(spectrumList.getLoadedSpectra().contains(added));
+        
+        spectrumList.setRetainLoadedSpectra(true);
+        
+        assertSame(first, spectrumList.get(0));
+        assertSame(second, spectrumList.get(1));
+        assertEquals(2, numberLoaded);
+    }
+}
@@ -0,0 +1,155 @@
+package com.alanmrace.jimzmlparser.mzml;
+
+import com.alanmrace.jimzmlparser.data.BinaryDataStorage;
+import com.alanmrace.jimzmlparser.data.DataLocation;
+import com.alanmrace.jimzmlparser.data.DataTypeTransform;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class PrefetchingSpectrumIteratorTest {
+    
+    private static final int NUMBER_OF_SPECTRA = 20;
+    private static final int ARRAY_LENGTH = 100;
+    
+    private File dataFile;
+    private BinaryDataStorage storage;
+    private SpectrumList spectrumList;
+    
+    public PrefetchingSpectrumIteratorTest() {
+    }
+    
+    @Before
+    public void setUp() throws Exception {
+        dataFile = File.createTempFile("prefetchingSpectrumIteratorTest", ".ibd");
+        dataFile.deleteOnExit();
+        
+        FileOutputStream outputStream = new FileOutputStream(dataFile);
+        
+        try {
+            // Each array contains the index of the array (2 per spectrum)
+            for(int i = 0; i < NUMBER_OF_SPECTRA * 2; i++) {
+                double[] data = new double[ARRAY_LENGTH];
+                Arrays.fill(data, i);
+                
+                outputStream.write(DataTypeTransform.convertDoublesToBytes(data));
+            }
+        } finally {
+            outputStream.close();
+        }
+        
+        storage = new BinaryDataStorage(dataFile, false);
+        spectrumList = new SpectrumList(NUMBER_OF_SPECTRA, null);
+        
+        for(int i = 0; i < NUMBER_OF_SPECTRA; i++) {
+            Spectrum spectrum = new Spectrum("spectrum=" + i, ARRAY_LENGTH);
+            BinaryDataArrayList binaryDataArrayList = new BinaryDataArrayList(2);
+            
+            for(int j = 0; j < 2; j++) {
+                BinaryDataArray binaryDataArray = new BinaryDataArray(ARRAY_LENGTH * 8);
+                binaryDataArray.setDataLocation(new DataLocation(storage, (i * 2 + j) * ARRAY_LENGTH * 8L, ARRAY_LENGTH * 8));
+                
+                binaryDataArrayList.addBinaryDataArray(binaryDataArray);
+            }
+            
+            spectrum.setBinaryDataArrayList(binaryDataArrayList);
+            spectrumList.addSpectrum(spectrum);
+        }
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        storage.close();
+        dataFile.delete();
+    }
+
+    /**
+     * Test of iteration, of class PrefetchingSpectrumIterator, checking that data
+     * is in memory for the current spectrum and released for the previous one.
+     */
+    @Test
+    public void testIteration() throws Exception {
+        PrefetchingSpectrumIterator iterator = spectrumList.prefetchingIterator(3, 2);
+        Spectrum previous = null;
+        int index = 0;
+        
+        try {
+            while(iterator.hasNext()) {
+                Spectrum spectrum = iterator.next();
+                
+                assertSame(spectrumList.getSpectrum(index), spectrum);
+                
+                for(int j = 0; j < 2; j++) {
+                    BinaryDataArray binaryDataArray = spectrum.getBinaryDataArrayList().getBinaryDataArray(j);
+                    
+                    assertTrue(binaryDataArray.isDataInMemory());
+                    assertEquals(index * 2 + j, binaryDataArray.getDataAsDouble()[0], 0);
+                }
+                
+                if(previous != null) {
+                    assertFalse(previous.getBinaryDataArrayList().getBinaryDataArray(0).isDataInMemory());
+                }
+                
+                previous = spectrum;
+                index++;
+            }
+        } finally {
+            iterator.close();
+        }
+        
+        assertEquals(NUMBER_OF_SPECTRA, index);
+        assertTrue(iterator.isShutdown());
+        assertFalse(previous.getBinaryDataArrayList().getBinaryDataArray(1).isDataInMemory());
+    }
+    
+    /**
+     * Test of close method, of class PrefetchingSpectrumIterator, when stopping
+     * iteration early.
+     */
+    @Test
+    public void testClose() throws Exception {
+        PrefetchingSpectrumIterator iterator = new PrefetchingSpectrumIterator(spectrumList, 5, 3);
+        
+        iterator.next();
+        iterator.close();
+        
+        assertFalse(iterator.hasNext());
+        
+        for(int i = 0; i < NUMBER_OF_SPECTRA; i++) {
+            for(int j = 0; j < 2; j++) {
+                assertFalse(spectrumList.getSpectrum(i).getBinaryDataArrayList().getBinaryDataArray(j).isDataInMemory());
+            }
+        }
+    }
+    
+    /**
+     * Test that the background threads are stopped and the data of the final 
+     * spectrum released once iteration reaches the end, without calling close,
+     * of class PrefetchingSpectrumIterator.
+     */
+    @Test
+    public void testShutdownAtEnd() throws Exception {
+        PrefetchingSpectrumIterator iterator = new PrefetchingSpectrumIterator(spectrumList, 2, 1);
+        Spectrum last = null;
+        
+        while(iterator.hasNext()) {
+            assertFalse(iterator.isShutdown());
+            
+            last = iterator.next();
+        }
+        
+        assertTrue(iterator.isShutdown());
+        assertFalse(last.getBinaryDataArrayList().getBinaryDataArray(0).isDataInMemory());
+        assertFalse(iterator.hasNext());
+        
+        iterator.close();
+    }
+}
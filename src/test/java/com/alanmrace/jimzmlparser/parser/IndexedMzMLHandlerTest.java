@@ -0,0 +1,123 @@
+package com.alanmrace.jimzmlparser.parser;
+
+import com.alanmrace.jimzmlparser.mzml.CVParam;
+import com.alanmrace.jimzmlparser.mzml.LazySpectrumList;
+import com.alanmrace.jimzmlparser.mzml.MzML;
+import com.alanmrace.jimzmlparser.mzml.MzMLContentWithParams;
+import com.alanmrace.jimzmlparser.mzml.Spectrum;
+import com.alanmrace.jimzmlparser.mzml.SpectrumList;
+import com.alanmrace.jimzmlparser.mzml.UserParam;
+import com.alanmrace.jimzmlparser.parser.IndexedMzMLHandler.MzMLIndex;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for IndexedMzMLHandler.
+ * 
+ * @author Alan Race
+ */
+public class IndexedMzMLHandlerTest {
+    
+    /**
+     * Resource mzML file for testing (from http://www.psidev.info/mzml_1_0_0%20).
+     */
+    private static final String TINY_PWIZ_RESOURCE = "/tiny.pwiz.1.1.mzML";
+
+    /**
+     * Test of readIndex method, of class IndexedMzMLHandler.
+     * 
+     * @throws Exception Issue reading the test file
+     */
+    @Test
+    public void testReadIndex() throws Exception {
+        assertNotNull("Test file missing", IndexedMzMLHandlerTest.class.getResource(TINY_PWIZ_RESOURCE));
+        
+        String resourcePath = IndexedMzMLHandlerTest.class.getResource(TINY_PWIZ_RESOURCE).getPath();
+        RandomAccessFile raf = new RandomAccessFile(resourcePath, "r");
+        
+        try {
+            MzMLIndex index = IndexedMzMLHandler.readIndex(raf);
+            
+            assertNotNull(index);
+            assertEquals(24498, index.getIndexListOffset());
+            assertEquals(Arrays.asList("scan=19", "scan=20", "scan=21", "sample=1 period=1 cycle=22 experiment=1"), index.getSpectrumIDs());
+            assertEquals(6883, index.getSpectrumOffset(0));
+            assertEquals(10424 - 6883, index.getSpectrumLength(0));
+            // The last spectrum ends at the first chromatogram
+            assertEquals(20654 - 16940, index.getSpectrumLength(3));
+            
+            for(int i = 0; i < index.getNumberOfSpectra(); i++) {
+                byte[] data = new byte[index.getSpectrumLength(i)];
+                
+                raf.seek(index.getSpectrumOffset(i));
+                raf.readFully(data);
+                
+                String spectrum = new String(data, "UTF-8");
+                
+                assertTrue(spectrum.startsWith("<spectrum "));
+                assertTrue(spectrum.contains("id=\"" + index.getSpectrumIDs().get(i) + "\""));
+                assertTrue(spectrum.contains("</spectrum>"));
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static List<String> getParams(MzMLContentWithParams content) {
+        List<String> params = new ArrayList<String>();
+        
+        for(CVParam cvParam : content.getCVParamList()) {
+            params.add(cvParam.getXMLAttributeText());
+        }
+        
+        for(UserParam userParam : content.getUserParamList()) {
+            params.add(userParam.getXMLAttributeText());
+        }
+        
+        return params;
+    }
+    
+    /**
+     * Test of openIndexedmzML method, of class IndexedMzMLHandler. Spectra loaded
+     * from the index should match those parsed with the rest of the file.
+     * 
+     * @throws Exception Issue parsing the test file
+     */
+    @Test
+    public void testOpenIndexedmzML() throws Exception {
+        assertNotNull("Test file missing", IndexedMzMLHandlerTest.class.getResource(TINY_PWIZ_RESOURCE));
+        
+        String resourcePath = IndexedMzMLHandlerTest.class.getResource(TINY_PWIZ_RESOURCE).getPath();
+        
+        MzML expected = MzMLHeaderHandler.parsemzMLHeader(resourcePath, true);
+        MzML mzML = IndexedMzMLHandler.openIndexedmzML(resourcePath);
+        
+        try {
+            SpectrumList expectedSpectra = expected.getRun().getSpectrumList();
+            SpectrumList spectra = mzML.getRun().getSpectrumList();
+            
+            assertTrue(spectra instanceof LazySpectrumList);
+            assertEquals(getParams(expected.getRun()), getParams(mzML.getRun()));
+            assertEquals(expectedSpectra.size(), spectra.size());
+            
+            for(int i = 0; i < expectedSpectra.size(); i++) {
+                Spectrum expectedSpectrum = expectedSpectra.get(i);
+                Spectrum spectrum = spectra.get(i);
+                
+                assertEquals(expectedSpectrum.getID(), spectrum.getID());
+                assertEquals(expectedSpectrum.getID(), getParams(expectedSpectrum), getParams(spectrum));
+                assertEquals(expectedSpectrum.getID(), getParams(expectedSpectrum.getScanList().getScan(0)), getParams(spectrum.getScanList().getScan(0)));
+                
+                assertArrayEquals(expectedSpectrum.getID(), expectedSpectrum.getmzArray(), spectrum.getmzArray(), 0);
+                assertArrayEquals(expectedSpectrum.getID(), expectedSpectrum.getIntensityArray(), spectrum.getIntensityArray(), 0);
+            }
+        } finally {
+            expected.close();
+            mzML.close();
+        }
+    }
+}
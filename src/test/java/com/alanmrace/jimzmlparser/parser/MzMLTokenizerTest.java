@@ -0,0 +1,352 @@
+package com.alanmrace.jimzmlparser.parser;
+
+import com.alanmrace.jimzmlparser.data.BinaryDataStorage;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray;
+import com.alanmrace.jimzmlparser.mzml.Chromatogram;
+import com.alanmrace.jimzmlparser.mzml.MzML;
+import com.alanmrace.jimzmlparser.mzml.MzMLDataContainer;
+import com.alanmrace.jimzmlparser.mzml.Spectrum;
+import com.alanmrace.jimzmlparser.parser.MzMLHeaderHandler.ParserBackend;
+import com.alanmrace.jimzmlparser.writer.MzMLWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.SAXParserFactory;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for MzMLTokenizer, comparing the events reported against those from
+ * the JAXP SAX parser.
+ * 
+ * @author Alan Race
+ */
+public class MzMLTokenizerTest {
+    
+    /**
+     * Test files, covering mzML and imzML.
+     */
+    private static final String[] RESOURCES = {"/tiny.pwiz.1.1.mzML", "/full.pwiz.1.1.mzML", 
+        "/small_miape.pwiz.1.1.mzML", "/2012_5_2_medium_81.mzML", "/MatrixTests_N2.imzML"};
+    
+    /**
+     * Handler recording each event as a String, with adjacent character data 
+     * combined, as parsers are free to split it differently.
+     */
+    private static class RecordingHandler extends DefaultHandler {
+        
+        private final List<String> events = new ArrayList<String>();
+        private final StringBuilder text = new StringBuilder();
+        private final boolean ignoreBinaryContent;
+        private boolean inBinary;
+        
+        RecordingHandler(boolean ignoreBinaryContent) {
+            this.ignoreBinaryContent = ignoreBinaryContent;
+        }
+        
+        private void flushText() {
+            if(text.length() > 0) {
+                events.add("text:" + text);
+                text.setLength(0);
+            }
+        }
+        
+        @Override
+        public void startDocument() {
+            events.add("startDocument");
+        }
+        
+        @Override
+        public void endDocument() {
+            flushText();
+            events.add("endDocument");
+        }
+        
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            flushText();
+            
+            StringBuilder event = new StringBuilder("start:" + uri + ":" + localName + ":" + qName);
+            
+            for(int i = 0; i < attributes.getLength(); i++) {
+                event.append(" ").append(attributes.getQName(i)).append("=").append(attributes.getValue(i));
+                
+                assertEquals(attributes.getValue(i), attributes.getValue(attributes.getQName(i)));
+            }
+            
+            events.add(event.toString());
+            inBinary = "binary".equals(qName);
+        }
+        
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            flushText();
+            events.add("end:" + uri + ":" + localName + ":" + qName);
+            inBinary = false;
+        }
+        
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if(!(inBinary && ignoreBinaryContent))
+                text.append(ch, start, length);
+        }
+        
+        @Override
+        public void processingInstruction(String target, String data) {
+            flushText();
+            events.add("pi:" + target + ":" + data);
+        }
+    }
+    
+    private static List<String> parseWithSAX(InputStream is, boolean ignoreBinaryContent) throws Exception {
+        RecordingHandler handler = new RecordingHandler(ignoreBinaryContent);
+        
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(is, handler);
+        } finally {
+            is.close();
+        }
+        
+        return handler.events;
+    }
+    
+    private static List<String> parseWithTokenizer(MzMLTokenizer tokenizer, InputStream is) throws IOException, SAXException {
+        RecordingHandler handler = new RecordingHandler(false);
+        
+        try {
+            tokenizer.parse(is, handler);
+        } finally {
+            is.close();
+        }
+        
+        return handler.events;
+    }
+    
+    private static InputStream toStream(String xml) throws IOException {
+        return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+    }
+
+    /**
+     * Test that the tokenizer reports the same events as the SAX parser for the test files.
+     * 
+     * @throws Exception Issue parsing test files
+     */
+    @Test
+    public void testParseResources() throws Exception {
+        MzMLTokenizer tokenizer = new MzMLTokenizer();
+        
+        for(String resource : RESOURCES) {
+            assertNotNull("Test file missing", MzMLTokenizerTest.class.getResource(resource));
+            
+            String path = MzMLTokenizerTest.class.getResource(resource).getPath();
+            
+            tokenizer.setSkipBinaryContent(false);
+            assertEquals(resource, parseWithSAX(new FileInputStream(path), false), parseWithTokenizer(tokenizer, new FileInputStream(path)));
+            
+            tokenizer.setSkipBinaryContent(true);
+            assertEquals(resource, parseWithSAX(new FileInputStream(path), true), parseWithTokenizer(tokenizer, new FileInputStream(path)));
+        }
+    }
+
+    /**
+     * Write the metadata and data of the MzML to a String, for comparison. The
+     * IDs of generated ReferenceableParamGroups are numbered across all parses, 
+     * so the number is removed.
+     * 
+     * @param mzML MzML to write
+     * @return mzML document
+     * @throws IOException Issue writing
+     */
+    private static String writeToString(MzML mzML) throws IOException {
+        File file = File.createTempFile("backend", ".mzML");
+        
+        try {
+            new MzMLWriter(false).write(mzML, file.getAbsolutePath());
+            
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            
+            try {
+                byte[] content = new byte[(int) raf.length()];
+                raf.readFully(content);
+                
+                return new String(content, "UTF-8").replaceAll("refParam\\d+", "refParam");
+            } finally {
+                raf.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+    
+    private static void assertDataEquals(String message, MzMLDataContainer expected, MzMLDataContainer actual) throws IOException {
+        assertEquals(message, expected.getID(), actual.getID());
+        assertEquals(message, expected.getBinaryDataArrayList().size(), actual.getBinaryDataArrayList().size());
+        
+        for(int i = 0; i < expected.getBinaryDataArrayList().size(); i++) {
+            BinaryDataArray expectedArray = expected.getBinaryDataArrayList().get(i);
+            BinaryDataArray actualArray = actual.getBinaryDataArrayList().get(i);
+            
+            assertArrayEquals(message + " " + expected.getID(), expectedArray.getDataAsDouble(), actualArray.getDataAsDouble(), 0);
+        }
+    }
+    
+    /**
+     * Assert that the MzML parsed with the tokenizer is identical to the MzML
+     * parsed with the SAX parser, in both the metadata and the data arrays.
+     * 
+     * @param message Message to report on failure
+     * @param expected MzML parsed with the SAX parser
+     * @param actual MzML parsed with the tokenizer
+     * @throws IOException Issue reading the data or writing the MzML
+     */
+    private static void assertEquivalent(String message, MzML expected, MzML actual) throws IOException {
+        try {
+            assertEquals(message, expected.getRun().getSpectrumList().size(), actual.getRun().getSpectrumList().size());
+            
+            for(int i = 0; i < expected.getRun().getSpectrumList().size(); i++) {
+                Spectrum expectedSpectrum = expected.getRun().getSpectrumList().get(i);
+                
+                assertDataEquals(message, expectedSpectrum, actual.getRun().getSpectrumList().get(i));
+            }
+            
+            if(expected.getRun().getChromatogramList() != null) {
+                assertEquals(message, expected.getRun().getChromatogramList().size(), actual.getRun().getChromatogramList().size());
+                
+                for(int i = 0; i < expected.getRun().getChromatogramList().size(); i++) {
+                    Chromatogram expectedChromatogram = expected.getRun().getChromatogramList().get(i);
+                    
+                    assertDataEquals(message, expectedChromatogram, actual.getRun().getChromatogramList().get(i));
+                }
+            }
+            
+            assertEquals(message, writeToString(expected), writeToString(actual));
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+    
+    /**
+     * Test that each of the handlers produces the same MzML with the tokenizer as
+     * with the SAX parser, including the handlers which skip the binary content.
+     * 
+     * @throws Exception Issue parsing test files
+     */
+    @Test
+    public void testParserBackends() throws Exception {
+        for(String resource : RESOURCES) {
+            String path = MzMLTokenizerTest.class.getResource(resource).getPath();
+            
+            if(resource.endsWith(".imzML")) {
+                assertEquivalent(resource, 
+                        ImzMLHandler.parseimzML(path, true, null, BinaryDataStorage.AccessMethod.RANDOM_ACCESS_FILE, false, ParserBackend.SAX),
+                        ImzMLHandler.parseimzML(path, true, null, BinaryDataStorage.AccessMethod.RANDOM_ACCESS_FILE, false, ParserBackend.TOKENIZER));
+                assertEquivalent(resource + " compact", 
+                        ImzMLHandler.parseimzML(path, true, null, BinaryDataStorage.AccessMethod.RANDOM_ACCESS_FILE, true, ParserBackend.SAX),
+                        ImzMLHandler.parseimzML(path, true, null, BinaryDataStorage.AccessMethod.RANDOM_ACCESS_FILE, true, ParserBackend.TOKENIZER));
+            } else {
+                assertEquivalent(resource, 
+                        MzMLHandler.parsemzML(path, null, ParserBackend.SAX),
+                        MzMLHandler.parsemzML(path, null, ParserBackend.TOKENIZER));
+                assertEquivalent(resource + " header", 
+                        MzMLHeaderHandler.parsemzMLHeader(path, true, null, ParserBackend.SAX),
+                        MzMLHeaderHandler.parsemzMLHeader(path, true, null, ParserBackend.TOKENIZER));
+                assertEquivalent(resource + " indexed", 
+                        IndexedMzMLHandler.openIndexedmzML(path, null, ParserBackend.SAX),
+                        IndexedMzMLHandler.openIndexedmzML(path, null, ParserBackend.TOKENIZER));
+            }
+        }
+    }
+
+    /**
+     * Test that XML constructs beyond those typically found in mzML are handled 
+     * as by the SAX parser.
+     * 
+     * @throws Exception Issue parsing
+     */
+    @Test
+    public void testXMLConstructs() throws Exception {
+        String xml = "﻿<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+                + "<!DOCTYPE mzML [ <!ELEMENT mzML ANY> ]>\n"
+                + "<!-- comment - with -dashes- -->\n"
+                + "<mzML id='single &amp; \"double\"' name=\"a&#9;b\tc\r\nd &lt;&#x3E;\">\r\n"
+                + "  <?target some data ?>\n"
+                + "  <cvParam value=\"µm 中 😀\"/>text &apos;&quot; é<![CDATA[<raw> ]] ]]]>\n"
+                + "  <binaryDataArray><binary >QUJD</binary><binary/></binaryDataArray>\r"
+                + "</mzML>\n<!-- trailing -->\n";
+        
+        MzMLTokenizer tokenizer = new MzMLTokenizer();
+        
+        assertEquals(parseWithSAX(toStream(xml), false), parseWithTokenizer(tokenizer, toStream(xml)));
+    }
+    
+    /**
+     * Test that the tokenizer can be used with ISO-8859-1 encoded documents.
+     * 
+     * @throws Exception Issue parsing
+     */
+    @Test
+    public void testLatin1() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><mzML name=\"µm\">é</mzML>";
+        
+        assertEquals(parseWithSAX(new ByteArrayInputStream(xml.getBytes("ISO-8859-1")), false), 
+                parseWithTokenizer(new MzMLTokenizer(), new ByteArrayInputStream(xml.getBytes("ISO-8859-1"))));
+    }
+
+    /**
+     * Test that names are interned, so can be compared on identity.
+     * 
+     * @throws Exception Issue parsing
+     */
+    @Test
+    public void testInternedNames() throws Exception {
+        final List<String> names = new ArrayList<String>();
+        
+        new MzMLTokenizer().parse(toStream("<mzML><spectrum id=\"1\"/><newTag newAttribute=\"\"/></mzML>"), new DefaultHandler() {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                names.add(qName);
+                
+                for(int i = 0; i < attributes.getLength(); i++)
+                    names.add(attributes.getQName(i));
+            }
+        });
+        
+        assertEquals(5, names.size());
+        assertSame("mzML", names.get(0));
+        assertSame("spectrum", names.get(1));
+        assertSame("id", names.get(2));
+        assertSame("newTag", names.get(3));
+        assertSame("newAttribute", names.get(4));
+    }
+
+    /**
+     * Test that documents which are not well formed are rejected.
+     * 
+     * @throws Exception Unexpected issue parsing
+     */
+    @Test
+    public void testMalformed() throws Exception {
+        String[] malformed = {"<mzML><run></mzML>", "<mzML>", "<mzML a=\"1></mzML>", "<mzML>&unknown;</mzML>", 
+            "<mzML/><mzML/>", "text<mzML/>", ""};
+        
+        for(String xml : malformed) {
+            try {
+                new MzMLTokenizer().parse(toStream(xml), new DefaultHandler());
+                
+                fail("No exception for " + xml);
+            } catch (SAXParseException ex) {
+                // Expected
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.alanmrace.jimzmlparser.util;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class Base64DecoderTest {
+    
+    public Base64DecoderTest() {
+    }
+    
+    /**
+     * Decode the encoded data by supplying it to the decoder in randomly sized chunks.
+     */
+    private static byte[] decodeInChunks(byte[] encoded, Random random, boolean asCharacters) {
+        Base64Decoder decoder = new Base64Decoder();
+        byte[] decoded = new byte[Base64Decoder.getMaxDecodedLength(encoded.length)];
+        int decodedLength = 0;
+        int position = 0;
+        
+        while(position < encoded.length) {
+            int chunkLength = Math.min(encoded.length - position, random.nextInt(20) + 1);
+            
+            if(asCharacters) {
+                char[] chunk = new char[chunkLength];
+                
+                for(int i = 0; i < chunkLength; i++)
+                    chunk[i] = (char) encoded[position + i];
+                
+                decodedLength += decoder.decode(chunk, 0, chunkLength, decoded, decodedLength);
+            } else {
+                decodedLength += decoder.decode(encoded, position, chunkLength, decoded, decodedLength);
+            }
+            
+            position += chunkLength;
+        }
+        
+        decodedLength += decoder.finish(decoded, decodedLength);
+        
+        return Arrays.copyOf(decoded, decodedLength);
+    }
+
+    /**
+     * Test of decode method, of class Base64Decoder, comparing against Commons
+     * Codec for data of each possible padding length, with and without line breaks
+     * and padding.
+     */
+    @Test
+    public void testDecode() throws Exception {
+        Random random = new Random(1234);
+        
+        for(int length = 0; length < 300; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            
+            byte[][] encodings = {
+                Base64.encodeBase64(data), 
+                Base64.encodeBase64Chunked(data), 
+                Base64.encodeBase64URLSafe(data)
+            };
+            
+            for(byte[] encoded : encodings) {
+                byte[] expected = Base64.decodeBase64(encoded);
+                
+                assertArrayEquals(data, expected);
+                assertArrayEquals(expected, decodeInChunks(encoded, random, false));
+                assertArrayEquals(expected, decodeInChunks(encoded, random, true));
+            }
+        }
+    }
+    
+    /**
+     * Test of reuse of the decoder after finish, of class Base64Decoder.
+     */
+    @Test
+    public void testReuse() throws Exception {
+        Base64Decoder decoder = new Base64Decoder();
+        byte[] decoded = new byte[16];
+        
+        byte[] first = "YWI=".getBytes("US-ASCII");
+        byte[] second = "Y2Rl".getBytes("US-ASCII");
+        
+        int length = decoder.decode(first, 0, first.length, decoded, 0);
+        length += decoder.finish(decoded, length);
+        
+        assertEquals("ab", new String(decoded, 0, length, "US-ASCII"));
+        
+        length = decoder.decode(second, 0, second.length, decoded, 0);
+        length += decoder.finish(decoded, length);
+        
+        assertEquals("cde", new String(decoded, 0, length, "US-ASCII"));
+    }
+}
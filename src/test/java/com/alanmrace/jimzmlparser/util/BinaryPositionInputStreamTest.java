@@ -0,0 +1,110 @@
+package com.alanmrace.jimzmlparser.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.SAXParserFactory;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alan Race
+ */
+public class BinaryPositionInputStreamTest {
+    
+    /**
+     * Resource mzML file for testing (from http://www.psidev.info/mzml_1_0_0%20).
+     */
+    private static final String TINY_PWIZ_RESOURCE = "/tiny.pwiz.1.1.mzML";
+    
+    private static void readFully(InputStream is) throws IOException {
+        while(is.read() != -1) {
+        }
+    }
+
+    /**
+     * Test that the recorded positions match the content reported by the SAX parser.
+     */
+    @Test
+    public void testPositionsDuringParsing() throws Exception {
+        String resourcePath = BinaryPositionInputStreamTest.class.getResource(TINY_PWIZ_RESOURCE).getPath();
+        RandomAccessFile raf = new RandomAccessFile(resourcePath, "r");
+        
+        try {
+            byte[] file = new byte[(int) raf.length()];
+            raf.readFully(file);
+            
+            final BinaryPositionInputStream is = new BinaryPositionInputStream(new ByteArrayInputStream(file));
+            final List<String> expected = new ArrayList<String>();
+            final List<long[]> positions = new ArrayList<long[]>();
+            
+            SAXParserFactory.newInstance().newSAXParser().parse(is, new DefaultHandler() {
+                private StringBuilder content;
+                
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+                    if("binary".equals(qName))
+                        content = new StringBuilder();
+                }
+                
+                @Override
+                public void characters(char[] ch, int start, int length) throws SAXException {
+                    if(content != null)
+                        content.append(ch, start, length);
+                }
+                
+                @Override
+                public void endElement(String uri, String localName, String qName) throws SAXException {
+                    if("binary".equals(qName)) {
+                        expected.add(content.toString());
+                        positions.add(new long[] {is.pollBinaryStart(), is.pollBinaryEnd()});
+                        content = null;
+                    }
+                }
+            });
+            
+            assertFalse(expected.isEmpty());
+            
+            for(int i = 0; i < expected.size(); i++) {
+                long[] position = positions.get(i);
+                
+                assertEquals(expected.get(i), new String(file, (int) position[0], (int) (position[1] - position[0]), "UTF-8"));
+            }
+            
+            assertEquals(-1, is.pollBinaryStart());
+            assertEquals(-1, is.pollBinaryEnd());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Test of empty tags, tags with whitespace and similarly named tags.
+     */
+    @Test
+    public void testTagVariants() throws Exception {
+        String xml = "<binaryDataArray><binary/><binary >AB</binary><binaryDataArrayList/><binary>CD</binary></binaryDataArray>";
+        BinaryPositionInputStream is = new BinaryPositionInputStream(new ByteArrayInputStream(xml.getBytes("UTF-8")), 100);
+        
+        readFully(is);
+        
+        long empty = 100 + xml.indexOf("<binary/>") + "<binary/>".length();
+        assertEquals(empty, is.pollBinaryStart());
+        assertEquals(empty, is.pollBinaryEnd());
+        
+        assertEquals(100 + xml.indexOf("AB"), is.pollBinaryStart());
+        assertEquals(100 + xml.indexOf("AB") + 2, is.pollBinaryEnd());
+        
+        assertEquals(100 + xml.indexOf("CD"), is.pollBinaryStart());
+        assertEquals(100 + xml.indexOf("CD") + 2, is.pollBinaryEnd());
+        
+        assertEquals(-1, is.pollBinaryStart());
+    }
+}